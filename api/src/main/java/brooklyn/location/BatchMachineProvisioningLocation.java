@@ -0,0 +1,45 @@
+package brooklyn.location;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A {@link MachineProvisioningLocation} which can provision several machines together more efficiently
+ * than one at a time, e.g. with a single request to a cloud then checking each machine is ready in parallel.
+ */
+public interface BatchMachineProvisioningLocation<T extends MachineLocation> extends MachineProvisioningLocation<T> {
+
+    /**
+     * Starts obtaining the given number of machines, all with the given flags (as for {@link #obtain(Map)}).
+     *
+     * @return a future for each machine, which completes when that machine is ready (or has failed),
+     *         so some machines may be obtained even if others fail
+     */
+    List<ListenableFuture<T>> obtainBatch(int count, Map<?,?> flags);
+
+    /**
+     * Starts obtaining a machine for each of the given sets of flags, which should differ only in how the machines
+     * are named and set up (e.g. the caller context); the machines are created together, then each is set up
+     * with its own flags.
+     *
+     * @return a future for the machine for each set of flags, in the same order
+     */
+    List<ListenableFuture<T>> obtainBatch(List<Map<?,?>> flagsPerMachine);
+
+    /**
+     * Advises that the given callers (e.g. the new members of a cluster, as they start) are about to call
+     * {@link #obtain(Map)} concurrently, passing themselves as the {@code callerContext} flag, so that their calls
+     * with equivalent flags can be provisioned together with {@link #obtainBatch(List)}.
+     * Calls by other callers, or made after the batch is closed, are provisioned individually as normal.
+     */
+    ObtainBatch expectObtains(Collection<?> callerContexts);
+
+    /** An expected batch of {@link MachineProvisioningLocation#obtain(Map)} calls. */
+    public interface ObtainBatch {
+        /** stops waiting for further calls in this batch, provisioning those already waiting */
+        void close();
+    }
+}
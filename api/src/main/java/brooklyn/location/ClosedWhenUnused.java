@@ -0,0 +1,18 @@
+package brooklyn.location;
+
+import java.io.Closeable;
+
+/**
+ * A location (or a resource held by one) which holds resources of its own, such as pre-provisioned machines
+ * or threads, which the management context releases by calling {@link #close()} once no managed application
+ * uses the location, and when the management context is terminated.
+ * <p>
+ * Other {@link Closeable} locations are not closed by the management context, as closing them may leave them
+ * unusable (e.g. closing the ssh connections of the machines in a fixed list). A location implementing this
+ * must instead remain usable after it is closed, acquiring its resources again if it is used again.
+ */
+public interface ClosedWhenUnused extends Closeable {
+
+    @Override
+    void close();
+}
@@ -1,8 +1,11 @@
 package brooklyn.catalog.internal;
 
+import java.io.File;
 import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -16,6 +19,7 @@ import brooklyn.catalog.CatalogItem;
 import brooklyn.entity.Application;
 import brooklyn.entity.Entity;
 import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.ConfigKeys;
 import brooklyn.management.internal.ManagementContextInternal;
 import brooklyn.policy.Policy;
 import brooklyn.util.exceptions.Exceptions;
@@ -26,6 +30,7 @@ import brooklyn.util.javalang.UrlClassLoader;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 public class CatalogClasspathDo {
 
@@ -88,6 +93,15 @@ public class CatalogClasspathDo {
         if (scanMode==null || scanMode==CatalogScanningModes.NONE)
             return;
         
+        if (scanMode==CatalogScanningModes.ANNOTATIONS && catalog.isLocal()) {
+            CatalogScanIndex index = getScanIndex();
+            if (index!=null) {
+                loadFromIndex(index);
+                isLoaded = true;
+                return;
+            }
+        }
+        
         ReflectionScanner scanner = null;
         if (!catalog.isLocal()) {
             log.warn("Scanning not supported for remote catalogs; ignoring scan request in "+catalog);
@@ -156,6 +170,59 @@ public class CatalogClasspathDo {
         isLoaded = true;
     }
 
+    /** the index of annotated types to use for scanning, or null if the classpath should be scanned in full each time */
+    private CatalogScanIndex getScanIndex() {
+        if (catalog.mgmt==null) return null;
+        String dir = catalog.mgmt.getConfig().getConfig(ManagementContextInternal.BROOKLYN_CATALOG_SCAN_INDEX_DIR);
+        if (dir==null) {
+            dir = new File(catalog.mgmt.getConfig().getConfig(ConfigKeys.BROOKLYN_DATA_DIR), "catalog-index").getPath();
+        } else if (dir.trim().isEmpty()) {
+            return null;
+        }
+        return new CatalogScanIndex(new File(dir));
+    }
+
+    /** adds the (annotated) items in each entry of the classpath, as given by the index, without loading their classes */
+    private void loadFromIndex(CatalogScanIndex index) {
+        ClassLoader loader = catalog.getRootClassLoader();
+        List<URL> entries;
+        int count;
+        if (classpath.getEntries()==null || classpath.getEntries().isEmpty()) {
+            // default classpath, as for the full scan
+            ClassLoader baseCL = null;
+            Iterable<URL> baseCP = null;
+            if (catalog.mgmt instanceof ManagementContextInternal) {
+                baseCL = ((ManagementContextInternal)catalog.mgmt).getBaseClassLoader();
+                baseCP = ((ManagementContextInternal)catalog.mgmt).getBaseClassPathForScanning();
+            }
+            entries = Lists.newArrayList(baseCP!=null ? baseCP : 
+                    ClasspathHelper.forPackage("", baseCL!=null ? new ClassLoader[] { baseCL } : new ClassLoader[0]));
+            count = addFromIndex(index, entries, loader);
+            if (count==0 && catalog.mgmt instanceof ManagementContextInternal) {
+                ((ManagementContextInternal)catalog.mgmt).setBaseClassPathForScanning(ClasspathHelper.forJavaClassPath());
+                log.info("Catalog scan of default classloader returned nothing; reverting to java.class.path");
+                entries = Lists.newArrayList(((ManagementContextInternal)catalog.mgmt).getBaseClassPathForScanning());
+                count = addFromIndex(index, entries, loader);
+            }
+        } else {
+            entries = Arrays.asList(urls);
+            count = addFromIndex(index, entries, loader);
+        }
+        log.info("Indexed classpath scan for catalog "+catalog+" complete; "+count+" entities detected (by "+scanMode+"; "+
+                index.getScanCount()+" classpath entries scanned, others indexed)");
+    }
+
+    private int addFromIndex(CatalogScanIndex index, List<URL> entries, ClassLoader loader) {
+        int count = 0;
+        for (CatalogItemDtoAbstract<?> item: index.getItems(entries, loader)) {
+            if (log.isTraceEnabled())
+                log.trace("adding to catalog: "+item+" (from catalog "+catalog+", indexed)");
+            catalog.addEntry(item);
+            count++;
+        }
+        return count;
+    }
+
     /** removes inner classes (non-static nesteds) and others; 
      * bear in mind named ones will be hard to instantiate without the outer class instance) */
     private <T> Iterable<Class<? extends T>> excludeInvalidClasses(Iterable<Class<? extends T>> input) {
@@ -187,6 +254,25 @@ public class CatalogClasspathDo {
     /** augments the given item with annotations and class data for the given class, then adds to catalog 
      * @return */
     public CatalogItem<?> addCatalogEntry(CatalogItemDtoAbstract<?> item, Class<?> c) {
+        populate(item, c);
+        if (log.isTraceEnabled())
+            log.trace("adding to catalog: "+c+" (from catalog "+catalog+")");
+        catalog.addEntry(item);
+        return item;
+    }
+
+    /** creates an item for the given class, of the kind appropriate to its type, with its annotations and class data */
+    static CatalogItemDtoAbstract<?> newCatalogItem(Class<?> c) {
+        CatalogItemDtoAbstract<?> item;
+        if (Application.class.isAssignableFrom(c) || ApplicationBuilder.class.isAssignableFrom(c)) item = new CatalogTemplateItemDto();
+        else if (Entity.class.isAssignableFrom(c)) item = new CatalogEntityItemDto();
+        else if (Policy.class.isAssignableFrom(c)) item = new CatalogPolicyItemDto();
+        else throw new IllegalStateException("Cannot add "+c+" to catalog: unsupported type "+c.getName());
+        populate(item, c);
+        return item;
+    }
+
+    private static void populate(CatalogItemDtoAbstract<?> item, Class<?> c) {
         Catalog annotations = c.getAnnotation(Catalog.class);
         item.type = c.getName();
         item.name = firstNonEmpty(c.getSimpleName(), c.getName());
@@ -195,10 +281,6 @@ public class CatalogClasspathDo {
             item.description = firstNonEmpty(annotations.description());
             item.iconUrl = firstNonEmpty(annotations.iconUrl());
         }
-        if (log.isTraceEnabled())
-            log.trace("adding to catalog: "+c+" (from catalog "+catalog+")");
-        catalog.addEntry(item);
-        return item;
     }
 
     private static String firstNonEmpty(String ...candidates) {
@@ -0,0 +1,325 @@
+package brooklyn.catalog.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.reflections.scanners.SubTypesScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.catalog.Catalog;
+import brooklyn.catalog.CatalogItem.CatalogItemType;
+import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.javalang.ReflectionScanner;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * An index of the types annotated with {@link Catalog} in each entry (jar or directory) of a classpath,
+ * so that the classpath need not be scanned, nor those types loaded, each time a catalog is loaded.
+ * <p>
+ * A jar's index is taken from the jar itself, if built with one (at {@link #JAR_INDEX_RESOURCE}, see {@link #main(String[])});
+ * otherwise from a file in the index directory, if the jar's size and modification time are unchanged since that was written;
+ * otherwise the jar is scanned (and the file written). Directories are always scanned, as their contents may change unnoticed.
+ * <p>
+ * As with a full scan, a type is found if it is annotated or extends an annotated type, even one in another entry:
+ * as each entry is scanned separately, the index of each entry also records the supertypes of its types,
+ * and the types extending annotated types in other entries are found from those once all entries are indexed.
+ */
+public class CatalogScanIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogScanIndex.class);
+
+    /**
+     * where a jar may include its own index, one line per type, as written by {@link #writeItems(Iterable, Writer)},
+     * then one line per supertype, as written by {@link #writeSubTypes(Multimap, Writer)}
+     */
+    public static final String JAR_INDEX_RESOURCE = "META-INF/brooklyn/catalog.index";
+
+    private static final String HEADER_PREFIX = "#";
+
+    /** starts the lines of an index which give the subtypes of a type */
+    private static final String SUBTYPES_PREFIX = ">";
+
+    /** changed when what is recorded changes, so older index files are not used */
+    private static final String FORMAT_VERSION = "2";
+
+    /** the items and subtypes recorded for one classpath entry */
+    private static class EntryIndex {
+        final List<CatalogItemDtoAbstract<?>> items = Lists.newArrayList();
+        /** the subtypes of each supertype, for the types in the entry */
+        final Multimap<String,String> subTypes = HashMultimap.create();
+    }
+
+    private final File indexDir;
+    private final AtomicInteger scans = new AtomicInteger();
+
+    /** @param indexDir where the index of each scanned jar is kept; or null to keep nothing (so to honour only indexes in jars) */
+    public CatalogScanIndex(File indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    /** the number of classpath entries which have been scanned (rather than read from an index) */
+    public int getScanCount() {
+        return scans.get();
+    }
+
+    /**
+     * the catalog items for the types in the given classpath entries, from an index or by scanning each of them
+     * (loading the types found with the given class loader); includes the types which extend an annotated type
+     * in another entry, whose classes are loaded
+     */
+    public List<CatalogItemDtoAbstract<?>> getItems(Iterable<URL> urls, ClassLoader loader) {
+        Map<String,CatalogItemDtoAbstract<?>> items = Maps.newLinkedHashMap();
+        Multimap<String,String> subTypes = HashMultimap.create();
+        for (URL url : urls) {
+            EntryIndex entry = getEntryIndex(url, loader);
+            for (CatalogItemDtoAbstract<?> item : entry.items) {
+                if (!items.containsKey(item.type)) items.put(item.type, item);
+            }
+            subTypes.putAll(entry.subTypes);
+        }
+
+        Set<String> visited = Sets.newHashSet(items.keySet());
+        LinkedList<String> toVisit = Lists.newLinkedList(items.keySet());
+        while (!toVisit.isEmpty()) {
+            for (String subType : subTypes.get(toVisit.removeFirst())) {
+                if (!visited.add(subType)) continue;
+                toVisit.add(subType);
+                try {
+                    items.put(subType, CatalogClasspathDo.newCatalogItem(loader.loadClass(subType)));
+                } catch (Throwable e) {
+                    Exceptions.propagateIfFatal(e);
+                    log.warn("Failed to create catalog entry for "+subType+" (extending an annotated type); continuing scan...", e);
+                }
+            }
+        }
+        return Lists.newArrayList(items.values());
+    }
+
+    private EntryIndex getEntryIndex(URL url, ClassLoader loader) {
+        File file = toFile(url);
+        if (file != null && file.isFile()) {
+            try {
+                EntryIndex result = readJarIndex(file);
+                if (result != null) return result;
+            } catch (Exception e) {
+                log.warn("Unable to read catalog index in "+file+"; scanning it instead: "+e);
+            }
+            File indexFile = getIndexFile(file);
+            if (indexFile != null && indexFile.isFile()) {
+                try {
+                    EntryIndex result = readIndexFile(indexFile, header(file));
+                    if (result != null) return result;
+                } catch (Exception e) {
+                    log.warn("Unable to read catalog index "+indexFile+" for "+file+"; scanning it instead: "+e);
+                }
+            }
+            EntryIndex result = scan(url, loader);
+            if (indexFile != null) writeIndexFile(indexFile, header(file), result);
+            return result;
+        }
+        return scan(url, loader);
+    }
+
+    private EntryIndex scan(URL url, ClassLoader loader) {
+        scans.incrementAndGet();
+        if (log.isDebugEnabled()) log.debug("Scanning "+url+" for catalog items");
+        ReflectionScanner scanner = new ReflectionScanner(null, loader, ImmutableList.of(url), null);
+        EntryIndex result = new EntryIndex();
+        for (Class<?> c : scanner.getTypesAnnotatedWith(Catalog.class)) {
+            try {
+                result.items.add(CatalogClasspathDo.newCatalogItem(c));
+            } catch (Exception e) {
+                log.warn("Failed to create catalog entry for "+c+"; continuing scan...", e);
+            }
+        }
+        for (Map.Entry<String,String> entry : scanner.getStore().get(SubTypesScanner.class).entries()) {
+            // annotated types are never in the java packages, so their subtypes are not needed
+            if (!entry.getKey().startsWith("java.") && !entry.getKey().startsWith("javax."))
+                result.subTypes.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static EntryIndex readJarIndex(File jar) throws IOException {
+        JarFile jarFile = new JarFile(jar);
+        try {
+            ZipEntry entry = jarFile.getEntry(JAR_INDEX_RESOURCE);
+            if (entry == null) return null;
+            InputStream in = jarFile.getInputStream(entry);
+            try {
+                return readIndex(new BufferedReader(new InputStreamReader(in, Charsets.UTF_8)), null);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    /** the index in the file, or null if it was written for a different version of the jar */
+    private static EntryIndex readIndexFile(File indexFile, String expectedHeader) throws IOException {
+        BufferedReader reader = Files.newReader(indexFile, Charsets.UTF_8);
+        try {
+            return readIndex(reader, expectedHeader);
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+    }
+
+    private void writeIndexFile(File indexFile, String header, EntryIndex index) {
+        // each writer writes its own temp file (in the same directory, so it can be renamed) then renames it over the index,
+        // so a partial index is never read, and concurrent writers do not write to the same file
+        File tmp = null;
+        try {
+            Files.createParentDirs(indexFile);
+            tmp = File.createTempFile(indexFile.getName()+".", ".tmp", indexFile.getParentFile());
+            Writer writer = Files.newWriter(tmp, Charsets.UTF_8);
+            try {
+                writer.write(HEADER_PREFIX+header+"\n");
+                writeItems(index.items, writer);
+                writeSubTypes(index.subTypes, writer);
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tmp.renameTo(indexFile)) throw new IOException("Unable to rename "+tmp+" to "+indexFile);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to write catalog index "+indexFile+" (continuing): "+e);
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    private static EntryIndex readIndex(BufferedReader reader, String expectedHeader) throws IOException {
+        EntryIndex result = new EntryIndex();
+        boolean first = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (first && expectedHeader != null && !line.equals(HEADER_PREFIX+expectedHeader)) return null;
+            first = false;
+            if (line.isEmpty() || line.startsWith(HEADER_PREFIX)) continue;
+            if (line.startsWith(SUBTYPES_PREFIX)) {
+                List<String> fields = Lists.newArrayList(Splitter.on('\t').split(line.substring(SUBTYPES_PREFIX.length())));
+                result.subTypes.putAll(fields.get(0), fields.subList(1, fields.size()));
+            } else {
+                result.items.add(parseItem(line));
+            }
+        }
+        if (first && expectedHeader != null) return null;
+        return result;
+    }
+
+    /** writes the items, one per line, as the type of item, then the java type, name, description and icon URL, separated by tabs */
+    public static void writeItems(Iterable<? extends CatalogItemDtoAbstract<?>> items, Writer writer) throws IOException {
+        for (CatalogItemDtoAbstract<?> item : items) {
+            writer.write(Joiner.on('\t').join(item.getCatalogItemType(), item.type,
+                    field(item.name), field(item.description), field(item.iconUrl))+"\n");
+        }
+    }
+
+    /** writes each supertype with its subtypes, one per line, prefixed by {@link #SUBTYPES_PREFIX} and separated by tabs */
+    public static void writeSubTypes(Multimap<String,String> subTypes, Writer writer) throws IOException {
+        for (Map.Entry<String,Collection<String>> entry : subTypes.asMap().entrySet()) {
+            writer.write(SUBTYPES_PREFIX+entry.getKey()+"\t"+Joiner.on('\t').join(entry.getValue())+"\n");
+        }
+    }
+
+    private static CatalogItemDtoAbstract<?> parseItem(String line) {
+        List<String> fields = Lists.newArrayList(Splitter.on('\t').split(line));
+        if (fields.size() < 2) throw new IllegalArgumentException("Invalid catalog index entry: "+line);
+        CatalogItemType itemType = CatalogItemType.valueOf(fields.get(0));
+        String type = fields.get(1);
+        String name = nullIfEmpty(Iterables.get(fields, 2, null));
+        String description = nullIfEmpty(Iterables.get(fields, 3, null));
+        CatalogItemDtoAbstract<?> result;
+        switch (itemType) {
+        case TEMPLATE: result = CatalogItemDtoAbstract.newTemplate(null, type, name, description); break;
+        case ENTITY: result = CatalogItemDtoAbstract.newEntity(null, type, name, description); break;
+        case POLICY: result = CatalogItemDtoAbstract.newPolicy(null, type, name, description); break;
+        default: throw new IllegalArgumentException("Unsupported catalog item type in index entry: "+line);
+        }
+        result.iconUrl = nullIfEmpty(Iterables.get(fields, 4, null));
+        return result;
+    }
+
+    private static String field(String value) {
+        return (value == null) ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String nullIfEmpty(String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+
+    private File getIndexFile(File jar) {
+        if (indexDir == null) return null;
+        return new File(indexDir, Hashing.sha1().hashString(jar.getAbsolutePath(), Charsets.UTF_8).toString()+".index");
+    }
+
+    private static String header(File jar) {
+        return FORMAT_VERSION+"\t"+jar.getAbsolutePath()+"\t"+jar.length()+"\t"+jar.lastModified();
+    }
+
+    private static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) return null;
+        try {
+            return new File(url.toURI());
+        } catch (Exception e) {
+            return new File(url.getPath());
+        }
+    }
+
+    /**
+     * Writes the index of the given directory of compiled classes into it, at {@link #JAR_INDEX_RESOURCE},
+     * so that it is included in the jar built from that directory; for use at build time.
+     * The classes are loaded from that directory and the classpath of this process.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: "+CatalogScanIndex.class.getName()+" <classes-directory>");
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        URL url = dir.toURI().toURL();
+        ClassLoader loader = new URLClassLoader(new URL[] { url }, CatalogScanIndex.class.getClassLoader());
+        EntryIndex index = new CatalogScanIndex(null).scan(url, loader);
+        File indexFile = new File(dir, JAR_INDEX_RESOURCE);
+        Files.createParentDirs(indexFile);
+        Writer writer = Files.newWriter(indexFile, Charsets.UTF_8);
+        try {
+            writeItems(index.items, writer);
+            writeSubTypes(index.subTypes, writer);
+        } finally {
+            writer.close();
+        }
+        System.out.println("Wrote "+index.items.size()+" catalog items to "+indexFile);
+    }
+}
@@ -30,6 +30,14 @@ public class BrooklynServiceAttributes {
     /** poor-man's security, to specify a default password for access */
     public static final String BROOKLYN_DEFAULT_PASSWORD = "brooklyn.default.password";
 
+    /** used to hold the startup status of the server, e.g. "starting" while applications are still being created
+     * and started by the launcher (see {@link #BROOKLYN_STARTUP_STATUS_RUNNING} and others); absent if not started by a launcher */
+    public static final String BROOKLYN_STARTUP_STATUS = "brooklyn.startup.status";
+
+    public static final String BROOKLYN_STARTUP_STATUS_STARTING = "starting";
+    public static final String BROOKLYN_STARTUP_STATUS_RUNNING = "running";
+    public static final String BROOKLYN_STARTUP_STATUS_FAILED = "failed";
+
     // FIXME use BrooklynSystemProperties classes above, following pattern below
     // (and move BrooklynSystemProperties constants here)
     
@@ -372,6 +372,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
     public void setDisplayName(String newDisplayName) {
         _displayName = newDisplayName;
         displayNameAutoGenerated = false;
+        getManagementSupport().getEntityChangeListener().onDisplayNameChanged();
     }
     
     /**
@@ -16,6 +16,10 @@ import com.google.common.base.Predicate;
 @ImplementedBy(DynamicGroupImpl.class)
 public interface DynamicGroup extends AbstractGroup {
     
+    /**
+     * If this is an {@link IndexableEntityPredicate} (such as those from {@link EntityPredicates}),
+     * membership is updated incrementally as entities change, without needing {@link #addSubscription(Entity, Sensor)}.
+     */
     @SetFromFlag("entityFilter")
     public static final ConfigKey<Predicate<? super Entity>> ENTITY_FILTER = new BasicConfigKey(
             Predicate.class, "dynamicgroup.entityfilter", "Filter for which entities will automatically be in group", null);
@@ -29,7 +33,10 @@ public interface DynamicGroup extends AbstractGroup {
      */
     public void stop();
 
-    /** rescans _all_ entities to determine whether they match the filter */
+    /**
+     * rescans _all_ entities to determine whether they match the filter 
+     * (or just the candidates, if the filter is an {@link IndexableEntityPredicate})
+     */
     public void rescanEntities();
     
     /** sets {@link #ENTITY_FILTER}, overriding (and rescanning all) if already set */
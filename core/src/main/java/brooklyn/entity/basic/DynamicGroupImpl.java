@@ -3,8 +3,11 @@ package brooklyn.entity.basic;
 import groovy.lang.Closure;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +16,8 @@ import brooklyn.entity.Entity;
 import brooklyn.event.Sensor;
 import brooklyn.event.SensorEvent;
 import brooklyn.event.SensorEventListener;
+import brooklyn.management.EntityManager;
+import brooklyn.management.SubscriptionHandle;
 import brooklyn.management.internal.CollectionChangeListener;
 import brooklyn.management.internal.ManagementContextInternal;
 import brooklyn.util.GroovyJavaMethods;
@@ -20,6 +25,8 @@ import brooklyn.util.MutableMap;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup {
@@ -28,6 +35,9 @@ public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup
     private final Object memberChangeMutex = new Object();
     
     private volatile MyEntitySetChangeListener setChangeListener = null;
+    
+    /** Subscriptions (on all entities) to the sensors that an {@link IndexableEntityPredicate} filter depends on */
+    private final Map<Sensor<?>, SubscriptionHandle> filterSensorSubscriptions = Maps.newLinkedHashMap();
 
     public DynamicGroupImpl() {
         super();
@@ -72,6 +82,7 @@ public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup
     public void setEntityFilter(Predicate<? super Entity> filter) {
         // TODO Sould this be "evenIfOwned"?
         setConfigEvenIfOwned(ENTITY_FILTER, filter);
+        if (setChangeListener != null) subscribeToFilterSensors();
         rescanEntities();
     }
     
@@ -113,6 +124,59 @@ public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup
         return (entityFilter != null && entityFilter.apply(e));
     }
     
+    /**
+     * Subscribes (for all entities) to any sensors that the {@link IndexableEntityPredicate} filter 
+     * depends on, so that membership is updated as each entity changes; and unsubscribes from any
+     * sensors that a previous filter depended on but this one does not.
+     */
+    @SuppressWarnings("unchecked")
+    protected void subscribeToFilterSensors() {
+        Predicate<? super Entity> entityFilter = getConfig(ENTITY_FILTER);
+        Set<Sensor<?>> sensors = (entityFilter instanceof IndexableEntityPredicate)
+                ? ImmutableSet.copyOf(((IndexableEntityPredicate)entityFilter).getSensorsAffectingResult())
+                : ImmutableSet.<Sensor<?>>of();
+        
+        SensorEventListener<Object> listener = new SensorEventListener<Object>() {
+            @Override public void onEvent(SensorEvent<Object> event) {
+                if (isRunning()) onEntityChanged(event.getSource());
+            }
+        };
+        synchronized (filterSensorSubscriptions) {
+            for (Iterator<Map.Entry<Sensor<?>, SubscriptionHandle>> it = filterSensorSubscriptions.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Sensor<?>, SubscriptionHandle> entry = it.next();
+                if (sensors.contains(entry.getKey())) continue;
+                if (log.isDebugEnabled()) log.debug("{} unsubscribing from {} on all entities, no longer used by filter {}", new Object[] {this, entry.getKey(), entityFilter});
+                unsubscribe(null, entry.getValue());
+                it.remove();
+            }
+            for (Sensor<?> sensor : sensors) {
+                if (filterSensorSubscriptions.containsKey(sensor)) continue;
+                if (log.isDebugEnabled()) log.debug("{} subscribing to {} on all entities, for filter {}", new Object[] {this, sensor, entityFilter});
+                filterSensorSubscriptions.put(sensor, subscribe(null, (Sensor<Object>)sensor, listener));
+            }
+        }
+    }
+    
+    /**
+     * The entities that could match the filter: if it is an {@link IndexableEntityPredicate} that 
+     * knows its candidates, then just those that are managed; otherwise all managed entities.
+     */
+    protected Collection<Entity> getCandidateEntities() {
+        Predicate<? super Entity> entityFilter = getConfig(ENTITY_FILTER);
+        EntityManager entityManager = getManagementContext().getEntityManager();
+        Collection<Entity> candidates = (entityFilter instanceof IndexableEntityPredicate) 
+                ? ((IndexableEntityPredicate)entityFilter).getCandidates(getManagementContext())
+                : null;
+        if (candidates == null) {
+            return entityManager.getEntities();
+        }
+        List<Entity> result = Lists.newArrayListWithCapacity(candidates.size());
+        for (Entity candidate : candidates) {
+            if (entityManager.isManaged(candidate)) result.add(candidate);
+        }
+        return result;
+    }
+    
     protected void onEntityAdded(Entity item) {
         synchronized (memberChangeMutex) {
             if (acceptsEntity(item)) {
@@ -156,6 +220,7 @@ public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup
         }
         setChangeListener = new MyEntitySetChangeListener();
         ((ManagementContextInternal)getManagementContext()).addEntitySetListener(setChangeListener);
+        subscribeToFilterSensors();
         rescanEntities();
     }
 
@@ -187,7 +252,7 @@ public class DynamicGroupImpl extends AbstractGroupImpl implements DynamicGroup
             Collection<Entity> currentMembers = super.getMembers();
             Collection<Entity> toRemove = new LinkedHashSet<Entity>(currentMembers);
             
-            for (Entity it : getManagementContext().getEntityManager().getEntities()) {
+            for (Entity it : getCandidateEntities()) {
                 if (acceptsEntity(it)) {
                     toRemove.remove(it);
                     if (!currentMembers.contains(it)) {
@@ -1,25 +1,156 @@
 package brooklyn.entity.basic;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import javax.annotation.Nullable;
 
+import brooklyn.config.ConfigKey;
 import brooklyn.entity.Entity;
 import brooklyn.event.AttributeSensor;
+import brooklyn.event.Sensor;
 import brooklyn.location.Location;
+import brooklyn.management.EntityManager;
+import brooklyn.management.ManagementContext;
+import brooklyn.management.internal.LocalEntityManager;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
+/**
+ * Predicates for filtering entities, e.g. for {@link DynamicGroup#ENTITY_FILTER}.
+ * <p>
+ * Where possible these are {@link IndexableEntityPredicate}s, so that a {@link DynamicGroup} using them
+ * can track its membership incrementally rather than by scanning all entities.
+ */
 public class EntityPredicates {
 
     public static <T> Predicate<Entity> attributeEqualTo(final AttributeSensor<T> attribute, final T val) {
-        return new Predicate<Entity>() {
+        return new AbstractIndexablePredicate() {
+            @Override
+            public boolean apply(@Nullable Entity input) {
+                return (input != null) && Objects.equal(input.getAttribute(attribute), val);
+            }
+            @Override
+            public Collection<Sensor<?>> getSensorsAffectingResult() {
+                return ImmutableList.<Sensor<?>>of(attribute);
+            }
+            @Override
+            public String toString() {
+                return "attributeEqualTo("+attribute.getName()+", "+val+")";
+            }
+        };
+    }
+
+    /**
+     * Create a predicate that matches any entity whose config has the given value. Note that changes
+     * to config are not notified, so a {@link DynamicGroup} only evaluates this when entities are managed
+     * (or on explicit rescan).
+     */
+    public static <T> Predicate<Entity> configEqualTo(final ConfigKey<T> configKey, final T val) {
+        return new AbstractIndexablePredicate() {
+            @Override
+            public boolean apply(@Nullable Entity input) {
+                return (input != null) && Objects.equal(input.getConfig(configKey), val);
+            }
+            @Override
+            public String toString() {
+                return "configEqualTo("+configKey.getName()+", "+val+")";
+            }
+        };
+    }
+
+    /**
+     * Create a predicate that matches any entity that is an instance of the given type (e.g. an entity interface).
+     */
+    public static Predicate<Entity> isInstanceOf(final Class<?> type) {
+        return new AbstractIndexablePredicate() {
+            @Override
+            public boolean apply(@Nullable Entity input) {
+                return type.isInstance(input);
+            }
+            @Override
+            public Collection<Entity> getCandidates(ManagementContext managementContext) {
+                EntityManager entityManager = managementContext.getEntityManager();
+                return (entityManager instanceof LocalEntityManager) ? ((LocalEntityManager)entityManager).getEntitiesOfType(type) : null;
+            }
+            @Override
+            public String toString() {
+                return "isInstanceOf("+type.getName()+")";
+            }
+        };
+    }
+
+    /**
+     * Create a predicate that matches any entity that is a child of the given parent.
+     */
+    public static Predicate<Entity> isChildOf(final Entity parent) {
+        return new AbstractIndexablePredicate() {
+            @Override
+            public boolean apply(@Nullable Entity input) {
+                return (input != null) && Objects.equal(input.getParent(), parent);
+            }
+            @Override
+            public Collection<Entity> getCandidates(ManagementContext managementContext) {
+                return parent.getChildren();
+            }
+            @Override
+            public String toString() {
+                return "isChildOf("+parent+")";
+            }
+        };
+    }
+
+    /**
+     * Create a predicate that matches any entity satisfying all of the given predicates. Where the given
+     * predicates are {@link IndexableEntityPredicate}s, the result is too: its candidates are the
+     * smallest of theirs, and its sensors the union of theirs.
+     */
+    public static Predicate<Entity> allOf(final Predicate<? super Entity>... predicates) {
+        final List<Predicate<? super Entity>> components = ImmutableList.copyOf(predicates);
+        return new AbstractIndexablePredicate() {
             @Override
             public boolean apply(@Nullable Entity input) {
-                return Objects.equal(input.getAttribute(attribute), val);
+                for (Predicate<? super Entity> component : components) {
+                    if (!component.apply(input)) return false;
+                }
+                return true;
+            }
+            @Override
+            public Collection<Entity> getCandidates(ManagementContext managementContext) {
+                Collection<Entity> result = null;
+                for (Predicate<? super Entity> component : components) {
+                    if (component instanceof IndexableEntityPredicate) {
+                        Collection<Entity> candidates = ((IndexableEntityPredicate)component).getCandidates(managementContext);
+                        if (candidates != null && (result == null || candidates.size() < result.size())) {
+                            result = candidates;
+                        }
+                    }
+                }
+                return result;
+            }
+            @Override
+            public Collection<Sensor<?>> getSensorsAffectingResult() {
+                Set<Sensor<?>> result = Sets.newLinkedHashSet();
+                for (Predicate<? super Entity> component : components) {
+                    if (component instanceof IndexableEntityPredicate) {
+                        result.addAll(((IndexableEntityPredicate)component).getSensorsAffectingResult());
+                    }
+                }
+                return ImmutableSet.copyOf(result);
+            }
+            @Override
+            public String toString() {
+                return "allOf("+components+")";
             }
         };
     }
-    
+
     /**
      * Create a predicate that matches any entity who has an exact match for the given location
      * (i.e. {@code entity.getLocations().contains(location)}).
@@ -32,7 +163,7 @@ public class EntityPredicates {
             }
         };
     }
-    
+
     public static <T> Predicate<Entity> managed() {
         return new Predicate<Entity>() {
             @Override
@@ -41,4 +172,18 @@ public class EntityPredicates {
             }
         };
     }
+
+    /**
+     * By default, any managed entity could be a candidate, and no sensors affect the result.
+     */
+    private static abstract class AbstractIndexablePredicate implements IndexableEntityPredicate {
+        @Override
+        public Collection<Entity> getCandidates(ManagementContext managementContext) {
+            return null;
+        }
+        @Override
+        public Collection<Sensor<?>> getSensorsAffectingResult() {
+            return Collections.emptyList();
+        }
+    }
 }
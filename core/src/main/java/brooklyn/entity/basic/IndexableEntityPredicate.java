@@ -0,0 +1,38 @@
+package brooklyn.entity.basic;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import brooklyn.entity.Entity;
+import brooklyn.event.Sensor;
+import brooklyn.management.ManagementContext;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A filter for entities that can say which entities could possibly satisfy it, and which sensors could
+ * change whether a given entity satisfies it.
+ * <p>
+ * A {@link DynamicGroup} with such a filter keeps its membership up-to-date incrementally (by subscribing
+ * to those sensors, in addition to entities being managed/unmanaged), and when it does rescan it checks only
+ * the candidates rather than every managed entity. Groups with any other {@link Predicate} fall back to
+ * scanning all entities, relying on {@link DynamicGroup#addSubscription(Entity, Sensor)} for changes.
+ *
+ * @see EntityPredicates
+ */
+public interface IndexableEntityPredicate extends Predicate<Entity> {
+
+    /**
+     * @return the entities that could satisfy this predicate (i.e. a superset of those that do),
+     *         or null if any managed entity could
+     */
+    @Nullable
+    public Collection<Entity> getCandidates(ManagementContext managementContext);
+
+    /**
+     * @return the sensors for which a change in value on an entity could change whether that entity
+     *         satisfies this predicate
+     */
+    public Collection<Sensor<?>> getSensorsAffectingResult();
+}
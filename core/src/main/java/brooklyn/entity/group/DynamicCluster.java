@@ -56,6 +56,11 @@ public interface DynamicCluster extends AbstractGroup, Cluster {
     public static final ConfigKey<Function<Collection<Entity>, Entity>> REMOVAL_STRATEGY = new BasicConfigKey(
             Function.class, "dynamiccluster.removalstrategy", "strategy for deciding what to remove when down-sizing", null);
     
+    @SetFromFlag("maxConcurrentChildCommands")
+    public static final ConfigKey<Integer> MAX_CONCURRENT_CHILD_COMMANDS = new BasicConfigKey<Integer>(
+            Integer.class, "dynamiccluster.maxConcurrentChildCommands", "Maximum number of members to start (or stop) concurrently " +
+                    "in the cluster's location when resizing; 0 means no limit", 0);
+    
     /**
      * 
      * @param memberId
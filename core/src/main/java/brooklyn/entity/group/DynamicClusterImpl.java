@@ -8,11 +8,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import brooklyn.entity.Effector;
 import brooklyn.entity.Entity;
 import brooklyn.entity.Group;
 import brooklyn.entity.basic.AbstractGroupImpl;
@@ -24,6 +26,8 @@ import brooklyn.entity.basic.Lifecycle;
 import brooklyn.entity.proxying.EntitySpec;
 import brooklyn.entity.proxying.EntitySpecs;
 import brooklyn.entity.trait.Startable;
+import brooklyn.location.BatchMachineProvisioningLocation;
+import brooklyn.location.BatchMachineProvisioningLocation.ObtainBatch;
 import brooklyn.location.Location;
 import brooklyn.management.Task;
 import brooklyn.policy.Policy;
@@ -31,6 +35,7 @@ import brooklyn.util.GroovyJavaMethods;
 import brooklyn.util.MutableList;
 import brooklyn.util.MutableMap;
 import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.task.BasicTask;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -49,6 +54,19 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
     // Mutex for synchronizing during re-size operations
     private final Object mutex = new Object[0];
     
+    // Guards the resize-request fields below; callers of resize that arrive while a resize is in progress
+    // record their desired size and wait, so that they are all coalesced into the next pass of that resize
+    private final Object resizeRequestMutex = new Object[0];
+    private boolean resizeInProgress = false;
+    private int requestedSize;
+    private ResizePass nextResizePass;
+    
+    /** A resize to the latest requested size, made on behalf of every caller whose request it covers. */
+    private static class ResizePass {
+        boolean done;
+        Throwable failure;
+    }
+    
     private static final Function<Collection<Entity>, Entity> defaultRemovalStrategy = new Function<Collection<Entity>, Entity>() {
         public Entity apply(Collection<Entity> contenders) {
             // choose last (i.e. newest) entity that is stoppable
@@ -140,6 +158,11 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
         return getAttribute(QUARANTINE_GROUP);
     }
     
+    private int getMaxConcurrentChildCommands() {
+        Integer result = getConfig(MAX_CONCURRENT_CHILD_COMMANDS);
+        return (result != null) ? result : 0;
+    }
+    
     @Override
     public void start(Collection<? extends Location> locs) {
         if (isQuarantineEnabled()) {
@@ -177,25 +200,95 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
         throw new UnsupportedOperationException();
     }
     
+    /**
+     * Resizes the cluster to the given size.
+     * <p>
+     * If a resize is already in progress then this request is coalesced with any others made in the meantime:
+     * the caller waits for the in-progress resize to finish, after which the cluster is resized (once) to the 
+     * most recently requested size. If that fails, the failure is thrown to every caller whose request it covered.
+     * A resize made while resizing (e.g. by a member as it starts) is done at once, as part of the outer resize.
+     */
     @Override
     public Integer resize(Integer desiredSize) {
-        synchronized (mutex) {
-            int currentSize = getCurrentSize();
-            int delta = desiredSize - currentSize;
-            if (delta != 0) {
-                logger.info("Resize {} from {} to {}", new Object[] {this, currentSize, desiredSize});
-            } else {
-                if (logger.isDebugEnabled()) logger.debug("Resize no-op {} from {} to {}", new Object[] {this, currentSize, desiredSize});
+        if (Thread.holdsLock(mutex)) {
+            // reentrant; waiting for the resize in progress would wait for ourselves
+            resizeNow(desiredSize);
+            return getCurrentSize();
+        }
+        
+        ResizePass pass;
+        synchronized (resizeRequestMutex) {
+            requestedSize = desiredSize;
+            if (nextResizePass == null) nextResizePass = new ResizePass();
+            pass = nextResizePass;
+            try {
+                while (resizeInProgress && !pass.done) {
+                    resizeRequestMutex.wait();
+                }
+            } catch (InterruptedException e) {
+                throw Exceptions.propagate(e);
             }
-    
-            if (delta > 0) {
-                grow(delta);
-            } else if (delta < 0) {
-                shrink(delta);
+            if (pass.done) {
+                // done by another caller's resize
+                if (logger.isDebugEnabled()) logger.debug("Resize of {} to {} coalesced with concurrent resize", this, desiredSize);
+                if (pass.failure != null) throw Exceptions.propagate(pass.failure);
+                return getCurrentSize();
             }
+            // either no resize is in progress, or it gave up before doing ours; we do ours, and any requested meanwhile
+            resizeInProgress = true;
         }
+        
+        try {
+            while (true) {
+                ResizePass next;
+                int size;
+                synchronized (resizeRequestMutex) {
+                    next = nextResizePass;
+                    if (next == null) break;
+                    nextResizePass = null;
+                    size = requestedSize;
+                }
+                try {
+                    synchronized (mutex) {
+                        resizeNow(size);
+                    }
+                } catch (Throwable t) {
+                    next.failure = t;
+                }
+                synchronized (resizeRequestMutex) {
+                    next.done = true;
+                    resizeRequestMutex.notifyAll();
+                }
+                if (next.failure != null && (next.failure instanceof Error || Thread.currentThread().isInterrupted())) {
+                    // leave any later requests to their own callers
+                    break;
+                }
+            }
+        } finally {
+            synchronized (resizeRequestMutex) {
+                resizeInProgress = false;
+                resizeRequestMutex.notifyAll();
+            }
+        }
+        if (pass.failure != null) throw Exceptions.propagate(pass.failure);
         return getCurrentSize();
     }
+    
+    private void resizeNow(int desiredSize) {
+        int currentSize = getCurrentSize();
+        int delta = desiredSize - currentSize;
+        if (delta != 0) {
+            logger.info("Resize {} from {} to {}", new Object[] {this, currentSize, desiredSize});
+        } else {
+            if (logger.isDebugEnabled()) logger.debug("Resize no-op {} from {} to {}", new Object[] {this, currentSize, desiredSize});
+        }
+
+        if (delta > 0) {
+            grow(delta);
+        } else if (delta < 0) {
+            shrink(delta);
+        }
+    }
 
     @Override
     public String replaceMember(String memberId) {
@@ -225,18 +318,22 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
 
     /**
      * Increases the cluster size by the given number.
+     * <p>
+     * All new members are started concurrently, subject to {@link DynamicCluster#MAX_CONCURRENT_CHILD_COMMANDS}.
+     * If the location can provision machines in batches, it is told to expect the members' requests for machines
+     * so that it can provision them together.
      */
     private Collection<Entity> grow(int delta) {
-        Collection<Entity> addedEntities = Lists.newArrayList();
-        for (int i = 0; i < delta; i++) {
-            addedEntities.add(addNode());
-        }
-        Map<Entity, Task<?>> tasks = Maps.newLinkedHashMap();
-        for (Entity entity: addedEntities) {
-            Map<String,?> args = ImmutableMap.of("locations", ImmutableList.of(getLocation()));
-            tasks.put(entity, entity.invoke(Startable.START, args));
+        Collection<Entity> addedEntities = addNodes(delta);
+        Map<String,?> args = ImmutableMap.of("locations", ImmutableList.of(getLocation()));
+        Map<Entity, Throwable> errors;
+        ObtainBatch batch = expectObtains(addedEntities);
+        try {
+            Map<Entity, Task<?>> tasks = invokeOnMembers(addedEntities, Startable.START, args);
+            errors = waitForTasksOnEntityStart(tasks);
+        } finally {
+            if (batch != null) batch.close();
         }
-        Map<Entity, Throwable> errors = waitForTasksOnEntityStart(tasks);
         
         if (!errors.isEmpty()) {
             if (isQuarantineEnabled()) {
@@ -249,23 +346,84 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
         return MutableList.<Entity>builder().addAll(addedEntities).removeAll(errors.keySet()).build();
     }
     
+    /** 
+     * Advises the location that the given new members will shortly ask it for machines, 
+     * returning null if it does not provision in batches (or there would be no batch) 
+     */
+    private ObtainBatch expectObtains(Collection<Entity> members) {
+        Location location = getLocation();
+        if (!(location instanceof BatchMachineProvisioningLocation)) return null;
+        // only this many members obtain machines at once
+        int maxConcurrent = getMaxConcurrentChildCommands();
+        int count = (maxConcurrent > 0) ? Math.min(members.size(), maxConcurrent) : members.size();
+        if (count <= 1) return null;
+        return ((BatchMachineProvisioningLocation<?>)location).expectObtains(ImmutableList.copyOf(Iterables.limit(members, count)));
+    }
+    
+    /**
+     * Decreases the cluster size by the given (negative) number.
+     * <p>
+     * The removed members are stopped concurrently, subject to {@link DynamicCluster#MAX_CONCURRENT_CHILD_COMMANDS};
+     * all are discarded even if some fail to stop, after which the first failure is propagated.
+     */
     private void shrink(int delta) {
         Collection<Entity> removedEntities = Lists.newArrayList();
         
         for (int i = 0; i < (delta*-1); i++) { removedEntities.add(pickAndRemoveMember()); }
 
         // FIXME symmetry in order of added as child, managed, started, and added to group
-        // FIXME assume stoppable; use logic of grow?
-        Task<List<Void>> invoke = Entities.invokeEffectorList(this, removedEntities, Startable.STOP, Collections.<String,Object>emptyMap());
+        Map<Entity, Task<?>> tasks = invokeOnMembers(removedEntities, Startable.STOP, Collections.<String,Object>emptyMap());
+        Throwable firstError = null;
         try {
-            invoke.get();
-        } catch (Exception e) {
-            throw Exceptions.propagate(e);
+            for (Map.Entry<Entity, Task<?>> entry : tasks.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (InterruptedException e) {
+                    throw Exceptions.propagate(e);
+                } catch (Throwable t) {
+                    logger.warn("Cluster "+this+" failed to stop entity "+entry.getKey()+" (removing): "+t);
+                    if (firstError == null) firstError = unwrapException(t);
+                }
+            }
         } finally {
             for (Entity removedEntity : removedEntities) {
                 discardNode(removedEntity);
             }
         }
+        if (firstError != null) {
+            throw Exceptions.propagate(firstError);
+        }
+    }
+    
+    /**
+     * Invokes the effector on each of the given entities, returning immediately with the task for each. 
+     * At most {@link DynamicCluster#MAX_CONCURRENT_CHILD_COMMANDS} invocations will run at once in this cluster's location
+     * (if that is configured), including those by other clusters in the same location; the others are queued 
+     * (without holding a thread) until one finishes.
+     */
+    protected Map<Entity, Task<?>> invokeOnMembers(Collection<? extends Entity> entities, final Effector<?> effector, final Map<String,?> args) {
+        Map<Entity, Task<?>> tasks = Maps.newLinkedHashMap();
+        int maxConcurrent = getMaxConcurrentChildCommands();
+        
+        if (maxConcurrent <= 0) {
+            for (Entity entity : entities) {
+                tasks.put(entity, entity.invoke(effector, args));
+            }
+        } else {
+            LocationCommandLimiter limiter = LocationCommandLimiter.forLocation(getLocation());
+            for (final Entity entity : entities) {
+                Task<Object> task = limiter.submit(getExecutionContext(), maxConcurrent,
+                        MutableMap.of("displayName", "invoke", "description", "invoke effector \""+effector.getName()+"\" on entity "+entity+
+                                " (at most "+maxConcurrent+" concurrently in "+getLocation()+")"), 
+                        new Callable<Object>() {
+                            public Object call() throws Exception {
+                                return entity.invoke(effector, args).get();
+                            }
+                        });
+                tasks.put(entity, task);
+            }
+        }
+        return tasks;
     }
     
     private void quarantineFailedNodes(Collection<Entity> failedEntities) {
@@ -330,6 +488,51 @@ public class DynamicClusterImpl extends AbstractGroupImpl implements DynamicClus
     
     protected Map getCustomChildFlags() { return Maps.newLinkedHashMap(); }
     
+    /**
+     * Creates the given number of nodes and adds them to the cluster. They are created concurrently, as a factory
+     * may be slow, but are managed and added as members in order; if any cannot be created, none are added.
+     */
+    private List<Entity> addNodes(int count) {
+        if (count == 1) return ImmutableList.of(addNode());
+        
+        List<Task<Entity>> creations = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            final Map creation = Maps.newLinkedHashMap(getCustomChildFlags());
+            if (logger.isDebugEnabled()) logger.debug("Creating and adding a node to cluster {}({}) with properties {}", new Object[] {this, getId(), creation});
+            creations.add(getExecutionContext().submit(new BasicTask<Entity>(
+                    MutableMap.of("displayName", "create node", "description", "create a node for cluster "+this),
+                    new Callable<Entity>() {
+                        public Entity call() {
+                            return createNode(creation);
+                        }
+                    })));
+        }
+        
+        List<Entity> result = Lists.newArrayList();
+        Throwable firstError = null;
+        for (Task<Entity> creation : creations) {
+            try {
+                result.add(creation.get());
+            } catch (InterruptedException e) {
+                throw Exceptions.propagate(e);
+            } catch (Throwable t) {
+                logger.warn("Cluster "+this+" failed to create node: "+t);
+                if (firstError == null) firstError = unwrapException(t);
+            }
+        }
+        if (firstError != null) {
+            // not yet managed, so just discard them
+            for (Entity entity : result) removeChild(entity);
+            throw Exceptions.propagate(firstError);
+        }
+        
+        for (Entity entity : result) {
+            Entities.manage(entity);
+            addMember(entity);
+        }
+        return result;
+    }
+    
     protected Entity addNode() {
         Map creation = Maps.newLinkedHashMap(getCustomChildFlags());
         if (logger.isDebugEnabled()) logger.debug("Creating and adding a node to cluster {}({}) with properties {}", new Object[] {this, getId(), creation});
@@ -0,0 +1,125 @@
+package brooklyn.entity.group;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.location.Location;
+import brooklyn.management.ExecutionContext;
+import brooklyn.management.Task;
+import brooklyn.util.task.BasicTask;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Limits how many commands on members (such as starting or stopping them) run at once in a location,
+ * across all the clusters in that location.
+ * <p>
+ * A command beyond the limit is queued without holding a thread, and is submitted when a running command
+ * in the location finishes; queued commands are submitted in order. Each command gives its own limit
+ * (from its cluster's {@link DynamicCluster#MAX_CONCURRENT_CHILD_COMMANDS}), and is only started while fewer
+ * than that many commands are running.
+ */
+class LocationCommandLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationCommandLimiter.class);
+
+    /** Limiters by location, held weakly so that they go when their location does. */
+    private static final ConcurrentMap<Location, LocationCommandLimiter> LIMITERS = new MapMaker().weakKeys().makeMap();
+
+    static LocationCommandLimiter forLocation(Location location) {
+        LocationCommandLimiter result = LIMITERS.get(location);
+        if (result == null) {
+            LocationCommandLimiter newLimiter = new LocationCommandLimiter(location.toString());
+            result = LIMITERS.putIfAbsent(location, newLimiter);
+            if (result == null) result = newLimiter;
+        }
+        return result;
+    }
+
+    private static class Queued {
+        final ExecutionContext context;
+        final int max;
+        final Task<?> task;
+
+        Queued(ExecutionContext context, int max, Task<?> task) {
+            this.context = context;
+            this.max = max;
+            this.task = task;
+        }
+    }
+
+    private final String locationName;
+
+    // guarded by this
+    private int running;
+    private final LinkedList<Queued> queued = Lists.newLinkedList();
+
+    private LocationCommandLimiter(String locationName) {
+        this.locationName = locationName;
+    }
+
+    /**
+     * Returns a task for the given job. The task is submitted in the given context at once if fewer than {@code max}
+     * commands are running in this location (and none are queued), or otherwise when enough of those have finished;
+     * until then, getting its result blocks as for any task not yet submitted.
+     */
+    <T> Task<T> submit(ExecutionContext context, int max, Map<?,?> flags, final Callable<T> job) {
+        Task<T> task = new BasicTask<T>(flags, new Callable<T>() {
+            public T call() throws Exception {
+                try {
+                    return job.call();
+                } finally {
+                    onFinished();
+                }
+            }});
+        boolean now;
+        synchronized (this) {
+            now = queued.isEmpty() && running < max;
+            if (now) {
+                running++;
+            } else {
+                queued.add(new Queued(context, max, task));
+            }
+        }
+        if (now) {
+            submitNow(context, task);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Queued {} in {}, as at least {} commands are running there", new Object[] {task, locationName, max});
+        }
+        return task;
+    }
+
+    private void onFinished() {
+        List<Queued> toSubmit = Lists.newArrayList();
+        synchronized (this) {
+            running--;
+            while (!queued.isEmpty() && running < queued.getFirst().max) {
+                Queued next = queued.removeFirst();
+                if (next.task.isCancelled()) continue;
+                toSubmit.add(next);
+                running++;
+            }
+        }
+        for (Queued next : toSubmit) {
+            submitNow(next.context, next.task);
+        }
+    }
+
+    private void submitNow(ExecutionContext context, Task<?> task) {
+        try {
+            context.submit(task);
+        } catch (RuntimeException e) {
+            // e.g. the management context is shutting down; the task will never run, so frees its slot here
+            log.warn("Unable to submit "+task+" in "+locationName+"; cancelling it: "+e);
+            task.cancel(true);
+            onFinished();
+        }
+    }
+}
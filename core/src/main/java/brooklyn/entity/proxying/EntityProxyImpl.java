@@ -2,25 +2,35 @@ package brooklyn.entity.proxying;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import brooklyn.entity.Effector;
 import brooklyn.entity.Entity;
 import brooklyn.entity.basic.AbstractEntity;
 import brooklyn.entity.basic.EntityInternal;
 import brooklyn.entity.basic.EntityLocal;
+import brooklyn.management.internal.EffectorUtils;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 
 /**
  * A dynamic proxy for an entity. Other entities etc should use these proxies when interacting
  * with the entity, rather than holding a reference to the specific object. That makes remoting
  * etc much simpler.
+ * <p>
+ * How each method is dispatched (to this handler, directly to the entity, or as an effector) is
+ * resolved the first time that method is called on a proxy for a given entity class, and cached
+ * for that class; subsequent calls do a single map lookup and no allocation.
  * 
  * @author aled
  */
@@ -32,8 +42,21 @@ public class EntityProxyImpl implements java.lang.reflect.InvocationHandler {
     @SuppressWarnings("unused")
     private static final Logger LOG = LoggerFactory.getLogger(EntityProxyImpl.class);
 
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final Entity delegate;
     
+    /** The dispatch table for the delegate's class, shared by all proxies for entities of that class. */
+    private final ConcurrentMap<Method, Dispatch> dispatchTable;
+
+    /**
+     * Dispatch tables, keyed by entity implementation class. A table's methods reference its class, so the
+     * tables are held weakly too (a strongly held table would keep its key reachable, and so pin the class
+     * and its class loader); each proxy holds its own table strongly, so a table is kept while any proxy uses it.
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, Dispatch>> DISPATCH_TABLES =
+            new MapMaker().weakKeys().weakValues().makeMap();
+
     private static final Set<MethodSignature> OBJECT_METHODS = Sets.newLinkedHashSet();
     static {
         for (Method m : Object.class.getMethods()) {
@@ -56,6 +79,17 @@ public class EntityProxyImpl implements java.lang.reflect.InvocationHandler {
 
     public EntityProxyImpl(Entity entity) {
         this.delegate = checkNotNull(entity, "entity");
+        this.dispatchTable = dispatchTableFor(entity.getClass());
+    }
+
+    private static ConcurrentMap<Method, Dispatch> dispatchTableFor(Class<?> clazz) {
+        ConcurrentMap<Method, Dispatch> result = DISPATCH_TABLES.get(clazz);
+        if (result == null) {
+            ConcurrentMap<Method, Dispatch> newTable = new ConcurrentHashMap<Method, Dispatch>();
+            result = DISPATCH_TABLES.putIfAbsent(clazz, newTable);
+            if (result == null) result = newTable;
+        }
+        return result;
     }
     
     @Override
@@ -68,21 +102,77 @@ public class EntityProxyImpl implements java.lang.reflect.InvocationHandler {
             throw new IllegalArgumentException("Static methods not supported via proxy on entity "+delegate);
         }
         
-        MethodSignature sig = new MethodSignature(m);
+        Dispatch dispatch = dispatchTable.get(m);
+        if (dispatch == null) {
+            // Benign race: concurrent callers resolve to the same value
+            dispatch = resolve(m);
+            dispatchTable.put(m, dispatch);
+        }
 
         Object result;
+        try {
+            result = dispatch.invoke(this, m, args);
+        } catch (InvocationTargetException e) {
+            throw (e.getCause() != null) ? e.getCause() : e;
+        }
+
+        return (result == delegate && delegate instanceof AbstractEntity) ? ((AbstractEntity)result).getProxy() : result;
+    }
+
+    private Dispatch resolve(Method m) {
+        MethodSignature sig = new MethodSignature(m);
+
         if (OBJECT_METHODS.contains(sig)) {
-            result = m.invoke(this, args);
+            return Dispatch.HANDLER;
         } else if (ENTITY_NON_EFFECTOR_METHODS.contains(sig)) {
-            result = m.invoke(delegate, args);
+            return Dispatch.DIRECT;
         } else if (delegate instanceof AbstractEntity) {
-            result = ((AbstractEntity)delegate).invokeMethod(m.getName(), (args == null ? new Object[0] : args));
+            if (((AbstractEntity)delegate).getEffector(m.getName()) != null) {
+                return Dispatch.EFFECTOR;
+            } else if (m.getDeclaringClass().isInstance(delegate)) {
+                return Dispatch.DIRECT;
+            } else {
+                return Dispatch.INVOKE_METHOD;
+            }
         } else {
             // TODO Extract out the AbstractEntity.invokeMethod logic for wrapping as effector call
             throw new IllegalArgumentException("Entity does not extend AbstractEntity (currently unsupported for proxy), for entity "+delegate);
         }
+    }
         
-        return (result == delegate && delegate instanceof AbstractEntity) ? ((AbstractEntity)result).getProxy() : result;
+    /**
+     * How a method called on the proxy is invoked on the entity.
+     */
+    private static enum Dispatch {
+        /** Methods of {@link Object}, handled by the {@link EntityProxyImpl} itself. */
+        HANDLER {
+            @Override Object invoke(EntityProxyImpl handler, Method m, Object[] args) throws Exception {
+                return m.invoke(handler, args);
+            }
+        },
+        /** Non-effector methods implemented by the entity, called directly. */
+        DIRECT {
+            @Override Object invoke(EntityProxyImpl handler, Method m, Object[] args) throws Exception {
+                return m.invoke(handler.delegate, args);
+            }
+        },
+        /** Effectors, invoked (as {@link AbstractEntity#invokeMethod(String, Object)} does) so that they are tracked as tasks. */
+        EFFECTOR {
+            @Override Object invoke(EntityProxyImpl handler, Method m, Object[] args) throws Exception {
+                AbstractEntity entity = (AbstractEntity) handler.delegate;
+                Effector<?> eff = entity.getEffector(m.getName());
+                if (eff == null) return INVOKE_METHOD.invoke(handler, m, args);
+                return EffectorUtils.invokeEffector(entity, eff, (args == null ? NO_ARGS : args));
+            }
+        },
+        /** Anything else, left to groovy's dynamic dispatch. */
+        INVOKE_METHOD {
+            @Override Object invoke(EntityProxyImpl handler, Method m, Object[] args) throws Exception {
+                return ((AbstractEntity)handler.delegate).invokeMethod(m.getName(), (args == null ? NO_ARGS : args));
+            }
+        };
+
+        abstract Object invoke(EntityProxyImpl handler, Method m, Object[] args) throws Exception;
     }
     
     private static class MethodSignature {
@@ -0,0 +1,353 @@
+package brooklyn.event.feed.agent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.AbstractFeed;
+import brooklyn.event.feed.AttributePollHandler;
+import brooklyn.event.feed.DelegatingPollHandler;
+import brooklyn.event.feed.PollHandler;
+import brooklyn.event.feed.Poller;
+import brooklyn.event.feed.ssh.ProbeScripts;
+import brooklyn.event.feed.ssh.SshPollConfig;
+import brooklyn.event.feed.ssh.SshPollValue;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.util.MutableMap;
+import brooklyn.util.internal.ssh.SshTool;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Provides a feed of attribute values, pushed by a small agent running on the machine, rather than
+ * polled from the management node.
+ * <p>
+ * On start, a bash agent is generated from the polls' commands, and run over a single long-lived ssh exec.
+ * Every interval the agent runs the commands that are due, and writes to its stdout only those results
+ * whose exit status or stdout changed since the last time they were sent (with everything sent when the
+ * agent starts), followed by a heartbeat; see {@link AgentStreamParser} for the protocol. The feed routes
+ * each result to the polls' {@link AttributePollHandler}s, as for {@link brooklyn.event.feed.ssh.SshFeed}
+ * (stderr is not collected). Each poll's command is run as described in {@link ProbeScripts}. If the stream stops (e.g. the connection is lost), the handlers are told of
+ * the error and the agent is restarted. The agent exits when its stdout is closed, or when the feed is stopped.
+ * <p>
+ * Example usage (e.g. in an entity that extends SoftwareProcessImpl):
+ * <pre>
+ * {@code
+ * feed = AgentFeed.builder()
+ *     .entity(this)
+ *     .machine(mySshMachineLachine)
+ *     .period(1, TimeUnit.SECONDS)
+ *     .poll(new SshPollConfig<Boolean>(SERVICE_UP)
+ *         .command("ps -p `cat "+getDriver().getRunDir()+"/pid.txt`")
+ *         .onSuccess(SshValueFunctions.exitStatusEquals(0)))
+ *     .build();
+ * }
+ * </pre>
+ */
+public class AgentFeed extends AbstractFeed {
+
+    public static final Logger log = LoggerFactory.getLogger(AgentFeed.class);
+
+    /** How many agent intervals without a heartbeat before the agent is considered unresponsive. */
+    private static final int MISSED_HEARTBEATS_THRESHOLD = 3;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private EntityLocal entity;
+        private SshMachineLocation machine;
+        private long period = 1000;
+        private TimeUnit periodUnits = TimeUnit.MILLISECONDS;
+        private List<SshPollConfig<?>> polls = Lists.newArrayList();
+        private volatile boolean built;
+
+        public Builder entity(EntityLocal val) {
+            this.entity = val;
+            return this;
+        }
+        public Builder machine(SshMachineLocation val) {
+            this.machine = val;
+            return this;
+        }
+        /** The agent's interval; polls with a longer period run every so many intervals. */
+        public Builder period(long millis) {
+            return period(millis, TimeUnit.MILLISECONDS);
+        }
+        public Builder period(long val, TimeUnit units) {
+            this.period = val;
+            this.periodUnits = units;
+            return this;
+        }
+        public Builder poll(SshPollConfig<?> config) {
+            polls.add(config);
+            return this;
+        }
+        public AgentFeed build() {
+            built = true;
+            AgentFeed result = new AgentFeed(this);
+            result.start();
+            return result;
+        }
+        @Override
+        protected void finalize() {
+            if (!built) log.warn("AgentFeed.Builder created, but build() never called");
+        }
+    }
+
+    @VisibleForTesting
+    static class AgentProbe {
+        final String id;
+        final String command;
+        final Map<String, String> env;
+        final int everyTicks;
+        final Set<AttributePollHandler<? super SshPollValue>> handlers = Sets.newLinkedHashSet();
+        PollHandler<SshPollValue> handler;
+
+        AgentProbe(String id, String command, Map<String, String> env, int everyTicks) {
+            this.id = id;
+            this.command = command;
+            this.env = env;
+            this.everyTicks = everyTicks;
+        }
+    }
+
+    private final SshMachineLocation machine;
+    private final long periodMillis;
+    private final String nonce = "BROOKLYN-AGENT-"+UUID.randomUUID().toString().replace("-", "");
+    private final Map<String, AgentProbe> probes = Maps.newLinkedHashMap();
+
+    private volatile Thread agentThread;
+    private volatile String agentPid;
+    private volatile long lastHeartbeatTime;
+    private volatile long totalSamples;
+
+    protected AgentFeed(Builder builder) {
+        super(builder.entity);
+        machine = checkNotNull(builder.machine, "machine");
+        periodMillis = builder.periodUnits.toMillis(builder.period);
+        checkArgument(periodMillis > 0, "period must be positive");
+
+        Map<List<Object>, AgentProbe> probesByCommand = Maps.newLinkedHashMap();
+        for (SshPollConfig<?> config : builder.polls) {
+            SshPollConfig<?> configCopy = new SshPollConfig(config);
+            if (configCopy.getPeriod() < 0) configCopy.period(periodMillis);
+            List<Object> key = ImmutableList.<Object>of(config.getCommand(), config.getEnv());
+            AgentProbe probe = probesByCommand.get(key);
+            int everyTicks = (int) Math.max(1, configCopy.getPeriod() / periodMillis);
+            if (probe == null || everyTicks < probe.everyTicks) {
+                String id = (probe != null) ? probe.id : ""+probesByCommand.size();
+                AgentProbe newProbe = new AgentProbe(id, config.getCommand(), config.getEnv(), everyTicks);
+                if (probe != null) newProbe.handlers.addAll(probe.handlers);
+                probe = newProbe;
+                probesByCommand.put(key, probe);
+            }
+            probe.handlers.add(newHandler(configCopy));
+        }
+        for (AgentProbe probe : probesByCommand.values()) {
+            probe.handler = new DelegatingPollHandler<SshPollValue>(probe.handlers);
+            probes.put(probe.id, probe);
+        }
+    }
+
+    private AttributePollHandler<SshPollValue> newHandler(SshPollConfig<?> config) {
+        if (config.isFailOnNonZeroResultCode()) {
+            return new AttributePollHandler<SshPollValue>(config, entity, this) {
+                @Override public void onSuccess(SshPollValue val) {
+                    if (val.getExitStatus() == 0) {
+                        super.onSuccess(val);
+                    } else {
+                        onError(new Exception("Exit status "+val.getExitStatus()));
+                    }
+                }
+            };
+        } else {
+            return new AttributePollHandler<SshPollValue>(config, entity, this);
+        }
+    }
+
+    @Override
+    protected void preStart() {
+        if (probes.isEmpty()) return;
+
+        // watchdog: tells the handlers if the agent has stopped sending heartbeats
+        getPoller().scheduleAtFixedRate(
+                new Callable<Long>() {
+                    public Long call() {
+                        return System.currentTimeMillis() - lastHeartbeatTime;
+                    }},
+                new PollHandler<Long>() {
+                    public void onSuccess(Long sinceLastHeartbeat) {
+                        if (sinceLastHeartbeat > MISSED_HEARTBEATS_THRESHOLD*periodMillis) {
+                            onAgentError(new IllegalStateException("No heartbeat from agent on "+machine+" for "+sinceLastHeartbeat+"ms"));
+                        }
+                    }
+                    public void onError(Exception error) {
+                        log.warn("Error checking agent heartbeat for "+entity+" (continuing)", error);
+                    }},
+                MISSED_HEARTBEATS_THRESHOLD*periodMillis);
+
+        lastHeartbeatTime = System.currentTimeMillis();
+        agentThread = new Thread(new Runnable() {
+                public void run() {
+                    runAgentUntilStopped();
+                }},
+                "brooklyn-agent-feed-"+entity.getId());
+        agentThread.setDaemon(true);
+        agentThread.start();
+    }
+
+    @Override
+    protected void preStop() {
+        Thread thread = agentThread;
+        agentThread = null;
+        if (thread != null) thread.interrupt();
+        String pid = agentPid;
+        if (pid != null) {
+            try {
+                killAgent(pid);
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) log.debug("Unable to kill agent "+pid+" on "+machine+" for "+entity+" (continuing)", e);
+            }
+        }
+    }
+
+    private void runAgentUntilStopped() {
+        List<String> script = toAgentScript(nonce, probes.values(), periodMillis);
+        AgentStreamParser parser = new AgentStreamParser(nonce, new AgentStreamParser.Listener() {
+            @Override public void onStarted(String pid) {
+                if (log.isDebugEnabled()) log.debug("Agent {} started on {} for {}", new Object[] {pid, machine, entity});
+                agentPid = pid;
+            }
+            @Override public void onSample(String probeId, int exitStatus, String stdout) {
+                onAgentSample(probeId, exitStatus, stdout);
+            }
+            @Override public void onHeartbeat(long tick) {
+                lastHeartbeatTime = System.currentTimeMillis();
+            }
+        });
+
+        while (agentThread == Thread.currentThread()) {
+            Exception error;
+            try {
+                int exitStatus = runAgent(script, parser);
+                error = new IllegalStateException("Agent on "+machine+" exited with status "+exitStatus);
+            } catch (Exception e) {
+                error = e;
+            }
+            agentPid = null;
+            if (agentThread != Thread.currentThread()) break;
+
+            if (log.isDebugEnabled()) log.debug("Agent for "+entity+" on "+machine+" stopped; will restart", error);
+            onAgentError(error);
+            try {
+                Thread.sleep(MISSED_HEARTBEATS_THRESHOLD*periodMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void onAgentSample(String probeId, int exitStatus, String stdout) {
+        AgentProbe probe = probes.get(probeId);
+        if (probe == null) {
+            log.warn("Ignoring agent sample for unknown probe "+probeId+" on "+machine+" for "+entity);
+            return;
+        }
+        totalSamples++;
+        if (isActive()) probe.handler.onSuccess(new SshPollValue(machine, exitStatus, stdout, ""));
+    }
+
+    private void onAgentError(Exception error) {
+        if (!isActive()) return;
+        for (AgentProbe probe : probes.values()) {
+            probe.handler.onError(error);
+        }
+    }
+
+    /**
+     * Runs the agent, blocking until it exits, with its stdout written to the given stream.
+     * <p>
+     * The agent holds its channel for as long as it runs, so it is run on its own ssh session rather than
+     * on a shared session (see {@link brooklyn.util.internal.ssh.sshj.SshjSessionMultiplexer}), where it
+     * would take one of the host's channels from other commands for good.
+     */
+    protected int runAgent(List<String> script, OutputStream out) {
+        return machine.execScript(MutableMap.of("out", out, "noStdoutLogging", true, SshTool.PROP_SESSION_MULTIPLEXING.getName(), false), 
+                "agent for "+entity, script);
+    }
+
+    protected void killAgent(String pid) {
+        machine.execCommands(MutableMap.of("noStdoutLogging", true), "kill agent for "+entity, ImmutableList.of("kill "+pid+" || true"));
+    }
+
+    /** The number of samples received from the agent (i.e. the number of changed results). */
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Poller<Long> getPoller() {
+        return (Poller<Long>) poller;
+    }
+
+    /**
+     * Generates the agent: a bash loop that runs each probe when due, in its own subshell, and writes its
+     * result if it has changed.
+     */
+    @VisibleForTesting
+    static List<String> toAgentScript(String nonce, Iterable<AgentProbe> probes, long periodMillis) {
+        List<String> result = Lists.newArrayList();
+        result.add("BROOKLYN_AGENT_DIR=`mktemp -d /tmp/brooklyn-agent.XXXXXXXX`");
+        result.add("trap 'rm -rf $BROOKLYN_AGENT_DIR' EXIT");
+        // stop if the stream is closed (i.e. writing to stdout fails), rather than running forever
+        result.add("trap 'exit 0' PIPE TERM");
+        result.add("echo \""+nonce+" P $$\" || exit 0");
+        result.add("TICK=0");
+        result.add("while true; do");
+        for (AgentProbe probe : probes) {
+            String out = "$BROOKLYN_AGENT_DIR/"+probe.id;
+            result.add("if [ $((TICK % "+probe.everyTicks+")) -eq 0 ]; then");
+            result.addAll(ProbeScripts.probe(ImmutableList.of(probe.command), probe.env, "> "+out+".out 2> /dev/null", "RESULT"));
+            result.add("echo $RESULT > "+out+".new");
+            result.add("cat "+out+".out >> "+out+".new");
+            result.add("if ! cmp -s "+out+".new "+out+".last; then");
+            result.add("echo \""+nonce+" V "+probe.id+" $RESULT\"");
+            result.add("cat "+out+".out");
+            // terminates the last line, if it did not end with a newline; removed again when parsing
+            result.add("echo");
+            result.add("echo \""+nonce+" E "+probe.id+"\" || exit 0");
+            result.add("mv "+out+".new "+out+".last");
+            result.add("fi");
+            result.add("fi");
+        }
+        result.add("echo \""+nonce+" T $TICK\" || exit 0");
+        result.add("TICK=$((TICK + 1))");
+        result.add("sleep "+String.format(Locale.ENGLISH, "%.3f", periodMillis/1000.0));
+        result.add("done");
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("entity", entity).add("machine", machine).add("pid", agentPid).toString();
+    }
+}
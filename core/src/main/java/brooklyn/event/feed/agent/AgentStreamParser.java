@@ -0,0 +1,105 @@
+package brooklyn.event.feed.agent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the output stream of an agent generated by {@link AgentFeed}, as it is written, passing each
+ * sample and heartbeat to a {@link Listener}.
+ * <p>
+ * The stream is line-based; protocol lines start with the agent's nonce (so cannot be confused with the
+ * output of the commands), followed by:
+ * <ul>
+ *   <li>{@code P <pid>} - the agent's process id, written once at startup
+ *   <li>{@code V <id> <exitStatus>} - a changed result for a probe; the following lines, up to {@code E <id>},
+ *       are its stdout (plus a trailing newline, which is removed)
+ *   <li>{@code T <tick>} - written after each round of probes, whether or not any results changed
+ * </ul>
+ * Lines outside of a sample that are not protocol lines (e.g. from login scripts) are ignored.
+ */
+public class AgentStreamParser extends OutputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AgentStreamParser.class);
+
+    public interface Listener {
+        public void onStarted(String pid);
+        public void onSample(String probeId, int exitStatus, String stdout);
+        public void onHeartbeat(long tick);
+    }
+
+    private final String pidPrefix;
+    private final String samplePrefix;
+    private final String endPrefix;
+    private final String heartbeatPrefix;
+    private final Listener listener;
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private String sampleId;
+    private int sampleExitStatus;
+    private StringBuilder sampleStdout;
+
+    public AgentStreamParser(String nonce, Listener listener) {
+        checkNotNull(nonce, "nonce");
+        this.pidPrefix = nonce+" P ";
+        this.samplePrefix = nonce+" V ";
+        this.endPrefix = nonce+" E ";
+        this.heartbeatPrefix = nonce+" T ";
+        this.listener = checkNotNull(listener, "listener");
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            String val = new String(line.toByteArray());
+            line.reset();
+            onLine(val);
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        for (int i = off; i < off+len; i++) {
+            write(b[i]);
+        }
+    }
+
+    private void onLine(String val) {
+        if (sampleId != null) {
+            if (val.equals(endPrefix+sampleId)) {
+                String stdout = (sampleStdout.length() > 0) ? sampleStdout.substring(0, sampleStdout.length()-1) : "";
+                String id = sampleId;
+                sampleId = null;
+                sampleStdout = null;
+                listener.onSample(id, sampleExitStatus, stdout);
+            } else {
+                sampleStdout.append(val).append("\n");
+            }
+        } else if (val.startsWith(samplePrefix)) {
+            String[] parts = val.substring(samplePrefix.length()).trim().split(" ");
+            try {
+                sampleExitStatus = Integer.parseInt(parts[1]);
+                sampleId = parts[0];
+                sampleStdout = new StringBuilder();
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring malformed agent sample header: "+val);
+            }
+        } else if (val.startsWith(heartbeatPrefix)) {
+            try {
+                listener.onHeartbeat(Long.parseLong(val.substring(heartbeatPrefix.length()).trim()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring malformed agent heartbeat: "+val);
+            }
+        } else if (val.startsWith(pidPrefix)) {
+            listener.onStarted(val.substring(pidPrefix.length()).trim());
+        } else {
+            if (LOG.isTraceEnabled()) LOG.trace("Ignoring agent output: {}", val);
+        }
+    }
+}
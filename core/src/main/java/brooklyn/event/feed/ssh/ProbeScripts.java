@@ -0,0 +1,44 @@
+package brooklyn.event.feed.ssh;
+
+import java.util.List;
+import java.util.Map;
+
+import brooklyn.util.text.StringEscapes.BashStringEscapes;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generates the lines of bash which run a probe (a check's commands) as part of a larger script,
+ * as done by {@link SshProbeAggregator} and {@link brooklyn.event.feed.agent.AgentFeed}.
+ * <p>
+ * The probe runs in its own subshell with errexit on, so it fails as soon as any of its commands fails
+ * (as it would if run as a script of its own, with the default script header), with its own environment
+ * and with stdin from /dev/null. Neither a failing probe nor one calling {@code exit} ends the enclosing
+ * script, whether or not that runs with errexit.
+ */
+public class ProbeScripts {
+
+    private ProbeScripts() {}
+
+    /**
+     * The lines which run the given commands as a probe, with the given redirections of its stdout and/or stderr
+     * (e.g. {@code "2> $ERR_FILE"}), then set the given shell variable to its exit status.
+     */
+    public static List<String> probe(List<String> commands, Map<String,?> env, String redirections, String statusVariable) {
+        List<String> result = Lists.newArrayList();
+        // errexit is ignored in a subshell whose status is tested (e.g. in a || list), so the status is instead
+        // taken afterwards, with the enclosing script's errexit suspended
+        result.add("case $- in *e*) BROOKLYN_PROBE_ERREXIT=1 ;; *) BROOKLYN_PROBE_ERREXIT=0 ;; esac");
+        result.add("set +e");
+        result.add("(");
+        result.add("set -e");
+        for (Map.Entry<String,?> entry : env.entrySet()) {
+            result.add("export "+entry.getKey()+"="+BashStringEscapes.wrapBash(""+entry.getValue()));
+        }
+        result.addAll(commands);
+        result.add(") < /dev/null "+redirections);
+        result.add(statusVariable+"=$?");
+        result.add("if [ $BROOKLYN_PROBE_ERREXIT -eq 1 ]; then set -e; fi");
+        return result;
+    }
+}
@@ -13,16 +13,19 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import brooklyn.entity.basic.EntityInternal;
 import brooklyn.entity.basic.EntityLocal;
 import brooklyn.event.feed.AbstractFeed;
 import brooklyn.event.feed.AttributePollHandler;
 import brooklyn.event.feed.DelegatingPollHandler;
+import brooklyn.event.feed.PollHandler;
 import brooklyn.event.feed.Poller;
 import brooklyn.location.basic.SshMachineLocation;
 import brooklyn.util.MutableMap;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
@@ -59,6 +62,9 @@ import com.google.common.collect.Sets;
  * }
  * </pre>
  * 
+ * With {@code batched(true)}, the polls are run along with the other checks on the same machine, as a single
+ * combined script per interval (see {@link SshProbeAggregator}).
+ * 
  * @author aled
  */
 public class SshFeed extends AbstractFeed {
@@ -75,6 +81,7 @@ public class SshFeed extends AbstractFeed {
         private long period = 500;
         private TimeUnit periodUnits = TimeUnit.MILLISECONDS;
         private List<SshPollConfig<?>> polls = Lists.newArrayList();
+        private boolean batched = false;
         private volatile boolean built;
         
         public Builder entity(EntityLocal val) {
@@ -93,6 +100,14 @@ public class SshFeed extends AbstractFeed {
             this.periodUnits = units;
             return this;
         }
+        /**
+         * Whether to run the polls as part of the machine's combined checks (see {@link SshProbeAggregator}),
+         * rather than with an ssh execution for each poll.
+         */
+        public Builder batched(boolean val) {
+            this.batched = val;
+            return this;
+        }
         public Builder poll(SshPollConfig<?> config) {
             polls.add(config);
             return this;
@@ -135,6 +150,8 @@ public class SshFeed extends AbstractFeed {
     }
     
     private final SshMachineLocation machine;
+    private final boolean batched;
+    private final List<SshProbeAggregator.Registration> probes = Lists.newCopyOnWriteArrayList();
     
     // Treat as immutable once built
     private final SetMultimap<SshPollIdentifier, SshPollConfig<?>> polls = HashMultimap.<SshPollIdentifier,SshPollConfig<?>>create();
@@ -142,6 +159,7 @@ public class SshFeed extends AbstractFeed {
     protected SshFeed(Builder builder) {
         super(builder.entity);
         machine = checkNotNull(builder.machine, "machine");
+        batched = builder.batched;
         
         for (SshPollConfig<?> config : builder.polls) {
             SshPollConfig<?> configCopy = new SshPollConfig(config);
@@ -157,7 +175,7 @@ public class SshFeed extends AbstractFeed {
         for (final SshPollIdentifier pollInfo : polls.keySet()) {
             Set<SshPollConfig<?>> configs = polls.get(pollInfo);
             long minPeriod = Integer.MAX_VALUE;
-            Set<AttributePollHandler<SshPollValue>> handlers = Sets.newLinkedHashSet();
+            Set<AttributePollHandler<? super SshPollValue>> handlers = Sets.newLinkedHashSet();
 
             for (SshPollConfig<?> config : configs) {
                 AttributePollHandler<SshPollValue> handler;
@@ -179,7 +197,19 @@ public class SshFeed extends AbstractFeed {
                 if (config.getPeriod() > 0) minPeriod = Math.min(minPeriod, config.getPeriod());
             }
             
-            Callable<SshPollValue> pollJob;
+            if (batched) {
+                final DelegatingPollHandler<SshPollValue> delegate = new DelegatingPollHandler<SshPollValue>(handlers);
+                probes.add(SshProbeAggregator.forMachine(((EntityInternal)entity).getManagementContext(), machine).register(ImmutableList.of(pollInfo.command), pollInfo.env, minPeriod, 
+                        new PollHandler<SshPollValue>() {
+                            @Override public void onSuccess(SshPollValue val) {
+                                if (isActive()) delegate.onSuccess(val);
+                            }
+                            @Override public void onError(Exception error) {
+                                if (isActive()) delegate.onError(error);
+                            }
+                        }));
+                continue;
+            }
             
             getPoller().scheduleAtFixedRate(
                     new Callable<SshPollValue>() {
@@ -191,6 +221,14 @@ public class SshFeed extends AbstractFeed {
         }
     }
     
+    @Override
+    protected void preStop() {
+        for (SshProbeAggregator.Registration probe : probes) {
+            probe.cancel();
+        }
+        probes.clear();
+    }
+    
     @SuppressWarnings("unchecked")
     private Poller<SshPollValue> getPoller() {
         return (Poller<SshPollValue>) poller;
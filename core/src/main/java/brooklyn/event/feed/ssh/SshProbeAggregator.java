@@ -0,0 +1,374 @@
+package brooklyn.event.feed.ssh;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.event.feed.PollHandler;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.management.ExecutionManager;
+import brooklyn.management.ManagementContext;
+import brooklyn.management.Task;
+import brooklyn.util.MutableMap;
+import brooklyn.util.task.BasicTask;
+import brooklyn.util.task.ScheduledTask;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the periodic checks of all entities on a machine (e.g. {@code isRunning} checks, and {@link SshFeed} polls)
+ * as one combined script per interval over a single ssh exec, rather than doing an ssh execution per check;
+ * the result of each check is parsed from the combined output and passed to that check's {@link PollHandler}.
+ * <p>
+ * Each probe is run as described in {@link ProbeScripts}: as if it were a script of its own, failing at its
+ * first failing command, without affecting the others. Probes run one after the other, so a slow probe delays
+ * those after it in the same batch. All probes are run with the machine's own ssh flags.
+ * <p>
+ * Batches are run as tasks of the management context's {@link ExecutionManager}, so stop when it is terminated.
+ * Use {@link #forMachine(ManagementContext, SshMachineLocation)} to get the aggregator for a machine;
+ * it is discarded once its last probe is cancelled. Thread-safe.
+ */
+public class SshProbeAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshProbeAggregator.class);
+
+    /** How often to look for probes that are due, by default. */
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+
+    /**
+     * The aggregators with registered probes, keyed by execution manager and machine; entries are removed
+     * when their last probe is cancelled, so they do not keep machines (or management contexts) reachable.
+     */
+    private static final Map<List<Object>, SshProbeAggregator> AGGREGATORS = Maps.newHashMap();
+
+    /** The aggregator shared by all users of the given machine within the given management context. */
+    public static SshProbeAggregator forMachine(ManagementContext managementContext, SshMachineLocation machine) {
+        checkNotNull(machine, "machine");
+        ExecutionManager executionManager = checkNotNull(managementContext, "managementContext").getExecutionManager();
+        synchronized (AGGREGATORS) {
+            SshProbeAggregator result = AGGREGATORS.get(ImmutableList.of(executionManager, machine));
+            if (result == null) {
+                // only added to AGGREGATORS once a probe is registered
+                result = new SshProbeAggregator(executionManager, machine, DEFAULT_TICK_MILLIS);
+                result.shared = true;
+            }
+            return result;
+        }
+    }
+
+    private final ExecutionManager executionManager;
+    private final SshMachineLocation machine;
+    private final long tickMillis;
+    private final Map<String, Probe> probes = Maps.newLinkedHashMap();
+    private final AtomicLong totalBatches = new AtomicLong();
+    private final AtomicLong totalProbeRuns = new AtomicLong();
+    private boolean shared = false;
+    private Task<?> ticker;
+    private long nextId = 0;
+
+    @VisibleForTesting
+    protected SshProbeAggregator(ExecutionManager executionManager, SshMachineLocation machine, long tickMillis) {
+        checkArgument(tickMillis > 0, "tickMillis must be positive");
+        this.executionManager = checkNotNull(executionManager, "executionManager");
+        this.machine = machine;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * Registers a check to be run every {@code periodMillis} (rounded up to a multiple of the aggregator's tick),
+     * until the returned registration is cancelled. The first run is at the next tick.
+     */
+    public Registration register(List<String> commands, Map<String,?> env, long periodMillis, PollHandler<? super SshPollValue> handler) {
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        if (!shared) return registerLocally(commands, env, periodMillis, handler);
+        synchronized (AGGREGATORS) {
+            List<Object> key = ImmutableList.<Object>of(executionManager, machine);
+            SshProbeAggregator current = AGGREGATORS.get(key);
+            if (current == null) {
+                AGGREGATORS.put(key, this);
+            } else if (current != this) {
+                // another user of the machine got (and registered with) a different instance concurrently
+                return current.registerLocally(commands, env, periodMillis, handler);
+            }
+            return registerLocally(commands, env, periodMillis, handler);
+        }
+    }
+
+    private Registration registerLocally(List<String> commands, Map<String,?> env, long periodMillis, PollHandler<? super SshPollValue> handler) {
+        Probe probe;
+        synchronized (probes) {
+            probe = new Probe(""+(nextId++), ImmutableList.copyOf(commands), (env != null ? ImmutableMap.<String,Object>copyOf(env) : ImmutableMap.<String,Object>of()),
+                    periodMillis, checkNotNull(handler, "handler"));
+            probes.put(probe.id, probe);
+            if (ticker == null) {
+                Callable<Task<?>> tickFactory = new Callable<Task<?>>() {
+                    public Task<?> call() {
+                        return new BasicTask<Void>(MutableMap.of("displayName", "ssh probes on "+machine), new Runnable() {
+                            public void run() {
+                                tick();
+                            }});
+                    }};
+                ticker = executionManager.submit(new ScheduledTask(MutableMap.of("displayName", "ssh probe scheduler for "+machine), tickFactory)
+                        .delay(tickMillis).period(tickMillis));
+            }
+        }
+        if (LOG.isDebugEnabled()) LOG.debug("Registered ssh probe {} on {}: {}", new Object[] {probe.id, machine, commands});
+        return new Registration(probe);
+    }
+
+    private void unregister(Probe probe) {
+        if (!shared) {
+            unregisterLocally(probe);
+            return;
+        }
+        synchronized (AGGREGATORS) {
+            if (unregisterLocally(probe)) {
+                List<Object> key = ImmutableList.<Object>of(executionManager, machine);
+                if (AGGREGATORS.get(key) == this) AGGREGATORS.remove(key);
+            }
+        }
+    }
+
+    /** Returns true if no probes remain. */
+    private boolean unregisterLocally(Probe probe) {
+        synchronized (probes) {
+            probes.remove(probe.id);
+            if (probes.isEmpty() && ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            return probes.isEmpty();
+        }
+    }
+
+    public int getProbeCount() {
+        synchronized (probes) {
+            return probes.size();
+        }
+    }
+
+    /** The number of combined scripts executed. */
+    public long getTotalBatches() {
+        return totalBatches.get();
+    }
+
+    /** The number of individual probe executions, across all batches. */
+    public long getTotalProbeRuns() {
+        return totalProbeRuns.get();
+    }
+
+    /**
+     * Runs a batch of all due probes; called by the scheduled task, whose next run is only scheduled once
+     * this returns, so batches never overlap.
+     */
+    @VisibleForTesting
+    void tick() {
+        try {
+            List<Probe> due = takeDueProbes(System.currentTimeMillis());
+            if (!due.isEmpty()) runBatch(due);
+        } catch (RuntimeException e) {
+            LOG.warn("Error running ssh probes on "+machine+" (continuing)", e);
+        }
+    }
+
+    private List<Probe> takeDueProbes(long now) {
+        List<Probe> result = Lists.newArrayList();
+        synchronized (probes) {
+            for (Probe probe : probes.values()) {
+                // allow for ticks being slightly early, so a probe isn't delayed by an extra tick
+                if (probe.nextDueTime <= now + tickMillis/2) {
+                    probe.nextDueTime = now + probe.periodMillis;
+                    result.add(probe);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Runs the given probes as a single script, passing each its result. */
+    @VisibleForTesting
+    void runBatch(Collection<Probe> batch) {
+        String nonce = "BROOKLYN-PROBE-"+UUID.randomUUID().toString().replace("-", "");
+        totalBatches.incrementAndGet();
+        totalProbeRuns.addAndGet(batch.size());
+
+        Map<String, SshPollValue> results;
+        try {
+            String stdout = execScript(toScript(nonce, batch));
+            results = parseOutput(machine, nonce, stdout);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error executing batch of "+batch.size()+" ssh probes on "+machine, e);
+            for (Probe probe : batch) {
+                if (!probe.cancelled) deliverError(probe, e);
+            }
+            return;
+        }
+
+        for (Probe probe : batch) {
+            if (probe.cancelled) continue;
+            SshPollValue result = results.get(probe.id);
+            if (result != null) {
+                try {
+                    probe.handler.onSuccess(result);
+                } catch (Exception e) {
+                    LOG.warn("Error handling result of ssh probe "+probe+" on "+machine+" (continuing)", e);
+                }
+            } else {
+                deliverError(probe, new IllegalStateException("No result for ssh probe "+probe.id+" on "+machine));
+            }
+        }
+    }
+
+    private void deliverError(Probe probe, Exception error) {
+        try {
+            probe.handler.onError(error);
+        } catch (Exception e) {
+            LOG.warn("Error handling failure of ssh probe "+probe+" on "+machine+" (continuing)", e);
+        }
+    }
+
+    /** Executes the combined script, returning its stdout. */
+    protected String execScript(List<String> script) {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int exitStatus = machine.execScript(MutableMap.of("out", stdout, "err", stderr, "noStdoutLogging", true), "ssh probes", script);
+        if (exitStatus != 0) {
+            throw new IllegalStateException("Ssh probes on "+machine+" failed with exit status "+exitStatus+": "+new String(stderr.toByteArray()));
+        }
+        return new String(stdout.toByteArray());
+    }
+
+    /**
+     * Generates the combined script; the output of each probe is framed by lines starting with the
+     * nonce, with its stderr captured to a temp file and written out after its stdout.
+     */
+    @VisibleForTesting
+    static List<String> toScript(String nonce, Collection<Probe> batch) {
+        List<String> result = Lists.newArrayList();
+        result.add("BROOKLYN_PROBE_ERR=`mktemp /tmp/brooklyn-probe.XXXXXXXX 2> /dev/null || echo /tmp/brooklyn-probe-$$`");
+        for (Probe probe : batch) {
+            result.add("echo \""+nonce+" START "+probe.id+"\"");
+            result.addAll(ProbeScripts.probe(probe.commands, probe.env, "2> $BROOKLYN_PROBE_ERR", "BROOKLYN_PROBE_RESULT"));
+            // terminates the probe's last line, if it did not end with a newline; removed again when parsing
+            result.add("echo");
+            result.add("echo \""+nonce+" STDERR "+probe.id+"\"");
+            result.add("cat $BROOKLYN_PROBE_ERR");
+            result.add("echo");
+            result.add("echo \""+nonce+" END "+probe.id+" $BROOKLYN_PROBE_RESULT\"");
+        }
+        result.add("rm -f $BROOKLYN_PROBE_ERR");
+        result.add("exit 0");
+        return result;
+    }
+
+    /**
+     * Parses the output of a script generated by {@link #toScript(String, Collection)}, returning the result for
+     * each probe id. Probes whose output is incomplete (e.g. because the script was killed) are not included.
+     */
+    @VisibleForTesting
+    static Map<String, SshPollValue> parseOutput(SshMachineLocation machine, String nonce, String output) throws IOException {
+        Map<String, SshPollValue> result = Maps.newLinkedHashMap();
+        BufferedReader reader = new BufferedReader(new StringReader(output));
+        String startPrefix = nonce+" START ";
+        String stderrPrefix = nonce+" STDERR ";
+        String endPrefix = nonce+" END ";
+
+        String id = null;
+        StringBuilder stdout = null;
+        StringBuilder stderr = null;
+        StringBuilder current = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(startPrefix)) {
+                id = line.substring(startPrefix.length());
+                stdout = new StringBuilder();
+                stderr = null;
+                current = stdout;
+            } else if (id != null && line.equals(stderrPrefix+id)) {
+                stderr = new StringBuilder();
+                current = stderr;
+            } else if (id != null && stderr != null && line.startsWith(endPrefix+id+" ")) {
+                int exitStatus = Integer.parseInt(line.substring((endPrefix+id+" ").length()).trim());
+                result.put(id, new SshPollValue(machine, exitStatus, withoutLastNewline(stdout), withoutLastNewline(stderr)));
+                id = null;
+                current = null;
+            } else if (current != null) {
+                current.append(line).append("\n");
+            }
+        }
+        return result;
+    }
+
+    private static String withoutLastNewline(StringBuilder val) {
+        // strips the newline added by the separating echo in the script
+        return (val.length() > 0) ? val.substring(0, val.length()-1) : "";
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("machine", machine).add("probes", getProbeCount()).toString();
+    }
+
+    /**
+     * A registered check; see {@link SshProbeAggregator#register(List, Map, long, PollHandler)}.
+     */
+    public class Registration {
+        private final Probe probe;
+
+        private Registration(Probe probe) {
+            this.probe = probe;
+        }
+
+        /** Stops running the check; its handler will not be called again. */
+        public void cancel() {
+            probe.cancelled = true;
+            unregister(probe);
+        }
+
+        public boolean isCancelled() {
+            return probe.cancelled;
+        }
+    }
+
+    @VisibleForTesting
+    static class Probe {
+        final String id;
+        final List<String> commands;
+        final Map<String,?> env;
+        final long periodMillis;
+        final PollHandler<? super SshPollValue> handler;
+        volatile boolean cancelled = false;
+        long nextDueTime = 0;
+
+        Probe(String id, List<String> commands, Map<String,?> env, long periodMillis, PollHandler<? super SshPollValue> handler) {
+            this.id = id;
+            this.commands = commands;
+            this.env = env;
+            this.periodMillis = periodMillis;
+            this.handler = handler;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("id", id).add("commands", commands).toString();
+        }
+    }
+}
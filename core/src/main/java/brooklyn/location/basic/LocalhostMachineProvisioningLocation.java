@@ -23,7 +23,6 @@ import brooklyn.util.mutex.MutexSupport;
 import brooklyn.util.mutex.WithMutexes;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 /**
  * An implementation of {@link brooklyn.location.MachineProvisioningLocation} that can provision a {@link SshMachineLocation} for the
@@ -45,7 +44,15 @@ public class LocalhostMachineProvisioningLocation extends FixedListMachineProvis
     @SetFromFlag
     InetAddress address;
 
-    private static Set<Integer> portsInUse = Sets.newLinkedHashSet();
+    /** how long a port found to be in use by another process is skipped when obtaining ports from a range */
+    private static final long PORT_RECHECK_MILLIS = 10*1000;
+
+    private static final PortAllocator portsInUse = new PortAllocator(PORT_RECHECK_MILLIS) {
+        @Override
+        protected boolean isAvailable(int port) {
+            return checkPortAvailable(null, port);
+        }
+    };
 
     private static HostGeoInfo cachedHostGeoInfo;
         
@@ -118,17 +125,8 @@ public class LocalhostMachineProvisioningLocation extends FixedListMachineProvis
        }
     }
 
-    public static synchronized boolean obtainSpecificPort(InetAddress localAddress, int portNumber) {
-        if (portsInUse.contains(portNumber)) {
-            return false;
-        } else {
-            //see if it is available?
-            if (!checkPortAvailable(localAddress, portNumber)) {
-                return false;
-            }
-            portsInUse.add(portNumber);
-            return true;
-        }
+    public static boolean obtainSpecificPort(InetAddress localAddress, int portNumber) {
+        return portsInUse.obtainSpecificPort(portNumber);
     }
     /** checks the actual availability of the port on localhost, ie by binding to it; cf {@link NetworkUtils#isPortAvailable(int)} */
     public static boolean checkPortAvailable(InetAddress localAddress, int portNumber) {
@@ -142,55 +140,38 @@ public class LocalhostMachineProvisioningLocation extends FixedListMachineProvis
         return obtainPort(getLocalhostInetAddress(), range);
     }
     public static int obtainPort(InetAddress localAddress, PortRange range) {
-        for (int p: range)
-            if (obtainSpecificPort(localAddress, p)) return p;
-        if (LOG.isDebugEnabled()) LOG.debug("unable to find port in {} on {}; returning -1", range, localAddress);
-        return -1;
+        int p = portsInUse.obtainPort(range);
+        if (p < 0 && LOG.isDebugEnabled()) LOG.debug("unable to find port in {} on {}; returning -1", range, localAddress);
+        return p;
     }
 
-    public static synchronized void releasePort(InetAddress localAddress, int portNumber) {
-        portsInUse.remove((Object) portNumber);
+    public static void releasePort(InetAddress localAddress, int portNumber) {
+        portsInUse.releasePort(portNumber);
     }
 
     public void release(SshMachineLocation machine) {
-        LocalhostMachine localMachine = (LocalhostMachine) machine;
-        Set<Integer> portsObtained = Sets.newLinkedHashSet();
-        synchronized (localMachine.portsObtained) {
-            portsObtained.addAll(localMachine.portsObtained);
-        }
+        Set<Integer> portsObtained = machine.getUsedPorts();
         
         super.release(machine);
         
         for (int p: portsObtained)
-            releasePort(null, p);
+            machine.releasePort(p);
     }
     
     public static class LocalhostMachine extends SshMachineLocation {
         private static final WithMutexes mutexSupport = new MutexSupport();
         
-        private final Set<Integer> portsObtained = Sets.newLinkedHashSet();
-
         public LocalhostMachine() {
             this(MutableMap.of("mutexSupport", mutexSupport));
         }
         public LocalhostMachine(Map properties) {
             super(MutableMap.builder().putAll(properties).put("mutexSupport", mutexSupport).build());
         }
-        public boolean obtainSpecificPort(int portNumber) {
-            return LocalhostMachineProvisioningLocation.obtainSpecificPort(getAddress(), portNumber);
-        }
-        public int obtainPort(PortRange range) {
-            int r = LocalhostMachineProvisioningLocation.obtainPort(getAddress(), range);
-            synchronized (portsObtained) {
-                if (r>0) portsObtained.add(r);
-            }
-            return r;
-        }
-        public void releasePort(int portNumber) {
-            synchronized (portsObtained) {
-                portsObtained.remove((Object)portNumber);
-            }
-            LocalhostMachineProvisioningLocation.releasePort(getAddress(), portNumber);
+        
+        /** ports on all localhost machines are obtained from the one allocator, and checked they are not in use by other processes */
+        @Override
+        protected PortAllocator newPortAllocator() {
+            return portsInUse;
         }
         
         @Override
@@ -0,0 +1,122 @@
+package brooklyn.location.basic;
+
+import java.util.List;
+import java.util.Map;
+
+import brooklyn.location.OsDetails;
+import brooklyn.location.basic.BasicOsDetails.OsArchs;
+import brooklyn.location.basic.BasicOsDetails.OsNames;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Facts about a machine (OS, architecture, installed executables, java version) which are gathered
+ * with a single script, so that drivers can consult them rather than each checking them again.
+ * <p>
+ * Facts are held as a map of strings, so that they can be persisted with the machine.
+ *
+ * @see SshMachineLocation#getMachineFacts()
+ */
+public class MachineFacts {
+
+    public static final String OS_NAME = "os.name";
+    public static final String OS_ARCH = "os.arch";
+    public static final String OS_KERNEL = "os.kernel";
+    public static final String OS_VERSION = "os.version";
+    public static final String OS_DISTRO = "os.distro";
+    /** first line of /etc/issue, as checked by {@link brooklyn.util.ssh.CommonCommands#on(String, String)} */
+    public static final String OS_ISSUE = "os.issue";
+    public static final String JAVA_VERSION = "java.version";
+    /** prefix for whether each of {@link #EXECUTABLES} is on the path, e.g. {@code which.curl=true} */
+    public static final String EXECUTABLE_PREFIX = "which.";
+
+    /** executables commonly checked for (and installed if missing) by drivers */
+    public static final List<String> EXECUTABLES = ImmutableList.of(
+            "java", "curl", "wget", "tar", "zip", "unzip", "sudo", "apt-get", "yum", "rpm", "port", "brew");
+
+    /** each fact is written to stdout on a line starting with this, to distinguish it from any other output (e.g. from login scripts) */
+    static final String LINE_PREFIX = "brooklyn-fact:";
+
+    /** the script which writes all the facts to stdout */
+    public static List<String> gatherScript() {
+        ImmutableList.Builder<String> result = ImmutableList.builder();
+        result.add(
+                "echo \""+LINE_PREFIX+OS_NAME+"=$(uname -s)\"",
+                "echo \""+LINE_PREFIX+OS_ARCH+"=$(uname -m)\"",
+                "echo \""+LINE_PREFIX+OS_KERNEL+"=$(uname -r)\"",
+                "if [ -f /etc/issue ]; then echo \""+LINE_PREFIX+OS_ISSUE+"=$(head -1 /etc/issue)\"; fi",
+                "if [ -f /etc/os-release ]; then ( . /etc/os-release ; echo \""+LINE_PREFIX+OS_DISTRO+"=$ID\" ; echo \""+LINE_PREFIX+OS_VERSION+"=$VERSION_ID\" ); "+
+                        "elif which sw_vers > /dev/null 2>&1; then echo \""+LINE_PREFIX+OS_VERSION+"=$(sw_vers -productVersion)\"; fi");
+        for (String executable : EXECUTABLES) {
+            result.add("if which "+executable+" > /dev/null 2>&1; then echo \""+LINE_PREFIX+EXECUTABLE_PREFIX+executable+"=true\"; "+
+                    "else echo \""+LINE_PREFIX+EXECUTABLE_PREFIX+executable+"=false\"; fi");
+        }
+        result.add("if which java > /dev/null 2>&1; then echo \""+LINE_PREFIX+JAVA_VERSION+"=$(java -version 2>&1 | head -1 | sed -e 's/[^\"]*\"\\([^\"]*\\)\".*/\\1/')\"; fi");
+        result.add("true");
+        return result.build();
+    }
+
+    /** parses the output of {@link #gatherScript()} */
+    public static MachineFacts fromOutput(String stdout) {
+        Map<String,String> facts = Maps.newLinkedHashMap();
+        for (String line : stdout.split("\r?\n")) {
+            int start = line.indexOf(LINE_PREFIX);
+            if (start < 0) continue;
+            String fact = line.substring(start + LINE_PREFIX.length());
+            int equals = fact.indexOf('=');
+            if (equals <= 0) continue;
+            String value = fact.substring(equals+1).trim();
+            if (value.length() > 0) facts.put(fact.substring(0, equals), value);
+        }
+        return new MachineFacts(facts);
+    }
+
+    private final Map<String,String> facts;
+
+    public MachineFacts(Map<String,String> facts) {
+        this.facts = ImmutableMap.copyOf(facts);
+    }
+
+    /** the given fact, or null if it is not known */
+    public String get(String fact) {
+        return facts.get(fact);
+    }
+
+    public Map<String,String> asMap() {
+        return facts;
+    }
+
+    /** whether the executable is on the path, or null if it was not checked */
+    public Boolean hasExecutable(String executable) {
+        String result = facts.get(EXECUTABLE_PREFIX+executable);
+        return (result != null) ? Boolean.valueOf(result) : null;
+    }
+
+    /** the java version (e.g. "1.6.0_27"), or null if java is not on the path */
+    public String getJavaVersion() {
+        return facts.get(JAVA_VERSION);
+    }
+
+    /** whether /etc/issue mentions the given OS name (as for {@link brooklyn.util.ssh.CommonCommands#on(String, String)}) */
+    public boolean isOn(String osName) {
+        String issue = facts.get(OS_ISSUE);
+        return issue != null && issue.contains(osName);
+    }
+
+    public OsDetails getOsDetails() {
+        String name = facts.get(OS_NAME);
+        if ("Darwin".equals(name)) name = OsNames.MAC_OS_X;
+        else if (name != null) name = name.toLowerCase();
+        String version = facts.get(OS_VERSION);
+        if (version == null) version = facts.get(OS_KERNEL);
+        String arch = facts.get(OS_ARCH);
+        return new BasicOsDetails(name != null ? name : "linux", arch != null ? arch : OsArchs.I386, version != null ? version : "unknown");
+    }
+
+    @Override
+    public String toString() {
+        return "MachineFacts"+facts;
+    }
+}
@@ -0,0 +1,129 @@
+package brooklyn.location.basic;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import brooklyn.location.PortRange;
+import brooklyn.location.basic.PortRanges.AggregatePortRange;
+import brooklyn.location.basic.PortRanges.LinearPortRange;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Records which ports are in use on a machine, as a bitmap, so that obtaining a port from a range
+ * jumps straight to the next free port in the range rather than checking each port in turn.
+ * <p>
+ * Subclasses can override {@link #isAvailable(int)} to also check that a port is actually free on the machine
+ * (e.g. by binding to it, for localhost). Ports which fail that check are remembered, and skipped when
+ * obtaining ports from a range, until the given recheck period has passed; so many entities starting together
+ * do not each probe the same ports in turn.
+ */
+public class PortAllocator {
+
+    private final long recheckUnavailableMillis;
+
+    /** ports obtained through this allocator (or marked as used) */
+    private final BitSet used = new BitSet();
+    /** ports found to be in use by something else, since {@link #unavailableSince} */
+    private final BitSet unavailable = new BitSet();
+    private long unavailableSince = System.currentTimeMillis();
+    private long probes;
+
+    public PortAllocator() {
+        this(0);
+    }
+
+    /**
+     * @param recheckUnavailableMillis how long to skip ports which {@link #isAvailable(int)} reported as in use,
+     *        when obtaining ports from a range
+     */
+    public PortAllocator(long recheckUnavailableMillis) {
+        this.recheckUnavailableMillis = recheckUnavailableMillis;
+    }
+
+    /** whether the given port is actually free on the machine; by default, assumes it is */
+    protected boolean isAvailable(int port) {
+        return true;
+    }
+
+    /** obtains the given port, if not already in use; it is always checked with {@link #isAvailable(int)} */
+    public synchronized boolean obtainSpecificPort(int port) {
+        if (port < 0 || used.get(port)) return false;
+        if (!probe(port)) return false;
+        used.set(port);
+        return true;
+    }
+
+    /** obtains the first free port in the given range, or returns -1 if there is none */
+    public synchronized int obtainPort(PortRange range) {
+        long now = System.currentTimeMillis();
+        if (now - unavailableSince > recheckUnavailableMillis) {
+            unavailable.clear();
+            unavailableSince = now;
+        }
+        return obtainFrom(range);
+    }
+
+    private int obtainFrom(PortRange range) {
+        if (range instanceof AggregatePortRange) {
+            for (PortRange r : ((AggregatePortRange)range).ranges) {
+                int result = obtainFrom(r);
+                if (result >= 0) return result;
+            }
+            return -1;
+        }
+        if (range instanceof LinearPortRange && ((LinearPortRange)range).delta == 1) {
+            LinearPortRange r = (LinearPortRange) range;
+            for (int p = used.nextClearBit(Math.max(r.start, 0)); p <= r.end; p = used.nextClearBit(p+1)) {
+                if (tryObtain(p)) return p;
+            }
+            return -1;
+        }
+        for (int p : range) {
+            if (p >= 0 && !used.get(p) && tryObtain(p)) return p;
+        }
+        return -1;
+    }
+
+    private boolean tryObtain(int port) {
+        if (unavailable.get(port)) return false;
+        if (!probe(port)) return false;
+        used.set(port);
+        return true;
+    }
+
+    private boolean probe(int port) {
+        probes++;
+        boolean result = isAvailable(port);
+        unavailable.set(port, !result);
+        return result;
+    }
+
+    public synchronized void releasePort(int port) {
+        if (port >= 0) used.clear(port);
+    }
+
+    /** marks the given ports as used, e.g. those recorded for a machine before a rebind */
+    public synchronized void markUsed(Iterable<Integer> ports) {
+        for (int p : ports) {
+            if (p >= 0) used.set(p);
+        }
+    }
+
+    public synchronized boolean isUsed(int port) {
+        return port >= 0 && used.get(port);
+    }
+
+    public synchronized Set<Integer> getUsedPorts() {
+        ImmutableSet.Builder<Integer> result = ImmutableSet.builder();
+        for (int p = used.nextSetBit(0); p >= 0; p = used.nextSetBit(p+1)) {
+            result.add(p);
+        }
+        return result.build();
+    }
+
+    /** the number of times {@link #isAvailable(int)} has been called */
+    public synchronized long getProbeCount() {
+        return probes;
+    }
+}
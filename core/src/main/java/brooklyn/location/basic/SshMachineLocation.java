@@ -3,6 +3,7 @@ package brooklyn.location.basic;
 import static brooklyn.util.GroovyJavaMethods.truth;
 import groovy.lang.Closure;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -18,6 +19,12 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +60,7 @@ import brooklyn.util.mutex.MutexSupport;
 import brooklyn.util.mutex.WithMutexes;
 import brooklyn.util.pool.BasicPool;
 import brooklyn.util.pool.Pool;
+import brooklyn.util.ssh.ArtifactCache;
 import brooklyn.util.stream.KnownSizeInputStream;
 import brooklyn.util.task.Tasks;
 import brooklyn.util.text.Strings;
@@ -68,6 +76,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Operations on a machine that is accessible via ssh.
@@ -102,6 +112,27 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     @SetFromFlag
     private Set<Integer> usedPorts;
 
+    private transient PortAllocator portAllocator;
+
+    /** facts gathered about the machine, kept as a map so they are persisted; see {@link #getMachineFacts()} */
+    @SetFromFlag
+    private Map<String,String> machineFacts;
+    
+    private transient MachineFacts cachedMachineFacts;
+    
+    /** guards the machine facts fields, rather than this, so that gathering does not block other callers */
+    private final Object machineFactsMutex = new Object[0];
+    
+    /** the gathering of facts in progress, if any; see {@link #gatherMachineFactsAsync(Executor)} */
+    private transient FutureTask<MachineFacts> machineFactsGathering;
+    
+    /** after a failure to gather facts, the time until which we do not try again; the delay doubles with each failure */
+    private transient long machineFactsRetryTime;
+    private transient long machineFactsRetryDelay;
+    
+    private static final long MACHINE_FACTS_INITIAL_RETRY_DELAY = 5*1000;
+    private static final long MACHINE_FACTS_MAX_RETRY_DELAY = 5*60*1000;
+
     /** any property that should be passed as ssh config (connection-time) 
      *  can be prefixed with this and . and will be passed through (with the prefix removed),
      *  e.g. (SSHCONFIG_PREFIX+"."+"StrictHostKeyChecking"):"yes" 
@@ -134,6 +165,7 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     public static final ConfigKey<Boolean> NO_STDOUT_LOGGING = new BasicConfigKey<Boolean>(Boolean.class, "noStdoutLogging", "whether to disable logging of stdout from SSH commands (e.g. for verbose commands)", false);
     public static final ConfigKey<Boolean> NO_STDERR_LOGGING = new BasicConfigKey<Boolean>(Boolean.class, "noStderrLogging", "whether to disable logging of stderr from SSH commands (e.g. for verbose commands)", false);
     public static final ConfigKey<String> LOG_PREFIX = new StringConfigKey("logPrefix");
+    public static final ConfigKey<Boolean> USE_ARTIFACT_CACHE = new BasicConfigKey<Boolean>(Boolean.class, "useArtifactCache", "whether installTo copies resources via the management node's artifact cache (rather than directly)", true);
     
     public static final ConfigKey<File> LOCAL_TEMP_DIR = SshTool.PROP_LOCAL_TEMP_DIR;
 
@@ -163,6 +195,8 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
      public SshMachineLocation(Map properties) {
         super(properties);
         usedPorts = (usedPorts != null) ? Sets.newLinkedHashSet(usedPorts) : Sets.<Integer>newLinkedHashSet();
+        portAllocator = newPortAllocator();
+        portAllocator.markUsed(usedPorts);
         vanillaSshToolPool = buildVanillaPool();
     }
 
@@ -598,11 +632,18 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
 
     /** installs the given URL at the indicated destination.
      * attempts to curl the sourceUrl on the remote machine,
-     * then if that fails, loads locally (from classpath or file) and transfers.
+     * then if that fails, loads locally (from classpath or file) and transfers,
+     * via the {@link ArtifactCache} (so skipping the transfer if this machine already has the same content)
+     * unless {@link #USE_ARTIFACT_CACHE} is false (in the given props, or else in this location's config).
      * <p>
      * accepts either a path (terminated with /) or filename for the destination. 
      **/
     public int installTo(ResourceUtils loader, String url, String destination) {
+        return installTo(MutableMap.<String,Object>of(), loader, url, destination);
+    }
+    public int installTo(Map<String,?> props, ResourceUtils loader, String url, String destination) {
+        Boolean useArtifactCache = (Boolean) props.get(USE_ARTIFACT_CACHE.getName());
+        if (useArtifactCache == null) useArtifactCache = getConfig(USE_ARTIFACT_CACHE);
         if (destination.endsWith("/")) {
             String destName = url;
             destName = destName.contains("?") ? destName.substring(0, destName.indexOf("?")) : destName;
@@ -621,7 +662,11 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
             
             if (result!=0 && loader!=null) {
                 LOG.debug("installing {} to {} on {}, curl failed, attempting local fetch and copy", new Object[] {url, destination, this});
-                result = copyTo(loader.getResourceFromUrl(url), destination);
+                if (!Boolean.FALSE.equals(useArtifactCache)) {
+                    result = ArtifactCache.getInstance().copyTo(this, loader, url, destination);
+                } else {
+                    result = copyTo(loader.getResourceFromUrl(url), destination);
+                }
             }
             if (result==0)
                 LOG.debug("installing {} complete; {} on {}", new Object[] {url, destination, this});
@@ -638,29 +683,48 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
         return "SshMachineLocation["+name+":"+address+"]";
     }
 
+    /** the allocator for ports on this machine; {@link #usedPorts} is kept in step with it, so they are persisted */
+    protected PortAllocator newPortAllocator() {
+        return new PortAllocator();
+    }
+
     /**
      * @see #obtainPort(PortRange)
      * @see BasicPortRange#ANY_HIGH_PORT
      */
     public boolean obtainSpecificPort(int portNumber) {
 	    // TODO Does not yet check if the port really is free on this machine
-        if (usedPorts.contains(portNumber)) {
-            return false;
-        } else {
+        if (!portAllocator.obtainSpecificPort(portNumber)) return false;
+        synchronized (usedPorts) {
             usedPorts.add(portNumber);
-            return true;
         }
+        return true;
     }
 
     public int obtainPort(PortRange range) {
-        for (int p: range)
-            if (obtainSpecificPort(p)) return p;
-         if (LOG.isDebugEnabled()) LOG.debug("unable to find port in {} on {}; returning -1", range, this);
-         return -1;
+        int p = portAllocator.obtainPort(range);
+        if (p < 0) {
+            if (LOG.isDebugEnabled()) LOG.debug("unable to find port in {} on {}; returning -1", range, this);
+            return -1;
+        }
+        synchronized (usedPorts) {
+            usedPorts.add(p);
+        }
+        return p;
     }
 
     public void releasePort(int portNumber) {
-        usedPorts.remove((Object) portNumber);
+        synchronized (usedPorts) {
+            usedPorts.remove((Object) portNumber);
+        }
+        portAllocator.releasePort(portNumber);
+    }
+
+    /** the ports obtained on this machine and not yet released */
+    Set<Integer> getUsedPorts() {
+        synchronized (usedPorts) {
+            return ImmutableSet.copyOf(usedPorts);
+        }
     }
 
     public boolean isSshable() {
@@ -689,9 +753,126 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
         }
     }
     
+    /**
+     * Returns the facts about this machine (OS, installed executables, etc), gathering them with one script 
+     * (in the calling thread) the first time they are needed; concurrent callers share the one gathering. 
+     * Returns null if they could not be gathered; they are not tried again until a delay has passed,
+     * which grows with each failure.
+     */
+    public MachineFacts getMachineFacts() {
+        try {
+            return gatherMachineFactsAsync(MoreExecutors.sameThreadExecutor()).get();
+        } catch (InterruptedException e) {
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            // gatherMachineFacts reports its own failures
+            return null;
+        }
+    }
+
+    /**
+     * Starts gathering the facts about this machine with the given executor (e.g. in the background, as soon as 
+     * the machine is obtained), unless they are known or already being gathered, returning the gathering. 
+     * Its result is null if they could not be gathered, including if they failed to be gathered recently
+     * or the executor rejected the gathering.
+     */
+    public Future<MachineFacts> gatherMachineFactsAsync(Executor executor) {
+        FutureTask<MachineFacts> gathering;
+        synchronized (machineFactsMutex) {
+            MachineFacts cached = getCachedMachineFacts();
+            if (cached != null) return Futures.immediateFuture(cached);
+            if (machineFactsGathering != null) return machineFactsGathering;
+            if (System.currentTimeMillis() < machineFactsRetryTime) {
+                if (LOG.isDebugEnabled()) LOG.debug("Not gathering facts about {}, as failed recently", this);
+                return Futures.<MachineFacts>immediateFuture(null);
+            }
+            gathering = new FutureTask<MachineFacts>(new Callable<MachineFacts>() {
+                    public MachineFacts call() {
+                        return gatherMachineFacts();
+                    }}) {
+                @Override protected void done() {
+                    onMachineFactsGathered(this);
+                }
+            };
+            machineFactsGathering = gathering;
+        }
+        try {
+            executor.execute(gathering);
+        } catch (RejectedExecutionException e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Not gathering facts about {}, as executor rejected it: {}", this, e);
+            synchronized (machineFactsMutex) {
+                if (machineFactsGathering == gathering) machineFactsGathering = null;
+            }
+            return Futures.<MachineFacts>immediateFuture(null);
+        }
+        return gathering;
+    }
+
+    private void onMachineFactsGathered(FutureTask<MachineFacts> gathering) {
+        MachineFacts result;
+        try {
+            result = gathering.get();
+        } catch (Exception e) {
+            result = null;
+        }
+        synchronized (machineFactsMutex) {
+            // if cleared meanwhile, the facts may be out of date
+            if (machineFactsGathering != gathering) return;
+            machineFactsGathering = null;
+            if (result != null) {
+                cachedMachineFacts = result;
+                machineFacts = result.asMap();
+                machineFactsRetryDelay = 0;
+            } else {
+                machineFactsRetryDelay = Math.min(Math.max(2*machineFactsRetryDelay, MACHINE_FACTS_INITIAL_RETRY_DELAY), MACHINE_FACTS_MAX_RETRY_DELAY);
+                machineFactsRetryTime = System.currentTimeMillis() + machineFactsRetryDelay;
+            }
+        }
+    }
+
+    /** the facts about this machine if they have already been gathered (including before a rebind), otherwise null */
+    public MachineFacts getCachedMachineFacts() {
+        synchronized (machineFactsMutex) {
+            if (cachedMachineFacts == null && machineFacts != null) {
+                cachedMachineFacts = new MachineFacts(machineFacts);
+            }
+            return cachedMachineFacts;
+        }
+    }
+
+    /** discards the facts about this machine, e.g. after installing software, so they are gathered again when next needed */
+    public void clearMachineFacts() {
+        synchronized (machineFactsMutex) {
+            cachedMachineFacts = null;
+            machineFacts = null;
+            machineFactsGathering = null;
+            machineFactsRetryTime = 0;
+            machineFactsRetryDelay = 0;
+        }
+    }
+
+    protected MachineFacts gatherMachineFacts() {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        try {
+            int result = execScript(MutableMap.of("out", stdout), "gathering machine facts", MachineFacts.gatherScript());
+            if (result != 0) {
+                LOG.warn("Unable to gather facts about {}: exit code {}", this, result);
+                return null;
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to gather facts about "+this+": "+e);
+            if (LOG.isDebugEnabled()) LOG.debug("Trace for failure gathering facts about "+this, e);
+            return null;
+        }
+        MachineFacts result = MachineFacts.fromOutput(new String(stdout.toByteArray()));
+        if (LOG.isDebugEnabled()) LOG.debug("Gathered facts about {}: {}", this, result);
+        return result;
+    }
+
     @Override
     public OsDetails getOsDetails() {
-        // TODO ssh and find out what we need to know, or use jclouds...
+        MachineFacts facts = getMachineFacts();
+        if (facts != null) return facts.getOsDetails();
         return BasicOsDetails.Factory.ANONYMOUS_LINUX;
     }
 
@@ -723,6 +904,8 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     private void readObject(java.io.ObjectInputStream in)
             throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        portAllocator = newPortAllocator();
+        portAllocator.markUsed(usedPorts);
         vanillaSshToolPool = buildVanillaPool();
     }
 
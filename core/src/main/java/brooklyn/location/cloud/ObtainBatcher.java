@@ -0,0 +1,260 @@
+package brooklyn.location.cloud;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.entity.Entity;
+import brooklyn.location.BatchMachineProvisioningLocation;
+import brooklyn.location.BatchMachineProvisioningLocation.ObtainBatch;
+import brooklyn.location.MachineLocation;
+import brooklyn.location.NoMachinesAvailableException;
+import brooklyn.location.basic.LocationConfigKeys;
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Coalesces concurrent calls to {@link BatchMachineProvisioningLocation#obtain(Map)} by the callers of an expected batch
+ * (see {@link BatchMachineProvisioningLocation#expectObtains(Collection)}) into calls to {@link #obtainBatch(List)}:
+ * one for each distinct set of flags (ignoring the caller context) within that batch.
+ * Calls whose caller context is not expected by any open batch are not batched.
+ * <p>
+ * Calls with the same flags are provisioned together once all expected callers have called,
+ * or once the window has passed since the first of them, or the batch is closed.
+ * Each caller's machine is set up with that caller's own flags, so callers do not wait for the whole batch.
+ * A machine obtained for a caller which has since been interrupted is released.
+ * <p>
+ * The owner must call {@link #close()} when done with the batcher, to stop the thread which times the windows.
+ */
+public abstract class ObtainBatcher<T extends MachineLocation> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ObtainBatcher.class);
+
+    private final long windowMillis;
+    private final List<ExpectedBatch> expected = Lists.newArrayList();
+    /** times the windows; created when first needed */
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    private class ExpectedBatch implements ObtainBatch {
+        /** callers expected but not yet called; see {@link ObtainBatcher#toCallerKey(Object)} */
+        final Set<Object> remaining = Sets.newHashSet();
+        final Map<Map<String,?>, Waiting> waiting = new LinkedHashMap<Map<String,?>, Waiting>();
+
+        ExpectedBatch(Collection<?> callerContexts) {
+            for (Object callerContext : callerContexts) remaining.add(toCallerKey(callerContext));
+        }
+
+        @Override
+        public void close() {
+            synchronized (ObtainBatcher.this) {
+                remaining.clear();
+                expected.remove(this);
+            }
+            flushAll(this);
+        }
+    }
+
+    private class Waiting {
+        final ExpectedBatch batch;
+        final Map<String,?> key;
+        final List<Map<?,?>> flags = Lists.newArrayList();
+        final List<SettableFuture<T>> callers = Lists.newArrayList();
+
+        Waiting(ExpectedBatch batch, Map<String,?> key) {
+            this.batch = batch;
+            this.key = key;
+        }
+    }
+
+    public ObtainBatcher(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * obtains a machine for each of the given sets of flags, which are equivalent apart from the caller context;
+     * see {@link BatchMachineProvisioningLocation#obtainBatch(List)}
+     */
+    protected abstract List<ListenableFuture<T>> obtainBatch(List<Map<?,?>> flagsPerMachine);
+
+    /** releases a machine obtained for a caller which is no longer waiting for it */
+    protected abstract void release(T machine);
+
+    /** as {@link BatchMachineProvisioningLocation#expectObtains(Collection)}; once this batcher is closed, the callers are not batched */
+    public synchronized ObtainBatch expectObtains(Collection<?> callerContexts) {
+        ExpectedBatch result = new ExpectedBatch(callerContexts);
+        if (!closed && !result.remaining.isEmpty()) expected.add(result);
+        return result;
+    }
+
+    /** closes all open batches, so the calls waiting in them are provisioned, and stops timing windows */
+    public void close() {
+        List<ExpectedBatch> toClose;
+        ScheduledExecutorService toStop;
+        synchronized (this) {
+            closed = true;
+            toClose = Lists.newArrayList(expected);
+            toStop = scheduler;
+            scheduler = null;
+        }
+        for (ExpectedBatch batch : toClose) {
+            batch.close();
+        }
+        if (toStop != null) toStop.shutdownNow();
+    }
+
+    /**
+     * Obtains a machine as part of the batch expecting this caller (identified by the caller context flag),
+     * if there is one; otherwise returns null, and the caller should provision the machine individually.
+     */
+    public T obtain(Map<?,?> flags) throws NoMachinesAvailableException {
+        SettableFuture<T> result = SettableFuture.create();
+        Map<String,?> key = toKey(flags);
+        ExpectedBatch batch = null;
+        boolean flushNow;
+        synchronized (this) {
+            Object caller = toCallerKey(getCallerContext(flags));
+            if (caller == null || closed) return null;
+            for (ExpectedBatch b : expected) {
+                if (b.remaining.remove(caller)) {
+                    batch = b;
+                    break;
+                }
+            }
+            if (batch == null) return null;
+
+            Waiting w = batch.waiting.get(key);
+            if (w == null) {
+                final Waiting newWaiting = new Waiting(batch, key);
+                batch.waiting.put(key, newWaiting);
+                w = newWaiting;
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactoryBuilder().setNameFormat("brooklyn-obtain-batcher-%d").setDaemon(true).build());
+                }
+                scheduler.schedule(new Runnable() {
+                        public void run() {
+                            flush(newWaiting);
+                        }},
+                        windowMillis, TimeUnit.MILLISECONDS);
+            }
+            w.flags.add(flags);
+            w.callers.add(result);
+            flushNow = batch.remaining.isEmpty();
+        }
+        if (flushNow) flushAll(batch);
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            // the caller will not use its machine, so release it once it is ready
+            if (!result.cancel(false)) {
+                try {
+                    releaseQuietly(result.get());
+                } catch (Exception e2) {
+                    // failed, so nothing to release
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NoMachinesAvailableException) throw (NoMachinesAvailableException) e.getCause();
+            throw Exceptions.propagate(e.getCause());
+        }
+    }
+
+    private Object getCallerContext(Map<?,?> flags) {
+        Object result = flags.get(LocationConfigKeys.CALLER_CONTEXT);
+        return (result != null) ? result : flags.get(LocationConfigKeys.CALLER_CONTEXT.getName());
+    }
+
+    /** entities are identified by id, as the cluster knows its members by their proxies but they pass themselves */
+    private static Object toCallerKey(Object callerContext) {
+        return (callerContext instanceof Entity) ? ((Entity)callerContext).getId() : callerContext;
+    }
+
+    /** the flags which must be equal for machines to be provisioned together */
+    protected Map<String,?> toKey(Map<?,?> flags) {
+        Map<String,Object> result = new LinkedHashMap<String,Object>();
+        for (Map.Entry<?,?> entry : flags.entrySet()) {
+            Object key = entry.getKey();
+            result.put((key instanceof ConfigKey) ? ((ConfigKey<?>)key).getName() : key.toString(), entry.getValue());
+        }
+        result.remove(LocationConfigKeys.CALLER_CONTEXT.getName());
+        return Collections.unmodifiableMap(result);
+    }
+
+    private void flushAll(ExpectedBatch batch) {
+        List<Waiting> toFlush;
+        synchronized (this) {
+            toFlush = Lists.newArrayList(batch.waiting.values());
+        }
+        for (Waiting w : toFlush) {
+            flush(w);
+        }
+    }
+
+    private void flush(Waiting w) {
+        synchronized (this) {
+            // may already have been flushed, e.g. when the window expires after the batch completed
+            if (w.batch.waiting.get(w.key) != w) return;
+            w.batch.waiting.remove(w.key);
+        }
+        int count = w.callers.size();
+        if (LOG.isDebugEnabled()) LOG.debug("Obtaining batch of {} machine(s) with flags {}", count, w.key);
+
+        List<ListenableFuture<T>> machines;
+        try {
+            machines = obtainBatch(w.flags);
+        } catch (Exception e) {
+            for (SettableFuture<T> caller : w.callers) caller.setException(e);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            final SettableFuture<T> caller = w.callers.get(i);
+            if (i >= machines.size()) {
+                caller.setException(new NoMachinesAvailableException("Batch of "+count+" machines returned only "+machines.size()));
+                continue;
+            }
+            Futures.addCallback(machines.get(i), new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(T result) {
+                        // if the caller has been interrupted, nobody else will release the machine
+                        if (!caller.set(result)) releaseQuietly(result);
+                    }
+                    @Override
+                    public void onFailure(Throwable t) {
+                        caller.setException(t);
+                    }
+                });
+        }
+    }
+
+    private void releaseQuietly(T machine) {
+        if (machine == null) return;
+        try {
+            LOG.info("Releasing machine {} obtained for a caller no longer waiting for it", machine);
+            release(machine);
+        } catch (Exception e) {
+            LOG.warn("Problem releasing machine "+machine+"; continuing", e);
+        }
+    }
+}
@@ -155,7 +155,7 @@ public abstract class AbstractManagementContext implements ManagementContextInte
 
     @Deprecated
     @Override
-    public synchronized Collection<Entity> getEntities() {
+    public Collection<Entity> getEntities() {
         return getEntityManager().getEntities();
     }
     
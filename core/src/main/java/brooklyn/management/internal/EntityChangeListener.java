@@ -6,6 +6,7 @@ import brooklyn.event.AttributeSensor;
 public interface EntityChangeListener {
 
     public static final EntityChangeListener NOOP = new EntityChangeListener() {
+        @Override public void onDisplayNameChanged() {}
         @Override public void onAttributeChanged(AttributeSensor<?> attribute) {}
         @Override public void onLocationsChanged() {}
         @Override public void onMembersChanged() {}
@@ -15,6 +16,8 @@ public interface EntityChangeListener {
         @Override public void onEffectorCompleted(Effector<?> effector) {}
     };
     
+    void onDisplayNameChanged();
+
     void onAttributeChanged(AttributeSensor<?> attribute);
 
     void onLocationsChanged();
@@ -14,6 +14,7 @@ import brooklyn.entity.basic.AbstractEntity;
 import brooklyn.entity.basic.Entities;
 import brooklyn.entity.basic.EntityInternal;
 import brooklyn.event.AttributeSensor;
+import brooklyn.management.EntityManager;
 import brooklyn.management.ExecutionContext;
 import brooklyn.management.ManagementContext;
 import brooklyn.management.SubscriptionContext;
@@ -312,14 +313,30 @@ public class EntityManagementSupport {
         return entityChangeListener;
     }
     
+    /** the versions kept by the entity's management context, or null if it does not keep them */
+    private EntityVersions getEntityVersions() {
+        EntityManager entityManager = getManagementContext().getEntityManager();
+        return (entityManager instanceof LocalEntityManager) ? ((LocalEntityManager)entityManager).getEntityVersions() : null;
+    }
+    
     private class EntityChangeListenerImpl implements EntityChangeListener {
+        @Override
+        public void onDisplayNameChanged() {
+            getManagementContext().getRebindManager().getChangeListener().onChanged(entity);
+            EntityVersions versions = getEntityVersions();
+            if (versions != null) versions.onDisplayNameChanged(entity);
+        }
         @Override
         public void onChildrenChanged() {
             getManagementContext().getRebindManager().getChangeListener().onChanged(entity);
+            EntityVersions versions = getEntityVersions();
+            if (versions != null) versions.onChildrenChanged(entity, entity.getChildren());
         }
         @Override
         public void onLocationsChanged() {
             getManagementContext().getRebindManager().getChangeListener().onChanged(entity);
+            EntityVersions versions = getEntityVersions();
+            if (versions != null) versions.onChanged(entity);
         }
         @Override
         public void onMembersChanged() {
@@ -332,6 +349,8 @@ public class EntityManagementSupport {
         @Override
         public void onAttributeChanged(AttributeSensor<?> attribute) {
             getManagementContext().getRebindManager().getChangeListener().onChanged(entity);
+            EntityVersions versions = getEntityVersions();
+            if (versions != null) versions.onAttributeChanged(entity, attribute);
         }
         @Override
         public void onEffectorStarting(Effector<?> effector) {
@@ -0,0 +1,178 @@
+package brooklyn.management.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Attributes;
+import brooklyn.entity.trait.Startable;
+import brooklyn.event.AttributeSensor;
+import brooklyn.util.text.Identifiers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Versions of the managed entity hierarchy and of each managed entity's summary, so that clients
+ * (such as the REST API) can tell cheaply whether anything they have already been sent has changed,
+ * and find just the entities which have.
+ * <p>
+ * Versions are taken from a single counter, incremented on each change, so they increase
+ * monotonically across all entities. An entity's summary changes when it is managed, when its name,
+ * children or locations change, when it is moved to a new parent, or when one of the {@link #STATUS_ATTRIBUTES} changes;
+ * the hierarchy changes when any entity is managed or unmanaged, or any entity's name or children change.
+ * <p>
+ * The counter starts again with each management context (e.g. when the server restarts), so versions
+ * are only comparable with the same {@link #getEpoch() epoch}.
+ * <p>
+ * A bounded number of removals are remembered, for {@link #getRemovedSince(long)}.
+ */
+public class EntityVersions {
+
+    /** the attributes which summarise an entity's status, whose changes change the entity's version */
+    public static final List<AttributeSensor<?>> STATUS_ATTRIBUTES = ImmutableList.<AttributeSensor<?>>of(
+            Attributes.SERVICE_STATE, Startable.SERVICE_UP);
+
+    public static final int DEFAULT_MAX_REMOVALS_REMEMBERED = 10000;
+
+    private final int maxRemovalsRemembered;
+    private final String epoch = Identifiers.makeRandomId(8);
+
+    private final ConcurrentMap<String,Long> versionsByEntityId = new ConcurrentHashMap<String,Long>();
+
+    // all guarded by this
+    private long version;
+    private long hierarchyVersion;
+    private final Map<String,String> parentIdsByEntityId = new HashMap<String,String>();
+    private final LinkedHashMap<String,Long> removalVersionsByEntityId = new LinkedHashMap<String,Long>();
+    private long lastForgottenRemovalVersion;
+
+    public EntityVersions() {
+        this(DEFAULT_MAX_REMOVALS_REMEMBERED);
+    }
+
+    public EntityVersions(int maxRemovalsRemembered) {
+        this.maxRemovalsRemembered = maxRemovalsRemembered;
+    }
+
+    /** identifies this set of versions, so a client can tell versions from a previous management context */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /** the version of the most recent change to any entity, or to the hierarchy */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /** the version of the most recent change to the hierarchy */
+    public synchronized long getHierarchyVersion() {
+        return hierarchyVersion;
+    }
+
+    /** the version of the most recent change to the given entity's summary, or 0 if it is not managed */
+    public long getVersion(String entityId) {
+        Long result = versionsByEntityId.get(entityId);
+        return (result == null) ? 0 : result;
+    }
+
+    /** the greatest version of the given entities (which changes whenever any of them change) */
+    public long getMaxVersion(Iterable<? extends Entity> entities) {
+        long result = 0;
+        for (Entity entity : entities) {
+            result = Math.max(result, getVersion(entity.getId()));
+        }
+        return result;
+    }
+
+    /** the IDs of the managed entities which have changed since the given version (including those newly managed) */
+    public List<String> getChangedSince(long sinceVersion) {
+        List<String> result = Lists.newArrayList();
+        for (Map.Entry<String,Long> entry : versionsByEntityId.entrySet()) {
+            if (entry.getValue() > sinceVersion) result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * the IDs of the entities which have been unmanaged since the given version,
+     * or null if removals since that version have been forgotten (so a client must discard what it has)
+     */
+    public synchronized List<String> getRemovedSince(long sinceVersion) {
+        if (sinceVersion < lastForgottenRemovalVersion) return null;
+        List<String> result = Lists.newArrayList();
+        for (Map.Entry<String,Long> entry : removalVersionsByEntityId.entrySet()) {
+            if (entry.getValue() > sinceVersion) result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    void onManaged(Entity entity) {
+        // (reads the parent before locking, as the entity may be locked by a thread waiting to record a change)
+        Entity parent = entity.getParent();
+        String parentId = (parent != null) ? parent.getId() : null;
+        synchronized (this) {
+            long v = ++version;
+            hierarchyVersion = v;
+            removalVersionsByEntityId.remove(entity.getId());
+            versionsByEntityId.put(entity.getId(), v);
+            parentIdsByEntityId.put(entity.getId(), parentId);
+        }
+    }
+
+    synchronized void onUnmanaged(Entity entity) {
+        long v = ++version;
+        hierarchyVersion = v;
+        parentIdsByEntityId.remove(entity.getId());
+        if (versionsByEntityId.remove(entity.getId()) != null) {
+            removalVersionsByEntityId.put(entity.getId(), v);
+            for (Iterator<Long> it = removalVersionsByEntityId.values().iterator();
+                    removalVersionsByEntityId.size() > maxRemovalsRemembered && it.hasNext();) {
+                lastForgottenRemovalVersion = it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /** records a change to the entity's children, which changes it, any children moved to it from another parent, and the hierarchy */
+    synchronized void onChildrenChanged(Entity entity, Collection<Entity> children) {
+        long v = ++version;
+        hierarchyVersion = v;
+        setIfManaged(entity, v);
+        for (Entity child : children) {
+            if (parentIdsByEntityId.containsKey(child.getId()) && !entity.getId().equals(parentIdsByEntityId.get(child.getId()))) {
+                parentIdsByEntityId.put(child.getId(), entity.getId());
+                setIfManaged(child, v);
+            }
+        }
+    }
+
+    /** records a change to the entity's name, which changes it and (as names are shown in the tree) the hierarchy */
+    synchronized void onDisplayNameChanged(Entity entity) {
+        if (!versionsByEntityId.containsKey(entity.getId())) return;
+        long v = ++version;
+        hierarchyVersion = v;
+        versionsByEntityId.put(entity.getId(), v);
+    }
+
+    synchronized void onChanged(Entity entity) {
+        setIfManaged(entity, ++version);
+    }
+
+    void onAttributeChanged(Entity entity, AttributeSensor<?> attribute) {
+        if (STATUS_ATTRIBUTES.contains(attribute)) onChanged(entity);
+    }
+
+    private void setIfManaged(Entity entity, long v) {
+        // only entities currently managed are recorded, so unmanaged ones are not leaked
+        if (versionsByEntityId.containsKey(entity.getId())) {
+            versionsByEntityId.put(entity.getId(), v);
+        }
+    }
+}
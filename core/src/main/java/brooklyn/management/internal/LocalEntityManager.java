@@ -1,12 +1,19 @@
 package brooklyn.management.internal;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import groovy.util.ObservableList;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,15 +29,27 @@ import brooklyn.entity.proxying.EntitySpecs;
 import brooklyn.entity.proxying.EntityTypeRegistry;
 import brooklyn.entity.proxying.InternalEntityFactory;
 import brooklyn.entity.trait.Startable;
+import brooklyn.location.ClosedWhenUnused;
+import brooklyn.location.Location;
 import brooklyn.management.EntityManager;
 import brooklyn.management.internal.ManagementTransitionInfo.ManagementTransitionMode;
 import brooklyn.util.exceptions.Exceptions;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 
+/**
+ * A local implementation of the {@link EntityManager} API.
+ * <p>
+ * The registry of entities is held in concurrent maps, so that lookups (e.g. {@link #getEntity(String)} from
+ * REST calls) never block, even while large trees of entities are being managed or unmanaged. Management 
+ * walks the tree without holding any global lock, updating the registry one entity at a time. 
+ * Secondary indexes allow the entities of a given application, or of a given type, to be found without 
+ * iterating over all entities. {@link #getEntities()} returns the entities in the order they were managed.
+ */
 public class LocalEntityManager implements EntityManager {
 
     private static final Logger log = LoggerFactory.getLogger(LocalEntityManager.class);
@@ -39,23 +58,43 @@ public class LocalEntityManager implements EntityManager {
     private final BasicEntityTypeRegistry entityTypeRegistry;
     private final InternalEntityFactory entityFactory;
     
-    /** Entities that have been created, but have not yet begun to be managed */
-    protected final Map<String,Entity> preRegisteredEntitiesById = new WeakHashMap<String, Entity>();
+    /** Entities that have been created, but have not yet begun to be managed (weakly referenced) */
+    protected final ConcurrentMap<String,Entity> preRegisteredEntitiesById = new MapMaker().weakValues().makeMap();
 
-    /** Entities that are in the process of being managed, but where management is not yet complete */
-    protected final Map<String,Entity> preManagedEntitiesById = new WeakHashMap<String, Entity>();
+    /** Entities that are in the process of being managed, but where management is not yet complete (weakly referenced) */
+    protected final ConcurrentMap<String,Entity> preManagedEntitiesById = new MapMaker().weakValues().makeMap();
     
     /** Proxies of the managed entities */
-    protected final Map<String,Entity> entityProxiesById = Maps.newLinkedHashMap();
+    protected final ConcurrentMap<String,Entity> entityProxiesById = new ConcurrentHashMap<String,Entity>();
+    
+    /** Proxies of the managed entities, in the order they were managed (keyed by a sequence number, as {@link #entityProxiesById} is unordered) */
+    protected final ConcurrentNavigableMap<Long,Entity> entityProxiesInManagementOrder = new ConcurrentSkipListMap<Long,Entity>();
+    
+    /** The key of each managed entity in {@link #entityProxiesInManagementOrder} */
+    private final ConcurrentMap<String,Long> managementSequenceByEntityId = new ConcurrentHashMap<String,Long>();
+    
+    private final AtomicLong managementSequence = new AtomicLong();
     
     /** Real managed entities */
-    protected final Map<String,Entity> entitiesById = Maps.newLinkedHashMap();
+    protected final ConcurrentMap<String,Entity> entitiesById = new ConcurrentHashMap<String,Entity>();
     
-    /** Proxies of the managed entities */
-    protected final ObservableList entities = new ObservableList();
+    /** Proxies of the managed entities, indexed by the id of their application */
+    protected final ConcurrentMap<String,Set<Entity>> entityProxiesByApplicationId = new ConcurrentHashMap<String,Set<Entity>>();
+    
+    /** Proxies of the managed entities, indexed by the class of the proxy (all proxies of the same class implement the same interfaces) */
+    protected final ConcurrentMap<Class<?>,Set<Entity>> entityProxiesByType = new ConcurrentHashMap<Class<?>,Set<Entity>>();
+    
+    /** The application id under which each managed entity is indexed (as the entity's application can change after it is managed) */
+    private final ConcurrentMap<String,String> applicationIdsByEntityId = new ConcurrentHashMap<String,String>();
     
     /** Proxies of the managed entities that are applications */
-    protected final Set<Application> applications = Sets.newLinkedHashSet();
+    protected final Set<Application> applications = new CopyOnWriteArraySet<Application>();
+    
+    /** Listeners to be told of entities being managed/unmanaged (each wrapped to notify asynchronously) */
+    private final List<CollectionChangeListener<Entity>> entitySetListeners = new CopyOnWriteArrayList<CollectionChangeListener<Entity>>();
+
+    /** Versions of the hierarchy and of each managed entity's summary */
+    private final EntityVersions entityVersions = new EntityVersions();
 
     public LocalEntityManager(LocalManagementContext managementContext) {
         this.managementContext = checkNotNull(managementContext, "managementContext");
@@ -88,16 +127,44 @@ public class LocalEntityManager implements EntityManager {
     }
 
     @Override
-    public synchronized Collection<Entity> getEntities() {
-        return ImmutableList.copyOf(entityProxiesById.values());
+    public Collection<Entity> getEntities() {
+        return ImmutableList.copyOf(entityProxiesInManagementOrder.values());
     }
     
     @Override
-    public synchronized Entity getEntity(String id) {
+    public Entity getEntity(String id) {
         return entityProxiesById.get(id);
     }
     
-    synchronized Collection<Application> getApplications() {
+    /**
+     * @return proxies of the managed entities in the given application (including the application itself)
+     */
+    public Collection<Entity> getEntitiesInApplication(Application application) {
+        Set<Entity> result = entityProxiesByApplicationId.get(application.getId());
+        return (result == null) ? Collections.<Entity>emptyList() : ImmutableList.copyOf(result);
+    }
+    
+    /**
+     * @return proxies of the managed entities that are instances of the given type (e.g. an entity interface)
+     */
+    public Collection<Entity> getEntitiesOfType(Class<?> type) {
+        List<Entity> result = Lists.newArrayList();
+        for (Map.Entry<Class<?>,Set<Entity>> entry : entityProxiesByType.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @return the versions of the managed entity hierarchy and of each managed entity
+     */
+    public EntityVersions getEntityVersions() {
+        return entityVersions;
+    }
+    
+    Collection<Application> getApplications() {
         return ImmutableList.copyOf(applications);
     }
     
@@ -106,17 +173,16 @@ public class LocalEntityManager implements EntityManager {
         return (isRunning() && getEntity(e.getId()) != null);
     }
     
-    synchronized boolean isPreRegistered(Entity e) {
+    boolean isPreRegistered(Entity e) {
         return preRegisteredEntitiesById.containsKey(e.getId());
     }
     
-    synchronized void prePreManage(Entity entity) {
-        if (isPreRegistered(entity)) {
+    void prePreManage(Entity entity) {
+        Entity old = preRegisteredEntitiesById.putIfAbsent(entity.getId(), entity);
+        if (old != null) {
             log.warn(""+this+" redundant call to pre-pre-manage entity"+entity+"; skipping", 
                     new Exception("source of duplicate pre-pre-manage of "+entity));
-            return;
         }
-        preRegisteredEntitiesById.put(entity.getId(), entity);
     }
 
     // TODO synchronization issues here. We guard with isManaged(), but if another thread executing 
@@ -163,6 +229,8 @@ public class LocalEntityManager implements EntityManager {
     public void unmanage(Entity e) {
         if (shouldSkipUnmanagement(e)) return;
         
+        Collection<Location> appLocations = (e instanceof Application && e.getParent() == null) ? 
+                ImmutableList.copyOf(e.getLocations()) : Collections.<Location>emptyList();
         final ManagementTransitionInfo info = new ManagementTransitionInfo(managementContext, ManagementTransitionMode.NORMAL);
         recursively(e, new Predicate<EntityInternal>() { public boolean apply(EntityInternal it) {
             if (shouldSkipUnmanagement(it)) return false;
@@ -178,6 +246,35 @@ public class LocalEntityManager implements EntityManager {
             if (managementContext.gc != null) managementContext.gc.onUnmanaged(it);
             return result; 
         } });
+        
+        closeLocations(appLocations, true);
+    }
+    
+    /**
+     * Closes those of the given locations which are {@link ClosedWhenUnused} (such as a pool of pre-provisioned
+     * machines); if onlyUnused, skips any still used by a managed application.
+     */
+    void closeLocations(Collection<Location> locations, boolean onlyUnused) {
+        Set<Location> inUse = Sets.newHashSet();
+        if (onlyUnused) {
+            for (Application app : applications) inUse.addAll(app.getLocations());
+        }
+        for (Location loc : Sets.newLinkedHashSet(locations)) {
+            if (!(loc instanceof ClosedWhenUnused) || inUse.contains(loc)) continue;
+            try {
+                if (log.isDebugEnabled()) log.debug("{} closing location {}", this, loc);
+                ((ClosedWhenUnused)loc).close();
+            } catch (Exception ex) {
+                log.warn("Problem closing location "+loc+" (continuing)", ex);
+            }
+        }
+    }
+    
+    /** closes the locations of all applications; see {@link #closeLocations(Collection, boolean)} */
+    void closeAllLocations() {
+        List<Location> locations = Lists.newArrayList();
+        for (Application app : applications) locations.addAll(app.getLocations());
+        closeLocations(locations, false);
     }
     
     /**
@@ -222,7 +319,7 @@ public class LocalEntityManager implements EntityManager {
     /**
      * Whether the entity is in the process of being managed.
      */
-    private synchronized boolean isPreManaged(Entity e) {
+    private boolean isPreManaged(Entity e) {
         return preManagedEntitiesById.containsKey(e.getId());
     }
 
@@ -234,10 +331,10 @@ public class LocalEntityManager implements EntityManager {
      * attempt fails then this reference to the entity will eventually be discarded (if no-one else holds 
      * a reference).
      */
-    private synchronized boolean preManageNonRecursive(Entity e) {
+    private boolean preManageNonRecursive(Entity e) {
         Entity realE = toRealEntity(e);
         
-        Object old = preManagedEntitiesById.put(e.getId(), realE);
+        Object old = preManagedEntitiesById.putIfAbsent(e.getId(), realE);
         preRegisteredEntitiesById.remove(e.getId());
         
         if (old!=null) {
@@ -257,15 +354,11 @@ public class LocalEntityManager implements EntityManager {
      * Should ensure that the entity is now managed somewhere, and known about in all the lists.
      * Returns true if the entity has now become managed; false if it was already managed (anything else throws exception)
      */
-    private synchronized boolean manageNonRecursive(Entity e) {
+    private boolean manageNonRecursive(Entity e) {
         Entity realE = toRealEntity(e);
         Entity proxyE = toProxyEntityIfAvailable(e);
         
-        // If we don't already know about the proxy, then use the real thing; presumably it's 
-        // the legacy way of creating the entity so didn't get a preManage() call
-        entityProxiesById.put(e.getId(), proxyE);
-        
-        Object old = entitiesById.put(e.getId(), realE);
+        Object old = entitiesById.putIfAbsent(e.getId(), realE);
         if (old!=null) {
             if (old.equals(e)) {
                 log.warn("{} redundant call to start management of entity {}", this, e);
@@ -275,11 +368,21 @@ public class LocalEntityManager implements EntityManager {
             return false;
         } else {
             if (log.isDebugEnabled()) log.debug("{} starting management of entity {}", this, e);
+            // If we don't already know about the proxy, then use the real thing; presumably it's 
+            // the legacy way of creating the entity so didn't get a preManage() call
+            long sequence = managementSequence.incrementAndGet();
+            managementSequenceByEntityId.put(e.getId(), sequence);
+            entityProxiesInManagementOrder.put(sequence, proxyE);
+            entityProxiesById.put(e.getId(), proxyE);
+            addToIndexes(e, proxyE);
             preManagedEntitiesById.remove(e.getId());
             if ((e instanceof Application) && (e.getParent()==null)) {
                 applications.add((Application)proxyE);
             }
-            entities.add(proxyE);
+            entityVersions.onManaged(proxyE);
+            for (CollectionChangeListener<Entity> listener : entitySetListeners) {
+                listener.onItemAdded(proxyE);
+            }
             return true;
         }
     }
@@ -288,14 +391,22 @@ public class LocalEntityManager implements EntityManager {
      * Should ensure that the entity is no longer managed anywhere, remove from all lists.
      * Returns true if the entity has been removed from management; if it was not previously managed (anything else throws exception) 
      */
-    private synchronized boolean unmanageNonRecursive(Entity e) {
+    private boolean unmanageNonRecursive(Entity e) {
         Entity proxyE = toProxyEntityIfAvailable(e);
         
         e.clearParent();
         if (e instanceof Application) applications.remove(proxyE);
-        entities.remove(proxyE);
-        entityProxiesById.remove(e.getId());
+        boolean wasKnown = (entityProxiesById.remove(e.getId()) != null);
+        Long sequence = managementSequenceByEntityId.remove(e.getId());
+        if (sequence != null) entityProxiesInManagementOrder.remove(sequence);
+        removeFromIndexes(e, proxyE);
+        entityVersions.onUnmanaged(proxyE);
         Object old = entitiesById.remove(e.getId());
+        if (wasKnown) {
+            for (CollectionChangeListener<Entity> listener : entitySetListeners) {
+                listener.onItemRemoved(proxyE);
+            }
+        }
         
         if (old==null) {
             log.warn("{} call to stop management of unknown entity (already unmanaged?) {}", this, e);
@@ -310,15 +421,48 @@ public class LocalEntityManager implements EntityManager {
         }
     }
 
+    private void addToIndexes(Entity e, Entity proxyE) {
+        String appId = e.getApplicationId();
+        if (appId != null) {
+            applicationIdsByEntityId.put(e.getId(), appId);
+            indexSet(entityProxiesByApplicationId, appId).add(proxyE);
+        }
+        indexSet(entityProxiesByType, proxyE.getClass()).add(proxyE);
+    }
+    
+    private void removeFromIndexes(Entity e, Entity proxyE) {
+        String appId = applicationIdsByEntityId.remove(e.getId());
+        if (appId != null) {
+            Set<Entity> appEntities = entityProxiesByApplicationId.get(appId);
+            if (appEntities != null) appEntities.remove(proxyE);
+        }
+        if (e instanceof Application) {
+            // (the application is unmanaged before its descendants, which will then find no index to remove themselves from)
+            entityProxiesByApplicationId.remove(e.getId());
+        }
+        Set<Entity> typeEntities = entityProxiesByType.get(proxyE.getClass());
+        if (typeEntities != null) typeEntities.remove(proxyE);
+    }
+    
+    private static <K> Set<Entity> indexSet(ConcurrentMap<K,Set<Entity>> index, K key) {
+        Set<Entity> result = index.get(key);
+        if (result == null) {
+            Set<Entity> newSet = Sets.newSetFromMap(new ConcurrentHashMap<Entity,Boolean>());
+            result = index.putIfAbsent(key, newSet);
+            if (result == null) result = newSet;
+        }
+        return result;
+    }
+
     void addEntitySetListener(CollectionChangeListener<Entity> listener) {
         //must notify listener in a different thread to avoid deadlock (issue #378)
         AsyncCollectionChangeAdapter<Entity> wrappedListener = new AsyncCollectionChangeAdapter<Entity>(managementContext.getExecutionManager(), listener);
-        entities.addPropertyChangeListener(new GroovyObservablesPropertyChangeToCollectionChangeAdapter(wrappedListener));
+        entitySetListeners.add(wrappedListener);
     }
 
     void removeEntitySetListener(CollectionChangeListener<Entity> listener) {
         AsyncCollectionChangeAdapter<Entity> wrappedListener = new AsyncCollectionChangeAdapter<Entity>(managementContext.getExecutionManager(), listener);
-        entities.removePropertyChangeListener(new GroovyObservablesPropertyChangeToCollectionChangeAdapter(wrappedListener));
+        entitySetListeners.remove(wrappedListener);
     }
     
     private boolean shouldSkipUnmanagement(Entity e) {
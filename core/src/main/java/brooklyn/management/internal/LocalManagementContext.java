@@ -31,7 +31,7 @@ public class LocalManagementContext extends AbstractManagementContext {
 
     private BasicExecutionManager execution;
     private SubscriptionManager subscriptions;
-    private LocalEntityManager entityManager;
+    private volatile LocalEntityManager entityManager;
     
     private final String shortid = Identifiers.getBase64IdFromValue(System.identityHashCode(this), 5);
     private final String tostring = "LocalManagementContext("+shortid+")";
@@ -57,7 +57,7 @@ public class LocalManagementContext extends AbstractManagementContext {
     }
 
     @Override
-    public synchronized Collection<Application> getApplications() {
+    public Collection<Application> getApplications() {
         return getEntityManager().getApplications();
     }
     
@@ -76,13 +76,22 @@ public class LocalManagementContext extends AbstractManagementContext {
         getEntityManager().manageIfNecessary(entity, context);
     }
     
-    public synchronized LocalEntityManager getEntityManager() {
+    /**
+     * Not synchronized (once the entity manager exists), as this is called on every entity lookup.
+     */
+    public LocalEntityManager getEntityManager() {
         if (!isRunning()) throw new IllegalStateException("Management context no longer running");
         
-        if (entityManager == null) {
-            entityManager = new LocalEntityManager(this);
+        LocalEntityManager result = entityManager;
+        if (result == null) {
+            synchronized (this) {
+                if (entityManager == null) {
+                    entityManager = new LocalEntityManager(this);
+                }
+                result = entityManager;
+            }
         }
-        return entityManager;
+        return result;
     }
 
     @Override
@@ -108,6 +117,8 @@ public class LocalManagementContext extends AbstractManagementContext {
     
     @Override
     public void terminate() {
+        // release anything held by locations (e.g. pre-provisioned machines), while entities can still be looked up
+        if (isRunning() && entityManager != null) entityManager.closeAllLocations();
         super.terminate();
         if (execution != null) execution.shutdownNow();
         if (gc != null) gc.shutdownNow();
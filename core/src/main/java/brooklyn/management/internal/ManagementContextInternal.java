@@ -21,6 +21,10 @@ public interface ManagementContextInternal extends ManagementContext {
             "The URL of a catalog.xml descriptor; absent for default (~/.brooklyn/catalog.xml), " +
             "or empty for no URL (use default scanner)", "file://~/.brooklyn/catalog.xml");
     
+    public static final ConfigKey<String> BROOKLYN_CATALOG_SCAN_INDEX_DIR = new StringConfigKey("brooklyn.catalog.scanIndexDir",
+            "Directory where the types found by scanning each jar for the catalog (with annotations) are remembered; " +
+            "absent for default (catalog-index in the brooklyn data dir), or empty to scan the whole classpath every time", null);
+    
     ClassLoader getBaseClassLoader();
 
     Iterable<URL> getBaseClassPathForScanning();
@@ -67,6 +67,12 @@ public interface SshTool {
     public static final ConfigKey<String> PROP_SCRIPT_DIR = new StringConfigKey("scriptDir", "directory where scripts should be copied", "/tmp");
     public static final ConfigKey<String> PROP_SCRIPT_HEADER = new StringConfigKey("scriptHeader", "lines to insert at the start of scripts generated for caller-supplied commands for script execution", "#!/bin/bash -e\n");
     public static final ConfigKey<String> PROP_DIRECT_HEADER = new StringConfigKey("directHeader", "commands to run remotely before any caller-supplied commands for direct execution", "exec bash -e");
+    public static final ConfigKey<Boolean> PROP_SESSION_MULTIPLEXING = new BasicConfigKey<Boolean>(Boolean.class, "sessionMultiplexing", "whether to share authenticated ssh sessions with other tools connecting to the same host with the same credentials, opening a channel per operation; not supported by all SshTool implementations", true);
+    public static final ConfigKey<Integer> PROP_MAX_SESSIONS_PER_HOST = new BasicConfigKey<Integer>(Integer.class, "maxSessionsPerHost", "Max number of shared ssh sessions per host (with session multiplexing)", 2);
+    public static final ConfigKey<Integer> PROP_MAX_CHANNELS_PER_SESSION = new BasicConfigKey<Integer>(Integer.class, "maxChannelsPerSession", "Max number of concurrent channels on each shared ssh session (with session multiplexing); must not exceed the server's MaxSessions", 8);
+    public static final ConfigKey<Integer> PROP_CHANNEL_WAIT_TIMEOUT = new BasicConfigKey<Integer>(Integer.class, "channelWaitTimeout", "Max time (in milliseconds) to wait for a free channel on the shared ssh sessions (with session multiplexing), after which a separate session is opened; if 0 then waits indefinitely", 60*1000);
+    public static final ConfigKey<Integer> PROP_KEEP_ALIVE_INTERVAL = new BasicConfigKey<Integer>(Integer.class, "keepAliveInterval", "Interval (in seconds) between keep-alive messages on shared ssh sessions (with session multiplexing); if 0 then none are sent", 60);
+    public static final ConfigKey<Boolean> PROP_SCRIPT_OVER_STDIN = new BasicConfigKey<Boolean>(Boolean.class, "scriptOverStdin", "whether to send scripts over the stdin of a single exec channel, rather than copying them to the server first; falls back to copying if unsupported by the server; not supported by all SshTool implementations", true);
 
     public static final ConfigKey<String> PROP_PERMISSIONS = new StringConfigKey("permissions", "Default permissions for files copied/created on remote machine; must be four-digit octal string, default '0644'", "0644");
     public static final ConfigKey<Long> PROP_LAST_MODIFICATION_DATE = new BasicConfigKey<Long>(Long.class, "lastModificationDate", "Last-modification-date to be set on files copied/created (should be UTC/1000, ie seconds since 1970; defaults to current)", 0L);
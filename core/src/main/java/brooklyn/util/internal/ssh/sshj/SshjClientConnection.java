@@ -5,6 +5,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
@@ -186,6 +188,24 @@ public class SshjClientConnection implements SshAction<SSHClient> {
         return ssh;
     }
 
+    /**
+     * @return a new (unconnected) connection with the same configuration
+     */
+    SshjClientConnection copy() {
+        return new Builder().hostAndPort(hostAndPort).username(username).password(password)
+                .privateKeyPassphrase(privateKeyPassphrase).privateKeyData(privateKeyData).privateKeyFile(privateKeyFile)
+                .strictHostKeyChecking(strictHostKeyChecking).connectTimeout(connectTimeout).sessionTimeout(sessionTimeout)
+                .build();
+    }
+
+    /**
+     * @return a value that is equal for connections to the same host, as the same user with the same credentials
+     *         (so that could share an underlying ssh session)
+     */
+    List<Object> getSessionKey() {
+        return Arrays.<Object>asList(hostAndPort, username, password, privateKeyPassphrase, privateKeyData, privateKeyFile, strictHostKeyChecking);
+    }
+
     /**
      * @return host and port, where port if not present defaults to {@code 22}
      */
@@ -0,0 +1,432 @@
+package brooklyn.util.internal.ssh.sshj;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.schmizz.sshj.SSHClient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Shares authenticated ssh sessions between {@link SshjTool}s connecting to the same host, as the same user
+ * with the same credentials, so that each ssh operation opens a lightweight channel on an existing session
+ * rather than doing a full handshake.
+ * <p>
+ * For each host, at most {@code maxSessionsPerHost} sessions are opened, each with at most
+ * {@code maxChannelsPerSession} channels open at a time (note sshd's {@code MaxSessions} defaults to 10);
+ * callers wait for a channel when all are in use. A caller which waits longer than its timeout is given
+ * a fresh session of its own instead, outside those limits, which is closed when its channel is released.
+ * Idle sessions are kept alive with heartbeats, and are closed once every tool using that host has disconnected.
+ * <p>
+ * Thread-safe.
+ */
+public class SshjSessionMultiplexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshjSessionMultiplexer.class);
+
+    private static final SshjSessionMultiplexer INSTANCE = new SshjSessionMultiplexer();
+
+    /** The multiplexer shared by all {@link SshjTool}s in this JVM. */
+    public static SshjSessionMultiplexer getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<List<Object>, HostSessions> hosts = Maps.newLinkedHashMap();
+
+    private final AtomicLong totalSessionsCreated = new AtomicLong();
+    private final AtomicLong totalChannelLeases = new AtomicLong();
+    private final AtomicLong totalChannelWaits = new AtomicLong();
+    private final AtomicLong totalChannelWaitMillis = new AtomicLong();
+    private final AtomicLong maxChannelWaitMillis = new AtomicLong();
+    private final AtomicLong totalChannelWaitTimeouts = new AtomicLong();
+
+    @VisibleForTesting
+    protected SshjSessionMultiplexer() {
+    }
+
+    /**
+     * Registers a user of sessions matching the given connection's host, user and credentials.
+     * The handle must be closed when no longer needed; sessions are closed when all of their host's
+     * handles have been closed.
+     */
+    public Handle open(SshjClientConnection connection, int maxSessionsPerHost, int maxChannelsPerSession, int keepAliveIntervalSecs) {
+        checkArgument(maxSessionsPerHost > 0, "maxSessionsPerHost must be positive");
+        checkArgument(maxChannelsPerSession > 0, "maxChannelsPerSession must be positive");
+        List<Object> key = connection.getSessionKey();
+        HostSessions host;
+        synchronized (hosts) {
+            host = hosts.get(key);
+            if (host == null) {
+                host = new HostSessions(key, connection);
+                hosts.put(key, host);
+            }
+            host.handleCount++;
+            host.maxSessions = maxSessionsPerHost;
+            host.maxChannelsPerSession = maxChannelsPerSession;
+            host.keepAliveIntervalSecs = keepAliveIntervalSecs;
+        }
+        return new Handle(host);
+    }
+
+    private void close(HostSessions host) {
+        List<SharedSession> toClose;
+        synchronized (hosts) {
+            host.handleCount--;
+            if (host.handleCount > 0) return;
+            hosts.remove(host.key);
+            synchronized (host) {
+                host.closed = true;
+                toClose = Lists.newArrayList(host.sessions);
+                host.sessions.clear();
+                host.notifyAll();
+            }
+        }
+        for (SharedSession session : toClose) {
+            if (LOG.isDebugEnabled()) LOG.debug("Closing shared ssh session {}, as no longer in use", session);
+            disconnect(session.client);
+        }
+    }
+
+    /** Connects and authenticates a new session. */
+    protected SSHClient connect(SshjClientConnection template, int keepAliveIntervalSecs) throws Exception {
+        SshjClientConnection connection = template.copy();
+        SSHClient client;
+        try {
+            client = connection.create();
+        } catch (Exception e) {
+            // e.g. connected but failed to authenticate
+            connection.clear();
+            throw e;
+        }
+        if (keepAliveIntervalSecs > 0) {
+            client.getTransport().setHeartbeatInterval(keepAliveIntervalSecs);
+        }
+        return client;
+    }
+
+    protected boolean isViable(SSHClient client) {
+        return client.isConnected() && client.isAuthenticated();
+    }
+
+    protected void disconnect(SSHClient client) {
+        try {
+            client.disconnect();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error disconnecting shared ssh session "+client+" (continuing)", e);
+        }
+    }
+
+    /** The number of shared sessions currently open. */
+    public int getSessionCount() {
+        int result = 0;
+        for (HostSessions host : getHosts()) {
+            synchronized (host) {
+                result += host.sessions.size();
+            }
+        }
+        return result;
+    }
+
+    /** The number of channels currently open on shared sessions. */
+    public int getChannelsInUseCount() {
+        int result = 0;
+        for (HostSessions host : getHosts()) {
+            synchronized (host) {
+                for (SharedSession session : host.sessions) result += session.channelsInUse;
+            }
+        }
+        return result;
+    }
+
+    public long getTotalSessionsCreated() {
+        return totalSessionsCreated.get();
+    }
+
+    public long getTotalChannelLeases() {
+        return totalChannelLeases.get();
+    }
+
+    /** The number of channel leases that had to wait, because all channels for the host were in use. */
+    public long getTotalChannelWaits() {
+        return totalChannelWaits.get();
+    }
+
+    public long getTotalChannelWaitMillis() {
+        return totalChannelWaitMillis.get();
+    }
+
+    public long getMaxChannelWaitMillis() {
+        return maxChannelWaitMillis.get();
+    }
+
+    /** The number of channel leases that waited too long, so were given a fresh session of their own. */
+    public long getTotalChannelWaitTimeouts() {
+        return totalChannelWaitTimeouts.get();
+    }
+
+    public Map<String, Object> getMetrics() {
+        return ImmutableMap.<String, Object>builder()
+                .put("sessions", getSessionCount())
+                .put("channelsInUse", getChannelsInUseCount())
+                .put("totalSessionsCreated", getTotalSessionsCreated())
+                .put("totalChannelLeases", getTotalChannelLeases())
+                .put("totalChannelWaits", getTotalChannelWaits())
+                .put("totalChannelWaitMillis", getTotalChannelWaitMillis())
+                .put("maxChannelWaitMillis", getMaxChannelWaitMillis())
+                .put("totalChannelWaitTimeouts", getTotalChannelWaitTimeouts())
+                .build();
+    }
+
+    private List<HostSessions> getHosts() {
+        synchronized (hosts) {
+            return Lists.newArrayList(hosts.values());
+        }
+    }
+
+    private void recordWait(long waitMillis) {
+        totalChannelWaits.incrementAndGet();
+        totalChannelWaitMillis.addAndGet(waitMillis);
+        long max;
+        do {
+            max = maxChannelWaitMillis.get();
+        } while (waitMillis > max && !maxChannelWaitMillis.compareAndSet(max, waitMillis));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("metrics", getMetrics()).toString();
+    }
+
+    /**
+     * A user of the shared sessions for a host; see {@link SshjSessionMultiplexer#open(SshjClientConnection, int, int, int)}.
+     */
+    public class Handle {
+        private final HostSessions host;
+        private volatile boolean closed = false;
+
+        private Handle(HostSessions host) {
+            this.host = host;
+        }
+
+        /**
+         * Reserves a channel on a shared session (connecting a new session if none has a free channel
+         * and the host's session limit has not been reached), waiting if all channels are in use.
+         * The lease must be released when the channel is closed.
+         */
+        public ChannelLease leaseChannel() throws Exception {
+            return leaseChannel(0);
+        }
+
+        /**
+         * As {@link #leaseChannel()}, but if no channel is free within the given time (if positive), 
+         * connects a fresh session for this caller alone, which is closed when the lease is released.
+         */
+        public ChannelLease leaseChannel(long timeoutMillis) throws Exception {
+            checkState(!closed, "handle closed");
+            return host.leaseChannel(timeoutMillis);
+        }
+
+        /**
+         * Ensures there is a session for this host, connecting one if necessary.
+         */
+        public void ensureConnected() throws Exception {
+            if (!isConnected()) leaseChannel().release();
+        }
+
+        /** Whether there is a viable session for this host. */
+        public boolean isConnected() {
+            if (closed) return false;
+            synchronized (host) {
+                for (SharedSession session : host.sessions) {
+                    if (isViable(session.client)) return true;
+                }
+                return false;
+            }
+        }
+
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            SshjSessionMultiplexer.this.close(host);
+        }
+    }
+
+    /**
+     * A reserved channel on a shared session.
+     */
+    public class ChannelLease {
+        private final HostSessions host;
+        private final SharedSession session;
+        /** whether the session is this lease's alone, to be closed on release */
+        private final boolean dedicated;
+        private boolean released = false;
+
+        private ChannelLease(HostSessions host, SharedSession session, boolean dedicated) {
+            this.host = host;
+            this.session = session;
+            this.dedicated = dedicated;
+        }
+
+        public SSHClient getClient() {
+            return session.client;
+        }
+
+        /** Returns the channel; if the session has since failed (or was this lease's alone), it is discarded. */
+        public void release() {
+            if (dedicated) {
+                synchronized (host) {
+                    if (released) return;
+                    released = true;
+                }
+                if (LOG.isDebugEnabled()) LOG.debug("Closing ssh session {}, opened after waiting too long for a shared one", session);
+                disconnect(session.client);
+                return;
+            }
+            synchronized (host) {
+                if (released) return;
+                released = true;
+                session.channelsInUse--;
+                if (!host.closed && !isViable(session.client) && host.sessions.remove(session)) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Discarding shared ssh session {}, as no longer connected", session);
+                    disconnect(session.client);
+                }
+                host.notifyAll();
+            }
+        }
+    }
+
+    private class HostSessions {
+        private final List<Object> key;
+        private final SshjClientConnection template;
+        private final List<SharedSession> sessions = Lists.newArrayList();
+        private int handleCount = 0;
+        private int connectingCount = 0;
+        private int maxSessions;
+        private int maxChannelsPerSession;
+        private int keepAliveIntervalSecs;
+        private boolean closed = false;
+
+        HostSessions(List<Object> key, SshjClientConnection template) {
+            this.key = key;
+            this.template = checkNotNull(template, "template");
+        }
+
+        ChannelLease leaseChannel(long timeoutMillis) throws Exception {
+            totalChannelLeases.incrementAndGet();
+            long startTime = System.currentTimeMillis();
+            boolean waited = false;
+            boolean timedOut = false;
+            try {
+                while (true) {
+                    synchronized (this) {
+                        checkState(!closed, "sessions closed for %s", template.getHostAndPort());
+                        discardNonViableIdleSessions();
+
+                        SharedSession leastLoaded = null;
+                        for (SharedSession session : sessions) {
+                            if (session.channelsInUse < maxChannelsPerSession && (leastLoaded == null || session.channelsInUse < leastLoaded.channelsInUse)) {
+                                leastLoaded = session;
+                            }
+                        }
+                        if (leastLoaded != null) {
+                            leastLoaded.channelsInUse++;
+                            return new ChannelLease(this, leastLoaded, false);
+                        }
+                        if (sessions.size() + connectingCount >= maxSessions) {
+                            waited = true;
+                            if (timeoutMillis <= 0) {
+                                wait();
+                                continue;
+                            }
+                            long remaining = startTime + timeoutMillis - System.currentTimeMillis();
+                            if (remaining > 0) {
+                                wait(remaining);
+                                continue;
+                            }
+                            timedOut = true;
+                        } else {
+                            connectingCount++;
+                        }
+                    }
+                    
+                    if (timedOut) {
+                        // rather than wait indefinitely behind long-running commands, connect a session of our own
+                        totalChannelWaitTimeouts.incrementAndGet();
+                        LOG.info("Waited more than {}ms for a shared ssh session to {}; opening a separate session", timeoutMillis, template.getHostAndPort());
+                        SharedSession session = new SharedSession(connect(template, keepAliveIntervalSecs));
+                        totalSessionsCreated.incrementAndGet();
+                        session.channelsInUse++;
+                        return new ChannelLease(this, session, true);
+                    }
+
+                    // connect outside of the lock, so as not to block other callers
+                    SSHClient client = null;
+                    try {
+                        client = connect(template, keepAliveIntervalSecs);
+                    } finally {
+                        synchronized (this) {
+                            connectingCount--;
+                            if (client != null) {
+                                totalSessionsCreated.incrementAndGet();
+                                SharedSession session = new SharedSession(client);
+                                if (closed) {
+                                    disconnect(client);
+                                } else {
+                                    if (LOG.isDebugEnabled()) LOG.debug("Opened shared ssh session {} to {}", session, template.getHostAndPort());
+                                    sessions.add(session);
+                                }
+                            }
+                            notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw Exceptions.propagate(e);
+            } finally {
+                if (waited) recordWait(System.currentTimeMillis() - startTime);
+            }
+        }
+
+        private void discardNonViableIdleSessions() {
+            for (Iterator<SharedSession> iter = sessions.iterator(); iter.hasNext();) {
+                SharedSession session = iter.next();
+                if (session.channelsInUse == 0 && !isViable(session.client)) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Discarding shared ssh session {}, as no longer connected", session);
+                    iter.remove();
+                    disconnect(session.client);
+                }
+            }
+        }
+    }
+
+    private static class SharedSession {
+        private final SSHClient client;
+        private int channelsInUse = 0;
+
+        SharedSession(SSHClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("client", client.hashCode()).add("channelsInUse", channelsInUse).toString();
+        }
+    }
+}
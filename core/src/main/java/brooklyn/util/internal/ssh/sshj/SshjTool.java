@@ -5,6 +5,7 @@ import static com.google.common.base.Throwables.getCausalChain;
 import static com.google.common.collect.Iterables.any;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -12,10 +13,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.connection.ConnectionException;
 import net.schmizz.sshj.connection.channel.direct.PTYMode;
 import net.schmizz.sshj.connection.channel.direct.Session;
@@ -41,6 +44,7 @@ import brooklyn.util.internal.ssh.SshTool;
 import brooklyn.util.stream.InputStreamSupplier;
 import brooklyn.util.stream.KnownSizeInputStream;
 import brooklyn.util.text.Identifiers;
+import brooklyn.util.text.StringEscapes.BashStringEscapes;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -70,6 +74,21 @@ public class SshjTool extends SshAbstractTool implements SshTool {
     protected final int sshTriesTimeout;
     protected final int sshTries;
     protected final BackoffLimitedRetryHandler backoffLimitedRetryHandler;
+    protected final boolean scriptOverStdin;
+    
+    /** Set if the server could not run a script sent over stdin, so subsequent scripts are copied instead. */
+    private boolean scriptOverStdinUnsupported = false;
+    
+    protected final boolean sessionMultiplexing;
+    protected final int maxSessionsPerHost;
+    protected final int maxChannelsPerSession;
+    protected final int channelWaitTimeout;
+    protected final int keepAliveInterval;
+    
+    /** When multiplexing, the handle on the shared sessions (if connected), and the leases of the channels we have open. */
+    private volatile SshjSessionMultiplexer.Handle sharedSessions;
+    private final Map<Object, SshjSessionMultiplexer.ChannelLease> channelLeases = Collections.synchronizedMap(
+            new IdentityHashMap<Object, SshjSessionMultiplexer.ChannelLease>());
 
     private class CloseFtpChannelOnCloseInputStream extends ProxyInputStream {
         private final SFTPClient sftp;
@@ -101,6 +120,12 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         protected int sshTries = 4;  //allow 4 tries by default, much safer
         protected int sshTriesTimeout = 2*60*1000;  //allow 2 minutesby default (so if too slow trying sshTries times, abort anyway)
         protected long sshRetryDelay = 50L;
+        protected boolean scriptOverStdin = true;
+        protected boolean sessionMultiplexing = true;
+        protected int maxSessionsPerHost = 2;
+        protected int maxChannelsPerSession = 8;
+        protected int channelWaitTimeout = 60*1000;
+        protected int keepAliveInterval = 60;
         
         public B from(Map<String,?> props) {
             super.from(props);
@@ -109,6 +134,12 @@ public class SshjTool extends SshAbstractTool implements SshTool {
             sshRetryDelay = getOptionalVal(props, PROP_SSH_RETRY_DELAY);
             connectTimeout = getOptionalVal(props, PROP_CONNECT_TIMEOUT);
             sessionTimeout = getOptionalVal(props, PROP_SESSION_TIMEOUT);
+            scriptOverStdin = getOptionalVal(props, PROP_SCRIPT_OVER_STDIN);
+            sessionMultiplexing = getOptionalVal(props, PROP_SESSION_MULTIPLEXING);
+            maxSessionsPerHost = getOptionalVal(props, PROP_MAX_SESSIONS_PER_HOST);
+            maxChannelsPerSession = getOptionalVal(props, PROP_MAX_CHANNELS_PER_SESSION);
+            channelWaitTimeout = getOptionalVal(props, PROP_CHANNEL_WAIT_TIMEOUT);
+            keepAliveInterval = getOptionalVal(props, PROP_KEEP_ALIVE_INTERVAL);
             return self();
         }
         public B connectTimeout(int val) {
@@ -126,6 +157,24 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         public B sshRetryDelay(long val) {
             this.sshRetryDelay = val; return self();
         }
+        public B scriptOverStdin(boolean val) {
+            this.scriptOverStdin = val; return self();
+        }
+        public B sessionMultiplexing(boolean val) {
+            this.sessionMultiplexing = val; return self();
+        }
+        public B maxSessionsPerHost(int val) {
+            this.maxSessionsPerHost = val; return self();
+        }
+        public B maxChannelsPerSession(int val) {
+            this.maxChannelsPerSession = val; return self();
+        }
+        public B channelWaitTimeout(int val) {
+            this.channelWaitTimeout = val; return self();
+        }
+        public B keepAliveInterval(int val) {
+            this.keepAliveInterval = val; return self();
+        }
         @SuppressWarnings("unchecked")
         public T build() {
             return (T) new SshjTool(this);
@@ -141,6 +190,12 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         
         sshTries = builder.sshTries;
         sshTriesTimeout = builder.sshTriesTimeout;
+        scriptOverStdin = builder.scriptOverStdin;
+        sessionMultiplexing = builder.sessionMultiplexing;
+        maxSessionsPerHost = builder.maxSessionsPerHost;
+        maxChannelsPerSession = builder.maxChannelsPerSession;
+        channelWaitTimeout = builder.channelWaitTimeout;
+        keepAliveInterval = builder.keepAliveInterval;
         backoffLimitedRetryHandler = new BackoffLimitedRetryHandler(sshTries, builder.sshRetryDelay);
 
         sshClientConnection = SshjClientConnection.builder()
@@ -162,7 +217,11 @@ public class SshjTool extends SshAbstractTool implements SshTool {
     public void connect() {
         try {
             if (LOG.isTraceEnabled()) LOG.trace("Connecting SshjTool {} ({})", this, System.identityHashCode(this));
-            acquire(sshClientConnection);
+            if (sessionMultiplexing) {
+                connectShared();
+            } else {
+                acquire(sshClientConnection);
+            }
         } catch (Exception e) {
             if (LOG.isDebugEnabled()) LOG.debug(toString()+" failed to connect (rethrowing)", e);
             throw propagate(e, "failed to connect");
@@ -178,6 +237,12 @@ public class SshjTool extends SshAbstractTool implements SshTool {
     public void disconnect() {
         if (LOG.isTraceEnabled()) LOG.trace("Disconnecting SshjTool {} ({})", this, System.identityHashCode(this));
         try {
+            SshjSessionMultiplexer.Handle handle;
+            synchronized (this) {
+                handle = sharedSessions;
+                sharedSessions = null;
+            }
+            if (handle != null) handle.close();
             sshClientConnection.clear();
         } catch (Exception e) {
             throw Throwables.propagate(e);
@@ -186,8 +251,81 @@ public class SshjTool extends SshAbstractTool implements SshTool {
 
     @Override
     public boolean isConnected() {
+        if (sessionMultiplexing) {
+            SshjSessionMultiplexer.Handle handle = sharedSessions;
+            return handle != null && handle.isConnected();
+        }
         return sshClientConnection.isConnected() && sshClientConnection.isAuthenticated();
     }
+
+    private void connectShared() {
+        acquire(sharedSessionConnection);
+    }
+
+    private final SshAction<Void> sharedSessionConnection = new SshAction<Void>() {
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public Void create() throws Exception {
+            SshjSessionMultiplexer.Handle handle;
+            synchronized (SshjTool.this) {
+                if (sharedSessions == null) {
+                    sharedSessions = SshjSessionMultiplexer.getInstance().open(sshClientConnection, maxSessionsPerHost, maxChannelsPerSession, keepAliveInterval);
+                }
+                handle = sharedSessions;
+            }
+            handle.ensureConnected();
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "SharedSession()";
+        }
+    };
+
+    /**
+     * When multiplexing, reserves a channel on a shared session; the channel opened must then be registered
+     * (with {@link #registerChannel(Object, SshjSessionMultiplexer.ChannelLease)}) so that the reservation is
+     * released when it is closed.
+     * 
+     * @return the reservation, or null if not multiplexing
+     */
+    private SshjSessionMultiplexer.ChannelLease leaseChannel() throws Exception {
+        checkConnected();
+        SshjSessionMultiplexer.Handle handle = sharedSessions;
+        return (handle != null) ? handle.leaseChannel(channelWaitTimeout) : null;
+    }
+
+    private SSHClient clientFor(SshjSessionMultiplexer.ChannelLease lease) {
+        return (lease != null) ? lease.getClient() : sshClientConnection.ssh;
+    }
+    
+    private <C> C registerChannel(C channel, SshjSessionMultiplexer.ChannelLease lease) {
+        if (lease != null) channelLeases.put(channel, lease);
+        return channel;
+    }
+    
+    private void releaseUnregistered(SshjSessionMultiplexer.ChannelLease lease) {
+        if (lease != null) lease.release();
+    }
+    
+    /**
+     * Also releases the reservation of the channel (if it is one) on the shared session.
+     */
+    @Override
+    protected void closeWhispering(Closeable closeable, Object context) {
+        try {
+            super.closeWhispering(closeable, context);
+        } finally {
+            if (closeable != null) {
+                SshjSessionMultiplexer.ChannelLease lease = channelLeases.remove(closeable);
+                if (lease != null) lease.release();
+            }
+        }
+    }
     
     @Override
     public int copyToServer(java.util.Map<String,?> props, byte[] contents, String pathAndFileOnRemoteServer) {
@@ -301,6 +439,11 @@ public class SshjTool extends SshAbstractTool implements SshTool {
      * 
      * So on balance, the script-based approach seems most reliable, even if there is an overhead
      * of separate message(s) for copying the file!
+     * <p>
+     * To avoid that overhead, by default (see {@link SshTool#PROP_SCRIPT_OVER_STDIN}) the script is instead
+     * sent over the stdin of a single exec channel, which writes it to the script file and runs it;
+     * stdout and stderr stay separate, and the exit status is that of the script. If the server cannot
+     * do that (or a PTY is required), this falls back to copying the script and running it in a shell.
      */
     @Override
     public int execScript(Map<String,?> props, List<String> commands, Map<String,?> env) {
@@ -313,6 +456,16 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         
         if (LOG.isTraceEnabled()) LOG.trace("Running shell command at {} as script: {}", host, scriptContents);
         
+        if (scriptOverStdin && !allocatePTY && !scriptOverStdinUnsupported) {
+            Integer result = acquire(new ScriptOverStdinAction(scriptPath, scriptContents.getBytes(), out, err));
+            if (result != null) {
+                return result;
+            } else {
+                LOG.debug("Unable to run script over stdin at {}; falling back to copying script for this and subsequent scripts", host);
+                scriptOverStdinUnsupported = true;
+            }
+        }
+        
         copyToServer(ImmutableMap.of("permissions", "0700"), scriptContents.getBytes(), scriptPath);
         
         // use "-f" because some systems have "rm" aliased to "rm -i"; use "< /dev/null" to guarantee doesn't hang
@@ -409,7 +562,7 @@ public class SshjTool extends SshAbstractTool implements SshTool {
                 } else {
                     if (LOG.isDebugEnabled()) LOG.debug("<< {}: {}", fullMessage, e.getMessage());
                     backoffForAttempt(i + 1, errorMessage + ": " + e.getMessage());
-                    if (connection != sshClientConnection)
+                    if (connection != sshClientConnection && connection != sharedSessionConnection)
                         connect();
                     continue;
                 }
@@ -430,9 +583,14 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         }
 
         @Override
-        public SFTPClient create() throws IOException {
-            checkConnected();
-            sftp = sshClientConnection.ssh.newSFTPClient();
+        public SFTPClient create() throws Exception {
+            SshjSessionMultiplexer.ChannelLease lease = leaseChannel();
+            try {
+                sftp = registerChannel(clientFor(lease).newSFTPClient(), lease);
+            } catch (Exception e) {
+                releaseUnregistered(lease);
+                throw e;
+            }
             return sftp;
         }
 
@@ -577,8 +735,13 @@ public class SshjTool extends SshAbstractTool implements SshTool {
 
             @Override
             public Session create() throws Exception {
-                checkConnected();
-                session = sshClientConnection.ssh.startSession();
+                SshjSessionMultiplexer.ChannelLease lease = leaseChannel();
+                try {
+                    session = registerChannel(clientFor(lease).startSession(), lease);
+                } catch (Exception e) {
+                    releaseUnregistered(lease);
+                    throw e;
+                }
                 allocatePTY(session);
                 return session;
             }
@@ -776,6 +939,143 @@ public class SshjTool extends SshAbstractTool implements SshTool {
         }
     }
 
+    /**
+     * The command that reads a script of the given length from stdin, writes it to the given path, echoes the
+     * marker and then runs the script, exiting with its exit status.
+     */
+    protected String toScriptOverStdinCommand(String scriptPath, int length, String marker) {
+        // use "-f" because some systems have "rm" aliased to "rm -i";
+        // run in a login shell, to have the same environment as when run in a shell
+        String bootstrap = "head -c "+length+" > "+scriptPath+" && chmod 700 "+scriptPath+" || exit 1; "+
+                "echo "+marker+"; "+
+                scriptPath+" < /dev/null; RESULT=$?; "+
+                "echo \"Executed "+scriptPath+", result $RESULT\"; "+
+                "rm -f "+scriptPath+" < /dev/null; exit $RESULT";
+        return "exec bash -l -c "+BashStringEscapes.wrapBash(bootstrap);
+    }
+
+    /**
+     * Runs a script in a single exec channel: the script is sent (length-delimited) over stdin, written to
+     * the given path and executed with stdin from /dev/null, so that it cannot consume any of itself. Before
+     * running the script, a unique marker line is echoed, which is stripped from stdout; if it is not seen then
+     * the script never ran.
+     * 
+     * @return the script's exit status (or -1 if none was received), or null if the script could not be run
+     */
+    class ScriptOverStdinAction implements SshAction<Integer> {
+        private final String scriptPath;
+        private final byte[] script;
+        private final String marker;
+        
+        private Session session;
+        private ScriptStartMarkerGobbler outgobbler;
+        private StreamGobbler errgobbler;
+        private OutputStream out;
+        private OutputStream err;
+
+        ScriptOverStdinAction(String scriptPath, byte[] script, OutputStream out, OutputStream err) {
+            this.scriptPath = checkNotNull(scriptPath, "scriptPath");
+            this.script = checkNotNull(script, "script");
+            this.marker = "BROOKLYN-SCRIPT-STARTING-"+Identifiers.makeRandomId(8);
+            this.out = out;
+            this.err = err;
+        }
+
+        @Override
+        public void clear() throws TransportException, ConnectionException {
+            closeWhispering(session, this);
+            closeWhispering(outgobbler, this);
+            closeWhispering(errgobbler, this);
+            session = null;
+        }
+
+        @Override
+        public Integer create() throws Exception {
+            try {
+                session = acquire(newSessionAction());
+                
+                Command command = session.exec(toScriptOverStdinCommand(scriptPath, script.length, marker));
+                
+                // always read stdout, to look for the marker
+                outgobbler = new ScriptStartMarkerGobbler(command.getInputStream(), out, marker);
+                outgobbler.start();
+                if (err != null) {
+                    errgobbler = new StreamGobbler(command.getErrorStream(), err, (Logger)null);
+                    errgobbler.start();
+                }
+                
+                OutputStream stdin = command.getOutputStream();
+                try {
+                    stdin.write(script);
+                    stdin.flush();
+                    // workaround attempt for SSHJ deadlock - https://github.com/shikhar/sshj/issues/105
+                    synchronized (stdin) {
+                        command.sendEOF();
+                    }
+                } catch (IOException e) {
+                    if (command.isOpen()) throw e;
+                    // command exited without reading the script; the marker check below will tell
+                    if (LOG.isDebugEnabled()) LOG.debug("Command closed to {} when sending script {}", SshjTool.this.toString(), scriptPath);
+                }
+                
+                try {
+                    command.join(sshClientConnection.getSessionTimeout(), TimeUnit.MILLISECONDS);
+                } finally {
+                    // wait for all stdout/stderr to have been re-directed
+                    try {
+                        outgobbler.join();
+                        if (errgobbler != null) errgobbler.join();
+                    } catch (InterruptedException e) {
+                        LOG.warn("Interrupted gobbling streams from ssh: "+scriptPath, e);
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                
+                if (!outgobbler.isMarkerSeen()) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Script over stdin to {} did not start (exit status {})", SshjTool.this.toString(), command.getExitStatus());
+                    return null;
+                }
+                Integer result = command.getExitStatus();
+                return (result != null) ? result : -1;
+                
+            } finally {
+                clear();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ScriptOverStdin(path=[" + scriptPath + " "+script.length+"])";
+        }
+    }
+
+    /**
+     * Gobbles stdout, stripping the line that marks the start of the script and recording whether it was seen.
+     */
+    @VisibleForTesting
+    static class ScriptStartMarkerGobbler extends StreamGobbler {
+        private final String marker;
+        private volatile boolean markerSeen = false;
+        
+        ScriptStartMarkerGobbler(InputStream stream, OutputStream out, String marker) {
+            super(stream, out, (Logger)null);
+            this.marker = checkNotNull(marker, "marker");
+        }
+        
+        @Override
+        public void onLine(String line) {
+            if (!markerSeen && line.trim().equals(marker)) {
+                markerSeen = true;
+            } else {
+                super.onLine(line);
+            }
+        }
+        
+        public boolean isMarkerSeen() {
+            return markerSeen;
+        }
+    }
+
 //    protected Payload toPayload(byte[] input) {
 //        return new ByteArrayPayload(input);
 //    }
@@ -0,0 +1,497 @@
+package brooklyn.util.ssh;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.util.MutableMap;
+import brooklyn.util.ResourceUtils;
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A content-addressed cache, on the management node, of artifacts (e.g. jars and wars) to be copied to machines.
+ * <p>
+ * Each artifact is fetched once (from its URL, which can be {@code classpath://}, {@code file://}, http, etc),
+ * checksummed with SHA-256 and stored on disk under its checksum; the least recently used artifacts are evicted
+ * when the cache exceeds its maximum size. Local files are re-read if their size or modification time changes;
+ * other urls (whose changes cannot be seen) are fetched again once their entry is older than {@code urlTtlMillis}.
+ * <p>
+ * {@link #copyTo(SshMachineLocation, ResourceUtils, String, String)} skips the transfer if the destination
+ * already has the same checksum, or if the machine has a copy of the artifact from an earlier install (kept in
+ * {@link #REMOTE_CACHE_DIR}). Otherwise, the artifact is copied with at most {@code maxConcurrentUploads}
+ * uploads at a time from this management node, optionally limited to a total number of bytes per second.
+ * Each machine keeps at most {@link #REMOTE_MAX_ARTIFACTS} artifacts, the least recently installed being removed.
+ * <p>
+ * Checksums are computed on machines with {@code sha256sum}, {@code shasum} or {@code openssl}, whichever is
+ * available; on a machine with none of these, uploads are not verified and its copies are not reused.
+ * <p>
+ * Thread-safe.
+ */
+public class ArtifactCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactCache.class);
+
+    public static final File DEFAULT_CACHE_DIR = new File(System.getProperty("user.home"), ".brooklyn/artifact-cache");
+    public static final long DEFAULT_MAX_SIZE_BYTES = 2L*1024*1024*1024;
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 10;
+    public static final long DEFAULT_URL_TTL_MILLIS = 5*60*1000;
+
+    /** Artifacts smaller than this are copied without first checking whether the machine has them. */
+    public static final long SMALL_ARTIFACT_BYTES = 64*1024;
+
+    /**
+     * Where machines keep a copy of each artifact copied to them, named by its checksum;
+     * relative to the ssh user's home directory.
+     */
+    public static final String REMOTE_CACHE_DIR = ".brooklyn/artifact-cache";
+
+    /** The number of artifacts each machine keeps in its {@link #REMOTE_CACHE_DIR}. */
+    public static final int REMOTE_MAX_ARTIFACTS = 20;
+
+    private static ArtifactCache instance;
+
+    /** The cache shared by all entities in this JVM. */
+    public static synchronized ArtifactCache getInstance() {
+        if (instance == null) {
+            instance = new ArtifactCache(DEFAULT_CACHE_DIR, DEFAULT_MAX_SIZE_BYTES, DEFAULT_MAX_CONCURRENT_UPLOADS, 0, DEFAULT_URL_TTL_MILLIS);
+        }
+        return instance;
+    }
+
+    /** An artifact in the cache. */
+    public static class CachedArtifact {
+        private final String url;
+        private final String checksum;
+        private final File file;
+        private final long size;
+
+        CachedArtifact(String url, String checksum, File file) {
+            this.url = url;
+            this.checksum = checksum;
+            this.file = file;
+            this.size = file.length();
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** The hex-encoded SHA-256 checksum of the content. */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("url", url).add("checksum", checksum).add("size", size).toString();
+        }
+    }
+
+    private final File dir;
+    private final long maxSizeBytes;
+    private final long urlTtlMillis;
+    private final Semaphore uploadPermits;
+    private final RateLimiter uploadRateLimiter;
+
+    /** checksum to artifact file, in access order */
+    private final LinkedHashMap<String, File> files = new LinkedHashMap<String, File>(16, 0.75f, true);
+    /** url to its artifact, and (for local files) the file's size and modification time when read */
+    private final Map<String, UrlEntry> urls = Maps.newLinkedHashMap();
+    /** locks by url, so that concurrent fetches of the same url only fetch it once */
+    private final Striped<Lock> fetchLocks = Striped.lock(64);
+    private long totalSizeBytes = 0;
+
+    private final AtomicLong totalFetches = new AtomicLong();
+    private final AtomicLong totalUploads = new AtomicLong();
+    private final AtomicLong totalUploadsSkipped = new AtomicLong();
+    private final AtomicLong totalBytesUploaded = new AtomicLong();
+
+    public ArtifactCache(File dir, long maxSizeBytes, int maxConcurrentUploads, double maxUploadBytesPerSec) {
+        this(dir, maxSizeBytes, maxConcurrentUploads, maxUploadBytesPerSec, DEFAULT_URL_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxUploadBytesPerSec the limit on the total rate of uploads from this cache, or 0 for no limit
+     * @param urlTtlMillis how long the content of a url other than a local file is used before it is fetched again
+     */
+    public ArtifactCache(File dir, long maxSizeBytes, int maxConcurrentUploads, double maxUploadBytesPerSec, long urlTtlMillis) {
+        checkArgument(maxSizeBytes > 0, "maxSizeBytes must be positive");
+        checkArgument(urlTtlMillis >= 0, "urlTtlMillis must not be negative");
+        checkArgument(maxConcurrentUploads > 0, "maxConcurrentUploads must be positive");
+        checkArgument(maxUploadBytesPerSec >= 0, "maxUploadBytesPerSec must not be negative");
+        this.dir = checkNotNull(dir, "dir");
+        this.maxSizeBytes = maxSizeBytes;
+        this.urlTtlMillis = urlTtlMillis;
+        this.uploadPermits = new Semaphore(maxConcurrentUploads, true);
+        this.uploadRateLimiter = (maxUploadBytesPerSec > 0) ? RateLimiter.create(maxUploadBytesPerSec) : null;
+        loadExisting();
+    }
+
+    private void loadExisting() {
+        dir.mkdirs();
+        File[] existing = dir.listFiles();
+        if (existing == null) return;
+        // oldest first, so they are the first to be evicted
+        Arrays.sort(existing, new Comparator<File>() {
+            @Override public int compare(File o1, File o2) {
+                return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+            }});
+        synchronized (files) {
+            for (File file : existing) {
+                if (file.isFile() && file.getName().matches("[0-9a-f]{64}")) {
+                    files.put(file.getName(), file);
+                    totalSizeBytes += file.length();
+                } else if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+            evictIfNecessary(null);
+        }
+    }
+
+    /**
+     * Returns the cached artifact for the given url, fetching it if not already cached.
+     */
+    public CachedArtifact fetch(ResourceUtils loader, String url) {
+        Lock lock = fetchLocks.get(url);
+        lock.lock();
+        try {
+            File localFile = toLocalFile(url);
+            synchronized (files) {
+                UrlEntry entry = urls.get(url);
+                if (entry != null && entry.isCurrent(localFile, urlTtlMillis)) {
+                    File file = files.get(entry.checksum);
+                    if (file != null && file.exists()) {
+                        return new CachedArtifact(url, entry.checksum, file);
+                    }
+                }
+            }
+            return doFetch(loader, url, localFile);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CachedArtifact doFetch(ResourceUtils loader, String url, File localFile) {
+        totalFetches.incrementAndGet();
+        File tmp = new File(dir, "download-"+Thread.currentThread().getId()+"-"+System.nanoTime()+".tmp");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            dir.mkdirs();
+            in = (localFile != null) ? new FileInputStream(localFile) : loader.getResourceFromUrl(url);
+            out = new FileOutputStream(tmp);
+            Hasher hasher = Hashing.sha256().newHasher();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                hasher.putBytes(buf, 0, len);
+                out.write(buf, 0, len);
+            }
+            out.close();
+            out = null;
+            String checksum = hasher.hash().toString();
+
+            File file = new File(dir, checksum);
+            synchronized (files) {
+                if (file.exists()) {
+                    tmp.delete();
+                    file.setLastModified(System.currentTimeMillis());
+                } else if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to move "+tmp+" to "+file);
+                }
+                if (files.put(checksum, file) == null) totalSizeBytes += file.length();
+                urls.put(url, new UrlEntry(checksum, localFile));
+                evictIfNecessary(checksum);
+            }
+            if (LOG.isDebugEnabled()) LOG.debug("Cached artifact {} as {}", url, checksum);
+            return new CachedArtifact(url, checksum, file);
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        } finally {
+            Closeables.closeQuietly(in);
+            Closeables.closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    private void evictIfNecessary(String keep) {
+        for (Iterator<Map.Entry<String, File>> iter = files.entrySet().iterator(); iter.hasNext() && totalSizeBytes > maxSizeBytes;) {
+            Map.Entry<String, File> entry = iter.next();
+            if (entry.getKey().equals(keep)) continue;
+            if (LOG.isDebugEnabled()) LOG.debug("Evicting artifact {} from cache {}", entry.getKey(), dir);
+            totalSizeBytes -= entry.getValue().length();
+            entry.getValue().delete();
+            iter.remove();
+            for (Iterator<UrlEntry> urlIter = urls.values().iterator(); urlIter.hasNext();) {
+                if (urlIter.next().checksum.equals(entry.getKey())) urlIter.remove();
+            }
+        }
+    }
+
+    /** Returns the local file for file urls and paths, otherwise null. */
+    private static File toLocalFile(String url) {
+        if (url.startsWith("file://")) return new File(url.substring("file://".length()));
+        if (url.startsWith("file:")) return new File(url.substring("file:".length()));
+        if (!url.contains(":")) return new File(url);
+        return null;
+    }
+
+    /**
+     * Installs the artifact at the given url to the destination path on the machine; see {@link ArtifactCache}.
+     *
+     * @return 0 on success
+     */
+    public int copyTo(SshMachineLocation machine, ResourceUtils loader, String url, String destination) {
+        return copyTo(MutableMap.<String,Object>of(), machine, loader, url, destination);
+    }
+
+    public int copyTo(Map<String,?> flags, SshMachineLocation machine, ResourceUtils loader, String url, String destination) {
+        CachedArtifact artifact = fetch(loader, url);
+        if (artifact.getSize() < SMALL_ARTIFACT_BYTES) {
+            // checking first would cost more than the copy
+            return upload(flags, machine, artifact, destination);
+        }
+        String remoteCopy = REMOTE_CACHE_DIR+"/"+artifact.getChecksum();
+
+        if (machine.execScript(quietFlags(flags), "check artifact "+artifact.getChecksum(), toInstallFromRemoteCopyCommands(artifact, remoteCopy, destination)) == 0) {
+            totalUploadsSkipped.incrementAndGet();
+            if (LOG.isDebugEnabled()) LOG.debug("Artifact {} already on {}; copied to {} without transfer", new Object[] {artifact, machine, destination});
+            return 0;
+        }
+
+        String tmp = remoteCopy+"-"+System.nanoTime()+".tmp";
+        int result = upload(flags, machine, artifact, tmp);
+        if (result != 0) return result;
+
+        return machine.execScript(quietFlags(flags), "install artifact "+artifact.getChecksum(), toInstallFromUploadCommands(artifact, tmp, remoteCopy, destination));
+    }
+
+    private int upload(Map<String,?> flags, SshMachineLocation machine, CachedArtifact artifact, String destination) {
+        try {
+            uploadPermits.acquire();
+        } catch (InterruptedException e) {
+            throw Exceptions.propagate(e);
+        }
+        try {
+            if (LOG.isDebugEnabled()) LOG.debug("Uploading artifact {} to {}:{}", new Object[] {artifact, machine, destination});
+            InputStream in = new FileInputStream(artifact.getFile());
+            if (uploadRateLimiter != null) in = new RateLimitedInputStream(in, uploadRateLimiter);
+            int result = machine.copyTo(flags, in, artifact.getSize(), destination);
+            totalUploads.incrementAndGet();
+            totalBytesUploaded.addAndGet(artifact.getSize());
+            return result;
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        } finally {
+            uploadPermits.release();
+        }
+    }
+
+    /**
+     * Installs the artifact to each of the machines concurrently (subject to the limit on concurrent uploads),
+     * returning the result for each machine.
+     */
+    public Map<SshMachineLocation, Integer> copyToAll(final Collection<SshMachineLocation> machines, final ResourceUtils loader, final String url, final String destination) {
+        // fetch once up-front, rather than all machines waiting on the same fetch
+        fetch(loader, url);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(machines.size(), 50)),
+                new ThreadFactoryBuilder().setNameFormat("brooklyn-artifact-copy-%d").setDaemon(true).build());
+        try {
+            Map<SshMachineLocation, Future<Integer>> futures = Maps.newLinkedHashMap();
+            for (final SshMachineLocation machine : machines) {
+                futures.put(machine, executor.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        return copyTo(machine, loader, url, destination);
+                    }}));
+            }
+            Map<SshMachineLocation, Integer> result = Maps.newLinkedHashMap();
+            for (Map.Entry<SshMachineLocation, Future<Integer>> entry : futures.entrySet()) {
+                try {
+                    result.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    throw Exceptions.propagate(e.getCause());
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            throw Exceptions.propagate(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Commands that succeed if the destination already has the artifact's content, or can be copied from the
+     * machine's own copy; fails otherwise.
+     */
+    @VisibleForTesting
+    static List<String> toInstallFromRemoteCopyCommands(CachedArtifact artifact, String remoteCopy, String destination) {
+        return ImmutableList.of(
+                "mkdir -p `dirname "+remoteCopy+"`",
+                checksumMatches(destination, artifact.getChecksum())+" && exit 0",
+                checksumMatches(remoteCopy, artifact.getChecksum())+" || exit 1",
+                // marks it as recently used, so it is the last to be removed
+                "touch "+remoteCopy,
+                "mkdir -p `dirname "+destination+"`",
+                "cp -f "+remoteCopy+" "+destination);
+    }
+
+    /**
+     * Commands that verify the uploaded artifact (where the machine has a checksum tool), and move it into the
+     * machine's cache only then, so a partial upload is never reused; then install it, and remove the least
+     * recently used artifacts (and abandoned uploads) from the machine's cache.
+     */
+    @VisibleForTesting
+    static List<String> toInstallFromUploadCommands(CachedArtifact artifact, String uploaded, String remoteCopy, String destination) {
+        return ImmutableList.of(
+                "if "+HAS_CHECKSUM_TOOL+"; then "+checksumMatches(uploaded, artifact.getChecksum())+" || { rm -f "+uploaded+"; exit 1; }; fi",
+                "mv -f "+uploaded+" "+remoteCopy,
+                "mkdir -p `dirname "+destination+"`",
+                "cp -f "+remoteCopy+" "+destination,
+                "( cd `dirname "+remoteCopy+"` && ls -t | grep -E '^[0-9a-f]{64}$' | tail -n +"+(REMOTE_MAX_ARTIFACTS+1)+" | xargs rm -f ) || true",
+                "find `dirname "+remoteCopy+"` -name '*.tmp' -mtime +1 -exec rm -f {} \\; 2> /dev/null || true");
+    }
+
+    private static final String HAS_CHECKSUM_TOOL = "{ which sha256sum || which shasum || which openssl; } > /dev/null 2>&1";
+
+    /** succeeds if the file exists and has the checksum, using whichever checksum tool the machine has */
+    private static String checksumMatches(String path, String checksum) {
+        return "{ [ -f "+path+" ] && { sha256sum "+path+" || shasum -a 256 "+path+" || openssl dgst -sha256 -r "+path+"; } 2> /dev/null | " +
+                "grep -q '^"+checksum+" '; }";
+    }
+
+    private static Map<String,Object> quietFlags(Map<String,?> flags) {
+        Map<String,Object> result = MutableMap.<String,Object>builder().putAll(flags).build();
+        result.remove("out");
+        result.remove("err");
+        result.put("noStdoutLogging", true);
+        return result;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public long getTotalSizeBytes() {
+        synchronized (files) {
+            return totalSizeBytes;
+        }
+    }
+
+    public int getArtifactCount() {
+        synchronized (files) {
+            return files.size();
+        }
+    }
+
+    /** The number of times an artifact was fetched from its url into the cache. */
+    public long getTotalFetches() {
+        return totalFetches.get();
+    }
+
+    public long getTotalUploads() {
+        return totalUploads.get();
+    }
+
+    /** The number of copies where the machine already had the artifact, so nothing was transferred. */
+    public long getTotalUploadsSkipped() {
+        return totalUploadsSkipped.get();
+    }
+
+    public long getTotalBytesUploaded() {
+        return totalBytesUploaded.get();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("dir", dir).add("artifacts", getArtifactCount()).add("sizeBytes", getTotalSizeBytes()).toString();
+    }
+
+    private static class UrlEntry {
+        final String checksum;
+        final long fetchTime = System.currentTimeMillis();
+        final long localFileSize;
+        final long localFileLastModified;
+
+        UrlEntry(String checksum, File localFile) {
+            this.checksum = checksum;
+            this.localFileSize = (localFile != null) ? localFile.length() : -1;
+            this.localFileLastModified = (localFile != null) ? localFile.lastModified() : -1;
+        }
+
+        /** local files are current while unchanged; other urls, whose changes cannot be seen, only for the ttl */
+        boolean isCurrent(File localFile, long ttlMillis) {
+            if (localFile == null) return System.currentTimeMillis() - fetchTime < ttlMillis;
+            return localFile.length() == localFileSize && localFile.lastModified() == localFileLastModified;
+        }
+    }
+
+    private static class RateLimitedInputStream extends FilterInputStream {
+        private final RateLimiter rateLimiter;
+
+        RateLimitedInputStream(InputStream in, RateLimiter rateLimiter) {
+            super(in);
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) rateLimiter.acquire(1);
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) rateLimiter.acquire(result);
+            return result;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +36,7 @@ import brooklyn.management.Task;
 import brooklyn.util.text.Identifiers;
 
 import com.google.common.base.CaseFormat;
+import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -229,6 +231,48 @@ public class BasicExecutionManager implements ExecutionManager {
         }
     }
     
+    /**
+     * Returns the tasks with the given tag which satisfy the filter, in order of submission (or newest first),
+     * starting after the task with the given ID (if not null), up to the given limit (if positive).
+     * Returns null if the task to start after is not (or no longer) one of the tasks with the tag.
+     * <p>
+     * Unlike {@link #getTasksWithTag(Object)}, this does not copy every task with the tag: it walks them 
+     * in place (holding the tag's lock, so the filter should be cheap), keeping only the page, 
+     * so is cheap for fetching one page of the tasks of a tag with very many.
+     */
+    public List<Task<?>> getTasksWithTag(Object tag, Predicate<? super Task<?>> filter, boolean newestFirst, String afterTaskId, int limit) {
+        Set<Task> tasks = getMutableTasksWithTagOrNull(tag);
+        if (tasks == null) return (afterTaskId == null) ? Collections.<Task<?>>emptyList() : null;
+        
+        LinkedList<Task<?>> result = new LinkedList<Task<?>>();
+        boolean found = (afterTaskId == null);
+        synchronized (tasks) {
+            if (!newestFirst) {
+                for (Task<?> task : tasks) {
+                    if (!found) {
+                        found = afterTaskId.equals(task.getId());
+                    } else if (filter.apply(task)) {
+                        result.add(task);
+                        if (limit > 0 && result.size() >= limit) break;
+                    }
+                }
+            } else {
+                // the index is in order of submission, so keeps the newest matches before the cursor
+                for (Task<?> task : tasks) {
+                    if (afterTaskId != null && afterTaskId.equals(task.getId())) {
+                        found = true;
+                        break;
+                    }
+                    if (filter.apply(task)) {
+                        result.addFirst(task);
+                        if (limit > 0 && result.size() > limit) result.removeLast();
+                    }
+                }
+            }
+        }
+        return found ? result : null;
+    }
+    
     @Override
     public Set<Task<?>> getTasksWithAnyTag(Iterable<?> tags) {
         Set result = new LinkedHashSet<Task>();
@@ -0,0 +1,177 @@
+package brooklyn.catalog.internal;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.catalog.CatalogItem.CatalogItemType;
+import brooklyn.catalog.internal.MyCatalogItems.MySillyAppBuilderTemplate;
+import brooklyn.catalog.internal.MyCatalogItems.MySillyAppTemplate;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+public class CatalogScanIndexTest {
+
+    private File tempDir;
+    private File indexDir;
+    private File jar;
+    private ClassLoader loader;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir();
+        indexDir = new File(tempDir, "index");
+        jar = new File(tempDir, "items.jar");
+        writeJar(jar, MySillyAppTemplate.class, MySillyAppBuilderTemplate.class);
+        loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (tempDir != null) Files.deleteRecursively(tempDir.getCanonicalFile());
+    }
+
+    @Test
+    public void testScansJarOnceAndRemembersItsItems() throws Exception {
+        CatalogScanIndex index = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items = index.getItems(urls(jar), loader);
+        assertEquals(types(items), ImmutableSet.of(MySillyAppTemplate.class.getName(), MySillyAppBuilderTemplate.class.getName()));
+        assertEquals(index.getScanCount(), 1);
+
+        // a new index (as on restart) reads what was remembered, without scanning
+        CatalogScanIndex index2 = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items2 = index2.getItems(urls(jar), loader);
+        assertEquals(index2.getScanCount(), 0);
+        assertEquals(types(items2), types(items));
+        CatalogItemDtoAbstract<?> silly = find(items2, MySillyAppTemplate.class.getName());
+        assertEquals(silly.getCatalogItemType(), CatalogItemType.TEMPLATE);
+        assertEquals(silly.getName(), "MySillyAppTemplate");
+        assertEquals(silly.getDescription(), "Some silly app test");
+        assertEquals(silly.getIconUrl(), null);
+    }
+
+    @Test
+    public void testRescansChangedJar() throws Exception {
+        new CatalogScanIndex(indexDir).getItems(urls(jar), loader);
+
+        writeJar(jar, MySillyAppTemplate.class);
+        jar.setLastModified(jar.lastModified() + 2000);
+        CatalogScanIndex index = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items = index.getItems(urls(jar), loader);
+        assertEquals(index.getScanCount(), 1);
+        assertEquals(types(items), ImmutableSet.of(MySillyAppTemplate.class.getName()));
+    }
+
+    @Test
+    public void testHonoursIndexInJar() throws Exception {
+        CatalogItemDtoAbstract<?> item = CatalogItemDtoAbstract.newEntity(null, "com.acme.NotInJar", "Acme", "Described\tacross tabs");
+        File indexedJar = new File(tempDir, "indexed.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(indexedJar));
+        out.putNextEntry(new JarEntry(CatalogScanIndex.JAR_INDEX_RESOURCE));
+        Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+        CatalogScanIndex.writeItems(ImmutableList.of(item), writer);
+        writer.flush();
+        out.close();
+
+        CatalogScanIndex index = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items = index.getItems(urls(indexedJar), loader);
+        assertEquals(index.getScanCount(), 0);
+        CatalogItemDtoAbstract<?> result = Iterables.getOnlyElement(items);
+        assertEquals(result.getJavaType(), "com.acme.NotInJar");
+        assertEquals(result.getCatalogItemType(), CatalogItemType.ENTITY);
+        assertEquals(result.getDescription(), "Described across tabs");
+    }
+
+    @Test
+    public void testWithoutIndexDirScansEachTime() throws Exception {
+        CatalogScanIndex index = new CatalogScanIndex(null);
+        index.getItems(urls(jar), loader);
+        index.getItems(urls(jar), loader);
+        assertEquals(index.getScanCount(), 2);
+    }
+
+    @Test
+    public void testFindsSubtypeOfAnnotatedTypeInAnotherJar() throws Exception {
+        File subclassJar = new File(tempDir, "subclass.jar");
+        writeJar(subclassJar, MySillyAppTemplateSubclass.class);
+        ClassLoader bothLoader = new URLClassLoader(new URL[] { jar.toURI().toURL(), subclassJar.toURI().toURL() }, getClass().getClassLoader());
+
+        CatalogScanIndex index = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items = index.getItems(urls(jar, subclassJar), bothLoader);
+        assertEquals(index.getScanCount(), 2);
+        assertEquals(find(items, MySillyAppTemplateSubclass.class.getName()).getCatalogItemType(), CatalogItemType.TEMPLATE);
+
+        // and likewise from what was remembered
+        CatalogScanIndex index2 = new CatalogScanIndex(indexDir);
+        List<CatalogItemDtoAbstract<?>> items2 = index2.getItems(urls(jar, subclassJar), bothLoader);
+        assertEquals(index2.getScanCount(), 0);
+        assertEquals(types(items2), ImmutableSet.of(MySillyAppTemplate.class.getName(), MySillyAppBuilderTemplate.class.getName(),
+                MySillyAppTemplateSubclass.class.getName()));
+    }
+
+    /** not annotated, so found only as a subtype of an annotated type */
+    @SuppressWarnings("serial")
+    public static class MySillyAppTemplateSubclass extends MySillyAppTemplate {
+    }
+
+    private static List<URL> urls(File... files) throws Exception {
+        List<URL> result = Lists.newArrayList();
+        for (File file : files) result.add(file.toURI().toURL());
+        return result;
+    }
+
+    /** writes a jar with the given compiled classes */
+    private void writeJar(File file, Class<?>... classes) throws Exception {
+        OutputStream fileOut = new FileOutputStream(file);
+        JarOutputStream out = new JarOutputStream(fileOut);
+        try {
+            for (Class<?> c : classes) {
+                String path = c.getName().replace('.', '/')+".class";
+                out.putNextEntry(new JarEntry(path));
+                InputStream in = getClass().getClassLoader().getResourceAsStream(path);
+                try {
+                    ByteStreams.copy(in, out);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Set<String> types(Iterable<? extends CatalogItemDtoAbstract<?>> items) {
+        Set<String> result = Sets.newLinkedHashSet();
+        for (CatalogItemDtoAbstract<?> item : items) result.add(item.getJavaType());
+        return result;
+    }
+
+    private static CatalogItemDtoAbstract<?> find(Iterable<? extends CatalogItemDtoAbstract<?>> items, String type) {
+        for (CatalogItemDtoAbstract<?> item : items) {
+            if (item.getJavaType().equals(type)) return item;
+        }
+        throw new AssertionError("No item "+type+" in "+items);
+    }
+}
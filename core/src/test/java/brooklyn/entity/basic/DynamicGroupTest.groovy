@@ -19,6 +19,7 @@ import brooklyn.entity.proxying.EntitySpecs
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
 import brooklyn.event.basic.BasicAttributeSensor
+import brooklyn.management.SubscriptionManager
 import brooklyn.test.TestUtils
 import brooklyn.test.entity.TestApplication
 import brooklyn.test.entity.TestEntity
@@ -132,6 +133,70 @@ public class DynamicGroupTest {
         }
     }
     
+    @Test
+    public void testGroupWithIndexableFilterDetectsChangedEntitiesWithoutSubscription() {
+        final BasicAttributeSensor<String> MY_ATTRIBUTE = [ String, "test.myAttribute", "My test attribute" ]
+    
+        group.setEntityFilter(EntityPredicates.attributeEqualTo(MY_ATTRIBUTE, "yes"))
+        
+        assertEquals(group.getMembers(), [])
+        
+        e1.setAttribute(MY_ATTRIBUTE, "yes")
+        
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(group.getMembers(), [e1])
+        }
+
+        e1.setAttribute(MY_ATTRIBUTE, "no")
+        
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(group.getMembers(), [])
+        }
+    }
+    
+    @Test
+    public void testGroupUnsubscribesFromSensorsNoLongerUsedByFilter() {
+        final BasicAttributeSensor<String> MY_ATTRIBUTE = [ String, "test.myAttribute", "My test attribute" ]
+        final BasicAttributeSensor<String> MY_OTHER_ATTRIBUTE = [ String, "test.myOtherAttribute", "My other test attribute" ]
+        SubscriptionManager subscriptionManager = app.getManagementContext().getSubscriptionManager()
+        
+        group.setEntityFilter(EntityPredicates.attributeEqualTo(MY_ATTRIBUTE, "yes"))
+        assertEquals(subscriptionManager.getSubscriptionsForEntitySensor(null, MY_ATTRIBUTE).size(), 1)
+        
+        group.setEntityFilter(EntityPredicates.attributeEqualTo(MY_OTHER_ATTRIBUTE, "yes"))
+        assertEquals(subscriptionManager.getSubscriptionsForEntitySensor(null, MY_ATTRIBUTE).size(), 0)
+        assertEquals(subscriptionManager.getSubscriptionsForEntitySensor(null, MY_OTHER_ATTRIBUTE).size(), 1)
+        
+        // changes to the old sensor no longer affect membership
+        e1.setAttribute(MY_ATTRIBUTE, "yes")
+        e2.setAttribute(MY_OTHER_ATTRIBUTE, "yes")
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(group.getMembers(), [e2])
+        }
+        
+        group.setEntityFilter(Predicates.alwaysFalse())
+        assertEquals(subscriptionManager.getSubscriptionsForEntitySensor(null, MY_OTHER_ATTRIBUTE).size(), 0)
+    }
+    
+    @Test
+    public void testGroupWithIndexableFiltersOnlyContainsMatchingEntities() {
+        TestEntity grandchild = e1.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        
+        group.setEntityFilter(EntityPredicates.isChildOf(e1))
+        assertEquals(group.getMembers(), [grandchild])
+        
+        group.setEntityFilter(EntityPredicates.allOf(EntityPredicates.isInstanceOf(TestEntity.class), EntityPredicates.isChildOf(app)))
+        assertEquals(ImmutableSet.copyOf(group.getMembers()), [e1, e2] as Set)
+        
+        group.setEntityFilter(EntityPredicates.configEqualTo(TestEntity.CONF_NAME, "special"))
+        assertEquals(group.getMembers(), [])
+        
+        TestEntity e3 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class).configure(TestEntity.CONF_NAME, "special"));
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(group.getMembers(), [e3])
+        }
+    }
+    
     @Test
     public void testGroupDetectsChangedEntitiesMatchingFilter() {
         final BasicAttributeSensor<String> MY_ATTRIBUTE = [ String, "test.myAttribute", "My test attribute" ]
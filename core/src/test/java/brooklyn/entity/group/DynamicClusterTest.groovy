@@ -2,6 +2,7 @@ package brooklyn.entity.group
 
 import static org.testng.Assert.*
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutionException
@@ -606,6 +607,201 @@ class DynamicClusterTest {
         assertEquals(cluster.members.size(), 1);
     }
     
+    @Test
+    public void testStartsAndStopsMembersConcurrentlyUpToLimit() {
+        final AtomicInteger concurrent = new AtomicInteger(0)
+        final AtomicInteger maxConcurrent = new AtomicInteger(0)
+        DynamicCluster cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                .configure("initialSize", 0)
+                .configure("maxConcurrentChildCommands", 2)
+                .configure("factory", { properties -> new ConcurrencyTrackingEntity(properties, concurrent, maxConcurrent) }));
+        
+        cluster.start([loc])
+        
+        cluster.resize(6)
+        assertEquals(cluster.currentSize, 6)
+        assertTrue(maxConcurrent.get() <= 2, "maxConcurrent="+maxConcurrent.get())
+        
+        cluster.resize(0)
+        assertEquals(cluster.currentSize, 0)
+        assertTrue(maxConcurrent.get() <= 2, "maxConcurrent="+maxConcurrent.get())
+    }
+    
+    @Test
+    public void testStopsAllRemovedMembersEvenIfOneFailsToStop() {
+        final AtomicInteger counter = new AtomicInteger(0)
+        DynamicCluster cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                .configure("initialSize", 3)
+                .configure("factory", { properties -> 
+                    int num = counter.incrementAndGet();
+                    return new FailingEntity(properties, false, (num==2), IllegalStateException.class) 
+                }));
+        
+        cluster.start([loc])
+        Collection<Entity> origMembers = ImmutableSet.copyOf(cluster.members)
+        
+        try {
+            cluster.resize(0)
+            fail()
+        } catch (Exception e) {
+            if (Exceptions.getFirstThrowableOfType(e, IllegalStateException.class) == null) throw e;
+        }
+        assertEquals(cluster.currentSize, 0)
+        for (Entity member : origMembers) {
+            assertFalse(Entities.isManaged(member), "member="+member)
+        }
+    }
+    
+    @Test
+    public void testConcurrentResizesAreCoalesced() {
+        CountDownLatch executingLatch = new CountDownLatch(1)
+        CountDownLatch continuationLatch = new CountDownLatch(1)
+        final AtomicInteger numCreated = new AtomicInteger(0)
+        
+        DynamicCluster cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                .configure("initialSize", 0)
+                .configure("factory", { properties -> 
+                        numCreated.incrementAndGet()
+                        executingLatch.countDown()
+                        continuationLatch.await()
+                        return new TestEntityImpl(properties)
+                    }));
+        
+        cluster.start([loc])
+
+        Thread thread = new Thread( { cluster.resize(1) })
+        List<Thread> others = []
+        try {
+            thread.start()
+            executingLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            
+            // while first resize is in progress, request several more; only the last should be acted on
+            for (int size in [5, 2, 3]) {
+                Thread other = new Thread( { cluster.resize(size) })
+                other.start()
+                others.add(other)
+                Thread.sleep(10)
+            }
+            
+            continuationLatch.countDown()
+            thread.join(TIMEOUT_MS)
+            for (Thread other : others) { other.join(TIMEOUT_MS) }
+            assertFalse(thread.isAlive())
+            
+            assertEquals(cluster.currentSize, 3)
+            assertEquals(numCreated.get(), 3)
+        } finally {
+            thread.interrupt()
+            for (Thread other : others) { other.interrupt() }
+        }
+    }
+    
+    @Test
+    public void testResizeFromWithinResizeDoesNotDeadlock() {
+        final AtomicInteger numCreated = new AtomicInteger(0)
+        DynamicCluster cluster
+        cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                .configure("initialSize", 0)
+                .configure("factory", { properties -> 
+                        // the first node asks for another as it is created
+                        if (numCreated.incrementAndGet() == 1) cluster.resize(1)
+                        return new TestEntityImpl(properties)
+                    }));
+        
+        cluster.start([loc])
+        
+        Thread thread = new Thread( { cluster.resize(1) })
+        try {
+            thread.start()
+            thread.join(TIMEOUT_MS)
+            assertFalse(thread.isAlive())
+            assertEquals(cluster.currentSize, 2)
+        } finally {
+            thread.interrupt()
+        }
+    }
+    
+    @Test
+    public void testCoalescedResizesThrowFailureOfResizeDoneForThem() {
+        CountDownLatch executingLatch = new CountDownLatch(1)
+        CountDownLatch continuationLatch = new CountDownLatch(1)
+        final AtomicInteger numCreated = new AtomicInteger(0)
+        
+        DynamicCluster cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                .configure("initialSize", 0)
+                .configure("factory", { properties -> 
+                        if (numCreated.incrementAndGet() > 1) throw new IllegalStateException("Simulating failure to create node")
+                        executingLatch.countDown()
+                        continuationLatch.await()
+                        return new TestEntityImpl(properties)
+                    }));
+        
+        cluster.start([loc])
+        
+        Map<Integer, Throwable> errors = new ConcurrentHashMap<Integer, Throwable>()
+        Thread thread = new Thread( { cluster.resize(1) })
+        List<Thread> others = []
+        try {
+            thread.start()
+            executingLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            
+            // both are coalesced into a resize to 2, which fails
+            for (int size in [3, 2]) {
+                final int s = size
+                Thread other = new Thread( { 
+                        try {
+                            cluster.resize(s)
+                        } catch (Throwable t) {
+                            errors.put(s, t)
+                        }
+                    })
+                other.start()
+                others.add(other)
+                Thread.sleep(10)
+            }
+            
+            continuationLatch.countDown()
+            thread.join(TIMEOUT_MS)
+            for (Thread other : others) { other.join(TIMEOUT_MS) }
+            assertFalse(thread.isAlive())
+            
+            assertEquals(errors.keySet(), ImmutableSet.of(3, 2))
+            for (Throwable t : errors.values()) {
+                if (Exceptions.getFirstThrowableOfType(t, IllegalStateException.class) == null) throw t;
+            }
+            assertEquals(cluster.currentSize, 1)
+        } finally {
+            thread.interrupt()
+            for (Thread other : others) { other.interrupt() }
+        }
+    }
+    
+    @Test
+    public void testConcurrencyLimitIsSharedByClustersInSameLocation() {
+        final AtomicInteger concurrent = new AtomicInteger(0)
+        final AtomicInteger maxConcurrent = new AtomicInteger(0)
+        List<DynamicCluster> clusters = []
+        for (int i = 0; i < 2; i++) {
+            DynamicCluster cluster = app.createAndManageChild(EntitySpecs.spec(DynamicCluster.class)
+                    .configure("initialSize", 0)
+                    .configure("maxConcurrentChildCommands", 2)
+                    .configure("factory", { properties -> new ConcurrencyTrackingEntity(properties, concurrent, maxConcurrent) }));
+            cluster.start([loc])
+            clusters.add(cluster)
+        }
+        
+        List<Thread> threads = clusters.collect { DynamicCluster cluster -> new Thread( { cluster.resize(4) }) }
+        try {
+            for (Thread thread : threads) { thread.start() }
+            for (Thread thread : threads) { thread.join(TIMEOUT_MS*5) }
+            
+            for (DynamicCluster cluster : clusters) { assertEquals(cluster.currentSize, 4) }
+            assertTrue(maxConcurrent.get() <= 2, "maxConcurrent="+maxConcurrent.get())
+        } finally {
+            for (Thread thread : threads) { thread.interrupt() }
+        }
+    }
+    
     private Throwable unwrapException(Throwable e) {
         if (e instanceof ExecutionException) {
             return unwrapException(e.cause)
@@ -653,3 +849,36 @@ class FailingEntity extends TestEntityImpl {
         }
     }
 }
+
+class ConcurrencyTrackingEntity extends TestEntityImpl {
+    final AtomicInteger concurrent;
+    final AtomicInteger maxConcurrent;
+
+    public ConcurrencyTrackingEntity(Map flags, AtomicInteger concurrent, AtomicInteger maxConcurrent) {
+        super(flags)
+        this.concurrent = concurrent;
+        this.maxConcurrent = maxConcurrent;
+    }
+    
+    @Override
+    public void start(Collection<? extends Location> locs) {
+        track()
+    }
+    
+    @Override
+    public void stop() {
+        track()
+    }
+    
+    private void track() {
+        int val = concurrent.incrementAndGet()
+        try {
+            synchronized (maxConcurrent) {
+                if (val > maxConcurrent.get()) maxConcurrent.set(val)
+            }
+            Thread.sleep(50)
+        } finally {
+            concurrent.decrementAndGet()
+        }
+    }
+}
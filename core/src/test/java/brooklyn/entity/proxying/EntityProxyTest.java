@@ -75,6 +75,37 @@ public class EntityProxyTest {
         assertTrue(task.getDescription().contains("identityEffector"));
     }
     
+    @Test
+    public void testRepeatedEffectorCallsOnProxyAreEachRecorded() {
+        entity.identityEffector("abc");
+        entity.identityEffector("def");
+
+        Set<Task<?>> tasks = managementContext.getExecutionManager().getTasksWithAllTags(
+                ImmutableList.of(ManagementContextInternal.EFFECTOR_TAG, entity));
+        assertEquals(tasks.size(), 2, "tasks="+tasks);
+    }
+
+    @Test
+    public void testNonEffectorMethodOnProxyIsCalledDirectly() {
+        entity.setSequenceValue(123);
+        assertEquals(entity.getSequenceValue(), 123);
+
+        Set<Task<?>> tasks = managementContext.getExecutionManager().getTasksWithAllTags(
+                ImmutableList.of(ManagementContextInternal.EFFECTOR_TAG, entity));
+        assertEquals(tasks.size(), 0, "tasks="+tasks);
+    }
+
+    @Test
+    public void testProxiesForEntitiesOfSameTypeDispatchToOwnEntity() {
+        TestEntity entity2 = app.createAndManageChild(TestEntity.Spec.newInstance());
+        entity.setSequenceValue(1);
+        entity2.setSequenceValue(2);
+
+        assertEquals(entity.getSequenceValue(), 1);
+        assertEquals(entity2.getSequenceValue(), 2);
+        assertEquals(entity2.identityEffector("abc"), "abc");
+    }
+
     @Test
     public void testEntityManagerQueriesGiveProxies() {
         EntityManager entityManager = managementContext.getEntityManager();
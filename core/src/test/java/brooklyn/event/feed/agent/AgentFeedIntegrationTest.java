@@ -0,0 +1,173 @@
+package brooklyn.event.feed.agent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.proxying.EntitySpecs;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.event.feed.ssh.SshPollConfig;
+import brooklyn.event.feed.ssh.SshValueFunctions;
+import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.test.EntityTestUtils;
+import brooklyn.test.TestUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+import brooklyn.util.MutableMap;
+import brooklyn.util.internal.ssh.SshTool;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+public class AgentFeedIntegrationTest {
+
+    final static BasicAttributeSensor<String> SENSOR_STRING = new BasicAttributeSensor<String>(String.class, "aString", "");
+    final static BasicAttributeSensor<Integer> SENSOR_INT = new BasicAttributeSensor<Integer>(Integer.class, "anInt", "");
+
+    private LocalhostMachineProvisioningLocation loc;
+    private SshMachineLocation machine;
+    private TestApplication app;
+    private EntityLocal entity;
+    private AgentFeed feed;
+    private File file;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        loc = new LocalhostMachineProvisioningLocation();
+        machine = loc.obtain();
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        entity = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        app.start(ImmutableList.of(loc));
+        file = File.createTempFile("agent-feed-test", ".txt");
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (feed != null) feed.stop();
+        if (app != null) Entities.destroyAll(app);
+        if (loc != null) Closeables.closeQuietly(loc);
+        if (file != null) file.delete();
+    }
+
+    @Test(groups="Integration")
+    public void testLocalAgentSendsOnlyChangedValues() throws Exception {
+        Files.write("first".getBytes(), file);
+        feed = new LocalProcessAgentFeed(AgentFeed.builder()
+                .entity(entity)
+                .machine(machine)
+                .period(100)
+                .poll(new SshPollConfig<String>(SENSOR_STRING)
+                        .command("cat "+file.getAbsolutePath())
+                        .onSuccess(SshValueFunctions.stdout()))
+                .poll(new SshPollConfig<Integer>(SENSOR_INT)
+                        .command("exit 7")
+                        .onSuccess(SshValueFunctions.exitStatus())));
+        ((LocalProcessAgentFeed)feed).startLocal();
+
+        EntityTestUtils.assertAttributeEqualsEventually(entity, SENSOR_STRING, "first");
+        EntityTestUtils.assertAttributeEqualsEventually(entity, SENSOR_INT, 7);
+
+        // unchanged values are not re-sent
+        Thread.sleep(500);
+        assertEquals(feed.getTotalSamples(), 2);
+
+        Files.write("second".getBytes(), file);
+        EntityTestUtils.assertAttributeEqualsEventually(entity, SENSOR_STRING, "second");
+        assertEquals(feed.getTotalSamples(), 3);
+    }
+
+    @Test(groups="Integration")
+    public void testAgentOverSsh() throws Exception {
+        Files.write("hello".getBytes(), file);
+        feed = AgentFeed.builder()
+                .entity(entity)
+                .machine(machine)
+                .period(100)
+                .poll(new SshPollConfig<String>(SENSOR_STRING)
+                        .command("cat "+file.getAbsolutePath())
+                        .onSuccess(SshValueFunctions.stdout()))
+                .build();
+
+        EntityTestUtils.assertAttributeEqualsEventually(entity, SENSOR_STRING, "hello");
+    }
+
+    @Test(groups="Integration")
+    public void testAgentExitsWhenStreamClosed() throws Exception {
+        List<String> script = AgentFeed.toAgentScript("NONCE", ImmutableList.<AgentFeed.AgentProbe>of(), 100);
+        final Process process = startLocalScript(script);
+        InputStream in = process.getInputStream();
+        assertTrue(in.read() >= 0);
+        in.close();
+
+        TestUtils.executeUntilSucceeds(MutableMap.of("timeout", 10*1000), new Runnable() {
+            public void run() {
+                try {
+                    process.exitValue();
+                } catch (IllegalThreadStateException e) {
+                    throw new AssertionError("agent still running");
+                }
+            }});
+    }
+
+    /**
+     * Runs the script as a local process, with the same header as scripts run over ssh
+     * (so with errexit, by default).
+     */
+    private static Process startLocalScript(List<String> script) throws Exception {
+        File scriptFile = File.createTempFile("agent-feed-test", ".sh");
+        scriptFile.deleteOnExit();
+        Files.write(SshTool.PROP_SCRIPT_HEADER.getDefaultValue()+"\n"+Joiner.on("\n").join(script)+"\n", scriptFile, Charsets.UTF_8);
+        scriptFile.setExecutable(true);
+        return new ProcessBuilder(scriptFile.getAbsolutePath()).start();
+    }
+
+    /** Runs the agent as a local process, rather than over ssh. */
+    private static class LocalProcessAgentFeed extends AgentFeed {
+        LocalProcessAgentFeed(AgentFeed.Builder builder) {
+            super(builder);
+        }
+
+        void startLocal() {
+            start();
+        }
+
+        @Override
+        protected int runAgent(List<String> script, OutputStream out) {
+            Process process = null;
+            try {
+                process = startLocalScript(script);
+                ByteStreams.copy(process.getInputStream(), out);
+                return process.waitFor();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                if (process != null) process.destroy();
+            }
+        }
+
+        @Override
+        protected void killAgent(String pid) {
+            try {
+                new ProcessBuilder("kill", pid).start().waitFor();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package brooklyn.event.feed.agent;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class AgentStreamParserTest {
+
+    private static final String NONCE = "BROOKLYN-AGENT-abcdef";
+
+    private List<String> events;
+    private AgentStreamParser parser;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        events = Lists.newArrayList();
+        parser = new AgentStreamParser(NONCE, new AgentStreamParser.Listener() {
+            @Override public void onStarted(String pid) {
+                events.add("started "+pid);
+            }
+            @Override public void onSample(String probeId, int exitStatus, String stdout) {
+                events.add("sample "+probeId+" "+exitStatus+" ["+stdout+"]");
+            }
+            @Override public void onHeartbeat(long tick) {
+                events.add("heartbeat "+tick);
+            }
+        });
+    }
+
+    @Test
+    public void testParsesSamplesAndHeartbeats() throws Exception {
+        write("login banner\n" +
+                NONCE+" P 1234\n" +
+                NONCE+" V 0 0\n" +
+                "hello\n" +
+                "\n" +
+                NONCE+" E 0\n" +
+                NONCE+" V 1 3\n" +
+                "no newline\n" +
+                NONCE+" E 1\n" +
+                NONCE+" T 0\n" +
+                NONCE+" T 1\n");
+
+        assertEquals(events, ImmutableList.of("started 1234", "sample 0 0 [hello\n]", "sample 1 3 [no newline]", "heartbeat 0", "heartbeat 1"));
+    }
+
+    @Test
+    public void testHandlesLinesSplitAcrossWrites() throws Exception {
+        write(NONCE+" V 0 0\nhel");
+        write("lo\n\n"+NONCE+" E");
+        assertEquals(events, ImmutableList.of());
+
+        write(" 0\n");
+        assertEquals(events, ImmutableList.of("sample 0 0 [hello\n]"));
+    }
+
+    @Test
+    public void testProtocolLinesWithinSampleAreTreatedAsOutput() throws Exception {
+        write(NONCE+" V 0 0\n" +
+                NONCE+" T 7\n" +
+                NONCE+" E 0\n");
+
+        assertEquals(events, ImmutableList.of("sample 0 0 ["+NONCE+" T 7]"));
+    }
+
+    @Test
+    public void testIgnoresMalformedLines() throws Exception {
+        write(NONCE+" V 0 notanumber\n" +
+                NONCE+" T notanumber\n" +
+                NONCE+" T 2\n");
+
+        assertEquals(events, ImmutableList.of("heartbeat 2"));
+    }
+
+    private void write(String val) throws Exception {
+        parser.write(val.getBytes());
+    }
+}
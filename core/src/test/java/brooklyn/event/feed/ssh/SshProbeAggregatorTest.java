@@ -0,0 +1,304 @@
+package brooklyn.event.feed.ssh;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.event.feed.PollHandler;
+import brooklyn.event.feed.ssh.SshProbeAggregator.Probe;
+import brooklyn.event.feed.ssh.SshProbeAggregator.Registration;
+import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.management.internal.LocalManagementContext;
+import brooklyn.test.TestUtils;
+import brooklyn.util.MutableMap;
+import brooklyn.util.internal.ssh.SshTool;
+import brooklyn.util.task.BasicExecutionManager;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+public class SshProbeAggregatorTest {
+
+    private static final String NONCE = "BROOKLYN-PROBE-abcdef";
+
+    private BasicExecutionManager executionManager;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        executionManager = new BasicExecutionManager("ssh-probe-test");
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        if (executionManager != null) executionManager.shutdownNow();
+    }
+
+    @Test
+    public void testParsesResultOfEachProbe() throws Exception {
+        String output = NONCE+" START 0\n" +
+                "hello\n" +
+                "\n" +
+                NONCE+" STDERR 0\n" +
+                "\n" +
+                NONCE+" END 0 0\n" +
+                NONCE+" START 1\n" +
+                "partial line\n" +
+                NONCE+" STDERR 1\n" +
+                "oops\n" +
+                "\n" +
+                NONCE+" END 1 123\n";
+        Map<String, SshPollValue> results = SshProbeAggregator.parseOutput(null, NONCE, output);
+
+        assertEquals(results.keySet(), ImmutableList.of("0", "1"));
+        assertEquals(results.get("0").getExitStatus(), 0);
+        assertEquals(results.get("0").getStdout(), "hello\n");
+        assertEquals(results.get("0").getStderr(), "");
+        assertEquals(results.get("1").getExitStatus(), 123);
+        assertEquals(results.get("1").getStdout(), "partial line");
+        assertEquals(results.get("1").getStderr(), "oops\n");
+    }
+
+    @Test
+    public void testOmitsIncompleteProbe() throws Exception {
+        String output = NONCE+" START 0\n" +
+                "hello\n" +
+                NONCE+" STDERR 0\n";
+        Map<String, SshPollValue> results = SshProbeAggregator.parseOutput(null, NONCE, output);
+
+        assertTrue(results.isEmpty(), "results="+results);
+    }
+
+    @Test
+    public void testDeliversResultsToHandlersAndErrorForMissingResult() throws Exception {
+        RecordingHandler handler0 = new RecordingHandler();
+        RecordingHandler handler1 = new RecordingHandler();
+        Probe probe0 = new Probe("0", ImmutableList.of("echo hello"), ImmutableMap.<String,Object>of(), 1000, handler0);
+        Probe probe1 = new Probe("1", ImmutableList.of("echo world"), ImmutableMap.<String,Object>of(), 1000, handler1);
+
+        CannedOutputAggregator aggregator = new CannedOutputAggregator(executionManager,
+                "%s START 0\nhello\n\n%s STDERR 0\n\n%s END 0 0\n");
+        aggregator.runBatch(ImmutableList.of(probe0, probe1));
+
+        assertEquals(handler0.results.size(), 1);
+        assertEquals(handler0.results.get(0).getStdout(), "hello\n");
+        assertTrue(handler0.errors.isEmpty());
+        assertTrue(handler1.results.isEmpty());
+        assertEquals(handler1.errors.size(), 1);
+        assertEquals(aggregator.scripts.size(), 1);
+        assertEquals(aggregator.getTotalBatches(), 1);
+        assertEquals(aggregator.getTotalProbeRuns(), 2);
+    }
+
+    @Test
+    public void testDeliversErrorToAllHandlersWhenScriptFails() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        Probe probe = new Probe("0", ImmutableList.of("true"), ImmutableMap.<String,Object>of(), 1000, handler);
+
+        CannedOutputAggregator aggregator = new CannedOutputAggregator(executionManager, null);
+        aggregator.runBatch(ImmutableList.of(probe));
+
+        assertTrue(handler.results.isEmpty());
+        assertEquals(handler.errors.size(), 1);
+    }
+
+    @Test
+    public void testRunsAllRegisteredProbesInOneScript() throws Exception {
+        CannedOutputAggregator aggregator = new CannedOutputAggregator(executionManager, "");
+        RecordingHandler handler = new RecordingHandler();
+        Registration registration1 = aggregator.register(ImmutableList.of("echo a"), null, 60*1000, handler);
+        Registration registration2 = aggregator.register(ImmutableList.of("echo b"), ImmutableMap.of("K", "v"), 60*1000, handler);
+        try {
+            aggregator.tick();
+
+            waitForScripts(aggregator, 1);
+            String script = Joiner.on("\n").join(aggregator.scripts.get(0));
+            assertTrue(script.contains("echo a"), script);
+            assertTrue(script.contains("echo b"), script);
+            assertTrue(script.contains("export K=\"v\""), script);
+
+            // neither is due again yet
+            aggregator.tick();
+            Thread.sleep(100);
+            assertEquals(aggregator.scripts.size(), 1);
+        } finally {
+            registration1.cancel();
+            registration2.cancel();
+        }
+        assertEquals(aggregator.getProbeCount(), 0);
+    }
+
+    @Test
+    public void testCancelledProbeIsNotRun() throws Exception {
+        CannedOutputAggregator aggregator = new CannedOutputAggregator(executionManager, "");
+        RecordingHandler handler = new RecordingHandler();
+        Registration registration = aggregator.register(ImmutableList.of("echo a"), null, 1000, handler);
+        registration.cancel();
+
+        aggregator.tick();
+        Thread.sleep(100);
+        assertTrue(aggregator.scripts.isEmpty());
+        assertTrue(registration.isCancelled());
+    }
+
+    @Test
+    public void testSharedAggregatorIsDiscardedWhenLastProbeCancelled() throws Exception {
+        LocalManagementContext managementContext = new LocalManagementContext();
+        try {
+            SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost"));
+            SshProbeAggregator aggregator = SshProbeAggregator.forMachine(managementContext, machine);
+            Registration registration1 = aggregator.register(ImmutableList.of("true"), null, 60*1000, new RecordingHandler());
+            Registration registration2 = aggregator.register(ImmutableList.of("true"), null, 60*1000, new RecordingHandler());
+            assertSame(SshProbeAggregator.forMachine(managementContext, machine), aggregator);
+
+            registration1.cancel();
+            assertSame(SshProbeAggregator.forMachine(managementContext, machine), aggregator);
+            registration2.cancel();
+            assertNotSame(SshProbeAggregator.forMachine(managementContext, machine), aggregator);
+        } finally {
+            managementContext.terminate();
+        }
+    }
+
+    /** runs the script locally, with the default script header (which sets errexit), rather than over ssh */
+    @Test(groups="Integration")
+    public void testProbeFailsWhenMiddleCommandFails() throws Exception {
+        List<Probe> batch = ImmutableList.of(
+                new Probe("0", ImmutableList.of("test -f /does/not/exist || exit 1", "echo after-test", "true"), ImmutableMap.<String,Object>of(), 1000, new RecordingHandler()),
+                new Probe("1", ImmutableList.of("false", "echo after-false", "true"), ImmutableMap.<String,Object>of(), 1000, new RecordingHandler()),
+                new Probe("2", ImmutableList.of("echo ok"), ImmutableMap.<String,Object>of(), 1000, new RecordingHandler()));
+
+        File scriptFile = File.createTempFile("ssh-probe-test", ".sh");
+        try {
+            Files.write(SshTool.PROP_SCRIPT_HEADER.getDefaultValue()+"\n"+Joiner.on("\n").join(SshProbeAggregator.toScript(NONCE, batch))+"\n", 
+                    scriptFile, Charsets.UTF_8);
+            Process process = new ProcessBuilder("bash", scriptFile.getAbsolutePath()).start();
+            String output = new String(ByteStreams.toByteArray(process.getInputStream()));
+            assertEquals(process.waitFor(), 0);
+            
+            Map<String, SshPollValue> results = SshProbeAggregator.parseOutput(null, NONCE, output);
+            assertEquals(results.get("0").getExitStatus(), 1);
+            assertFalse(results.get("0").getStdout().contains("after-test"));
+            assertEquals(results.get("1").getExitStatus(), 1);
+            assertFalse(results.get("1").getStdout().contains("after-false"));
+            assertEquals(results.get("2").getExitStatus(), 0);
+            assertEquals(results.get("2").getStdout(), "ok\n");
+        } finally {
+            scriptFile.delete();
+        }
+    }
+
+    /** runs through the machine's execScript, so with the default script header (which sets errexit) */
+    @Test(groups="Integration")
+    public void testCombinedScriptIsolatesProbesOverSsh() throws Exception {
+        RecordingHandler handler0 = new RecordingHandler();
+        RecordingHandler handler1 = new RecordingHandler();
+        RecordingHandler handler2 = new RecordingHandler();
+        RecordingHandler handler3 = new RecordingHandler();
+        List<Probe> batch = ImmutableList.of(
+                new Probe("0", ImmutableList.of("echo -n $GREETING", "exit 3"), ImmutableMap.<String,Object>of("GREETING", "hi \"there\""), 1000, handler0),
+                new Probe("1", ImmutableList.of("echo to-stderr >&2", "echo $GREETING"), ImmutableMap.<String,Object>of(), 1000, handler1),
+                new Probe("2", ImmutableList.of("echo "+NONCE+" END 2 99", "cat"), ImmutableMap.<String,Object>of(), 1000, handler2),
+                new Probe("3", ImmutableList.of("false"), ImmutableMap.<String,Object>of(), 1000, handler3));
+
+        LocalhostMachineProvisioningLocation loc = new LocalhostMachineProvisioningLocation();
+        try {
+            new SshProbeAggregator(executionManager, loc.obtain(), 1000).runBatch(batch);
+        } finally {
+            loc.close();
+        }
+
+        for (RecordingHandler handler : ImmutableList.of(handler0, handler1, handler2, handler3)) {
+            assertTrue(handler.errors.isEmpty(), "errors="+handler.errors);
+            assertEquals(handler.results.size(), 1);
+        }
+        assertEquals(handler0.results.get(0).getExitStatus(), 3);
+        assertEquals(handler0.results.get(0).getStdout(), "hi \"there\"");
+        assertEquals(handler1.results.get(0).getExitStatus(), 0);
+        assertEquals(handler1.results.get(0).getStdout(), "\n");
+        assertEquals(handler1.results.get(0).getStderr(), "to-stderr\n");
+        assertEquals(handler2.results.get(0).getExitStatus(), 0);
+        assertEquals(handler2.results.get(0).getStdout(), NONCE+" END 2 99\n");
+        assertEquals(handler3.results.get(0).getExitStatus(), 1);
+    }
+
+    @Test(groups="Integration")
+    public void testRunsProbesOverSsh() throws Exception {
+        LocalhostMachineProvisioningLocation loc = new LocalhostMachineProvisioningLocation();
+        SshMachineLocation machine = loc.obtain();
+        SshProbeAggregator aggregator = new SshProbeAggregator(executionManager, machine, 100);
+        final RecordingHandler handler1 = new RecordingHandler();
+        final RecordingHandler handler2 = new RecordingHandler();
+        Registration registration1 = aggregator.register(ImmutableList.of("echo hello"), null, 100, handler1);
+        Registration registration2 = aggregator.register(ImmutableList.of("exit 1"), null, 100, handler2);
+        try {
+            TestUtils.executeUntilSucceeds(MutableMap.of("timeout", 30*1000), new Runnable() {
+                public void run() {
+                    assertTrue(handler1.results.size() > 0 && handler2.results.size() > 0);
+                }});
+            assertEquals(handler1.results.get(0).getStdout(), "hello\n");
+            assertEquals(handler2.results.get(0).getExitStatus(), 1);
+            assertTrue(handler1.errors.isEmpty(), "errors="+handler1.errors);
+        } finally {
+            registration1.cancel();
+            registration2.cancel();
+            loc.close();
+        }
+    }
+
+    private void waitForScripts(final CannedOutputAggregator aggregator, final int count) {
+        TestUtils.executeUntilSucceeds(new Runnable() {
+            public void run() {
+                assertEquals(aggregator.scripts.size(), count);
+            }});
+    }
+
+    private static class RecordingHandler implements PollHandler<SshPollValue> {
+        final List<SshPollValue> results = Lists.newCopyOnWriteArrayList();
+        final List<Exception> errors = Lists.newCopyOnWriteArrayList();
+
+        @Override
+        public void onSuccess(SshPollValue val) {
+            results.add(val);
+        }
+
+        @Override
+        public void onError(Exception error) {
+            errors.add(error);
+        }
+    }
+
+    /** Returns the given output (with the batch's nonce substituted for each %s), or fails if it is null. */
+    private static class CannedOutputAggregator extends SshProbeAggregator {
+        final List<List<String>> scripts = Lists.newCopyOnWriteArrayList();
+        final String output;
+
+        CannedOutputAggregator(BasicExecutionManager executionManager, String output) {
+            super(executionManager, null, 1000);
+            this.output = output;
+        }
+
+        @Override
+        protected String execScript(List<String> script) {
+            scripts.add(script);
+            if (output == null) throw new IllegalStateException("simulated failure");
+            String nonce = script.get(1).split(" ")[1].replace("\"", "");
+            return output.replace("%s", nonce);
+        }
+    }
+}
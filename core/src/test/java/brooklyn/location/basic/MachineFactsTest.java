@@ -0,0 +1,149 @@
+package brooklyn.location.basic;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import brooklyn.location.OsDetails;
+import brooklyn.util.MutableMap;
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+public class MachineFactsTest {
+
+    private static final String LINUX_OUTPUT = Joiner.on("\n").join(
+            "Last login: Mon Jan 14 10:00:00 2013 os.name=ignored",
+            MachineFacts.LINE_PREFIX+"os.name=Linux",
+            MachineFacts.LINE_PREFIX+"os.arch=x86_64",
+            MachineFacts.LINE_PREFIX+"os.kernel=3.2.0-23-generic",
+            MachineFacts.LINE_PREFIX+"os.issue=Ubuntu 12.04 LTS \\n \\l",
+            MachineFacts.LINE_PREFIX+"os.distro=ubuntu",
+            MachineFacts.LINE_PREFIX+"os.version=12.04",
+            MachineFacts.LINE_PREFIX+"which.java=true",
+            MachineFacts.LINE_PREFIX+"which.yum=false",
+            MachineFacts.LINE_PREFIX+"java.version=1.6.0_27",
+            "");
+
+    @Test
+    public void testParsesOnlyFactLines() throws Exception {
+        MachineFacts facts = MachineFacts.fromOutput(LINUX_OUTPUT);
+        assertEquals(facts.get(MachineFacts.OS_NAME), "Linux");
+        assertEquals(facts.get(MachineFacts.OS_DISTRO), "ubuntu");
+        assertEquals(facts.getJavaVersion(), "1.6.0_27");
+        assertEquals(facts.asMap().size(), 9);
+    }
+
+    @Test
+    public void testExecutablesAndIssue() throws Exception {
+        MachineFacts facts = MachineFacts.fromOutput(LINUX_OUTPUT);
+        assertEquals(facts.hasExecutable("java"), Boolean.TRUE);
+        assertEquals(facts.hasExecutable("yum"), Boolean.FALSE);
+        assertNull(facts.hasExecutable("notchecked"));
+        assertTrue(facts.isOn("Ubuntu"));
+        assertFalse(facts.isOn("CentOS"));
+    }
+
+    @Test
+    public void testOsDetails() throws Exception {
+        OsDetails os = MachineFacts.fromOutput(LINUX_OUTPUT).getOsDetails();
+        assertTrue(os.isLinux());
+        assertTrue(os.is64bit());
+        assertEquals(os.getVersion(), "12.04");
+
+        OsDetails mac = new MachineFacts(ImmutableMap.of(MachineFacts.OS_NAME, "Darwin", MachineFacts.OS_ARCH, "x86_64",
+                MachineFacts.OS_VERSION, "10.7.5")).getOsDetails();
+        assertTrue(mac.isMac());
+        assertEquals(mac.getVersion(), "10.7.5");
+    }
+
+    @Test
+    public void testMachineUsesPersistedFactsWithoutGathering() throws Exception {
+        SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost",
+                "machineFacts", ImmutableMap.of(MachineFacts.OS_NAME, "Linux", MachineFacts.OS_ARCH, "x86_64")));
+        assertEquals(machine.getCachedMachineFacts().get(MachineFacts.OS_NAME), "Linux");
+        assertTrue(machine.getOsDetails().is64bit());
+
+        machine.clearMachineFacts();
+        assertNull(machine.getCachedMachineFacts());
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneGathering() throws Exception {
+        final CountDownLatch gatheringLatch = new CountDownLatch(1);
+        final AtomicInteger gatherCount = new AtomicInteger();
+        SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost")) {
+            @Override protected MachineFacts gatherMachineFacts() {
+                gatherCount.incrementAndGet();
+                try {
+                    gatheringLatch.await();
+                } catch (InterruptedException e) {
+                    throw Exceptions.propagate(e);
+                }
+                return MachineFacts.fromOutput(LINUX_OUTPUT);
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<MachineFacts> gathering1 = machine.gatherMachineFactsAsync(executor);
+            Future<MachineFacts> gathering2 = machine.gatherMachineFactsAsync(executor);
+            assertFalse(gathering1.isDone());
+            assertNull(machine.getCachedMachineFacts());
+
+            gatheringLatch.countDown();
+            assertEquals(gathering2.get(10, TimeUnit.SECONDS).get(MachineFacts.OS_NAME), "Linux");
+            assertEquals(machine.getMachineFacts().get(MachineFacts.OS_NAME), "Linux");
+            assertEquals(gatherCount.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGatheringRejectedByExecutorCanBeRetried() throws Exception {
+        final AtomicInteger gatherCount = new AtomicInteger();
+        SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost")) {
+            @Override protected MachineFacts gatherMachineFacts() {
+                gatherCount.incrementAndGet();
+                return MachineFacts.fromOutput(LINUX_OUTPUT);
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        executor.shutdown();
+        assertNull(machine.gatherMachineFactsAsync(executor).get());
+        assertEquals(gatherCount.get(), 0);
+
+        assertEquals(machine.getMachineFacts().get(MachineFacts.OS_NAME), "Linux");
+        assertEquals(gatherCount.get(), 1);
+    }
+
+    @Test
+    public void testDoesNotRetryGatheringSoonAfterFailure() throws Exception {
+        final AtomicInteger gatherCount = new AtomicInteger();
+        SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost")) {
+            @Override protected MachineFacts gatherMachineFacts() {
+                gatherCount.incrementAndGet();
+                return null;
+            }
+        };
+        assertNull(machine.getMachineFacts());
+        assertNull(machine.getMachineFacts());
+        assertTrue(machine.getOsDetails().isLinux());
+        assertEquals(gatherCount.get(), 1);
+
+        machine.clearMachineFacts();
+        assertNull(machine.getMachineFacts());
+        assertEquals(gatherCount.get(), 2);
+    }
+}
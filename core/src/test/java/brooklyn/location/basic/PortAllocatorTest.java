@@ -0,0 +1,84 @@
+package brooklyn.location.basic;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void testObtainsNextFreePortInRange() throws Exception {
+        PortAllocator allocator = new PortAllocator();
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8000);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8001);
+        assertTrue(allocator.obtainSpecificPort(8003));
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8002);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8004);
+        assertEquals(allocator.getUsedPorts(), ImmutableSet.of(8000, 8001, 8002, 8003, 8004));
+    }
+
+    @Test
+    public void testReleasedPortIsReused() throws Exception {
+        PortAllocator allocator = new PortAllocator();
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000-8001")), 8000);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000-8001")), 8001);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000-8001")), -1);
+
+        allocator.releasePort(8000);
+        assertFalse(allocator.isUsed(8000));
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000-8001")), 8000);
+    }
+
+    @Test
+    public void testObtainsFromDescendingAndAggregateRanges() throws Exception {
+        PortAllocator allocator = new PortAllocator();
+        allocator.markUsed(ImmutableSet.of(8080, 8099));
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8099-8090")), 8098);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("80,8080,8000")), 80);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("80,8080,8000")), 8000);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("80,8080,8000")), -1);
+    }
+
+    @Test
+    public void testSkipsPortsFoundUnavailableUntilRecheck() throws Exception {
+        final Set<Integer> inUseElsewhere = Sets.newHashSet(8000, 8001);
+        PortAllocator allocator = new PortAllocator(60*1000) {
+            @Override
+            protected boolean isAvailable(int port) {
+                return !inUseElsewhere.contains(port);
+            }
+        };
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8002);
+        assertEquals(allocator.getProbeCount(), 3);
+
+        // ports already found in use are not probed again
+        inUseElsewhere.clear();
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8003);
+        assertEquals(allocator.getProbeCount(), 4);
+
+        // but are when explicitly requested
+        assertTrue(allocator.obtainSpecificPort(8000));
+    }
+
+    @Test
+    public void testRechecksUnavailablePortsWhenPeriodIsZero() throws Exception {
+        final Set<Integer> inUseElsewhere = Sets.newHashSet(8000);
+        PortAllocator allocator = new PortAllocator(0) {
+            @Override
+            protected boolean isAvailable(int port) {
+                return !inUseElsewhere.contains(port);
+            }
+        };
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8001);
+        inUseElsewhere.clear();
+        Thread.sleep(10);
+        assertEquals(allocator.obtainPort(PortRanges.fromString("8000+")), 8000);
+    }
+}
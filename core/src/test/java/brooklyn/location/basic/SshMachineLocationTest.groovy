@@ -177,4 +177,23 @@ public class SshMachineLocationTest {
         assertEquals(host.obtainPort(PortRanges.fromString("8000")), -1);
         assertEquals(host.obtainPort(PortRanges.fromString("8000+")), 8001);
     }
+    
+    @Test
+    public void testDeserializedMachineKeepsUsedPorts() {
+        assertEquals(host.obtainPort(PortRanges.fromString("8000")), 8000);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(host);
+        out.close();
+        SshMachineLocation copy = (SshMachineLocation) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        try {
+            assertEquals(copy.getUsedPorts(), ImmutableSet.of(8000));
+            assertEquals(copy.obtainPort(PortRanges.fromString("8000+")), 8001);
+            copy.releasePort(8000);
+            assertEquals(copy.obtainPort(PortRanges.fromString("8000")), 8000);
+        } finally {
+            Closeables.closeQuietly(copy);
+        }
+    }
 }
@@ -0,0 +1,273 @@
+package brooklyn.location.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.location.BatchMachineProvisioningLocation.ObtainBatch;
+import brooklyn.location.NoMachinesAvailableException;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.test.TestUtils;
+import brooklyn.util.MutableMap;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class ObtainBatcherTest {
+
+    private ExecutorService executor;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    @Test
+    public void testReturnsNullWhenNoBatchExpected() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        assertNull(batcher.obtain(ImmutableMap.of("imageId", "a")));
+        assertTrue(batcher.batches.isEmpty());
+    }
+
+    @Test
+    public void testCoalescesExpectedObtainsIgnoringCallerContext() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1", "entity2"));
+        try {
+            List<Future<SshMachineLocation>> results = Lists.newArrayList();
+            for (int i = 0; i < 3; i++) {
+                results.add(obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity"+i)));
+            }
+            Set<SshMachineLocation> machines = Sets.newLinkedHashSet();
+            for (int i = 0; i < 3; i++) {
+                SshMachineLocation machine = results.get(i).get(10, TimeUnit.SECONDS);
+                machines.add(machine);
+                // each machine is set up with its own caller's flags
+                assertEquals(batcher.flagsByMachine.get(machine).get("callerContext"), "entity"+i);
+            }
+            assertEquals(machines.size(), 3);
+            assertEquals(batcher.batches, ImmutableList.of(3));
+        } finally {
+            batch.close();
+        }
+
+        // no longer expected, so provisioned individually
+        assertNull(batcher.obtain(ImmutableMap.of("imageId", "a", "callerContext", "entity0")));
+    }
+
+    @Test
+    public void testDoesNotBatchCallersNotExpected() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1"));
+        try {
+            assertNull(batcher.obtain(ImmutableMap.of("imageId", "a", "callerContext", "other")));
+            assertNull(batcher.obtain(ImmutableMap.of("imageId", "a")));
+            assertTrue(batcher.batches.isEmpty());
+        } finally {
+            batch.close();
+        }
+    }
+
+    @Test
+    public void testSeparateBatchesPerExpectedBatch() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        ObtainBatch batch1 = batcher.expectObtains(ImmutableList.of("cluster1-a", "cluster1-b"));
+        ObtainBatch batch2 = batcher.expectObtains(ImmutableList.of("cluster2-a", "cluster2-b"));
+        try {
+            Future<SshMachineLocation> result1 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "cluster1-a"));
+            Future<SshMachineLocation> result2 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "cluster2-a"));
+            Future<SshMachineLocation> result3 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "cluster1-b"));
+            result1.get(10, TimeUnit.SECONDS);
+            result3.get(10, TimeUnit.SECONDS);
+            assertEquals(batcher.batches, ImmutableList.of(2));
+            assertFalse(result2.isDone());
+        } finally {
+            batch1.close();
+            batch2.close();
+        }
+    }
+
+    @Test
+    public void testReleasesMachineOfInterruptedCaller() throws Exception {
+        final RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        batcher.machinesReady = SettableFuture.create();
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0"));
+        try {
+            Future<SshMachineLocation> result = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0"));
+            TestUtils.executeUntilSucceeds(new Runnable() {
+                public void run() {
+                    assertEquals(batcher.batches, ImmutableList.of(1));
+                }});
+            result.cancel(true);
+            
+            batcher.machinesReady.set(null);
+            TestUtils.executeUntilSucceeds(new Runnable() {
+                public void run() {
+                    assertEquals(batcher.released.size(), 1);
+                }});
+        } finally {
+            batch.close();
+        }
+    }
+
+    @Test
+    public void testSeparateBatchesForDifferentFlags() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1", "entity2"));
+        try {
+            Future<SshMachineLocation> result1 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0"));
+            Future<SshMachineLocation> result2 = obtainInBackground(batcher, ImmutableMap.of("imageId", "b", "callerContext", "entity1"));
+            Future<SshMachineLocation> result3 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity2"));
+            result1.get(10, TimeUnit.SECONDS);
+            result2.get(10, TimeUnit.SECONDS);
+            result3.get(10, TimeUnit.SECONDS);
+            assertEquals(Sets.newHashSet(batcher.batches), Sets.newHashSet(2, 1));
+        } finally {
+            batch.close();
+        }
+    }
+
+    @Test
+    public void testProvisionsPartialBatchAfterWindow() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(100);
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1", "entity2"));
+        try {
+            SshMachineLocation machine = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0")).get(10, TimeUnit.SECONDS);
+            assertEquals(machine.getAddress().getHostName(), "localhost");
+            assertEquals(batcher.batches, ImmutableList.of(1));
+        } finally {
+            batch.close();
+        }
+    }
+
+    @Test
+    public void testCloseProvisionsWaitingObtains() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1", "entity2"));
+        Future<SshMachineLocation> result = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0"));
+        Thread.sleep(100);
+        assertTrue(batcher.batches.isEmpty());
+
+        batch.close();
+        result.get(10, TimeUnit.SECONDS);
+        assertEquals(batcher.batches, ImmutableList.of(1));
+    }
+
+    @Test
+    public void testClosingBatcherProvisionsWaitingObtainsAndStopsBatching() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        batcher.expectObtains(ImmutableList.of("entity0", "entity1"));
+        Future<SshMachineLocation> result = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0"));
+        Thread.sleep(100);
+        assertTrue(batcher.batches.isEmpty());
+
+        batcher.close();
+        result.get(10, TimeUnit.SECONDS);
+        assertEquals(batcher.batches, ImmutableList.of(1));
+        
+        batcher.expectObtains(ImmutableList.of("entity2"));
+        assertNull(batcher.obtain(ImmutableMap.of("imageId", "a", "callerContext", "entity2")));
+    }
+
+    @Test
+    public void testPartialFailureFailsOnlySomeCallers() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(60*1000);
+        batcher.failures = 1;
+        ObtainBatch batch = batcher.expectObtains(ImmutableList.of("entity0", "entity1"));
+        try {
+            Future<SshMachineLocation> result1 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity0"));
+            Future<SshMachineLocation> result2 = obtainInBackground(batcher, ImmutableMap.of("imageId", "a", "callerContext", "entity1"));
+            int succeeded = 0;
+            int failed = 0;
+            for (Future<SshMachineLocation> result : ImmutableList.of(result1, result2)) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    succeeded++;
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof NoMachinesAvailableException, "cause="+e.getCause());
+                    failed++;
+                }
+            }
+            assertEquals(succeeded, 1);
+            assertEquals(failed, 1);
+        } finally {
+            batch.close();
+        }
+    }
+
+    private Future<SshMachineLocation> obtainInBackground(final ObtainBatcher<SshMachineLocation> batcher, final Map<?,?> flags) {
+        return executor.submit(new Callable<SshMachineLocation>() {
+            public SshMachineLocation call() throws Exception {
+                return batcher.obtain(flags);
+            }});
+    }
+
+    /** Records the size of each batch, creating local machine objects (without connecting to them). */
+    private static class RecordingBatcher extends ObtainBatcher<SshMachineLocation> {
+        final List<Integer> batches = Lists.newCopyOnWriteArrayList();
+        final Map<SshMachineLocation, Map<?,?>> flagsByMachine = Maps.newConcurrentMap();
+        final List<SshMachineLocation> released = Lists.newCopyOnWriteArrayList();
+        volatile int failures;
+        /** if set, machines are ready only once this completes */
+        volatile SettableFuture<Void> machinesReady;
+
+        RecordingBatcher(long windowMillis) {
+            super(windowMillis);
+        }
+
+        @Override
+        protected List<ListenableFuture<SshMachineLocation>> obtainBatch(List<Map<?,?>> flagsPerMachine) {
+            batches.add(flagsPerMachine.size());
+            List<ListenableFuture<SshMachineLocation>> result = Lists.newArrayList();
+            for (int i = 0; i < flagsPerMachine.size(); i++) {
+                if (i < failures) {
+                    result.add(Futures.<SshMachineLocation>immediateFailedFuture(new NoMachinesAvailableException("simulated failure")));
+                } else {
+                    final SshMachineLocation machine = new SshMachineLocation(MutableMap.of("address", "localhost"));
+                    flagsByMachine.put(machine, flagsPerMachine.get(i));
+                    if (machinesReady == null) {
+                        result.add(Futures.immediateFuture(machine));
+                    } else {
+                        result.add(Futures.transform(machinesReady, new Function<Void, SshMachineLocation>() {
+                            public SshMachineLocation apply(Void input) {
+                                return machine;
+                            }}));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected void release(SshMachineLocation machine) {
+            released.add(machine);
+        }
+    }
+}
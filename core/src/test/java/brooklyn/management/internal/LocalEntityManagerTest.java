@@ -0,0 +1,231 @@
+package brooklyn.management.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Closeable;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.BasicGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityInternal;
+import brooklyn.entity.proxying.EntitySpecs;
+import brooklyn.entity.trait.Startable;
+import brooklyn.location.ClosedWhenUnused;
+import brooklyn.location.basic.AbstractLocation;
+import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests the lookups and secondary indexes of {@link LocalEntityManager}.
+ */
+public class LocalEntityManagerTest {
+
+    private TestApplication app;
+    private TestEntity entity;
+    private LocalEntityManager entityManager;
+    
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        entity = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        entityManager = ((LocalManagementContext)app.getManagementContext()).getEntityManager();
+    }
+    
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        if (app != null) Entities.destroyAll(app);
+    }
+
+    @Test
+    public void testLooksUpManagedEntitiesById() {
+        assertSame(entityManager.getEntity(entity.getId()), entity);
+        assertSame(entityManager.getEntity(app.getId()), app);
+        assertTrue(entityManager.isManaged(entity));
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntities()), ImmutableSet.of(app, entity));
+        assertEquals(ImmutableSet.copyOf(entityManager.getApplications()), ImmutableSet.of(app));
+    }
+    
+    @Test
+    public void testReturnsEntitiesInManagementOrder() {
+        TestEntity entity2 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        TestEntity entity3 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        Entities.unmanage(entity2);
+        TestEntity entity4 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        
+        assertEquals(ImmutableList.copyOf(entityManager.getEntities()), ImmutableList.of(app, entity, entity3, entity4));
+    }
+    
+    @Test
+    public void testIndexesEntitiesByApplication() {
+        TestApplication app2 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        try {
+            TestEntity entity2 = app2.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+            
+            assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesInApplication(app)), ImmutableSet.of(app, entity));
+            assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesInApplication(app2)), ImmutableSet.of(app2, entity2));
+        } finally {
+            Entities.destroy(app2);
+        }
+        assertEquals(entityManager.getEntitiesInApplication(app2).size(), 0);
+    }
+    
+    @Test
+    public void testIndexesEntitiesByType() {
+        BasicGroup group = app.createAndManageChild(EntitySpecs.spec(BasicGroup.class));
+        TestEntity entity2 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesOfType(TestEntity.class)), ImmutableSet.of(entity, entity2));
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesOfType(BasicGroup.class)), ImmutableSet.of(group));
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesOfType(TestApplication.class)), ImmutableSet.of(app));
+    }
+    
+    @Test
+    public void testUnmanagingLastApplicationUsingLocationClosesIt() {
+        ClosableLocation loc = new ClosableLocation();
+        TestApplication app2 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        TestApplication app3 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        ((EntityInternal)app2).addLocations(ImmutableList.of(loc));
+        ((EntityInternal)app3).addLocations(ImmutableList.of(loc));
+        
+        Entities.unmanage(app2);
+        assertFalse(loc.closed);
+        
+        Entities.unmanage(app3);
+        assertTrue(loc.closed);
+    }
+    
+    @Test
+    public void testUnmanagingDoesNotCloseOtherCloseableLocations() {
+        CloseableOnlyLocation loc = new CloseableOnlyLocation();
+        TestApplication app2 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        ((EntityInternal)app2).addLocations(ImmutableList.of(loc));
+        
+        Entities.unmanage(app2);
+        assertFalse(loc.closed);
+    }
+    
+    @Test(groups="Integration")
+    public void testCanRedeployToLocalhostAfterUnmanaging() throws Exception {
+        LocalhostMachineProvisioningLocation loc = new LocalhostMachineProvisioningLocation();
+        TestApplication app2 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        ((EntityInternal)app2).addLocations(ImmutableList.of(loc));
+        SshMachineLocation machine = loc.obtain();
+        assertEquals(machine.execCommands("first deployment", ImmutableList.of("true")), 0);
+        loc.release(machine);
+        Entities.unmanage(app2);
+        
+        TestApplication app3 = ApplicationBuilder.newManagedApp(TestApplication.class, app.getManagementContext());
+        try {
+            ((EntityInternal)app3).addLocations(ImmutableList.of(loc));
+            SshMachineLocation machine2 = loc.obtain();
+            assertEquals(machine2.execCommands("second deployment", ImmutableList.of("true")), 0);
+            loc.release(machine2);
+        } finally {
+            Entities.destroy(app3);
+            loc.close();
+        }
+    }
+    
+    @Test
+    public void testTerminatingManagementContextClosesLocations() {
+        ClosableLocation loc = new ClosableLocation();
+        ((EntityInternal)app).addLocations(ImmutableList.of(loc));
+        
+        ((LocalManagementContext)app.getManagementContext()).terminate();
+        assertTrue(loc.closed);
+    }
+    
+    @Test
+    public void testUnmanageRemovesFromAllLookups() {
+        Entities.unmanage(entity);
+        
+        assertNull(entityManager.getEntity(entity.getId()));
+        assertFalse(entityManager.isManaged(entity));
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntities()), ImmutableSet.of(app));
+        assertEquals(ImmutableSet.copyOf(entityManager.getEntitiesInApplication(app)), ImmutableSet.of(app));
+        assertEquals(entityManager.getEntitiesOfType(TestEntity.class).size(), 0);
+    }
+    
+    @Test
+    public void testVersionsChangeWithHierarchy() {
+        EntityVersions versions = entityManager.getEntityVersions();
+        long hierarchyVersion = versions.getHierarchyVersion();
+        long appVersion = versions.getVersion(app.getId());
+        long entityVersion = versions.getVersion(entity.getId());
+        assertTrue(entityVersion > 0);
+        
+        TestEntity entity2 = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+        assertTrue(versions.getHierarchyVersion() > hierarchyVersion);
+        assertTrue(versions.getVersion(app.getId()) > appVersion);
+        assertEquals(versions.getVersion(entity.getId()), entityVersion);
+        assertEquals(ImmutableSet.copyOf(versions.getChangedSince(hierarchyVersion)), ImmutableSet.of(app.getId(), entity2.getId()));
+        
+        long beforeUnmanage = versions.getVersion();
+        Entities.unmanage(entity2);
+        assertEquals(versions.getVersion(entity2.getId()), 0);
+        assertEquals(versions.getRemovedSince(beforeUnmanage), ImmutableList.of(entity2.getId()));
+        assertEquals(versions.getRemovedSince(versions.getVersion()).size(), 0);
+    }
+    
+    @Test
+    public void testVersionChangesWithStatusButNotOtherAttributes() {
+        EntityVersions versions = entityManager.getEntityVersions();
+        long entityVersion = versions.getVersion(entity.getId());
+        
+        entity.setAttribute(TestEntity.SEQUENCE, 123);
+        assertEquals(versions.getVersion(entity.getId()), entityVersion);
+        
+        entity.setAttribute(Startable.SERVICE_UP, true);
+        assertTrue(versions.getVersion(entity.getId()) > entityVersion);
+        assertTrue(versions.getHierarchyVersion() < versions.getVersion(entity.getId()));
+    }
+    
+    @Test
+    public void testVersionAndHierarchyVersionChangeWithDisplayName() {
+        EntityVersions versions = entityManager.getEntityVersions();
+        long entityVersion = versions.getVersion(entity.getId());
+        long hierarchyVersion = versions.getHierarchyVersion();
+        
+        entity.setDisplayName("renamed");
+        assertTrue(versions.getVersion(entity.getId()) > entityVersion);
+        assertTrue(versions.getHierarchyVersion() > hierarchyVersion);
+    }
+    
+    @Test
+    public void testEachManagementContextHasItsOwnEpoch() {
+        assertFalse(entityManager.getEntityVersions().getEpoch().equals(new EntityVersions().getEpoch()));
+    }
+
+    private static class ClosableLocation extends AbstractLocation implements ClosedWhenUnused {
+        private static final long serialVersionUID = 1L;
+        volatile boolean closed;
+        
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class CloseableOnlyLocation extends AbstractLocation implements Closeable {
+        private static final long serialVersionUID = 1L;
+        volatile boolean closed;
+        
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
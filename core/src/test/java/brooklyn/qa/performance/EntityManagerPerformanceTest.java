@@ -0,0 +1,96 @@
+package brooklyn.qa.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.BasicEntity;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.proxying.EntitySpecs;
+import brooklyn.management.EntityManager;
+import brooklyn.management.internal.LocalManagementContext;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures the rate of entity lookups (as done by REST calls) while a large app is being managed,
+ * i.e. that reads are not blocked for the duration of the deploy.
+ */
+public class EntityManagerPerformanceTest extends AbstractPerformanceTest {
+
+    private static final int NUM_ENTITIES = 5000;
+    private static final int NUM_READERS = 4;
+
+    private LocalManagementContext managementContext;
+    private ExecutorService executor;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp();
+        managementContext = new LocalManagementContext();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        super.tearDown();
+        if (executor != null) executor.shutdownNow();
+        if (managementContext != null) managementContext.terminate();
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testConcurrentReadsWhileDeployingLargeApp() throws Exception {
+        double minRatePerSec = 10000 * PERFORMANCE_EXPECTATION;
+
+        final List<String> ids = Lists.newArrayList();
+        for (int i = 0; i < NUM_ENTITIES; i++) {
+            ids.add(app.addChild(EntitySpecs.spec(BasicEntity.class)).getId());
+        }
+
+        final EntityManager entityManager = managementContext.getEntityManager();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong reads = new AtomicLong();
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int r = 0; r < NUM_READERS; r++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    int i = 0;
+                    while (!done.get()) {
+                        entityManager.getEntity(ids.get(i++ % ids.size()));
+                        managementContext.getApplications();
+                        reads.incrementAndGet();
+                    }
+                }}));
+        }
+
+        Stopwatch stopwatch = new Stopwatch().start();
+        Entities.startManagement(app, managementContext);
+        long durationMillis = Math.max(1, stopwatch.elapsedMillis());
+        long numReads = reads.get();
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(entityManager.getEntities().size(), NUM_ENTITIES+1);
+
+        double numPerSec = ((double)numReads/durationMillis * 1000);
+        String msg = "concurrentReadsWhileDeploying: "+numReads+" reads in "+durationMillis+"ms while managing "+NUM_ENTITIES+
+                " entities: numPerSec="+numPerSec+"; minAcceptableRate="+minRatePerSec;
+        LOG.info(msg);
+        System.out.println("\n"+msg+"\n");
+        assertTrue(numPerSec >= minRatePerSec, msg);
+    }
+}
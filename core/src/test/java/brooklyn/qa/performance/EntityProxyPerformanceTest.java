@@ -0,0 +1,86 @@
+package brooklyn.qa.performance;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.Entities;
+import brooklyn.test.entity.TestEntity;
+import brooklyn.test.entity.TestEntityImpl;
+
+/**
+ * Compares calls made through an entity proxy against the same calls made directly on the entity,
+ * to check the overhead of proxy dispatch stays small.
+ */
+public class EntityProxyPerformanceTest extends AbstractPerformanceTest {
+
+    private TestEntity proxy;
+    private TestEntity direct;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp();
+        Entities.startManagement(app);
+        proxy = app.createAndManageChild(TestEntity.Spec.newInstance());
+        direct = new TestEntityImpl(app);
+        Entities.manage(direct);
+    }
+
+    protected int numIterations() {
+        return 1000000;
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testDirectGetter() {
+        int numIterations = numIterations();
+        double minRatePerSec = 1000000 * PERFORMANCE_EXPECTATION;
+
+        measureAndAssert("directGetter", numIterations, minRatePerSec, new Runnable() {
+            public void run() {
+                direct.getSequenceValue();
+            }});
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testProxiedGetter() {
+        int numIterations = numIterations();
+        double minRatePerSec = 500000 * PERFORMANCE_EXPECTATION;
+
+        measureAndAssert("proxiedGetter", numIterations, minRatePerSec, new Runnable() {
+            public void run() {
+                proxy.getSequenceValue();
+            }});
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testDirectGetAttribute() {
+        int numIterations = numIterations();
+        double minRatePerSec = 1000000 * PERFORMANCE_EXPECTATION;
+
+        measureAndAssert("directGetAttribute", numIterations, minRatePerSec, new Runnable() {
+            public void run() {
+                direct.getAttribute(TestEntity.SEQUENCE);
+            }});
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testProxiedGetAttribute() {
+        int numIterations = numIterations();
+        double minRatePerSec = 500000 * PERFORMANCE_EXPECTATION;
+
+        measureAndAssert("proxiedGetAttribute", numIterations, minRatePerSec, new Runnable() {
+            public void run() {
+                proxy.getAttribute(TestEntity.SEQUENCE);
+            }});
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testProxiedEffector() {
+        int numIterations = 10000;
+        double minRatePerSec = 1000 * PERFORMANCE_EXPECTATION;
+
+        measureAndAssert("proxiedEffector", numIterations, minRatePerSec, new Runnable() {
+            public void run() {
+                proxy.identityEffector("abc");
+            }});
+    }
+}
@@ -0,0 +1,57 @@
+package brooklyn.util.internal.ssh.sshj;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.testng.annotations.Test;
+
+import brooklyn.util.internal.ssh.sshj.SshjTool.ScriptStartMarkerGobbler;
+
+public class ScriptStartMarkerGobblerTest {
+
+    private static final String MARKER = "BROOKLYN-SCRIPT-STARTING-abcdefgh";
+    private static final String NL = System.getProperty("line.separator");
+
+    @Test
+    public void testStripsMarkerAndPassesOtherLines() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScriptStartMarkerGobbler gobbler = gobble("profile noise\n"+MARKER+"\nhello\nworld\n", out);
+
+        assertTrue(gobbler.isMarkerSeen());
+        assertEquals(new String(out.toByteArray()), "profile noise"+NL+"hello"+NL+"world"+NL);
+    }
+
+    @Test
+    public void testOnlyStripsFirstMarker() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScriptStartMarkerGobbler gobbler = gobble(MARKER+"\n"+MARKER+"\n", out);
+
+        assertTrue(gobbler.isMarkerSeen());
+        assertEquals(new String(out.toByteArray()), MARKER+NL);
+    }
+
+    @Test
+    public void testReportsMarkerNotSeen() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScriptStartMarkerGobbler gobbler = gobble("bash: command not found\n", out);
+
+        assertFalse(gobbler.isMarkerSeen());
+        assertEquals(new String(out.toByteArray()), "bash: command not found"+NL);
+    }
+
+    @Test
+    public void testDetectsMarkerWithoutOutputStream() throws Exception {
+        ScriptStartMarkerGobbler gobbler = gobble(MARKER+"\nhello\n", null);
+        assertTrue(gobbler.isMarkerSeen());
+    }
+
+    private ScriptStartMarkerGobbler gobble(String input, ByteArrayOutputStream out) {
+        ScriptStartMarkerGobbler gobbler = new ScriptStartMarkerGobbler(new ByteArrayInputStream(input.getBytes()), out, MARKER);
+        gobbler.run();
+        return gobbler;
+    }
+}
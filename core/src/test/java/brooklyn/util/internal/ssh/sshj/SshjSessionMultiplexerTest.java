@@ -0,0 +1,179 @@
+package brooklyn.util.internal.ssh.sshj;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.schmizz.sshj.SSHClient;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.util.internal.ssh.sshj.SshjSessionMultiplexer.ChannelLease;
+import brooklyn.util.internal.ssh.sshj.SshjSessionMultiplexer.Handle;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.net.HostAndPort;
+
+public class SshjSessionMultiplexerTest {
+
+    private RecordingMultiplexer multiplexer;
+    private ExecutorService executor;
+    private SshjClientConnection host1;
+    private SshjClientConnection host2;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        multiplexer = new RecordingMultiplexer();
+        executor = Executors.newCachedThreadPool();
+        host1 = SshjClientConnection.builder().hostAndPort(HostAndPort.fromParts("host1", 22)).username("user").build();
+        host2 = SshjClientConnection.builder().hostAndPort(HostAndPort.fromParts("host2", 22)).username("user").build();
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    @Test
+    public void testSharesSessionForSameHostAndCredentials() throws Exception {
+        Handle handle1 = multiplexer.open(host1, 2, 8, 0);
+        Handle handle2 = multiplexer.open(SshjClientConnection.builder().hostAndPort(HostAndPort.fromParts("host1", 22)).username("user").build(), 2, 8, 0);
+
+        ChannelLease lease1 = handle1.leaseChannel();
+        ChannelLease lease2 = handle2.leaseChannel();
+
+        assertSame(lease1.getClient(), lease2.getClient());
+        assertEquals(multiplexer.connected.size(), 1);
+        assertEquals(multiplexer.getSessionCount(), 1);
+        assertEquals(multiplexer.getChannelsInUseCount(), 2);
+    }
+
+    @Test
+    public void testSeparateSessionsForDifferentHosts() throws Exception {
+        ChannelLease lease1 = multiplexer.open(host1, 2, 8, 0).leaseChannel();
+        ChannelLease lease2 = multiplexer.open(host2, 2, 8, 0).leaseChannel();
+
+        assertNotSame(lease1.getClient(), lease2.getClient());
+        assertEquals(multiplexer.getSessionCount(), 2);
+    }
+
+    @Test
+    public void testOpensAnotherSessionWhenChannelsExhausted() throws Exception {
+        Handle handle = multiplexer.open(host1, 2, 2, 0);
+        ChannelLease lease1 = handle.leaseChannel();
+        ChannelLease lease2 = handle.leaseChannel();
+        ChannelLease lease3 = handle.leaseChannel();
+
+        assertSame(lease1.getClient(), lease2.getClient());
+        assertNotSame(lease1.getClient(), lease3.getClient());
+        assertEquals(multiplexer.getSessionCount(), 2);
+    }
+
+    @Test
+    public void testWaitsForChannelWhenHostLimitReached() throws Exception {
+        final Handle handle = multiplexer.open(host1, 1, 1, 0);
+        ChannelLease lease1 = handle.leaseChannel();
+
+        Future<ChannelLease> future = executor.submit(new Callable<ChannelLease>() {
+            public ChannelLease call() throws Exception {
+                return handle.leaseChannel();
+            }});
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("should have waited for channel");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        lease1.release();
+        ChannelLease lease2 = future.get(10, TimeUnit.SECONDS);
+
+        assertSame(lease2.getClient(), lease1.getClient());
+        assertEquals(multiplexer.getSessionCount(), 1);
+        assertEquals(multiplexer.getTotalChannelWaits(), 1);
+        assertTrue(multiplexer.getMaxChannelWaitMillis() >= 100, "maxWait="+multiplexer.getMaxChannelWaitMillis());
+    }
+
+    @Test
+    public void testOpensSeparateSessionWhenChannelWaitTimesOut() throws Exception {
+        Handle handle = multiplexer.open(host1, 1, 1, 0);
+        ChannelLease lease1 = handle.leaseChannel();
+        ChannelLease lease2 = handle.leaseChannel(100);
+
+        assertNotSame(lease2.getClient(), lease1.getClient());
+        assertEquals(multiplexer.getSessionCount(), 1);
+        assertEquals(multiplexer.getTotalChannelWaitTimeouts(), 1);
+
+        lease2.release();
+        assertEquals(multiplexer.disconnected, Lists.newArrayList(lease2.getClient()));
+        assertEquals(multiplexer.getChannelsInUseCount(), 1);
+    }
+
+    @Test
+    public void testClosesSessionsWhenLastHandleClosed() throws Exception {
+        Handle handle1 = multiplexer.open(host1, 2, 8, 0);
+        Handle handle2 = multiplexer.open(host1, 2, 8, 0);
+        SSHClient client = handle1.leaseChannel().getClient();
+
+        handle1.close();
+        assertTrue(multiplexer.disconnected.isEmpty());
+        assertTrue(handle2.isConnected());
+
+        handle2.close();
+        assertEquals(multiplexer.disconnected, Lists.newArrayList(client));
+        assertEquals(multiplexer.getSessionCount(), 0);
+    }
+
+    @Test
+    public void testDiscardsSessionThatIsNoLongerConnected() throws Exception {
+        Handle handle = multiplexer.open(host1, 1, 8, 0);
+        ChannelLease lease1 = handle.leaseChannel();
+        SSHClient client1 = lease1.getClient();
+
+        multiplexer.dead.add(client1);
+        assertFalse(handle.isConnected());
+        lease1.release();
+
+        ChannelLease lease2 = handle.leaseChannel();
+        assertNotSame(lease2.getClient(), client1);
+        assertEquals(multiplexer.disconnected, Lists.newArrayList(client1));
+        assertEquals(multiplexer.getSessionCount(), 1);
+    }
+
+    private static class RecordingMultiplexer extends SshjSessionMultiplexer {
+        final List<SSHClient> connected = Lists.newCopyOnWriteArrayList();
+        final List<SSHClient> disconnected = Lists.newCopyOnWriteArrayList();
+        final Set<SSHClient> dead = Sets.newCopyOnWriteArraySet();
+
+        @Override
+        protected SSHClient connect(SshjClientConnection template, int keepAliveIntervalSecs) {
+            SSHClient result = new SSHClient();
+            connected.add(result);
+            return result;
+        }
+
+        @Override
+        protected boolean isViable(SSHClient client) {
+            return !dead.contains(client) && !disconnected.contains(client);
+        }
+
+        @Override
+        protected void disconnect(SSHClient client) {
+            disconnected.add(client);
+        }
+    }
+}
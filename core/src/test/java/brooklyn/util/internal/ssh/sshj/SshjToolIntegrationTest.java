@@ -1,6 +1,7 @@
 package brooklyn.util.internal.ssh.sshj;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -108,6 +109,101 @@ public class SshjToolIntegrationTest extends SshToolIntegrationTest {
         }
     }
     
+    @Test(groups = {"Integration"})
+    public void testScriptOverStdinKeepsExitCodeAndStreamsSeparate() throws Exception {
+        assertScriptKeepsExitCodeAndStreamsSeparate(true);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testScriptByCopyingKeepsExitCodeAndStreamsSeparate() throws Exception {
+        assertScriptKeepsExitCodeAndStreamsSeparate(false);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testScriptOverStdinDoesNotLetScriptReadItself() throws Exception {
+        final SshTool localtool = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa"));
+        tools.add(localtool);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        int exitcode = localtool.execScript(ImmutableMap.of("out", out), ImmutableList.of("cat", "echo after cat"));
+        
+        String outstr = new String(out.toByteArray());
+        assertEquals(exitcode, 0);
+        assertTrue(outstr.startsWith("after cat"), "out="+outstr);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testFallsBackToCopyingScriptIfCannotRunOverStdin() throws Exception {
+        final AtomicInteger attemptCount = new AtomicInteger();
+        final SshjTool localtool = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa")) {
+            @Override
+            protected String toScriptOverStdinCommand(String scriptPath, int length, String marker) {
+                attemptCount.incrementAndGet();
+                return "exit 1";
+            }
+        };
+        tools.add(localtool);
+        
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int exitcode = localtool.execScript(ImmutableMap.of("out", out), ImmutableList.of("echo hello"));
+            String outstr = new String(out.toByteArray());
+            assertEquals(exitcode, 0);
+            assertTrue(outstr.startsWith("hello"), "out="+outstr);
+        }
+        
+        // does not keep trying over stdin once it has failed
+        assertEquals(attemptCount.get(), 1);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testToolsToSameHostShareSession() throws Exception {
+        SshjSessionMultiplexer multiplexer = SshjSessionMultiplexer.getInstance();
+        SshTool localtool1 = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa"));
+        SshTool localtool2 = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa"));
+        tools.add(localtool1);
+        tools.add(localtool2);
+        
+        localtool1.connect();
+        long sessionsCreated = multiplexer.getTotalSessionsCreated();
+        localtool2.connect();
+        
+        assertEquals(localtool1.execScript(ImmutableMap.<String,Object>of(), ImmutableList.of("true")), 0);
+        assertEquals(localtool2.execCommands(ImmutableMap.<String,Object>of(), ImmutableList.of("true")), 0);
+        assertEquals(multiplexer.getTotalSessionsCreated(), sessionsCreated);
+        assertEquals(multiplexer.getChannelsInUseCount(), 0);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testToolWithoutMultiplexingDoesNotShareSession() throws Exception {
+        SshjSessionMultiplexer multiplexer = SshjSessionMultiplexer.getInstance();
+        long sessionsCreated = multiplexer.getTotalSessionsCreated();
+        SshTool localtool = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa", 
+                SshTool.PROP_SESSION_MULTIPLEXING.getName(), false));
+        tools.add(localtool);
+        
+        assertEquals(localtool.execScript(ImmutableMap.<String,Object>of(), ImmutableList.of("true")), 0);
+        assertEquals(multiplexer.getTotalSessionsCreated(), sessionsCreated);
+    }
+
+    private void assertScriptKeepsExitCodeAndStreamsSeparate(boolean scriptOverStdin) {
+        final SshTool localtool = new SshjTool(ImmutableMap.of("host", "localhost", "privateKeyFile", "~/.ssh/id_rsa", 
+                SshTool.PROP_SCRIPT_OVER_STDIN.getName(), scriptOverStdin));
+        tools.add(localtool);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        int exitcode = localtool.execScript(ImmutableMap.of("out", out, "err", err), 
+                ImmutableList.of("echo hello out", "echo hello err > /dev/stderr", "exit 3"));
+        
+        String outstr = new String(out.toByteArray());
+        String errstr = new String(err.toByteArray());
+        assertEquals(exitcode, 3);
+        assertTrue(outstr.startsWith("hello out"), "out="+outstr);
+        assertFalse(outstr.contains("hello err"), "out="+outstr);
+        assertEquals(errstr.trim(), "hello err");
+    }
+
     private String execShellDirect(List<String> cmds) {
         return execShellDirect(cmds, ImmutableMap.<String,Object>of());
     }
@@ -1,12 +1,24 @@
 package brooklyn.util.internal.ssh.sshj;
 
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
 
+import brooklyn.util.MutableMap;
 import brooklyn.util.internal.ssh.SshTool;
 import brooklyn.util.internal.ssh.SshToolPerformanceTest;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
 /**
  * Test the performance of different variants of invoking the sshj tool.
  * 
@@ -14,6 +26,8 @@ import brooklyn.util.internal.ssh.SshToolPerformanceTest;
  */
 public class SshjToolPerformanceTest extends SshToolPerformanceTest {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SshjToolPerformanceTest.class);
+
     @Override
     protected SshTool newSshTool(Map<String,?> flags) {
         return new SshjTool(flags);
@@ -23,4 +37,46 @@ public class SshjToolPerformanceTest extends SshToolPerformanceTest {
     @Test(enabled = false)
     public void testDummy() throws Exception {
     }
+
+    @Test(groups = {"Integration"})
+    public void testPerCommandLatencyWithScriptOverStdin() throws Exception {
+        measurePerCommandLatency(true, "script-over-stdin", 50);
+    }
+
+    @Test(groups = {"Integration"})
+    public void testPerCommandLatencyWithScriptCopied() throws Exception {
+        measurePerCommandLatency(false, "script-copied", 50);
+    }
+
+    /**
+     * Runs many small scripts over a single connection (as is done for periodic isRunning checks),
+     * logging the latency of each.
+     */
+    private void measurePerCommandLatency(boolean scriptOverStdin, String context, int iterations) {
+        SshTool tool = newSshTool(MutableMap.of("host", "localhost", SshTool.PROP_SCRIPT_OVER_STDIN.getName(), scriptOverStdin));
+        List<String> cmds = ImmutableList.of("true");
+        long[] latencies = new long[iterations];
+        try {
+            tool.connect();
+            // warm-up
+            tool.execScript(ImmutableMap.<String,Object>of(), cmds);
+
+            for (int i = 0; i < iterations; i++) {
+                Stopwatch stopwatch = new Stopwatch().start();
+                int result = tool.execScript(ImmutableMap.<String,Object>of(), cmds);
+                latencies[i] = stopwatch.elapsedMillis();
+                assertEquals(result, 0);
+            }
+        } finally {
+            tool.disconnect();
+        }
+
+        long total = 0;
+        for (long latency : latencies) total += latency;
+        long[] sorted = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(sorted);
+        List<Long> percentiles = Lists.newArrayList(sorted[sorted.length/2], sorted[(sorted.length*9)/10], sorted[sorted.length-1]);
+        LOG.info("Executing {}; {} commands; mean {}ms; median/90th/max {}ms",
+                new Object[] {context, iterations, ((double)total/iterations), percentiles});
+    }
 }
@@ -0,0 +1,180 @@
+package brooklyn.util.ssh;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.util.ResourceUtils;
+import brooklyn.util.ssh.ArtifactCache.CachedArtifact;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ArtifactCacheTest {
+
+    private File dir;
+    private File tempDir;
+    private ResourceUtils loader;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        tempDir = Files.createTempDir();
+        loader = new ResourceUtils(this);
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (dir != null) Files.deleteRecursively(dir);
+        if (tempDir != null) Files.deleteRecursively(tempDir);
+    }
+
+    @Test
+    public void testFetchesOnceAndStoresByChecksum() throws Exception {
+        ArtifactCache cache = new ArtifactCache(dir, 1024*1024, 1, 0);
+        File file = newFile("a.txt", "hello");
+
+        CachedArtifact artifact1 = cache.fetch(loader, file.getAbsolutePath());
+        CachedArtifact artifact2 = cache.fetch(loader, file.getAbsolutePath());
+
+        assertEquals(artifact1.getChecksum(), "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+        assertEquals(artifact1.getFile(), new File(dir, artifact1.getChecksum()));
+        assertEquals(artifact2.getFile(), artifact1.getFile());
+        assertEquals(Files.toString(artifact1.getFile(), Charsets.UTF_8), "hello");
+        assertEquals(cache.getTotalFetches(), 1);
+    }
+
+    @Test
+    public void testSameContentFromDifferentUrlsIsStoredOnce() throws Exception {
+        ArtifactCache cache = new ArtifactCache(dir, 1024*1024, 1, 0);
+        CachedArtifact artifact1 = cache.fetch(loader, newFile("a.txt", "hello").getAbsolutePath());
+        CachedArtifact artifact2 = cache.fetch(loader, "file://"+newFile("b.txt", "hello").getAbsolutePath());
+
+        assertEquals(artifact2.getChecksum(), artifact1.getChecksum());
+        assertEquals(cache.getArtifactCount(), 1);
+        assertEquals(cache.getTotalSizeBytes(), 5);
+    }
+
+    @Test
+    public void testRefetchesChangedLocalFile() throws Exception {
+        ArtifactCache cache = new ArtifactCache(dir, 1024*1024, 1, 0);
+        File file = newFile("a.txt", "hello");
+        CachedArtifact artifact1 = cache.fetch(loader, file.getAbsolutePath());
+
+        Files.write("goodbye", file, Charsets.UTF_8);
+        CachedArtifact artifact2 = cache.fetch(loader, file.getAbsolutePath());
+
+        assertNotEquals(artifact2.getChecksum(), artifact1.getChecksum());
+        assertEquals(Files.toString(artifact2.getFile(), Charsets.UTF_8), "goodbye");
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        ArtifactCache cache = new ArtifactCache(dir, 10, 1, 0);
+        String url1 = newFile("a.txt", "aaaa").getAbsolutePath();
+        String url2 = newFile("b.txt", "bbbb").getAbsolutePath();
+        String url3 = newFile("c.txt", "cccc").getAbsolutePath();
+
+        CachedArtifact artifact1 = cache.fetch(loader, url1);
+        CachedArtifact artifact2 = cache.fetch(loader, url2);
+        cache.fetch(loader, url1); // now url2 is least recently used
+        CachedArtifact artifact3 = cache.fetch(loader, url3);
+
+        assertTrue(artifact1.getFile().exists());
+        assertFalse(artifact2.getFile().exists());
+        assertTrue(artifact3.getFile().exists());
+        assertEquals(cache.getTotalSizeBytes(), 8);
+
+        // evicted artifact is fetched again when needed
+        cache.fetch(loader, url2);
+        assertEquals(cache.getTotalFetches(), 4);
+    }
+
+    @Test
+    public void testReloadsExistingCacheDir() throws Exception {
+        CachedArtifact artifact = new ArtifactCache(dir, 1024*1024, 1, 0).fetch(loader, newFile("a.txt", "hello").getAbsolutePath());
+
+        ArtifactCache cache = new ArtifactCache(dir, 1024*1024, 1, 0);
+        assertEquals(cache.getArtifactCount(), 1);
+        assertEquals(cache.getTotalSizeBytes(), artifact.getSize());
+    }
+
+    @Test
+    public void testRemoteCommandsCheckChecksum() throws Exception {
+        CachedArtifact artifact = new ArtifactCache(dir, 1024*1024, 1, 0).fetch(loader, newFile("a.txt", "hello").getAbsolutePath());
+        String commands = ArtifactCache.toInstallFromRemoteCopyCommands(artifact, "cache/"+artifact.getChecksum(), "/tmp/dest/a.txt").toString();
+
+        assertTrue(commands.contains("sha256sum /tmp/dest/a.txt"), commands);
+        assertTrue(commands.contains("shasum -a 256 /tmp/dest/a.txt"), commands);
+        assertTrue(commands.contains("grep -q '^"+artifact.getChecksum()+" '"), commands);
+        assertTrue(commands.contains("cp -f cache/"+artifact.getChecksum()+" /tmp/dest/a.txt"), commands);
+    }
+
+    @Test
+    public void testUploadIsVerifiedOnlyWhereMachineHasChecksumTool() throws Exception {
+        CachedArtifact artifact = new ArtifactCache(dir, 1024*1024, 1, 0).fetch(loader, newFile("a.txt", "hello").getAbsolutePath());
+        String commands = ArtifactCache.toInstallFromUploadCommands(artifact, "cache/upload.tmp", "cache/"+artifact.getChecksum(), "/tmp/dest/a.txt").toString();
+
+        assertTrue(commands.contains("if { which sha256sum || which shasum || which openssl; }"), commands);
+        assertTrue(commands.contains("mv -f cache/upload.tmp cache/"+artifact.getChecksum()), commands);
+        assertTrue(commands.contains("tail -n +"+(ArtifactCache.REMOTE_MAX_ARTIFACTS+1)), commands);
+    }
+
+    @Test
+    public void testRefetchesRemoteUrlAfterTtl() throws Exception {
+        String url = "classpath://"+getClass().getName().replace('.', '/')+".class";
+
+        ArtifactCache cache = new ArtifactCache(dir, 1024*1024, 1, 0, 60*1000);
+        cache.fetch(loader, url);
+        cache.fetch(loader, url);
+        assertEquals(cache.getTotalFetches(), 1);
+
+        ArtifactCache expiringCache = new ArtifactCache(dir, 1024*1024, 1, 0, 0);
+        expiringCache.fetch(loader, url);
+        expiringCache.fetch(loader, url);
+        assertEquals(expiringCache.getTotalFetches(), 2);
+    }
+
+    @Test(groups="Integration")
+    public void testCopyToSkipsTransferWhenMachineAlreadyHasArtifact() throws Exception {
+        LocalhostMachineProvisioningLocation loc = new LocalhostMachineProvisioningLocation();
+        SshMachineLocation machine = loc.obtain();
+        try {
+            ArtifactCache cache = new ArtifactCache(dir, 1024*1024*1024, 1, 0);
+            char[] content = new char[(int)ArtifactCache.SMALL_ARTIFACT_BYTES*2];
+            Arrays.fill(content, 'x');
+            String url = newFile("big.txt", new String(content)).getAbsolutePath();
+            File dest1 = new File(tempDir, "dest1/big.txt");
+            File dest2 = new File(tempDir, "dest2/big.txt");
+
+            assertEquals(cache.copyTo(machine, loader, url, dest1.getAbsolutePath()), 0);
+            assertEquals(cache.getTotalUploads(), 1);
+            assertEquals(Files.toString(dest1, Charsets.UTF_8), new String(content));
+
+            // same destination, and a new destination on the same machine: both without transfer
+            assertEquals(cache.copyTo(machine, loader, url, dest1.getAbsolutePath()), 0);
+            assertEquals(cache.copyTo(machine, loader, url, dest2.getAbsolutePath()), 0);
+            assertEquals(cache.getTotalUploads(), 1);
+            assertEquals(cache.getTotalUploadsSkipped(), 2);
+            assertEquals(Files.toString(dest2, Charsets.UTF_8), new String(content));
+        } finally {
+            loc.close();
+        }
+    }
+
+    private File newFile(String name, String content) throws Exception {
+        File result = new File(tempDir, name);
+        Files.write(content, result, Charsets.UTF_8);
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package brooklyn.util.task;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.management.Task;
+import brooklyn.util.MutableMap;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the paged and filtered lookup of tasks by tag in {@link BasicExecutionManager}.
+ */
+public class BasicExecutionManagerTasksWithTagTest {
+
+    private BasicExecutionManager em;
+    private List<Task<?>> tasks;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        em = new BasicExecutionManager("mycontext");
+        tasks = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            Task<?> task = em.submit(MutableMap.of("tags", ImmutableList.of("A", (i % 2 == 0) ? "even" : "odd")), new Runnable() {
+                public void run() {}
+            });
+            task.get();
+            tasks.add(task);
+        }
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        if (em != null) em.shutdownNow();
+    }
+
+    @Test
+    public void testReturnsTasksInOrderOfSubmission() {
+        assertEquals(em.getTasksWithTag("A", Predicates.alwaysTrue(), false, null, 0), tasks);
+        assertEquals(em.getTasksWithTag("A", Predicates.alwaysTrue(), true, null, 0), Lists.reverse(tasks));
+    }
+
+    @Test
+    public void testPagesFromCursor() {
+        List<Task<?>> page1 = em.getTasksWithTag("A", Predicates.alwaysTrue(), true, null, 2);
+        assertEquals(page1, ImmutableList.of(tasks.get(4), tasks.get(3)));
+        List<Task<?>> page2 = em.getTasksWithTag("A", Predicates.alwaysTrue(), true, page1.get(1).getId(), 2);
+        assertEquals(page2, ImmutableList.of(tasks.get(2), tasks.get(1)));
+        List<Task<?>> page3 = em.getTasksWithTag("A", Predicates.alwaysTrue(), true, page2.get(1).getId(), 2);
+        assertEquals(page3, ImmutableList.of(tasks.get(0)));
+    }
+
+    @Test
+    public void testFilters() {
+        Predicate<Task<?>> even = new Predicate<Task<?>>() {
+            public boolean apply(Task<?> input) {
+                return input.getTags().contains("even");
+            }
+        };
+        assertEquals(em.getTasksWithTag("A", even, false, null, 0), ImmutableList.of(tasks.get(0), tasks.get(2), tasks.get(4)));
+        assertEquals(em.getTasksWithTag("A", even, false, tasks.get(0).getId(), 1), ImmutableList.of(tasks.get(2)));
+    }
+
+    @Test
+    public void testUnknownTagReturnsNothing() {
+        assertEquals(em.getTasksWithTag("B", Predicates.alwaysTrue(), false, null, 0).size(), 0);
+    }
+
+    @Test
+    public void testUnknownCursorReturnsNull() {
+        assertNull(em.getTasksWithTag("A", Predicates.alwaysTrue(), false, "no-such-task", 0));
+        assertNull(em.getTasksWithTag("A", Predicates.alwaysTrue(), true, "no-such-task", 0));
+        assertNull(em.getTasksWithTag("B", Predicates.alwaysTrue(), false, tasks.get(0).getId(), 0));
+    }
+
+    @Test
+    public void testCursorAtEndReturnsNothing() {
+        assertEquals(em.getTasksWithTag("A", Predicates.alwaysTrue(), false, tasks.get(4).getId(), 0).size(), 0);
+        assertEquals(em.getTasksWithTag("A", Predicates.alwaysTrue(), true, tasks.get(0).getId(), 0).size(), 0);
+    }
+}
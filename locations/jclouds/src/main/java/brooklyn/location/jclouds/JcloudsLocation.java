@@ -15,10 +15,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.annotation.Nullable;
 
@@ -35,6 +39,7 @@ import org.jclouds.compute.domain.OsFamily;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
 import org.jclouds.compute.domain.TemplateBuilderSpec;
+import org.jclouds.compute.domain.internal.TemplateImpl;
 import org.jclouds.compute.options.TemplateOptions;
 import org.jclouds.domain.Credentials;
 import org.jclouds.domain.LoginCredentials;
@@ -51,12 +56,16 @@ import brooklyn.config.ConfigKey;
 import brooklyn.config.ConfigKey.HasConfigKey;
 import brooklyn.config.ConfigUtils;
 import brooklyn.entity.basic.Entities;
+import brooklyn.location.BatchMachineProvisioningLocation;
+import brooklyn.location.ClosedWhenUnused;
 import brooklyn.location.NoMachinesAvailableException;
 import brooklyn.location.basic.LocationConfigUtils;
 import brooklyn.location.basic.LocationCreationUtils;
 import brooklyn.location.basic.SshMachineLocation;
 import brooklyn.location.cloud.AbstractCloudMachineProvisioningLocation;
+import brooklyn.location.cloud.ObtainBatcher;
 import brooklyn.location.jclouds.templates.PortableTemplateBuilder;
+import brooklyn.location.jclouds.templates.SharedResolutionCache;
 import brooklyn.util.KeyValueParser;
 import brooklyn.util.MutableMap;
 import brooklyn.util.Time;
@@ -83,12 +92,16 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * For provisioning and managing VMs in a particular provider/region, using jclouds.
  * Configuration flags are defined in {@link JcloudsLocationConfig}.
  */
-public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation implements JcloudsLocationConfig {
+public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation implements JcloudsLocationConfig,
+        BatchMachineProvisioningLocation<SshMachineLocation>, ClosedWhenUnused {
 
     // TODO After converting from Groovy to Java, this is now very bad code! It relies entirely on putting 
     // things into and taking them out of maps; it's not type-safe, and it's thus very error-prone.
@@ -113,7 +126,12 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
     public static final List<String> NON_ADDABLE_USERS = ImmutableList.<String>builder().add(ROOT_USERNAME).addAll(ROOT_ALIASES).build();
     
     private final Map<String,Map<String, ? extends Object>> tagMapping = Maps.newLinkedHashMap();
-    private final Map<JcloudsSshMachineLocation,String> vmInstanceIds = Maps.newLinkedHashMap();
+    private final Map<JcloudsSshMachineLocation,String> vmInstanceIds = Collections.synchronizedMap(
+            Maps.<JcloudsSshMachineLocation,String>newLinkedHashMap());
+    private ObtainBatcher<SshMachineLocation> obtainBatcher;
+
+    /** runs the creation of batches of VMs, the setting up of each VM in a batch, and the gathering of facts about new VMs; created when first needed */
+    private ThreadPoolExecutor batchExecutor;
 
     /** typically wants at least ACCESS_IDENTITY and ACCESS_CREDENTIAL */
     public JcloudsLocation(Map<?,?> conf) {
@@ -301,10 +319,14 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
      * plus any further properties to specify e.g. images, hardware profiles, accessing user
      * (for initial login, and a user potentially to create for subsequent ie normal access) */
     public JcloudsSshMachineLocation obtain(Map<?,?> flags) throws NoMachinesAvailableException {
+        // part of a batch expected by a caller such as a cluster, if there is one
+        JcloudsSshMachineLocation batched = (JcloudsSshMachineLocation) getObtainBatcher().obtain(flags);
+        if (batched != null) return batched;
+        
         ConfigBag setup = ConfigBag.newInstanceExtending(getConfigBag(), flags);
         setCreationString(setup);
         
-        final ComputeService computeService = JcloudsUtil.findComputeService(setup);
+        final ComputeService computeService = findComputeService(setup);
         String groupId = elvis(setup.get(GROUP_ID), new CloudMachineNamer(setup).generateNewGroupId());
         NodeMetadata node = null;
         try {
@@ -322,29 +344,7 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
             if (node == null)
                 throw new IllegalStateException("No nodes returned by jclouds create-nodes in " + setup.getDescription());
 
-            LoginCredentials initialCredentials = extractVmCredentials(setup, node);
-            if (initialCredentials != null)
-                node = NodeMetadataBuilder.fromNodeMetadata(node).credentials(initialCredentials).build();
-            else
-                // only happens if something broke above...
-                initialCredentials = LoginCredentials.fromCredentials(node.getCredentials());
-            
-            // Wait for the VM to be reachable over SSH
-            waitForReachable(computeService, node, initialCredentials, setup);
-            
-            String vmHostname = getPublicHostname(node, setup);
-            JcloudsSshMachineLocation sshLocByHostname = registerJcloudsSshMachineLocation(node, vmHostname, setup);
-            
-            // Apply same securityGroups rules to iptables, if iptables is running on the node
-            mapSecurityGroupRuleToIpTables(computeService, node, initialCredentials, "eth0", 
-                    (Iterable<Integer>) setup.get(INBOUND_PORTS));
-            
-            // Apply any optional app-specific customization.
-            for (JcloudsLocationCustomizer customizer : getCustomizers(setup)) {
-                customizer.customize(computeService, sshLocByHostname);
-            }
-            
-            return sshLocByHostname;
+            return setUpNode(computeService, node, setup);
         } catch (RunNodesException e) {
             if (e.getNodeErrors().size() > 0) {
                 node = Iterables.get(e.getNodeErrors().keySet(), 0);
@@ -362,6 +362,167 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
 
     }
 
+    /** waits for a newly created VM to be reachable, then registers and customizes it */
+    protected JcloudsSshMachineLocation setUpNode(ComputeService computeService, NodeMetadata node, ConfigBag setup) throws Exception {
+        LoginCredentials initialCredentials = extractVmCredentials(setup, node);
+        if (initialCredentials != null)
+            node = NodeMetadataBuilder.fromNodeMetadata(node).credentials(initialCredentials).build();
+        else
+            // only happens if something broke above...
+            initialCredentials = LoginCredentials.fromCredentials(node.getCredentials());
+        
+        // Wait for the VM to be reachable over SSH
+        waitForReachable(computeService, node, initialCredentials, setup);
+        
+        String vmHostname = getPublicHostname(node, setup);
+        JcloudsSshMachineLocation sshLocByHostname = registerJcloudsSshMachineLocation(node, vmHostname, setup);
+        
+        // Apply same securityGroups rules to iptables, if iptables is running on the node
+        mapSecurityGroupRuleToIpTables(computeService, node, initialCredentials, "eth0", 
+                (Iterable<Integer>) setup.get(INBOUND_PORTS));
+        
+        // Apply any optional app-specific customization.
+        for (JcloudsLocationCustomizer customizer : getCustomizers(setup)) {
+            customizer.customize(computeService, sshLocByHostname);
+        }
+        
+        // Start gathering the facts drivers need about the VM in one go, now that it is set up; drivers wait for them if need be
+        if (setup.get(GATHER_MACHINE_FACTS) && !"false".equalsIgnoreCase(setup.get(WAIT_FOR_SSHABLE))) {
+            sshLocByHostname.gatherMachineFactsAsync(getBatchExecutor());
+        }
+        
+        return sshLocByHostname;
+    }
+
+    // ----------------- obtaining a batch of machines ------------------------
+
+    protected synchronized ObtainBatcher<SshMachineLocation> getObtainBatcher() {
+        if (obtainBatcher == null) {
+            obtainBatcher = new ObtainBatcher<SshMachineLocation>(getConfig(OBTAIN_BATCH_WINDOW)) {
+                @Override
+                protected List<ListenableFuture<SshMachineLocation>> obtainBatch(List<Map<?,?>> flagsPerMachine) {
+                    return JcloudsLocation.this.obtainBatch(flagsPerMachine);
+                }
+                @Override
+                protected void release(SshMachineLocation machine) {
+                    JcloudsLocation.this.release(machine);
+                }
+            };
+        }
+        return obtainBatcher;
+    }
+    
+    public ObtainBatch expectObtains(Collection<?> callerContexts) {
+        return getObtainBatcher().expectObtains(callerContexts);
+    }
+    
+    protected synchronized ThreadPoolExecutor getBatchExecutor() {
+        if (batchExecutor == null) {
+            int maxThreads = getConfig(OBTAIN_BATCH_MAX_THREADS);
+            batchExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setNameFormat("brooklyn-jclouds-batch-%d").setDaemon(true).build());
+            batchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return batchExecutor;
+    }
+    
+    public List<ListenableFuture<SshMachineLocation>> obtainBatch(int count, Map<?,?> flags) {
+        return obtainBatch(Collections.<Map<?,?>>nCopies(count, flags));
+    }
+    
+    /** creates all the VMs with one jclouds create-nodes call, then sets up each of them in parallel with its own flags */
+    public List<ListenableFuture<SshMachineLocation>> obtainBatch(List<Map<?,?>> flagsPerMachine) {
+        final List<ConfigBag> setups = Lists.newArrayList();
+        final List<SettableFuture<SshMachineLocation>> result = Lists.newArrayList();
+        for (Map<?,?> flags : flagsPerMachine) {
+            ConfigBag setup = ConfigBag.newInstanceExtending(getConfigBag(), flags);
+            setCreationString(setup);
+            setups.add(setup);
+            result.add(SettableFuture.<SshMachineLocation>create());
+        }
+        if (setups.isEmpty()) return ImmutableList.of();
+        getBatchExecutor().execute(new Runnable() {
+            public void run() {
+                createBatch(setups, result);
+            }});
+        return ImmutableList.<ListenableFuture<SshMachineLocation>>copyOf(result);
+    }
+    
+    /** 
+     * creates the VMs with the template and group of the first setup (the others being equivalent apart from 
+     * how each VM is named and set up), then sets up each VM with its own setup and completes its future
+     */
+    private void createBatch(List<ConfigBag> setups, List<SettableFuture<SshMachineLocation>> futures) {
+        ConfigBag batchSetup = setups.get(0);
+        Queue<Integer> unassigned = new LinkedList<Integer>();
+        for (int i = 0; i < futures.size(); i++) unassigned.add(i);
+        try {
+            final ComputeService computeService = findComputeService(batchSetup);
+            String groupId = elvis(batchSetup.get(GROUP_ID), new CloudMachineNamer(batchSetup).generateNewGroupId());
+            LOG.info("Creating "+futures.size()+" VMs in "+batchSetup.getDescription()+" for "+this);
+            
+            Template template = buildTemplate(computeService, batchSetup);
+            Set<? extends NodeMetadata> nodes;
+            Exception failure = null;
+            try {
+                nodes = computeService.createNodesInGroup(groupId, futures.size(), template);
+            } catch (RunNodesException e) {
+                LOG.error("Failed to start {} of {} VMs for {}: {}", new Object[] {
+                        futures.size() - e.getSuccessfulNodes().size(), futures.size(), batchSetup.getDescription(), e.getMessage()});
+                nodes = e.getSuccessfulNodes();
+                for (NodeMetadata failedNode : e.getNodeErrors().keySet()) {
+                    destroyQuietly(computeService, failedNode);
+                }
+                failure = e;
+            }
+            LOG.debug("jclouds created {} for {}", nodes, batchSetup.getDescription());
+            
+            for (final NodeMetadata node : nodes) {
+                Integer index = unassigned.poll();
+                if (index == null) {
+                    LOG.warn("jclouds created more VMs than requested for "+batchSetup.getDescription()+"; releasing "+node);
+                    destroyQuietly(computeService, node);
+                    continue;
+                }
+                final ConfigBag setup = setups.get(index);
+                final SettableFuture<SshMachineLocation> future = futures.get(index);
+                getBatchExecutor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            future.set(setUpNode(computeService, node, setup));
+                        } catch (Exception e) {
+                            LOG.error("Failed to set up VM "+node.getId()+" for "+setup.getDescription()+" (releasing): "+e);
+                            LOG.debug(Throwables.getStackTraceAsString(e));
+                            destroyQuietly(computeService, node);
+                            future.setException(e);
+                        }
+                    }});
+            }
+            for (Integer index : unassigned) {
+                futures.get(index).setException(new NoMachinesAvailableException("Failed to start VM in "+setups.get(index).getDescription(), failure));
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to start VMs for {}: {}", batchSetup.getDescription(), e.getMessage());
+            LOG.debug(Throwables.getStackTraceAsString(e));
+            for (Integer index : unassigned) {
+                futures.get(index).setException(e);
+            }
+        }
+    }
+    
+    /** returns the compute service for the given setup; overridable for testing */
+    protected ComputeService findComputeService(ConfigBag setup) {
+        return JcloudsUtil.findComputeService(setup);
+    }
+    
+    private void destroyQuietly(ComputeService computeService, NodeMetadata node) {
+        try {
+            computeService.destroyNode(node.getId());
+        } catch (Exception e) {
+            LOG.warn("Problem destroying VM "+node.getId()+" in "+this+"; continuing", e);
+        }
+    }
+
     private void mapSecurityGroupRuleToIpTables(ComputeService computeService, NodeMetadata node,
             LoginCredentials credentials, String networkInterface, Iterable<Integer> ports) {
         for (Integer port : ports) {
@@ -486,8 +647,133 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
 
     private static boolean listedAvailableTemplatesOnNoSuchTemplate = false;
 
-    /** returns the jclouds Template which describes the image to be built */
-    protected Template buildTemplate(ComputeService computeService, ConfigBag config) {
+    /** resolved templates, created on first use and shared with sub-locations; closed by {@link #close()} */
+    private SharedResolutionCache<TemplateCacheKey,Template> templateCache;
+
+    /** 
+     * the spec of a template: the compute service and the template builder properties (which are all the template
+     * depends on when no TemplateBuilder or customizers are supplied), so that it can be resolved or refreshed 
+     * without reference to the config of the request which first asked for it 
+     */
+    private static class TemplateCacheKey {
+        final ComputeService computeService;
+        final Map<String,String> spec;
+        final Map<ConfigKey<?>,Object> values;
+        
+        TemplateCacheKey(ComputeService computeService, Map<ConfigKey<?>,Object> values) {
+            this.computeService = computeService;
+            this.values = ImmutableMap.copyOf(values);
+            Map<String,String> spec = Maps.newTreeMap();
+            for (Map.Entry<ConfigKey<?>,Object> entry : values.entrySet()) {
+                spec.put(entry.getKey().getName(), String.valueOf(entry.getValue()));
+            }
+            this.spec = Collections.unmodifiableMap(spec);
+        }
+        ConfigBag toConfigBag() {
+            ConfigBag result = new ConfigBag();
+            for (Map.Entry<ConfigKey<?>,Object> entry : values.entrySet()) {
+                result.putStringKey(entry.getKey().getName(), entry.getValue());
+            }
+            result.setDescription(toString());
+            return result;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TemplateCacheKey)) return false;
+            TemplateCacheKey o = (TemplateCacheKey) obj;
+            return computeService == o.computeService && spec.equals(o.spec);
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(System.identityHashCode(computeService), spec);
+        }
+        @Override
+        public String toString() {
+            return "template"+spec;
+        }
+    }
+
+    /** 
+     * returns the cache of resolved templates, creating it if necessary; while templates for a cloud are in use, 
+     * its image and hardware catalog is also listed periodically so that jclouds' memoized copy is refreshed 
+     * in the background 
+     */
+    protected synchronized SharedResolutionCache<TemplateCacheKey,Template> getTemplateCache() {
+        if (getParentLocation() instanceof JcloudsLocation) {
+            return ((JcloudsLocation)getParentLocation()).getTemplateCache();
+        }
+        if (templateCache == null) {
+            templateCache = new SharedResolutionCache<TemplateCacheKey,Template>(new Function<TemplateCacheKey,Template>() {
+                        public Template apply(TemplateCacheKey key) {
+                            return resolveTemplate(key.computeService, key.toConfigBag());
+                        }},
+                    60*1000) {
+                @Override
+                protected void onRefresh(Set<TemplateCacheKey> activeKeys) {
+                    Set<ComputeService> computeServices = Sets.newIdentityHashSet();
+                    for (TemplateCacheKey key : activeKeys) computeServices.add(key.computeService);
+                    for (ComputeService computeService : computeServices) {
+                        try {
+                            computeService.listImages();
+                            computeService.listHardwareProfiles();
+                        } catch (Exception e) {
+                            LOG.debug("Problem refreshing image and hardware catalog of "+computeService+" (continuing): "+e);
+                        }
+                    }
+                }
+                @Override
+                public String toString() {
+                    return "template cache for "+JcloudsLocation.this;
+                }
+            };
+        }
+        return templateCache;
+    }
+
+    /**
+     * stops refreshing and discards the templates resolved by this location, provisions any obtains waiting to be batched,
+     * and stops the threads used for batches once their work is done; all are set up again if this location is used again
+     */
+    @Override
+    public void close() {
+        SharedResolutionCache<?,?> cache;
+        ObtainBatcher<?> batcher;
+        synchronized (this) {
+            cache = templateCache;
+            templateCache = null;
+            batcher = obtainBatcher;
+            obtainBatcher = null;
+        }
+        if (cache != null) cache.close();
+        if (batcher != null) batcher.close();
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = batchExecutor;
+            batchExecutor = null;
+        }
+        if (executor != null) executor.shutdown();
+    }
+
+    /** returns the key under which the template resolved for this config can be shared, 
+     * or null if it must be resolved afresh */
+    private TemplateCacheKey getTemplateCacheKey(ComputeService computeService, ConfigBag config) {
+        Long ttl = config.get(TEMPLATE_CACHE_TTL);
+        if (ttl == null || ttl <= 0) return null;
+        // a supplied TemplateBuilder or customizer could make any change to the template
+        if (config.get(TEMPLATE_BUILDER) != null || !getCustomizers(config).isEmpty()) return null;
+        
+        Map<ConfigKey<?>,Object> values = Maps.newLinkedHashMap();
+        for (ConfigKey<?> key : SUPPORTED_TEMPLATE_BUILDER_PROPERTIES.keySet()) {
+            if (config.containsKey(key) && config.get(key) != null) values.put(key, config.get(key));
+        }
+        if (!Strings.isEmpty(config.get(CLOUD_REGION_ID))) {
+            values.put(CLOUD_REGION_ID, config.get(CLOUD_REGION_ID));
+        }
+        return new TemplateCacheKey(computeService, values);
+    }
+
+    /** matches the template builder properties in the config against the images and hardware profiles of the cloud */
+    protected Template resolveTemplate(ComputeService computeService, ConfigBag config) {
         TemplateBuilder templateBuilder = (TemplateBuilder) config.get(TEMPLATE_BUILDER);
         if (templateBuilder==null)
             templateBuilder = new PortableTemplateBuilder();
@@ -554,13 +840,17 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
                         listedAvailableTemplatesOnNoSuchTemplate = true;
                         LOG.info("Loading available images at "+this+" for reference...");
                         ConfigBag m1 = ConfigBag.newInstanceCopying(config);
+                        boolean lessRestrictive = false;
                         if (m1.containsKey(IMAGE_ID)) {
                             // if caller specified an image ID, remove that, but don't apply default filters
                             m1.remove(IMAGE_ID);
                             // TODO use key
                             m1.putStringKey("anyOwner", true);
+                            lessRestrictive = true;
                         }
-                        ComputeService computeServiceLessRestrictive = JcloudsUtil.findComputeService(m1);
+                        // config resolved from the template cache holds only the template spec, not the credentials
+                        ComputeService computeServiceLessRestrictive = (lessRestrictive && m1.get(ACCESS_IDENTITY) != null) ?
+                                JcloudsUtil.findComputeService(m1) : computeService;
                         Set<? extends Image> imgs = computeServiceLessRestrictive.listImages();
                         LOG.info(""+imgs.size()+" available images at "+this);
                         for (Image img: imgs) {
@@ -574,6 +864,22 @@ public class JcloudsLocation extends AbstractCloudMachineProvisioningLocation im
             }
             throw new IllegalStateException("Unable to match required VM template constraints "+templateBuilder+" when trying to provision VM in "+this+". See list of images in log.", e);
         }
+        return template;
+    }
+
+    /** returns the jclouds Template which describes the image to be built */
+    protected Template buildTemplate(final ComputeService computeService, final ConfigBag config) {
+        Template template;
+        TemplateCacheKey cacheKey = getTemplateCacheKey(computeService, config);
+        if (cacheKey != null) {
+            Template resolved = getTemplateCache().get(cacheKey, config.get(TEMPLATE_CACHE_TTL));
+            // options are customized for each VM below, so copy them
+            template = new TemplateImpl(resolved.getImage(), resolved.getHardware(), resolved.getLocation(), 
+                    resolved.getOptions().clone());
+        } else {
+            template = resolveTemplate(computeService, config);
+        }
+        
         TemplateOptions options = template.getOptions();
         
         for (Map.Entry<ConfigKey<?>, CustomizeTemplateOptions> entry : SUPPORTED_TEMPLATE_OPTIONS_PROPERTIES.entrySet()) {
@@ -50,6 +50,17 @@ public interface JcloudsLocationConfig extends CloudLocationConfig {
             "Whether and how long to wait for a newly provisioned VM to be accessible via ssh; " +
             "if 'false', won't check; if 'true' uses default duration; otherwise accepts a time string e.g. '5m' (the default) or a number of milliseconds", "5m");
     
+    public static final ConfigKey<Boolean> GATHER_MACHINE_FACTS = new BasicConfigKey<Boolean>(Boolean.class, "gatherMachineFacts", 
+            "Whether to gather facts about a newly provisioned VM (OS, installed executables, java version) in the background when it is set up, " +
+            "so they are available to drivers without further checks (unless waitForSshable is false)", true);
+    
+    public static final ConfigKey<Long> OBTAIN_BATCH_WINDOW = new BasicConfigKey<Long>(Long.class, "obtainBatchWindow", 
+            "Time (in milliseconds) to wait for further requests for VMs with the same flags when a batch of requests is expected " +
+            "(e.g. when a cluster grows), so they can be created with a single request to the cloud", 2000L);
+    
+    public static final ConfigKey<Integer> OBTAIN_BATCH_MAX_THREADS = new BasicConfigKey<Integer>(Integer.class, "obtainBatchMaxThreads", 
+            "Maximum number of threads used to create batches of VMs, to set up the VMs in them, and to gather facts about new VMs (further work waits for a thread)", 20);
+    
     public static final ConfigKey<Integer> MIN_RAM = new BasicConfigKey<Integer>(Integer.class, "minRam", 
             "Minimum amount of RAM (in MB), for use in selecting the machine/hardware profile", null);
     public static final ConfigKey<Integer> MIN_CORES = new BasicConfigKey<Integer>(Integer.class, "minCores", 
@@ -75,6 +86,10 @@ public interface JcloudsLocationConfig extends CloudLocationConfig {
     public static final ConfigKey<TemplateBuilder> TEMPLATE_BUILDER = new BasicConfigKey<TemplateBuilder>(TemplateBuilder.class, "templateBuilder", 
             "A TemplateBuilder instance provided programmatically, to be used when creating a VM", null);
 
+    public static final ConfigKey<Long> TEMPLATE_CACHE_TTL = new BasicConfigKey<Long>(Long.class, "templateCacheTtl",
+            "Time (in milliseconds) for which the template resolved for a given set of image and hardware criteria is reused " +
+            "when creating further VMs, rather than matched against the cloud's images and hardware again; 0 to disable", 15*60*1000L);
+
 
     public static final ConfigKey<Object> SECURITY_GROUPS = new BasicConfigKey<Object>(Object.class, "securityGroups", 
             "Security groups to be applied when creating a VM, on supported clouds " +
@@ -130,6 +130,8 @@ public class JcloudsLocationFactory {
         if (locationId != null)
             allconf.put(JcloudsLocationConfig.CLOUD_REGION_ID.getName(), locationId);
         allconf.putAll(locSpecifics);
+        if (allconf.containsKey(PooledJcloudsLocation.POOL_SIZE.getName()))
+            return new PooledJcloudsLocation(allconf);
         return new JcloudsLocation(allconf);
     }
 }
@@ -18,6 +18,7 @@ import org.jclouds.scriptbuilder.domain.Statement;
 
 import brooklyn.location.OsDetails;
 import brooklyn.location.basic.BasicOsDetails;
+import brooklyn.location.basic.MachineFacts;
 import brooklyn.location.basic.HasSubnetHostname;
 import brooklyn.location.basic.SshMachineLocation;
 
@@ -112,6 +113,8 @@ public class JcloudsSshMachineLocation extends SshMachineLocation implements Has
 
     @Override
     public OsDetails getOsDetails() {
+        MachineFacts facts = getCachedMachineFacts();
+        if (facts != null) return facts.getOsDetails();
         if (node.getOperatingSystem() != null) {
             return new BasicOsDetails(
                     node.getOperatingSystem().getName() != null
@@ -0,0 +1,117 @@
+package brooklyn.location.jclouds;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.event.basic.BasicConfigKey;
+import brooklyn.location.NoMachinesAvailableException;
+import brooklyn.location.jclouds.pool.PrewarmedMachinePool;
+import brooklyn.util.MutableMap;
+import brooklyn.util.ResourceUtils;
+
+/**
+ * A {@link JcloudsLocation} which keeps pre-provisioned machines ready for each set of flags it is asked for,
+ * so that {@link #obtain(Map)} usually returns immediately rather than waiting for a VM to boot and be customized.
+ * <p>
+ * Pooled machines are created by the normal {@link JcloudsLocation#obtain(Map)}, so are fully set up
+ * (including any {@link JcloudsLocationCustomizer}s) before being handed out. Machines which are handed out
+ * belong to the caller; releasing them destroys them as usual, and the pool is replenished in the background.
+ * <p>
+ * See {@link PrewarmedMachinePool} for how the pool size and idle-time limits apply.
+ * <p>
+ * Machines in the pool are released by {@link #close()}, which is called when the last application using this location
+ * is unmanaged or the management context is terminated, or failing that on JVM shutdown.
+ */
+public class PooledJcloudsLocation extends JcloudsLocation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledJcloudsLocation.class);
+
+    public static final ConfigKey<Integer> POOL_SIZE = new BasicConfigKey<Integer>(Integer.class, "pool.size",
+            "Number of machines to keep ready for each distinct set of provisioning flags", 2);
+    public static final ConfigKey<Integer> POOL_MAX_MACHINES = new BasicConfigKey<Integer>(Integer.class, "pool.maxMachines",
+            "Maximum number of machines to keep ready (or being created for the pool) across all sets of provisioning flags", 10);
+    public static final ConfigKey<Long> POOL_MAX_IDLE_TIME = new BasicConfigKey<Long>(Long.class, "pool.maxIdleTime",
+            "Time (in milliseconds) after the last request for a set of provisioning flags at which its ready machines are released", 30*60*1000L);
+
+    /** caller context used when naming pooled machines, as they are created before the caller is known */
+    private static final String POOL_CALLER_CONTEXT = "machine-pool";
+
+    private PrewarmedMachinePool<JcloudsSshMachineLocation> pool;
+    private Thread shutdownHook;
+
+    public PooledJcloudsLocation(Map<?,?> conf) {
+        super(conf);
+    }
+
+    public synchronized PrewarmedMachinePool<JcloudsSshMachineLocation> getPool() {
+        if (pool == null) {
+            pool = new PrewarmedMachinePool<JcloudsSshMachineLocation>(getConfig(POOL_SIZE), getConfig(POOL_MAX_MACHINES),
+                    getConfig(POOL_MAX_IDLE_TIME)) {
+                @Override
+                protected JcloudsSshMachineLocation create(Map<String, ?> flags) throws NoMachinesAvailableException {
+                    return obtainNew(flags);
+                }
+                @Override
+                protected JcloudsSshMachineLocation createForRequest(Map<?, ?> flags) throws NoMachinesAvailableException {
+                    return PooledJcloudsLocation.super.obtain(flags);
+                }
+                @Override
+                protected void destroy(JcloudsSshMachineLocation machine) {
+                    release(machine);
+                }
+                // caller context and group only affect how the machine is named
+                @Override
+                protected Map<String, ?> toTemplateFlags(Map<?, ?> flags) {
+                    Map<String,Object> result = new LinkedHashMap<String,Object>(super.toTemplateFlags(flags));
+                    result.remove(CALLER_CONTEXT.getName());
+                    result.remove(GROUP_ID.getName());
+                    return Collections.unmodifiableMap(result);
+                }
+                @Override
+                public String toString() {
+                    return "PrewarmedMachinePool["+PooledJcloudsLocation.this+"]";
+                }
+            };
+            shutdownHook = ResourceUtils.addShutdownHook(new Runnable() {
+                public void run() {
+                    closePool();
+                }});
+        }
+        return pool;
+    }
+
+    @Override
+    public JcloudsSshMachineLocation obtain(Map<?,?> flags) throws NoMachinesAvailableException {
+        return getPool().obtain(flags);
+    }
+
+    /** provisions a new machine for the pool, bypassing it */
+    protected JcloudsSshMachineLocation obtainNew(Map<String,?> flags) throws NoMachinesAvailableException {
+        return super.obtain(MutableMap.builder().putAll(flags).put(CALLER_CONTEXT, POOL_CALLER_CONTEXT).build());
+    }
+
+    /** releases all machines still in the pool; machines already handed out are unaffected */
+    public synchronized void closePool() {
+        if (pool != null) {
+            LOG.info("Closing machine pool for {}: {}", this, pool.getMetrics());
+            pool.close();
+            pool = null;
+        }
+        if (shutdownHook != null && shutdownHook != Thread.currentThread()) {
+            ResourceUtils.removeShutdownHook(shutdownHook);
+        }
+        shutdownHook = null;
+    }
+
+    /** releases the machines in the pool (and resolved templates); the pool is re-created if this location is used again */
+    @Override
+    public void close() {
+        closePool();
+        super.close();
+    }
+}
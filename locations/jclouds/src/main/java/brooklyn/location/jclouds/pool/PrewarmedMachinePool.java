@@ -0,0 +1,330 @@
+package brooklyn.location.jclouds.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.location.ClosedWhenUnused;
+import brooklyn.location.MachineLocation;
+import brooklyn.location.NoMachinesAvailableException;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps a number of machines ready for each distinct set of provisioning flags ("template"),
+ * so that {@link #obtain(Map)} can hand one out immediately rather than waiting for a new VM to boot.
+ * <p>
+ * A template's pool is created on the first request with those flags, and is topped back up to
+ * {@code poolSize} in the background each time a machine is taken from it (or it was empty).
+ * To bound the cost of machines sitting idle, at most {@code maxPooledMachines} are kept (or being created)
+ * across all templates, and a template which has not been requested for {@code maxIdleMillis} has its
+ * machines released and is not replenished until it is requested again.
+ * <p>
+ * Subclasses supply {@link #create(Map)} and {@link #destroy(MachineLocation)}, which do the actual provisioning.
+ * Machines are created for the pool by at most {@code maxPooledMachines} threads, which (like the eviction thread)
+ * are stopped by {@link #close()}; the owner must call that when done with the pool (e.g. when the management
+ * context is terminated).
+ * <p>
+ * This class is thread-safe.
+ */
+public abstract class PrewarmedMachinePool<T extends MachineLocation> implements ClosedWhenUnused {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrewarmedMachinePool.class);
+
+    private final int poolSize;
+    private final int maxPooledMachines;
+    private final long maxIdleMillis;
+
+    private final Map<Map<String,?>, TemplatePool> pools = new LinkedHashMap<Map<String,?>, TemplatePool>();
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("brooklyn-machine-pool-evictor").setDaemon(true).build());
+    private boolean closed;
+    /** machines being created for any template, including templates since evicted */
+    private int pending;
+
+    private long hits;
+    private long misses;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+    private long replenishFailures;
+    private long evictions;
+
+    private class TemplatePool {
+        final Map<String,?> flags;
+        final Deque<T> ready = new LinkedList<T>();
+        int pending;
+        long lastRequested;
+        boolean retired;
+
+        TemplatePool(Map<String,?> flags) {
+            this.flags = flags;
+        }
+    }
+
+    public PrewarmedMachinePool(int poolSize, int maxPooledMachines, long maxIdleMillis) {
+        checkArgument(poolSize >= 0, "poolSize must not be negative");
+        checkArgument(maxIdleMillis > 0, "maxIdleMillis must be positive");
+        this.poolSize = poolSize;
+        this.maxPooledMachines = maxPooledMachines;
+        this.maxIdleMillis = maxIdleMillis;
+
+        // as no more than maxPooledMachines are ever being created for the pool at once, creations do not wait for threads
+        int maxThreads = Math.max(1, maxPooledMachines);
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("brooklyn-machine-pool-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+
+        long evictionPeriod = Math.max(1000, Math.min(60*1000, maxIdleMillis/2));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        evictIdle(System.currentTimeMillis());
+                    } catch (Throwable t) {
+                        LOG.warn("Problem evicting idle machines from "+PrewarmedMachinePool.this+"; continuing", t);
+                    }
+                }},
+                evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /** provisions a new machine with the given template flags; called to replenish the pool, and by default for misses */
+    protected abstract T create(Map<String,?> flags) throws NoMachinesAvailableException;
+
+    /**
+     * provisions a machine for a request which the pool could not satisfy, with the flags as given by the caller
+     * (rather than the template flags); by default calls {@link #create(Map)}
+     */
+    protected T createForRequest(Map<?,?> flags) throws NoMachinesAvailableException {
+        return create(toTemplateFlags(flags));
+    }
+
+    /** releases a machine which was in the pool but is no longer wanted */
+    protected abstract void destroy(T machine);
+
+    /**
+     * Returns the flags which identify a template: machines created with one set of flags are handed out
+     * for any request with equal flags. By default flag names (or config keys) are normalized to strings; subclasses
+     * should drop flags which do not affect the machine (e.g. those used only for naming it).
+     */
+    protected Map<String,?> toTemplateFlags(Map<?,?> flags) {
+        Map<String,Object> result = new LinkedHashMap<String,Object>();
+        for (Map.Entry<?,?> entry : flags.entrySet()) {
+            Object key = entry.getKey();
+            result.put((key instanceof ConfigKey) ? ((ConfigKey<?>)key).getName() : key.toString(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns a machine for the given flags: from the pool if one is ready, otherwise a newly created one.
+     * Either way the template's pool is then replenished in the background.
+     */
+    public T obtain(Map<?,?> flags) throws NoMachinesAvailableException {
+        long startTime = System.currentTimeMillis();
+        Map<String,?> templateFlags = toTemplateFlags(flags);
+        T result;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Machine pool "+this+" is closed");
+            TemplatePool pool = pools.get(templateFlags);
+            if (pool == null) {
+                pool = new TemplatePool(templateFlags);
+                pools.put(templateFlags, pool);
+            }
+            pool.lastRequested = startTime;
+            result = pool.ready.poll();
+            if (result != null) hits++; else misses++;
+            replenish(pool);
+        }
+
+        if (result != null) {
+            if (LOG.isDebugEnabled()) LOG.debug("Machine pool {} handing out pre-provisioned machine {}", this, result);
+        } else {
+            if (LOG.isDebugEnabled()) LOG.debug("Machine pool {} has no machine ready for {}; provisioning directly", this, templateFlags);
+            result = createForRequest(flags);
+        }
+        recordWait(System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    private synchronized void recordWait(long waitMillis) {
+        totalWaitMillis += waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+    }
+
+    /** starts creating machines for the given pool, up to its target size and the overall limit */
+    private synchronized void replenish(final TemplatePool pool) {
+        while (!closed && !pool.retired && pool.ready.size() + pool.pending < poolSize
+                && getPooledCount() + pending < maxPooledMachines) {
+            pool.pending++;
+            pending++;
+            executor.execute(new Runnable() {
+                public void run() {
+                    T machine = null;
+                    try {
+                        machine = create(pool.flags);
+                    } catch (Exception e) {
+                        LOG.warn("Machine pool "+PrewarmedMachinePool.this+" failed to provision machine for "+pool.flags+
+                                " (will retry on next request): "+e);
+                        if (LOG.isDebugEnabled()) LOG.debug("Trace for failure to provision pooled machine", e);
+                    }
+                    onCreated(pool, machine);
+                }});
+        }
+    }
+
+    private void onCreated(TemplatePool pool, T machine) {
+        boolean keep;
+        synchronized (this) {
+            pool.pending--;
+            pending--;
+            if (machine == null) replenishFailures++;
+            keep = machine != null && !closed && !pool.retired;
+            if (keep) pool.ready.add(machine);
+        }
+        if (machine != null && !keep) {
+            destroyQuietly(machine);
+        }
+    }
+
+    /**
+     * Releases the machines of each template which has not been requested for more than maxIdleMillis
+     * before the given time. Called periodically; exposed for testing.
+     */
+    public void evictIdle(long now) {
+        List<T> toDestroy = Lists.newArrayList();
+        synchronized (this) {
+            for (Iterator<TemplatePool> iter = pools.values().iterator(); iter.hasNext();) {
+                TemplatePool pool = iter.next();
+                if (now - pool.lastRequested > maxIdleMillis) {
+                    iter.remove();
+                    pool.retired = true;
+                    evictions += pool.ready.size();
+                    toDestroy.addAll(pool.ready);
+                    pool.ready.clear();
+                }
+            }
+        }
+        if (toDestroy.size() > 0) LOG.info("Machine pool {} releasing {} idle machine(s)", this, toDestroy.size());
+        for (T machine : toDestroy) {
+            destroyQuietly(machine);
+        }
+    }
+
+    /** stops replenishing, and releases all machines in the pool (including any still being created, once they are) */
+    @Override
+    public void close() {
+        List<T> toDestroy = Lists.newArrayList();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            for (TemplatePool pool : pools.values()) {
+                pool.retired = true;
+                toDestroy.addAll(pool.ready);
+                pool.ready.clear();
+            }
+            pools.clear();
+        }
+        scheduler.shutdownNow();
+        executor.shutdown();
+        for (T machine : toDestroy) {
+            destroyQuietly(machine);
+        }
+    }
+
+    private void destroyQuietly(T machine) {
+        try {
+            destroy(machine);
+        } catch (Exception e) {
+            LOG.warn("Machine pool "+this+" failed to release machine "+machine+"; continuing", e);
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /** number of machines ready to be handed out, across all templates */
+    public synchronized int getPooledCount() {
+        int result = 0;
+        for (TemplatePool pool : pools.values()) result += pool.ready.size();
+        return result;
+    }
+
+    /** number of machines being created to replenish the pool (including for templates which have since been evicted) */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** fraction of requests served from the pool, or 0 if there have been no requests */
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return (requests == 0) ? 0 : ((double)hits) / requests;
+    }
+
+    /** total time callers have spent in {@link #obtain(Map)} */
+    public synchronized long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    public synchronized long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public synchronized long getMeanWaitMillis() {
+        long requests = hits + misses;
+        return (requests == 0) ? 0 : totalWaitMillis / requests;
+    }
+
+    public synchronized long getReplenishFailures() {
+        return replenishFailures;
+    }
+
+    /** number of idle machines released because their template was not requested for maxIdleMillis */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized Map<String,Object> getMetrics() {
+        return ImmutableMap.<String,Object>builder()
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("hitRate", getHitRate())
+                .put("meanWaitMillis", getMeanWaitMillis())
+                .put("maxWaitMillis", maxWaitMillis)
+                .put("pooled", getPooledCount())
+                .put("pending", getPendingCount())
+                .put("replenishFailures", replenishFailures)
+                .put("evictions", evictions)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "PrewarmedMachinePool[size="+poolSize+"]";
+    }
+}
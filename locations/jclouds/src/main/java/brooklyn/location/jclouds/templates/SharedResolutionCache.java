@@ -0,0 +1,197 @@
+package brooklyn.location.jclouds.templates;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Caches the result of an expensive resolution (such as matching a jclouds template against a cloud's
+ * images and hardware profiles) for a time-to-live given with each request.
+ * The value is a function of the key alone, so keys should hold all (immutable) data needed to resolve it.
+ * <p>
+ * Concurrent requests for the same key share a single resolution. A failed resolution is not cached.
+ * <p>
+ * If a refresh period is given, entries which have been used within their time-to-live are re-resolved
+ * in the background once they are half way to expiry, so callers do not normally wait for resolution
+ * after the first request; entries which have not been used within their time-to-live are discarded.
+ * The refresh thread runs until {@link #close()}.
+ */
+public class SharedResolutionCache<K,V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedResolutionCache.class);
+
+    private static class Entry<V> {
+        final FutureTask<V> future;
+        final long ttlMillis;
+        final long createdTime;
+        volatile long lastAccessTime;
+
+        Entry(Callable<V> resolver, long ttlMillis, long now) {
+            this.future = new FutureTask<V>(resolver);
+            this.ttlMillis = ttlMillis;
+            this.createdTime = now;
+            this.lastAccessTime = now;
+        }
+
+        boolean isExpired(long now) {
+            return future.isDone() && now - createdTime > ttlMillis;
+        }
+
+        boolean isResolved() {
+            if (!future.isDone()) return false;
+            try {
+                future.get();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    private final Function<? super K, ? extends V> resolver;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /** creates a cache which does not refresh in the background */
+    public SharedResolutionCache(Function<? super K, ? extends V> resolver) {
+        this(resolver, 0);
+    }
+
+    public SharedResolutionCache(Function<? super K, ? extends V> resolver, long refreshPeriodMillis) {
+        this.resolver = resolver;
+        if (refreshPeriodMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("brooklyn-resolution-cache-refresh").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        try {
+                            refresh(System.currentTimeMillis());
+                        } catch (Throwable t) {
+                            LOG.warn("Problem refreshing "+SharedResolutionCache.this+"; continuing", t);
+                        }
+                    }},
+                    refreshPeriodMillis, refreshPeriodMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Returns the value for the given key, calling the resolver if there is no value resolved within the
+     * given time-to-live (or waiting for a resolution already in progress).
+     * Exceptions thrown by the resolver are propagated.
+     */
+    public V get(K key, long ttlMillis) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry<V> entry = entries.get(key);
+            if (entry == null || entry.isExpired(now)) {
+                Entry<V> newEntry = new Entry<V>(resolverFor(key), ttlMillis, now);
+                boolean added = (entry == null) ? entries.putIfAbsent(key, newEntry) == null : entries.replace(key, entry, newEntry);
+                if (!added) continue;
+                misses.incrementAndGet();
+                newEntry.future.run();
+                entry = newEntry;
+            } else {
+                hits.incrementAndGet();
+                entry.lastAccessTime = now;
+            }
+
+            try {
+                return entry.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                entries.remove(key, entry);
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Discards entries not used within their time-to-live, and re-resolves those past half of it,
+     * then calls {@link #onRefresh(Set)} with the keys still in use.
+     * Called periodically if a refresh period was given; exposed for testing.
+     */
+    public void refresh(long now) {
+        Set<K> active = Sets.newLinkedHashSet();
+        for (Map.Entry<K, Entry<V>> mapEntry : entries.entrySet()) {
+            K key = mapEntry.getKey();
+            Entry<V> entry = mapEntry.getValue();
+            if (now - entry.lastAccessTime > entry.ttlMillis) {
+                entries.remove(key, entry);
+                continue;
+            }
+            active.add(key);
+            if (entry.isResolved() && now - entry.createdTime > entry.ttlMillis/2) {
+                Entry<V> newEntry = new Entry<V>(resolverFor(key), entry.ttlMillis, now);
+                newEntry.lastAccessTime = entry.lastAccessTime;
+                newEntry.future.run();
+                if (newEntry.isResolved()) {
+                    if (entries.replace(key, entry, newEntry)) refreshes.incrementAndGet();
+                } else {
+                    LOG.debug("Failed to refresh {} in {} (keeping previous value until it expires)", key, this);
+                }
+            }
+        }
+        onRefresh(active);
+    }
+
+    private Callable<V> resolverFor(final K key) {
+        return new Callable<V>() {
+            public V call() {
+                return resolver.apply(key);
+            }};
+    }
+
+    /** hook for subclasses, called after each {@link #refresh(long)} with the keys which are in use */
+    protected void onRefresh(Set<K> activeKeys) {
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** number of entries re-resolved in the background */
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+}
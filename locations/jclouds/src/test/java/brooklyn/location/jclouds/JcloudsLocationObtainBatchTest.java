@@ -0,0 +1,149 @@
+package brooklyn.location.jclouds;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.Template;
+import org.testng.annotations.Test;
+
+import brooklyn.location.NoMachinesAvailableException;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.util.MutableMap;
+import brooklyn.util.config.ConfigBag;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Tests {@link JcloudsLocation#obtainBatch(List)} against a stub compute service,
+ * with the setting up of each VM (ssh, customizers, etc) also stubbed.
+ */
+public class JcloudsLocationObtainBatchTest implements JcloudsLocationConfig {
+
+    @Test
+    public void testSetsUpEachNodeWithItsCallersFlags() throws Exception {
+        StubJcloudsLocation loc = new StubJcloudsLocation();
+        loc.created = ImmutableSet.of(node("1"), node("2"));
+
+        List<ListenableFuture<SshMachineLocation>> futures = loc.obtainBatch(ImmutableList.<Map<?,?>>of(
+                ImmutableMap.of(CALLER_CONTEXT, "entity0"), ImmutableMap.of(CALLER_CONTEXT, "entity1")));
+        for (ListenableFuture<SshMachineLocation> future : futures) {
+            assertNull(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(loc.createdCount, 2);
+        assertEquals(ImmutableSet.copyOf(loc.callerContextByNode.values()), ImmutableSet.of("entity0", "entity1"));
+        assertTrue(loc.destroyed.isEmpty());
+    }
+
+    @Test
+    public void testPartialRunNodesExceptionUsesSuccessfulNodesAndDestroysFailedOnes() throws Exception {
+        StubJcloudsLocation loc = new StubJcloudsLocation();
+        NodeMetadata succeeded = node("1");
+        NodeMetadata failed = node("2");
+        loc.createFailure = new RunNodesException("group", 2, null, ImmutableSet.of(succeeded),
+                ImmutableMap.<Object,Exception>of(), ImmutableMap.of(failed, new IllegalStateException("simulated failure")));
+
+        List<ListenableFuture<SshMachineLocation>> futures = loc.obtainBatch(2, MutableMap.of());
+        assertNull(futures.get(0).get(10, TimeUnit.SECONDS));
+        assertFailedWith(futures.get(1), NoMachinesAvailableException.class);
+        assertEquals(loc.callerContextByNode.keySet(), ImmutableSet.of("1"));
+        assertEquals(loc.destroyed, ImmutableList.of("2"));
+    }
+
+    @Test
+    public void testNodeWhichFailsSetUpIsDestroyed() throws Exception {
+        StubJcloudsLocation loc = new StubJcloudsLocation();
+        loc.created = ImmutableSet.of(node("1"), node("2"));
+        loc.failSetUpOf = "2";
+
+        List<ListenableFuture<SshMachineLocation>> futures = loc.obtainBatch(2, MutableMap.of());
+        int succeeded = 0;
+        for (ListenableFuture<SshMachineLocation> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                succeeded++;
+            } catch (ExecutionException e) {
+                assertEquals(e.getCause().getMessage(), "simulated set-up failure");
+            }
+        }
+        assertEquals(succeeded, 1);
+        assertEquals(loc.destroyed, ImmutableList.of("2"));
+    }
+
+    private static void assertFailedWith(ListenableFuture<?> future, Class<? extends Throwable> type) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(type.isInstance(e.getCause()), "cause="+e.getCause());
+        }
+    }
+
+    private static NodeMetadata node(String id) {
+        return new NodeMetadataBuilder().id(id).providerId(id).name("node-"+id).status(NodeMetadata.Status.RUNNING).build();
+    }
+
+    /** A location whose compute service creates the given nodes (or fails), and which records how nodes are set up. */
+    private static class StubJcloudsLocation extends JcloudsLocation {
+        volatile Set<NodeMetadata> created = ImmutableSet.of();
+        volatile RunNodesException createFailure;
+        volatile String failSetUpOf;
+        volatile int createdCount;
+        final Map<String,Object> callerContextByNode = Maps.newConcurrentMap();
+        final List<String> destroyed = Lists.newCopyOnWriteArrayList();
+
+        StubJcloudsLocation() {
+            super(MutableMap.of(CLOUD_PROVIDER, "aws-ec2", ACCESS_IDENTITY, "bogus", ACCESS_CREDENTIAL, "bogus"));
+        }
+
+        @Override
+        protected ComputeService findComputeService(ConfigBag setup) {
+            return (ComputeService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ComputeService.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("createNodesInGroup")) {
+                                createdCount = (Integer) args[1];
+                                if (createFailure != null) throw createFailure;
+                                return created;
+                            } else if (method.getName().equals("destroyNode")) {
+                                destroyed.add((String) args[0]);
+                                return null;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        @Override
+        protected Template buildTemplate(ComputeService computeService, ConfigBag config) {
+            return null;
+        }
+
+        @Override
+        protected JcloudsSshMachineLocation setUpNode(ComputeService computeService, NodeMetadata node, ConfigBag setup) throws Exception {
+            if (node.getId().equals(failSetUpOf)) throw new IllegalStateException("simulated set-up failure");
+            callerContextByNode.put(node.getId(), setup.get(CALLER_CONTEXT) != null ? setup.get(CALLER_CONTEXT) : "none");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package brooklyn.location.jclouds.pool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.location.NoMachinesAvailableException;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.test.TestUtils;
+import brooklyn.util.MutableMap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class PrewarmedMachinePoolTest {
+
+    private StubPool pool;
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    public void testFirstRequestMissesThenPoolIsFilled() throws Exception {
+        pool = new StubPool(2, 10, 60*1000);
+
+        SshMachineLocation machine = pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.flagsByMachine.get(machine), ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getMisses(), 1);
+        assertEquals(pool.getHits(), 0);
+
+        waitForPooled(2);
+        assertEquals(pool.created.get(), 3);
+    }
+
+    @Test
+    public void testHandsOutPooledMachineAndReplenishes() throws Exception {
+        pool = new StubPool(1, 10, 60*1000);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        waitForPooled(1);
+
+        SshMachineLocation machine = pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getHits(), 1);
+        assertEquals(pool.getHitRate(), 0.5, 0.0001);
+
+        waitForPooled(1);
+        assertEquals(pool.created.get(), 3);
+        assertNotSame(pool.obtain(ImmutableMap.of("imageId", "a")), machine);
+        assertEquals(pool.getHits(), 2);
+    }
+
+    @Test
+    public void testDifferentFlagsUseDifferentPools() throws Exception {
+        pool = new StubPool(1, 10, 60*1000);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        waitForPooled(1);
+
+        SshMachineLocation machine = pool.obtain(ImmutableMap.of("imageId", "b"));
+        assertEquals(pool.flagsByMachine.get(machine), ImmutableMap.of("imageId", "b"));
+        assertEquals(pool.getMisses(), 2);
+        waitForPooled(2);
+    }
+
+    @Test
+    public void testRespectsMaxPooledMachinesAcrossTemplates() throws Exception {
+        pool = new StubPool(2, 3, 60*1000);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        pool.obtain(ImmutableMap.of("imageId", "b"));
+        waitForPooled(3);
+        Thread.sleep(100);
+        assertEquals(pool.getPooledCount(), 3);
+        assertEquals(pool.created.get(), 5);
+    }
+
+    @Test
+    public void testEvictsIdleTemplatesAndDestroysTheirMachines() throws Exception {
+        pool = new StubPool(2, 10, 60*1000);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        waitForPooled(2);
+
+        pool.evictIdle(System.currentTimeMillis());
+        assertEquals(pool.getPooledCount(), 2);
+
+        pool.evictIdle(System.currentTimeMillis() + 61*1000);
+        assertEquals(pool.getPooledCount(), 0);
+        assertEquals(pool.getEvictions(), 2);
+        assertEquals(pool.destroyed.size(), 2);
+
+        // requested again: starts from scratch
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getMisses(), 2);
+    }
+
+    @Test
+    public void testMachinesStillBeingCreatedForEvictedTemplateCountTowardsMax() throws Exception {
+        pool = new StubPool(2, 2, 60*1000);
+        pool.replenishGate = new CountDownLatch(1);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getPendingCount(), 2);
+
+        pool.evictIdle(System.currentTimeMillis() + 61*1000);
+        pool.obtain(ImmutableMap.of("imageId", "b"));
+        assertEquals(pool.getPendingCount(), 2);
+
+        // once created, the evicted template's machines are released rather than pooled
+        pool.replenishGate.countDown();
+        TestUtils.executeUntilSucceeds(new Runnable() {
+            public void run() {
+                assertEquals(pool.getPendingCount(), 0);
+                assertEquals(pool.destroyed.size(), 2);
+            }});
+        assertEquals(pool.getPooledCount(), 0);
+        assertEquals(pool.created.get(), 4);
+    }
+
+    @Test
+    public void testMissIsProvisionedWithCallersFlags() throws Exception {
+        pool = new StubPool(1, 10, 60*1000);
+        Map<String, ?> flags = ImmutableMap.of("imageId", "a", "callerContext", "my-entity");
+        SshMachineLocation machine = pool.obtain(flags);
+        assertEquals(pool.flagsByMachine.get(machine), flags);
+
+        waitForPooled(1);
+        // the pooled machine matches regardless of caller context
+        pool.obtain(ImmutableMap.of("imageId", "a", "callerContext", "other"));
+        assertEquals(pool.getHits(), 1);
+    }
+
+    @Test
+    public void testFailedReplenishIsCountedAndMissesStillProvisionDirectly() throws Exception {
+        pool = new StubPool(1, 10, 60*1000);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        waitForPooled(1);
+
+        pool.failuresRemaining.set(1);
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        TestUtils.executeUntilSucceeds(new Runnable() {
+            public void run() {
+                assertEquals(pool.getReplenishFailures(), 1);
+                assertEquals(pool.getPendingCount(), 0);
+            }});
+        assertEquals(pool.getPooledCount(), 0);
+
+        // pool is empty, so next request is provisioned directly (and the pool is replenished again)
+        SshMachineLocation machine = pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.flagsByMachine.get(machine), ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getMisses(), 2);
+        waitForPooled(1);
+    }
+
+    @Test
+    public void testCloseDestroysPooledMachines() throws Exception {
+        pool = new StubPool(2, 10, 60*1000);
+        SshMachineLocation machine = pool.obtain(ImmutableMap.of("imageId", "a"));
+        waitForPooled(2);
+
+        pool.close();
+        assertTrue(pool.isClosed());
+        assertEquals(pool.destroyed.size(), 2);
+        assertFalse(pool.destroyed.contains(machine));
+    }
+
+    @Test
+    public void testRecordsWaitTime() throws Exception {
+        pool = new StubPool(1, 10, 60*1000);
+        pool.createDelayMillis = 200;
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertTrue(pool.getMaxWaitMillis() >= 200, "maxWait="+pool.getMaxWaitMillis());
+        waitForPooled(1);
+
+        pool.obtain(ImmutableMap.of("imageId", "a"));
+        assertEquals(pool.getHits(), 1);
+        assertTrue(pool.getMeanWaitMillis() < pool.getMaxWaitMillis(), "metrics="+pool.getMetrics());
+    }
+
+    private void waitForPooled(final int count) {
+        TestUtils.executeUntilSucceeds(new Runnable() {
+            public void run() {
+                assertEquals(pool.getPooledCount(), count);
+            }});
+    }
+
+    /** Provisions local machine objects (without connecting to them) in place of cloud VMs. */
+    private static class StubPool extends PrewarmedMachinePool<SshMachineLocation> {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger failuresRemaining = new AtomicInteger();
+        final Map<SshMachineLocation, Map<?, ?>> flagsByMachine = Maps.newConcurrentMap();
+        final List<SshMachineLocation> destroyed = Lists.newCopyOnWriteArrayList();
+        volatile long createDelayMillis;
+        /** if set, creation for the pool (but not for a miss) waits for this */
+        volatile CountDownLatch replenishGate;
+
+        StubPool(int poolSize, int maxPooledMachines, long maxIdleMillis) {
+            super(poolSize, maxPooledMachines, maxIdleMillis);
+        }
+
+        @Override
+        protected SshMachineLocation create(Map<String, ?> flags) throws NoMachinesAvailableException {
+            if (replenishGate != null) {
+                try {
+                    replenishGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return newMachine(flags);
+        }
+
+        @Override
+        protected SshMachineLocation createForRequest(Map<?, ?> flags) throws NoMachinesAvailableException {
+            return newMachine(flags);
+        }
+
+        // callerContext only affects how a machine is named
+        @Override
+        protected Map<String, ?> toTemplateFlags(Map<?, ?> flags) {
+            Map<String, ?> result = Maps.newLinkedHashMap(super.toTemplateFlags(flags));
+            result.remove("callerContext");
+            return result;
+        }
+
+        private SshMachineLocation newMachine(Map<?, ?> flags) throws NoMachinesAvailableException {
+            if (failuresRemaining.getAndDecrement() > 0) {
+                throw new NoMachinesAvailableException("simulated failure");
+            }
+            if (createDelayMillis > 0) {
+                try {
+                    Thread.sleep(createDelayMillis);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            created.incrementAndGet();
+            SshMachineLocation result = new SshMachineLocation(MutableMap.of("address", "localhost"));
+            flagsByMachine.put(result, flags);
+            return result;
+        }
+
+        @Override
+        protected void destroy(SshMachineLocation machine) {
+            destroyed.add(machine);
+        }
+    }
+}
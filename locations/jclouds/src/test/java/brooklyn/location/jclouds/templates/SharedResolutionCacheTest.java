@@ -0,0 +1,152 @@
+package brooklyn.location.jclouds.templates;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+public class SharedResolutionCacheTest {
+
+    @Test
+    public void testResolvesOncePerKeyWithinTtl() throws Exception {
+        CountingResolver resolver = new CountingResolver();
+        SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(resolver);
+
+        assertEquals(cache.get("k", 60*1000), "k1");
+        assertEquals(cache.get("k", 60*1000), "k1");
+        assertEquals(cache.get("other", 60*1000), "other2");
+        assertEquals(resolver.count.get(), 2);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testResolvesAgainAfterTtl() throws Exception {
+        SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(new CountingResolver());
+
+        assertEquals(cache.get("k", 1), "k1");
+        Thread.sleep(10);
+        assertEquals(cache.get("k", 1), "k2");
+    }
+
+    @Test
+    public void testDoesNotCacheFailures() throws Exception {
+        CountingResolver resolver = new CountingResolver();
+        resolver.failuresRemaining.set(1);
+        SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(resolver);
+        try {
+            cache.get("k", 60*1000);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "simulated failure");
+        }
+        assertEquals(cache.size(), 0);
+        assertEquals(cache.get("k", 60*1000), "k1");
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneResolution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(new Function<String,String>() {
+            public String apply(String key) {
+                count.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "v";
+            }});
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<String>> futures = Lists.newArrayList();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return cache.get("k", 60*1000);
+                    }}));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertEquals(future.get(10, TimeUnit.SECONDS), "v");
+            }
+            assertEquals(count.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRefreshReresolvesUsedEntriesAndDiscardsUnused() throws Exception {
+        final List<Set<String>> activeKeys = Lists.newArrayList();
+        CountingResolver resolver = new CountingResolver();
+        SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(resolver) {
+            @Override
+            protected void onRefresh(Set<String> keys) {
+                activeKeys.add(keys);
+            }
+        };
+        cache.get("k", 1000);
+        long now = System.currentTimeMillis();
+
+        // not yet half way to expiry
+        cache.refresh(now);
+        assertEquals(cache.getRefreshes(), 0);
+
+        cache.refresh(now + 600);
+        assertEquals(cache.getRefreshes(), 1);
+        assertEquals(resolver.count.get(), 2);
+        assertEquals(cache.get("k", 1000), "k2");
+        assertEquals(activeKeys.get(1).size(), 1);
+
+        // unused for longer than ttl
+        cache.refresh(System.currentTimeMillis() + 2000);
+        assertEquals(cache.size(), 0);
+        assertTrue(activeKeys.get(2).isEmpty());
+    }
+
+    @Test
+    public void testKeepsPreviousValueWhenRefreshFails() throws Exception {
+        CountingResolver resolver = new CountingResolver();
+        SharedResolutionCache<String,String> cache = new SharedResolutionCache<String,String>(resolver);
+        cache.get("k", 1000);
+
+        resolver.failuresRemaining.set(1);
+        cache.refresh(System.currentTimeMillis() + 600);
+        assertEquals(resolver.failuresRemaining.get(), 0);
+        assertEquals(cache.getRefreshes(), 0);
+        assertEquals(cache.get("k", 1000), "k1");
+    }
+
+    /** resolves each key to itself followed by the number of resolutions so far */
+    private static class CountingResolver implements Function<String,String> {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger failuresRemaining = new AtomicInteger();
+
+        @Override
+        public String apply(String key) {
+            if (failuresRemaining.getAndDecrement() > 0) throw new IllegalStateException("simulated failure");
+            return key+count.incrementAndGet();
+        }
+    }
+}
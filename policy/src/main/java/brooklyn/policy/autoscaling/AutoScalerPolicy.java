@@ -23,6 +23,7 @@ import brooklyn.event.AttributeSensor;
 import brooklyn.event.Sensor;
 import brooklyn.event.SensorEvent;
 import brooklyn.event.SensorEventListener;
+import brooklyn.event.basic.BasicAttributeSensor;
 import brooklyn.event.basic.BasicConfigKey;
 import brooklyn.event.basic.BasicNotificationSensor;
 import brooklyn.policy.autoscaling.SizeHistory.WindowSummary;
@@ -44,6 +45,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * emitted {@code POOL_COLD} and {@code POOL_HOT} events. (This policy does not itself determine whether
  * the pool is hot or cold, but instead relies on these events being emitted by the monitored entity itself, or
  * by another policy that is attached to it; see, for example, {@link LoadBalancingPolicy}.)
+ * <p>
+ * Alternatively, if a {@code metric} is configured, the pool is resized to keep that metric between 
+ * {@code metricLowerBound} and {@code metricUpperBound}. With {@code predictive} set, the trend of the 
+ * recent values is projected {@code forecastHorizon} milliseconds ahead (see {@link MetricForecaster}) 
+ * so that the pool can grow before the upper bound is breached; the forecast is published on the pool 
+ * entity as {@link #FORECAST_METRIC} and {@link #FORECAST_POOL_SIZE}.
  */
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class AutoScalerPolicy extends AbstractPolicy {
@@ -73,6 +80,9 @@ public class AutoScalerPolicy extends AbstractPolicy {
         private BasicNotificationSensor<?> poolOkSensor;
         private BasicNotificationSensor<? super MaxPoolSizeReachedEvent> maxSizeReachedSensor;
         private long maxReachedNotificationDelay;
+        private Boolean predictive;
+        private Long forecastHorizon;
+        private Integer forecastWindowSize;
         
         public Builder id(String val) {
             this.id = val; return this;
@@ -138,6 +148,15 @@ public class AutoScalerPolicy extends AbstractPolicy {
         public Builder maxReachedNotificationDelay(long val) {
             this.maxReachedNotificationDelay = val; return this;
         }
+        public Builder predictive(boolean val) {
+            this.predictive = val; return this;
+        }
+        public Builder forecastHorizon(long val) {
+            this.forecastHorizon = val; return this;
+        }
+        public Builder forecastWindowSize(int val) {
+            this.forecastWindowSize = val; return this;
+        }
         public AutoScalerPolicy build() {
             return new AutoScalerPolicy(toFlags());
         }
@@ -161,6 +180,9 @@ public class AutoScalerPolicy extends AbstractPolicy {
                     .putIfNotNull("poolOkSensor", poolOkSensor)
                     .putIfNotNull("maxSizeReachedSensor", maxSizeReachedSensor)
                     .putIfNotNull("maxReachedNotificationDelay", maxReachedNotificationDelay)
+                    .putIfNotNull("predictive", predictive)
+                    .putIfNotNull("forecastHorizon", forecastHorizon)
+                    .putIfNotNull("forecastWindowSize", forecastWindowSize)
                     .build();
         }
     }
@@ -196,6 +218,20 @@ public class AutoScalerPolicy extends AbstractPolicy {
     public static BasicNotificationSensor<MaxPoolSizeReachedEvent> DEFAULT_MAX_SIZE_REACHED_SENSOR = new BasicNotificationSensor<MaxPoolSizeReachedEvent>(
             MaxPoolSizeReachedEvent.class, "resizablepool.maxSizeReached", "Consistently wanted to resize the pool above the max allowed size");
 
+    /**
+     * When in predictive mode, the metric value (per pool member, at the current pool size) projected 
+     * {@code forecastHorizon} milliseconds ahead; set on the pool entity.
+     */
+    public static final AttributeSensor<Double> FORECAST_METRIC = new BasicAttributeSensor<Double>(
+            Double.class, "autoscaler.forecast.metric", "Metric value projected forecastHorizon milliseconds ahead, at the current pool size");
+
+    /**
+     * When in predictive mode, the (bounded) pool size required to keep the projected metric within range;
+     * set on the pool entity.
+     */
+    public static final AttributeSensor<Integer> FORECAST_POOL_SIZE = new BasicAttributeSensor<Integer>(
+            Integer.class, "autoscaler.forecast.poolSize", "Pool size required for the metric value projected forecastHorizon milliseconds ahead");
+
     public static final String POOL_CURRENT_SIZE_KEY = "pool.current.size";
     public static final String POOL_HIGH_THRESHOLD_KEY = "pool.high.threshold";
     public static final String POOL_LOW_THRESHOLD_KEY = "pool.low.threshold";
@@ -306,6 +342,29 @@ public class AutoScalerPolicy extends AbstractPolicy {
             .defaultValue(0l)
             .build();
     
+    @SetFromFlag("predictive")
+    public static final ConfigKey<Boolean> PREDICTIVE = BasicConfigKey.builder(Boolean.class)
+            .name("autoscaler.predictive")
+            .description("Whether to resize based on the metric's recent trend projected forecastHorizon milliseconds ahead, " +
+                    "rather than only on its current value (only applies when a metric is configured)")
+            .defaultValue(false)
+            .build();
+
+    @SetFromFlag("forecastHorizon")
+    public static final ConfigKey<Long> FORECAST_HORIZON = BasicConfigKey.builder(Long.class)
+            .name("autoscaler.forecastHorizon")
+            .description("Time (milliseconds) ahead to project the metric when in predictive mode; typically the time taken to provision a new member")
+            .defaultValue(5*60*1000L)
+            .reconfigurable(true)
+            .build();
+
+    @SetFromFlag("forecastWindowSize")
+    public static final ConfigKey<Integer> FORECAST_WINDOW_SIZE = BasicConfigKey.builder(Integer.class)
+            .name("autoscaler.forecastWindowSize")
+            .description("Number of recent metric samples used to fit the trend when in predictive mode")
+            .defaultValue(20)
+            .build();
+    
     private Entity poolEntity;
     
     private final AtomicBoolean executorQueued = new AtomicBoolean(false);
@@ -318,6 +377,8 @@ public class AutoScalerPolicy extends AbstractPolicy {
     
     private long maxReachedLastNotifiedTime;
     
+    private final MetricForecaster forecaster;
+    
     private final SensorEventListener<Map> utilizationEventHandler = new SensorEventListener<Map>() {
         public void onEvent(SensorEvent<Map> event) {
             Map<String, ?> properties = (Map<String, ?>) event.getValue();
@@ -338,7 +399,7 @@ public class AutoScalerPolicy extends AbstractPolicy {
     private final SensorEventListener<Number> metricEventHandler = new SensorEventListener<Number>() {
         public void onEvent(SensorEvent<Number> event) {
             assert event.getSensor().equals(getMetric());
-            onMetricChanged(event.getValue());
+            onMetricChanged(event.getValue(), event.getTimestamp());
         }
     };
 
@@ -355,6 +416,8 @@ public class AutoScalerPolicy extends AbstractPolicy {
         long maxResizeStabilizationDelay = Math.max(getResizeUpStabilizationDelay(), getResizeDownStabilizationDelay());
         recentDesiredResizes = new SizeHistory(maxResizeStabilizationDelay);
         
+        forecaster = new MetricForecaster(getForecastWindowSize());
+        
         // TODO Should re-use the execution manager's thread pool, somehow
         executor = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
     }
@@ -457,6 +520,18 @@ public class AutoScalerPolicy extends AbstractPolicy {
     private long getMaxReachedNotificationDelay() {
         return getConfig(MAX_REACHED_NOTIFICATION_DELAY);
     }
+    
+    private boolean isPredictive() {
+        return Boolean.TRUE.equals(getConfig(PREDICTIVE));
+    }
+    
+    private long getForecastHorizon() {
+        return getConfig(FORECAST_HORIZON);
+    }
+    
+    private int getForecastWindowSize() {
+        return getConfig(FORECAST_WINDOW_SIZE);
+    }
 
     @Override
     protected <T> void doReconfigureConfig(ConfigKey<T> key, T val) {
@@ -472,6 +547,8 @@ public class AutoScalerPolicy extends AbstractPolicy {
             // and same for those below...
         } else if (key.equals(METRIC_UPPER_BOUND)) {
 
+        } else if (key.equals(FORECAST_HORIZON)) {
+            // read on each metric-change
         } else if (key.equals(MIN_POOL_SIZE)) {
             int newMin = (Integer) val;
             if (newMin > getConfig(MAX_POOL_SIZE)) {
@@ -559,7 +636,7 @@ public class AutoScalerPolicy extends AbstractPolicy {
         }
     }
 
-    private void onMetricChanged(Number val) {
+    private void onMetricChanged(Number val, long timestamp) {
         if (LOG.isTraceEnabled()) LOG.trace("{} recording pool-metric for {}: {}", new Object[] {this, poolEntity, val});
 
         double currentMetricD = val.doubleValue();
@@ -567,6 +644,11 @@ public class AutoScalerPolicy extends AbstractPolicy {
         double metricLowerBoundD = getMetricLowerBound().doubleValue();
         int currentSize = getCurrentSizeOperator().apply(entity);
         double currentTotalActivity = currentSize * currentMetricD;
+        
+        if (isPredictive()) {
+            currentTotalActivity = toPredictedTotalActivity(currentTotalActivity, timestamp, currentSize, metricUpperBoundD);
+            currentMetricD = (currentSize > 0) ? currentTotalActivity/currentSize : currentMetricD;
+        }
         int unboundedSize;
         int desiredSize;
         
@@ -621,6 +703,35 @@ public class AutoScalerPolicy extends AbstractPolicy {
         }
     }
     
+    /**
+     * Records the total activity (i.e. metric*size, so that samples remain comparable across resizes) and 
+     * projects it {@code forecastHorizon} milliseconds ahead, publishing the forecast as sensors on the pool entity.
+     * <p>
+     * Returns whichever is the larger of the current and projected activity: we scale out ahead of a projected 
+     * breach of the upper bound, but never scale back ahead of a projected fall (nor while activity is rising).
+     */
+    private double toPredictedTotalActivity(double currentTotalActivity, long timestamp, int currentSize, double metricUpperBoundD) {
+        Double forecastTotalActivity;
+        synchronized (forecaster) {
+            forecaster.add(timestamp, currentTotalActivity);
+            forecastTotalActivity = forecaster.forecast(timestamp + getForecastHorizon());
+        }
+        if (forecastTotalActivity == null) {
+            return currentTotalActivity;
+        }
+        forecastTotalActivity = Math.max(0, forecastTotalActivity);
+        
+        double forecastMetric = (currentSize > 0) ? forecastTotalActivity/currentSize : forecastTotalActivity;
+        int forecastPoolSize = toBoundedDesiredPoolSize((int)Math.ceil(forecastTotalActivity/metricUpperBoundD));
+        if (LOG.isTraceEnabled()) LOG.trace("{} forecast for pool {} in {}ms: total activity {} (currently {}), metric {}, size {}", 
+                new Object[] {this, poolEntity, getForecastHorizon(), forecastTotalActivity, currentTotalActivity, forecastMetric, forecastPoolSize});
+        
+        ((EntityLocal)poolEntity).setAttribute(FORECAST_METRIC, forecastMetric);
+        ((EntityLocal)poolEntity).setAttribute(FORECAST_POOL_SIZE, forecastPoolSize);
+        
+        return Math.max(currentTotalActivity, forecastTotalActivity);
+    }
+    
     private void onPoolCold(Map<String, ?> properties) {
         if (LOG.isTraceEnabled()) LOG.trace("{} recording pool-cold for {}: {}", new Object[] {this, poolEntity, properties});
         
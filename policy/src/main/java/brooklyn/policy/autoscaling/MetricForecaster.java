@@ -0,0 +1,114 @@
+package brooklyn.policy.autoscaling;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Objects;
+
+/**
+ * Keeps the most recent timestamped samples of a metric in a fixed-size ring buffer, and fits a
+ * least-squares linear trend to them so that the value can be projected a short time ahead.
+ * <p>
+ * Timestamps are supplied by the caller (e.g. from {@link brooklyn.event.SensorEvent#getTimestamp()}),
+ * so behaviour does not depend on the wall-clock and can be driven from a simulated clock in tests.
+ * <p>
+ * Not thread-safe; callers are expected to synchronize.
+ *
+ * @see AutoScalerPolicy
+ */
+public class MetricForecaster {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private int next = 0;
+    private int count = 0;
+
+    public MetricForecaster(int windowSize) {
+        checkArgument(windowSize >= 2, "windowSize must be at least 2, but was %s", windowSize);
+        this.timestamps = new long[windowSize];
+        this.values = new double[windowSize];
+    }
+
+    public int getWindowSize() {
+        return values.length;
+    }
+
+    /** The number of samples currently held (at most the window size). */
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Records a sample, overwriting the oldest sample if the window is full.
+     */
+    public void add(long timestamp, double value) {
+        timestamps[next] = timestamp;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (count < values.length) count++;
+    }
+
+    /**
+     * Projects the metric to the given time, using a linear fit over the samples in the window.
+     *
+     * @return the projected value, or null if there are fewer than two samples or they all
+     *         have the same timestamp (so no trend can be determined)
+     */
+    public Double forecast(long time) {
+        Trend trend = trend();
+        return (trend == null) ? null : trend.valueAt(time);
+    }
+
+    /**
+     * @return the linear fit over the samples in the window, or null if no trend can be determined
+     */
+    public Trend trend() {
+        if (count < 2) return null;
+
+        // Fit relative to the newest sample's timestamp, to avoid losing precision with epoch millis
+        long origin = timestamps[(next - 1 + values.length) % values.length];
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for (int i = 0; i < count; i++) {
+            double x = timestamps[i] - origin;
+            double y = values[i];
+            sumX += x;
+            sumY += y;
+            sumXX += x*x;
+            sumXY += x*y;
+        }
+        double denominator = count*sumXX - sumX*sumX;
+        if (denominator == 0) return null;
+
+        double slope = (count*sumXY - sumX*sumY) / denominator;
+        double intercept = (sumY - slope*sumX) / count;
+        return new Trend(origin, intercept, slope);
+    }
+
+    /**
+     * A linear trend, i.e. {@code value = intercept + slope*(time-origin)}, with slope in units per millisecond.
+     */
+    public static class Trend {
+        public final long origin;
+        public final double intercept;
+        public final double slope;
+
+        public Trend(long origin, double intercept, double slope) {
+            this.origin = origin;
+            this.intercept = intercept;
+            this.slope = slope;
+        }
+
+        public double valueAt(long time) {
+            return intercept + slope*(time - origin);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("origin", origin).add("intercept", intercept).add("slope", slope).toString();
+        }
+    }
+}
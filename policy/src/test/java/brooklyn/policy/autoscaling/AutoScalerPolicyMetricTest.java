@@ -247,4 +247,26 @@ public class AutoScalerPolicyMetricTest {
         entityWithMetric.setAttribute(TestEntity.SEQUENCE, 101);
         executeUntilSucceeds(ImmutableMap.of("timeout", TIMEOUT_MS), currentSizeAsserter(tc, 2));
     }
+    
+    @Test
+    public void testPredictiveModeGrowsBeforeUpperBoundExceeded() throws Exception {
+        tc.resize(1);
+        
+        AutoScalerPolicy policy = new AutoScalerPolicy.Builder().metric(MY_ATTRIBUTE)
+                .metricLowerBound(50).metricUpperBound(100)
+                .maxPoolSize(5)
+                .predictive(true)
+                .forecastHorizon(60*60*1000L)
+                .build();
+        tc.addPolicy(policy);
+
+        // steadily rising, but never above the upper bound; projected an hour ahead it is well above it
+        for (int val = 60; val <= 90; val += 10) {
+            tc.setAttribute(MY_ATTRIBUTE, val);
+            Thread.sleep(10);
+        }
+        executeUntilSucceeds(ImmutableMap.of("timeout", TIMEOUT_MS), currentSizeAsserter(tc, 5));
+        assertEquals(tc.getAttribute(AutoScalerPolicy.FORECAST_POOL_SIZE), (Integer)5);
+        assertTrue(tc.getAttribute(AutoScalerPolicy.FORECAST_METRIC) > 100);
+    }
 }
@@ -0,0 +1,81 @@
+package brooklyn.policy.autoscaling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+public class MetricForecasterTest {
+
+    private static final double DELTA = 0.0001;
+
+    // simulated clock, so results do not depend on real time
+    private static final long START_TIME = 1000000000000L;
+
+    @Test
+    public void testNoForecastWithoutTrend() {
+        MetricForecaster forecaster = new MetricForecaster(5);
+        assertNull(forecaster.forecast(START_TIME));
+
+        forecaster.add(START_TIME, 10);
+        assertNull(forecaster.forecast(START_TIME+1000));
+
+        // same timestamp twice gives no slope
+        forecaster.add(START_TIME, 20);
+        assertNull(forecaster.forecast(START_TIME+1000));
+    }
+
+    @Test
+    public void testForecastsLinearTrend() {
+        MetricForecaster forecaster = new MetricForecaster(5);
+        for (int i = 0; i < 5; i++) {
+            forecaster.add(START_TIME + i*1000, 10 + i*5);
+        }
+
+        // 5 per second; last sample 30 at +4s
+        assertEquals(forecaster.forecast(START_TIME+4000), 30d, DELTA);
+        assertEquals(forecaster.forecast(START_TIME+10000), 60d, DELTA);
+        assertEquals(forecaster.trend().slope, 0.005d, DELTA);
+    }
+
+    @Test
+    public void testForecastsFlatForConstantValues() {
+        MetricForecaster forecaster = new MetricForecaster(3);
+        for (int i = 0; i < 3; i++) {
+            forecaster.add(START_TIME + i*1000, 42);
+        }
+        assertEquals(forecaster.forecast(START_TIME+60000), 42d, DELTA);
+    }
+
+    @Test
+    public void testOnlyUsesMostRecentSamplesInWindow() {
+        MetricForecaster forecaster = new MetricForecaster(3);
+
+        // falling, then rising; window of 3 should only see the rise
+        forecaster.add(START_TIME, 100);
+        forecaster.add(START_TIME+1000, 50);
+        forecaster.add(START_TIME+2000, 0);
+        forecaster.add(START_TIME+3000, 10);
+        forecaster.add(START_TIME+4000, 20);
+        forecaster.add(START_TIME+5000, 30);
+
+        assertEquals(forecaster.size(), 3);
+        assertEquals(forecaster.forecast(START_TIME+6000), 40d, DELTA);
+    }
+
+    @Test
+    public void testClearDiscardsSamples() {
+        MetricForecaster forecaster = new MetricForecaster(3);
+        forecaster.add(START_TIME, 1);
+        forecaster.add(START_TIME+1000, 2);
+        forecaster.clear();
+
+        assertEquals(forecaster.size(), 0);
+        assertNull(forecaster.forecast(START_TIME+2000));
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testRejectsTooSmallWindow() {
+        new MetricForecaster(1);
+    }
+}
@@ -4,6 +4,8 @@ import static brooklyn.util.GroovyJavaMethods.elvis;
 import static brooklyn.util.GroovyJavaMethods.truth;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -22,13 +24,20 @@ import brooklyn.entity.basic.lifecycle.CommonCommands;
 import brooklyn.entity.basic.lifecycle.ScriptHelper;
 import brooklyn.entity.basic.lifecycle.ScriptRunner;
 import brooklyn.entity.drivers.downloads.DownloadResolverManager;
+import brooklyn.event.feed.ssh.SshPollValue;
+import brooklyn.event.feed.ssh.SshProbeAggregator;
+import brooklyn.location.basic.MachineFacts;
 import brooklyn.location.basic.SshMachineLocation;
 import brooklyn.util.MutableMap;
+import brooklyn.util.ResourceUtils;
 import brooklyn.util.internal.ssh.SshTool;
+import brooklyn.util.ssh.ArtifactCache;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -150,6 +159,19 @@ public abstract class AbstractSoftwareProcessSshDriver extends AbstractSoftwareP
     public String getHostname() { return entity.getAttribute(Attributes.HOSTNAME); }
     public String getAddress() { return entity.getAttribute(Attributes.ADDRESS); }
 
+    /** the facts about the machine (see {@link SshMachineLocation#getMachineFacts()}), or null if they could not be gathered */
+    public MachineFacts getMachineFacts() { return getLocation().getMachineFacts(); }
+
+    /**
+     * As {@link CommonCommands#installExecutable(String)}, but a no-op if the {@link #getMachineFacts() machine facts}
+     * show the executable is already on the path.
+     */
+    protected String installExecutable(String executable) {
+        MachineFacts facts = getMachineFacts();
+        if (facts != null && Boolean.TRUE.equals(facts.hasExecutable(executable))) return "true";
+        return CommonCommands.installExecutable(executable);
+    }
+
     /** extracts the values for the main brooklyn.ssh.config.* config keys (i.e. those declared in ConfigKeys) 
      * as declared on the entity, and inserts them in a map using the unprefixed state, for ssh. */
     /* currently this is computed for each call, which may be wasteful, but it is reliable in the face of config changes. 
@@ -191,10 +213,98 @@ public abstract class AbstractSoftwareProcessSshDriver extends AbstractSoftwareP
             flags.putAll(getSshFlags());
         flags.putAll(flags2);
         Map<String, String> environment = (Map<String, String>) ((flags.get("env") != null) ? flags.get("env") : getShellEnvironment());
+        ScriptInterceptor interceptor = scriptInterceptor.get();
+        if (interceptor != null) {
+            Integer result = interceptor.intercept(flags, script, environment);
+            if (result != null) return result;
+        }
         if (!flags.containsKey("logPrefix")) flags.put("logPrefix", ""+entity.getId()+"@"+getLocation().getName());
         return getMachine().execScript(flags, summaryForLogging, script, environment);
     }
 
+    /**
+     * A script captured by {@link AbstractSoftwareProcessSshDriver#captureIsRunningScript()}.
+     */
+    public static class CapturedScript {
+        private final List<String> commands;
+        private final Map<String, String> env;
+
+        CapturedScript(List<String> commands, Map<String, String> env) {
+            this.commands = ImmutableList.copyOf(commands);
+            this.env = ImmutableMap.copyOf(env);
+        }
+        
+        public List<String> getCommands() {
+            return commands;
+        }
+        
+        public Map<String, String> getEnv() {
+            return env;
+        }
+    }
+
+    /** Intercepts the driver's script executions in the current thread, returning null to execute the script as normal. */
+    private interface ScriptInterceptor {
+        Integer intercept(Map flags, List<String> script, Map<String, String> env);
+    }
+
+    private static final ThreadLocal<ScriptInterceptor> scriptInterceptor = new ThreadLocal<ScriptInterceptor>();
+
+    /**
+     * Captures the script that {@link #isRunning()} executes, without executing it over ssh, so that the check
+     * can be combined with those of other entities on the same machine (see {@link SshProbeAggregator});
+     * the result of running the script is then passed to {@link #isRunning(CapturedScript, SshPollValue)}.
+     * <p>
+     * Returns null if {@link #isRunning()} does not execute exactly one script via this driver
+     * (e.g. if it checks over jmx, or runs commands directly on the machine).
+     */
+    public CapturedScript captureIsRunningScript() {
+        final List<CapturedScript> captured = Lists.newArrayList();
+        scriptInterceptor.set(new ScriptInterceptor() {
+            @Override public Integer intercept(Map flags, List<String> script, Map<String, String> env) {
+                captured.add(new CapturedScript(script, env));
+                return 1; // i.e. "not running", the result least likely to trigger further checks
+            }});
+        try {
+            isRunning();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) log.debug("Unable to capture isRunning script of "+entity+"; will not batch checks", e);
+            return null;
+        } finally {
+            scriptInterceptor.remove();
+        }
+        return (captured.size() == 1) ? captured.get(0) : null;
+    }
+
+    /**
+     * Evaluates {@link #isRunning()}, using the given result of executing the script from
+     * {@link #captureIsRunningScript()} rather than executing it again; any other scripts are executed as normal.
+     */
+    public boolean isRunning(final CapturedScript captured, final SshPollValue result) {
+        scriptInterceptor.set(new ScriptInterceptor() {
+            @Override public Integer intercept(Map flags, List<String> script, Map<String, String> env) {
+                if (!captured.getCommands().equals(script)) return null;
+                writeQuietly(flags.get("out"), result.getStdout());
+                writeQuietly(flags.get("err"), result.getStderr());
+                return result.getExitStatus();
+            }});
+        try {
+            return isRunning();
+        } finally {
+            scriptInterceptor.remove();
+        }
+    }
+    
+    private static void writeQuietly(Object stream, String val) {
+        if (stream instanceof OutputStream && val != null) {
+            try {
+                ((OutputStream)stream).write(val.getBytes());
+            } catch (IOException e) {
+                log.debug("Unable to write replayed output (continuing)", e);
+            }
+        }
+    }
+
     /**
      * The environment variables to be set when executing the commands (for install, run, check running, etc).
      */
@@ -296,7 +406,11 @@ public abstract class AbstractSoftwareProcessSshDriver extends AbstractSoftwareP
         }
         // if not downloaded yet, retrieve locally and copy across
         if (result != 0) {
-            result = getMachine().copyTo(flags, getResource(resource), dest);
+            if (Boolean.TRUE.equals(entity.getConfig(SoftwareProcess.USE_ARTIFACT_CACHE))) {
+                result = ArtifactCache.getInstance().copyTo(flags, getMachine(), new ResourceUtils(entity), resource, dest);
+            } else {
+                result = getMachine().copyTo(flags, getResource(resource), dest);
+            }
         }
         if (log.isDebugEnabled())
             log.debug("Copied file for {}: {} to {} - result {}", new Object[] { entity, resource, dest, result });
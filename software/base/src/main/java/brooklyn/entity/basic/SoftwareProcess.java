@@ -54,6 +54,18 @@ public interface SoftwareProcess extends Entity, Startable {
             Map.class, "provisioning.properties", 
             "Custom properties to be passed in when provisioning a new machine", MutableMap.of());
     
+    @SetFromFlag("batchServiceUpChecks")
+    public static final ConfigKey<Boolean> BATCH_SERVICE_UP_CHECKS = new BasicConfigKey<Boolean>(
+            Boolean.class, "softwareProcess.batchServiceUpChecks", 
+            "Whether to run the periodic service-up (i.e. isRunning) check along with those of other entities on the same machine, " +
+            "as a single combined ssh script, where the driver supports it", true);
+
+    @SetFromFlag("useArtifactCache")
+    public static final ConfigKey<Boolean> USE_ARTIFACT_CACHE = new BasicConfigKey<Boolean>(
+            Boolean.class, "softwareProcess.useArtifactCache", 
+            "Whether to copy resources (e.g. jars and wars) to the machine via the management node's artifact cache, " +
+            "skipping the transfer if the machine already has the same content", true);
+
     public static final AttributeSensor<String> HOSTNAME = Attributes.HOSTNAME;
     public static final AttributeSensor<String> ADDRESS = Attributes.ADDRESS;
 
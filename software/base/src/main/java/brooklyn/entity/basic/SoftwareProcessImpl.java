@@ -15,11 +15,15 @@ import org.slf4j.LoggerFactory;
 
 import brooklyn.config.ConfigKey;
 import brooklyn.entity.Entity;
+import brooklyn.entity.basic.AbstractSoftwareProcessSshDriver.CapturedScript;
 import brooklyn.entity.drivers.DriverDependentEntity;
 import brooklyn.event.adapter.SensorRegistry;
 import brooklyn.event.feed.ConfigToAttributes;
+import brooklyn.event.feed.PollHandler;
 import brooklyn.event.feed.function.FunctionFeed;
 import brooklyn.event.feed.function.FunctionPollConfig;
+import brooklyn.event.feed.ssh.SshPollValue;
+import brooklyn.event.feed.ssh.SshProbeAggregator;
 import brooklyn.location.Location;
 import brooklyn.location.MachineLocation;
 import brooklyn.location.MachineProvisioningLocation;
@@ -111,20 +115,29 @@ public abstract class SoftwareProcessImpl extends AbstractEntity implements Soft
     protected void connectSensors() {
     }
 
+    private static final long SERVICE_UP_PERIOD = 5000;
+    
     /** @see #connectServiceUpIsRunning() */
     private volatile FunctionFeed serviceUp;
+    private volatile SshProbeAggregator.Registration serviceUpProbe;
 
     /**
      * For connecting the {@link #SERVICE_UP} sensor to the value of the {@code getDriver().isRunning()} expression.
      * <p>
+     * Where supported by the driver (and unless {@link #BATCH_SERVICE_UP_CHECKS} is false), the check is run
+     * along with those of other entities on the same machine, as a single ssh script (see {@link SshProbeAggregator}).
+     * <p>
      * Should be called inside {@link #connectSensors()}.
      *
      * @see #disconnectServiceUpIsRunning()
      */
     protected void connectServiceUpIsRunning() {
-        FunctionFeed serviceUp = FunctionFeed.builder()
+        if (Boolean.TRUE.equals(getConfig(BATCH_SERVICE_UP_CHECKS)) && connectServiceUpIsRunningBatched()) {
+            return;
+        }
+        serviceUp = FunctionFeed.builder()
                 .entity(this)
-                .period(5000)
+                .period(SERVICE_UP_PERIOD)
                 .poll(new FunctionPollConfig<Boolean, Boolean>(SERVICE_UP)
                         .onError(Functions.constant(Boolean.FALSE))
                         .callable(new Callable<Boolean>() {
@@ -135,6 +148,33 @@ public abstract class SoftwareProcessImpl extends AbstractEntity implements Soft
                 .build();
     }
 
+    private boolean connectServiceUpIsRunningBatched() {
+        if (!(getDriver() instanceof AbstractSoftwareProcessSshDriver)) return false;
+        final AbstractSoftwareProcessSshDriver sshDriver = (AbstractSoftwareProcessSshDriver) getDriver();
+        final CapturedScript script = sshDriver.captureIsRunningScript();
+        if (script == null) return false;
+        
+        if (log.isDebugEnabled()) log.debug("Batching service-up checks of {} on {}", this, sshDriver.getMachine());
+        serviceUpProbe = SshProbeAggregator.forMachine(getManagementContext(), sshDriver.getMachine()).register(script.getCommands(), script.getEnv(), SERVICE_UP_PERIOD,
+                new PollHandler<SshPollValue>() {
+                    @Override public void onSuccess(SshPollValue val) {
+                        boolean running;
+                        try {
+                            running = sshDriver.isRunning(script, val);
+                        } catch (Exception e) {
+                            onError(e);
+                            return;
+                        }
+                        setAttribute(SERVICE_UP, running);
+                    }
+                    @Override public void onError(Exception error) {
+                        if (log.isDebugEnabled()) log.debug("Service-up check failed for "+SoftwareProcessImpl.this+"; setting "+SERVICE_UP.getName()+" false", error);
+                        setAttribute(SERVICE_UP, false);
+                    }
+                });
+        return true;
+    }
+
     /**
      * For disconneting the {@link #SERVICE_UP} feed.
      * <p>
@@ -144,6 +184,7 @@ public abstract class SoftwareProcessImpl extends AbstractEntity implements Soft
      */
     protected void disconnectServiceUpIsRunning() {
         if (serviceUp != null && serviceUp.isActivated()) serviceUp.stop();
+        if (serviceUpProbe != null) serviceUpProbe.cancel();
     }
 
     /**
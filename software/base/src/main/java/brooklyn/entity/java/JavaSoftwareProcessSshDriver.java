@@ -18,6 +18,7 @@ import brooklyn.entity.basic.Attributes;
 import brooklyn.entity.basic.EntityInternal;
 import brooklyn.entity.basic.EntityLocal;
 import brooklyn.entity.basic.lifecycle.CommonCommands;
+import brooklyn.location.basic.MachineFacts;
 import brooklyn.location.basic.SshMachineLocation;
 import brooklyn.util.GroovyJavaMethods;
 import brooklyn.util.MutableMap;
@@ -268,6 +269,11 @@ public abstract class JavaSoftwareProcessSshDriver extends AbstractSoftwareProce
     public void installJava() {
         try {
             getLocation().acquireMutex("install:" + getLocation().getName(), "installing Java at " + getLocation());
+            MachineFacts facts = getMachineFacts();
+            if (facts != null && Boolean.TRUE.equals(facts.hasExecutable("java"))) {
+                log.debug("java detected (from machine facts) at " + entity + " @ " + getLocation());
+                return;
+            }
             log.debug("checking for java at " + entity + " @ " + getLocation());
             int result = getLocation().execCommands("check java", Arrays.asList("which java"));
             if (result == 0) {
@@ -293,8 +299,10 @@ public abstract class JavaSoftwareProcessSshDriver extends AbstractSoftwareProce
                         //                            new ResourceUtils(this).getResourceAsString("classpath:///functions/installOpenJDK.sh"),
                         //                            "installOpenJDK"
                         ).execute();
-                if (result==0)
+                if (result==0) {
+                    getLocation().clearMachineFacts();
                     return;
+                }
                 log.warn("Unable to install Java at " + getLocation() + " for " + entity +
                         " (and Java not detected); invalid result "+result+". " + 
                         "Processes may fail to start.");
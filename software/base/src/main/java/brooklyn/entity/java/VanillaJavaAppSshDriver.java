@@ -10,6 +10,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import brooklyn.entity.basic.SoftwareProcess;
 import brooklyn.location.basic.SshMachineLocation;
 import brooklyn.util.MutableMap;
 import brooklyn.util.ResourceUtils;
@@ -65,7 +66,8 @@ public class VanillaJavaAppSshDriver extends JavaSoftwareProcessSshDriver implem
                 toinstall = f;
             }
             
-            int result = machine.installTo(new ResourceUtils(entity), toinstall, getRunDir() + "/" + "lib" + "/");
+            int result = machine.installTo(MutableMap.of(SshMachineLocation.USE_ARTIFACT_CACHE.getName(), entity.getConfig(SoftwareProcess.USE_ARTIFACT_CACHE)), 
+                    new ResourceUtils(entity), toinstall, getRunDir() + "/" + "lib" + "/");
             if (result != 0)
                 throw new IllegalStateException(format("unable to install classpath entry %s for %s at %s",f,entity,machine));
             
@@ -49,7 +49,7 @@ public class Tomcat7SshDriver extends JavaWebAppSshDriver implements Tomcat7Driv
 
         List<String> commands = new LinkedList<String>();
         commands.addAll(CommonCommands.downloadUrlAs(urls, saveAs));
-        commands.add(CommonCommands.installExecutable("tar"));
+        commands.add(installExecutable("tar"));
         commands.add(format("tar xvzf %s",saveAs));
 
         newScript(INSTALLING).
@@ -28,6 +28,9 @@ define(["underscore", "backbone"], function (_, Backbone) {
         },
         getConfigUpdateUrl:function () {
             return this.getLinkByName("self") + "/config/current-state"
+        },
+        getChangesUrl:function () {
+            return this.getLinkByName("self") + "/changes"
         }
     })
 
@@ -17,6 +17,9 @@ define([
         _.each(this._periodicFunctions, function(i) {
             clearInterval(i)
         })
+        _.each(this._changeStreams, function(listener) {
+            listener.active = false
+        })
         this.remove()
         this.unbind()
     }
@@ -31,6 +34,66 @@ define([
         this._periodicFunctions[uid] = setInterval(callback, interval)
     }
 
+    // the long-polls in progress, by entity "changes" url; views showing the same entity share one,
+    // so a page showing both its sensors and its activities makes one request at a time, not one per view
+    var changeStreams = {}
+
+    var pollChanges = function (stream) {
+        stream.listeners = _.filter(stream.listeners, function (listener) { return listener.active })
+        if (stream.listeners.length == 0) {
+            delete changeStreams[stream.url]
+            return
+        }
+        stream.request = $.ajax({
+            url:stream.url,
+            data:stream.id ? { stream:stream.id } : {},
+            dataType:"json",
+            cache:false,
+            // views set ajax to synchronous by default; a long poll must not block the page
+            async:true,
+            success:function (changes) {
+                stream.request = null
+                var complete = (changes.streamId != stream.id)
+                stream.id = changes.streamId
+                _.each(stream.listeners, function (listener) {
+                    if (listener.active) listener.callback(changes, complete)
+                })
+                pollChanges(stream)
+            },
+            error:function (xhr, status) {
+                stream.request = null
+                if (status == "abort") {
+                    // restarted for a new listener
+                    pollChanges(stream)
+                    return
+                }
+                // e.g. the server restarted; start a new stream after a pause
+                stream.id = null
+                setTimeout(function () { pollChanges(stream) }, 5000)
+            }
+        })
+    }
+
+    // long-polls the given entity "changes" url, passing each response to the callback, until the view closes;
+    // the callback's second argument is true when the response holds the complete state (for a new stream)
+    Backbone.View.prototype.streamChanges = function (uid, url, callback) {
+        if (!this._changeStreams) {
+            this._changeStreams = {}
+        }
+        var old = this._changeStreams[uid]
+        if (old) old.active = false
+        var listener = this._changeStreams[uid] = { active:true, callback:callback }
+        var stream = changeStreams[url]
+        if (!stream) {
+            stream = changeStreams[url] = { url:url, id:null, listeners:[listener] }
+            pollChanges(stream)
+        } else {
+            // the new listener needs the complete state, so restart the poll on a new stream
+            stream.listeners.push(listener)
+            stream.id = null
+            if (stream.request) stream.request.abort()
+        }
+    }
 
     var Router = Backbone.Router.extend({
         routes:{
@@ -55,11 +55,19 @@ define([
             ViewUtils.addRefreshButton(that.table);
             
             that.collection.on("reset", that.render, that);
-            that.callPeriodically("entity-activities", function () {
+            // the server sends only the activities which are new or have changed, so merge them into those shown
+            that.tasks = {};
+            that.streamChanges("entity-activities", that.model.getChangesUrl(), function (changes, complete) {
+                if (complete) that.tasks = {}
+                _.each(changes.activities, function (task) {
+                    that.tasks[task.id] = task
+                })
+                _.each(changes.removedActivities, function (id) {
+                    delete that.tasks[id]
+                })
                 if (that.refreshActive)
-                    that.collection.fetch();
-            }, 3000);
-            that.collection.fetch();
+                    that.collection.reset(_.values(that.tasks));
+            });
         },
         refreshNow: function() {
             this.collection.fetch();
@@ -72,6 +80,7 @@ define([
         },
         enableAutoRefresh: function(isEnabled) {
             this.refreshActive = isEnabled
+            if (isEnabled) this.collection.reset(_.values(this.tasks))
         },
         render:function () {
             var that = this;
@@ -21,6 +21,7 @@ define([
         initialize:function () {
             this.$el.html(this.template({ }));
             $.ajaxSetup({ async:false });
+            this.sensorValues = {};
             var that = this,
                 $table = this.$('#sensors-table');
             that.table = ViewUtils.myDataTable($table, {
@@ -84,7 +85,7 @@ define([
             ViewUtils.addAutoRefreshButton(that.table);
             ViewUtils.addRefreshButton(that.table);
             that.loadSensorMetadata(that);
-            that.updateSensorsPeriodically(that);
+            that.streamSensorChanges(that);
             that.toggleFilterEmpty();
         },
         render:function () {
@@ -99,16 +100,19 @@ define([
         },
         enableAutoRefresh: function(isEnabled) {
             this.refreshActive = isEnabled
+            if (isEnabled) this.renderSensorValues(this)
         },
         refreshSensors:function () {
             this.updateSensorsNow(this);  
         },
-        updateSensorsPeriodically:function (that) {
-            var self = this;
-            that.callPeriodically("entity-sensors", function() {
-                if (self.refreshActive)
-                    self.updateSensorsNow(that);
-            }, 3000);
+        streamSensorChanges:function (that) {
+            // the server sends only the sensors which have changed, so merge them into the values shown
+            that.streamChanges("entity-sensors", that.model.getChangesUrl(), function (changes, complete) {
+                if (complete) that.sensorValues = {}
+                _.extend(that.sensorValues, changes.sensors)
+                if (that.refreshActive)
+                    that.renderSensorValues(that);
+            });
         },
         loadSensorMetadata: function(that) {
             var url =  that.model.getLinkByName('sensors');
@@ -128,28 +132,31 @@ define([
                           type:sensor["type"]
                     }
                 }
-                that.updateSensorsNow(that);
+                that.renderSensorValues(that);
                 that.table.find('*[rel="tooltip"]').tooltip();
             });
         },
         updateSensorsNow:function (that) {
-            var url = that.model.getSensorUpdateUrl(),
-                $table = that.$('#sensors-table');
-            $.get(url, function (data) {
-                ViewUtils.updateMyDataTable($table, data, function(value, name) {
-                    var metadata = that.sensorMetadata[name]
-                    if (metadata==null) {                        
-                        // TODO should reload metadata when this happens (new sensor for which no metadata known)
-                        // (currently if we have dynamic sensors, their metadata won't appear
-                        // until the page is refreshed; don't think that's a bit problem -- mainly tooltips
-                        // for now, we just return the partial value
-                        return [name, {'name':name}, {}, value]
-                    } 
-                    return [name, metadata,
-                        metadata["actions"],
-                        value
-                    ];
-                });
+            $.get(that.model.getSensorUpdateUrl(), function (data) {
+                that.sensorValues = data
+                that.renderSensorValues(that);
+            });
+        },
+        renderSensorValues:function (that) {
+            var $table = that.$('#sensors-table');
+            ViewUtils.updateMyDataTable($table, that.sensorValues, function(value, name) {
+                var metadata = that.sensorMetadata[name]
+                if (metadata==null) {                        
+                    // TODO should reload metadata when this happens (new sensor for which no metadata known)
+                    // (currently if we have dynamic sensors, their metadata won't appear
+                    // until the page is refreshed; don't think that's a bit problem -- mainly tooltips
+                    // for now, we just return the partial value
+                    return [name, {'name':name}, {}, value]
+                } 
+                return [name, metadata,
+                    metadata["actions"],
+                    value
+                ];
             });
         }
     });
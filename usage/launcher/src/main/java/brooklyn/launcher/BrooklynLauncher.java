@@ -7,6 +7,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +32,13 @@ import brooklyn.management.internal.LocalManagementContext;
 import brooklyn.management.internal.ManagementContextInternal;
 import brooklyn.rest.security.BrooklynPropertiesSecurityFilter;
 import brooklyn.util.exceptions.CompoundRuntimeException;
+import brooklyn.util.exceptions.Exceptions;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Example usage is:
@@ -72,8 +78,10 @@ public class BrooklynLauncher {
     private Map<String, ?> webconsoleFlags = Maps.newLinkedHashMap();
     private boolean installSecurityFilter = true;
     private boolean shutdownOnExit = true;
+    private boolean fastStart = false;
     
     private volatile BrooklynWebServer webServer;
+    private final StartupReport startupReport = new StartupReport();
 
     private boolean started;
 
@@ -82,6 +90,11 @@ public class BrooklynLauncher {
         return ImmutableList.copyOf(apps);
     }
     
+    /** the times taken by each phase of startup (some of which may still be running) */
+    public StartupReport getStartupReport() {
+        return startupReport;
+    }
+    
     public BrooklynServerDetails getServerDetails() {
         if (!started) throw new IllegalStateException("Cannot retrieve server details until started");
         return new BrooklynServerDetails(webServer, managementContext);
@@ -206,6 +219,20 @@ public class BrooklynLauncher {
         return this;
     }
 
+    /**
+     * Specifies whether independent phases of startup run concurrently; default false.
+     * <p>
+     * If so, once the management context is created the web console is started (reporting a
+     * {@link BrooklynServiceAttributes#BROOKLYN_STARTUP_STATUS} of "starting" until the applications are started),
+     * at the same time as the locations are resolved and the applications created,
+     * and the catalog (which may scan the classpath) is loaded in the background rather than when first used.
+     * The applications are started once all of that, except the catalog, is done.
+     */
+    public BrooklynLauncher fastStart(boolean val) {
+        this.fastStart = val;
+        return this;
+    }
+
     public BrooklynLauncher installSecurityFilter(boolean val) {
         this.installSecurityFilter = val;
         return this;
@@ -263,6 +290,7 @@ public class BrooklynLauncher {
         doLaunch();
         
         // Start the apps
+        startupReport.begin(StartupReport.START_APPLICATIONS);
         List<Throwable> appExceptions = Lists.newArrayList();
         for (Application app : apps) {
             if (app instanceof Startable) {
@@ -281,9 +309,13 @@ public class BrooklynLauncher {
                 }
             }
         }
+        startupReport.end(StartupReport.START_APPLICATIONS);
+        LOG.debug("Brooklyn startup: {}", startupReport);
         if (appExceptions.size() > 0) {
+            setStartupStatus(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_FAILED);
             throw new CompoundRuntimeException("Error starting applications", appExceptions);
         }
+        setStartupStatus(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_RUNNING);
         
         return this;
     }
@@ -296,6 +328,7 @@ public class BrooklynLauncher {
         started = true;
         
         // Create the management context
+        startupReport.begin(StartupReport.MANAGEMENT_CONTEXT);
         if (managementContext == null) {
             if (brooklynProperties == null) {
                 brooklynProperties = BrooklynProperties.Factory.newDefault();
@@ -305,31 +338,92 @@ public class BrooklynLauncher {
         for (Map.Entry<String, Object> entry : brooklynAdditionalProperties.entrySet()) {
             brooklynProperties.put(entry.getKey(), entry.getValue());
         }
+        startupReport.end(StartupReport.MANAGEMENT_CONTEXT);
+
+        if (fastStart) {
+            doLaunchConcurrently();
+        } else {
+            resolveLocations();
+            startWebServer();
+            manageApps();
+        }
+        
+        return this;
+    }
+    
+    /** 
+     * Starts the web-console and resolves the locations in other threads, while the apps are created in this one,
+     * and leaves the catalog loading in the background
+     */
+    private void doLaunchConcurrently() {
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("brooklyn-launcher-%d").setDaemon(true).build());
+        try {
+            Future<?> webServerStarted = executor.submit(new Runnable() {
+                public void run() {
+                    startWebServer();
+                }});
+            Future<?> locationsResolved = executor.submit(new Runnable() {
+                public void run() {
+                    resolveLocations();
+                }});
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        startupReport.begin(StartupReport.CATALOG);
+                        managementContext.getCatalog();
+                        startupReport.end(StartupReport.CATALOG);
+                    } catch (Exception e) {
+                        LOG.warn("Failed to load Brooklyn catalog in background (will retry on use): "+e, e);
+                    }
+                }});
+            
+            manageApps();
+            
+            locationsResolved.get();
+            webServerStarted.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        } finally {
+            // lets the catalog continue loading, but no longer keeps any idle threads
+            executor.shutdown();
+        }
+    }
 
-        // Create the locations
+    private void resolveLocations() {
+        startupReport.begin(StartupReport.LOCATIONS);
         locations.addAll(managementContext.getLocationRegistry().resolve(locationSpecs));
-        
-        // Start the web-console
-        if (startWebApps) {
-            try {
-                webServer = new BrooklynWebServer(webconsoleFlags, managementContext);
-                webServer.setPort(port);
-                webServer.putAttributes(brooklynProperties);
-                if (installSecurityFilter) {
-                    webServer.setSecurityFilter(BrooklynPropertiesSecurityFilter.class);
-                }
-                
-                for (Map.Entry<String, String> webapp : webApps.entrySet())
-                    webServer.deploy(webapp.getKey(), webapp.getValue());
-                
-                webServer.start();
-                
-            } catch (Exception e) {
-                LOG.warn("Failed to start Brooklyn web-console: "+e, e);
+        startupReport.end(StartupReport.LOCATIONS);
+    }
+
+    private void startWebServer() {
+        if (!startWebApps) return;
+        startupReport.begin(StartupReport.WEB_SERVER);
+        try {
+            webServer = new BrooklynWebServer(webconsoleFlags, managementContext);
+            webServer.setPort(port);
+            webServer.putAttributes(brooklynProperties);
+            webServer.setAttribute(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS, BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_STARTING);
+            if (installSecurityFilter) {
+                webServer.setSecurityFilter(BrooklynPropertiesSecurityFilter.class);
             }
+            
+            for (Map.Entry<String, String> webapp : webApps.entrySet())
+                webServer.deploy(webapp.getKey(), webapp.getValue());
+            
+            webServer.start();
+            
+        } catch (Exception e) {
+            LOG.warn("Failed to start Brooklyn web-console: "+e, e);
         }
-        
-        // Create the apps
+        startupReport.end(StartupReport.WEB_SERVER);
+    }
+
+    private void manageApps() {
+        startupReport.begin(StartupReport.APPLICATIONS);
         for (ApplicationBuilder appBuilder : appBuildersToManage) {
             StartableApplication app = appBuilder.manage(managementContext);
             apps.add(app);
@@ -338,8 +432,14 @@ public class BrooklynLauncher {
             Entities.startManagement(app, managementContext);
             apps.add(app);
         }
-        
-        return this;
+        startupReport.end(StartupReport.APPLICATIONS);
+    }
+
+    private void setStartupStatus(String status) {
+        BrooklynWebServer server = webServer;
+        if (server != null && server.getRootContext() != null) {
+            server.getRootContext().setAttribute(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS, status);
+        }
     }
     
     /**
@@ -472,6 +572,7 @@ public class BrooklynLauncher {
         shutdownOnExit(false);
         
         doLaunch();
+        setStartupStatus(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_RUNNING);
         
         return getServerDetails();
     }
@@ -3,6 +3,7 @@ package brooklyn.launcher;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -11,24 +12,37 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.servlet.DispatcherType;
-
-import org.eclipse.jetty.server.Connector;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.ssl.SslSocketConnector;
+import org.eclipse.jetty.server.handler.GzipHandler;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import brooklyn.config.BrooklynServiceAttributes;
+import brooklyn.config.ConfigKey;
 import brooklyn.entity.basic.ConfigKeys;
 import brooklyn.location.PortRange;
 import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
 import brooklyn.location.basic.PortRanges;
 import brooklyn.management.ManagementContext;
 import brooklyn.rest.BrooklynRestApi;
+import brooklyn.rest.BrooklynWebConfig;
 import brooklyn.rest.security.BrooklynPropertiesSecurityFilter;
 import brooklyn.util.BrooklynLanguageExtensions;
 import brooklyn.util.MutableMap;
@@ -41,6 +55,7 @@ import brooklyn.util.text.Strings;
 import brooklyn.util.web.ContextHandlerCollectionHotSwappable;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.sun.jersey.api.core.DefaultResourceConfig;
 import com.sun.jersey.api.core.ResourceConfig;
@@ -48,6 +63,10 @@ import com.sun.jersey.spi.container.servlet.ServletContainer;
 
 /**
  * Starts the web-app running, connected to the given management context
+ * <p>
+ * Requests are served by NIO connectors on a bounded pool of threads, and (optionally) gzipped;
+ * these are configured by the {@link BrooklynWebConfig} keys in the management context's properties,
+ * which can be overridden by flags (maxThreads, minThreads, maxQueuedRequests, acceptors, gzipEnabled, assetsMaxAgeSeconds).
  */
 public class BrooklynWebServer {
     private static final Logger log = LoggerFactory.getLogger(BrooklynWebServer.class);
@@ -93,6 +112,26 @@ public class BrooklynWebServer {
     @SetFromFlag
     private String trustStorePassword;
 
+    @SetFromFlag
+    private Integer maxThreads;
+
+    @SetFromFlag
+    private Integer minThreads;
+
+    @SetFromFlag
+    private Integer maxQueuedRequests;
+
+    @SetFromFlag
+    private Integer acceptors;
+
+    @SetFromFlag
+    private Boolean gzipEnabled;
+
+    @SetFromFlag
+    private Integer assetsMaxAgeSeconds;
+
+    private StatisticsHandler statistics;
+
     private File webappTempDir;
     
     private Class<BrooklynPropertiesSecurityFilter> securityFilterClazz;
@@ -226,15 +265,17 @@ public class BrooklynWebServer {
         if (log.isDebugEnabled())
             log.debug("Starting Brooklyn console at "+getRootUrl()+", running " + war + (wars != null ? " and " + wars.values() : ""));
 
-        server = new Server(actualPort);
+        server = new Server();
 
-        if(httpsEnabled){
-            //by default the server is configured with a http connector, this needs to be removed since we are going
-            //to provide https
-            for(Connector c: server.getConnectors()){
-                server.removeConnector(c);
-            }
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("brooklyn-jetty");
+        threadPool.setMaxThreads(config(maxThreads, BrooklynWebConfig.MAX_THREADS));
+        threadPool.setMinThreads(config(minThreads, BrooklynWebConfig.MIN_THREADS));
+        threadPool.setMaxQueued(config(maxQueuedRequests, BrooklynWebConfig.MAX_QUEUED_REQUESTS));
+        server.setThreadPool(threadPool);
 
+        SelectChannelConnector connector;
+        if(httpsEnabled){
             SslContextFactory sslContextFactory = new SslContextFactory();
             sslContextFactory.setKeyStorePath(checkFileExists(keystorePath, "keystore"));
             sslContextFactory.setKeyStorePassword(keystorePassword);
@@ -243,10 +284,15 @@ public class BrooklynWebServer {
                 sslContextFactory.setTrustStorePassword(trustStorePassword);
             }
 
-            SslSocketConnector sslSocketConnector = new SslSocketConnector(sslContextFactory);
-            sslSocketConnector.setPort(actualPort);
-            server.addConnector(sslSocketConnector);
+            connector = new SslSelectChannelConnector(sslContextFactory);
+        } else {
+            connector = new SelectChannelConnector();
         }
+        connector.setPort(actualPort);
+        int acceptorCount = config(acceptors, BrooklynWebConfig.ACCEPTORS);
+        if (acceptorCount > 0) connector.setAcceptors(acceptorCount);
+        connector.setMaxIdleTime(config(null, BrooklynWebConfig.MAX_IDLE_TIME_MILLIS));
+        server.addConnector(connector);
 
         addShutdownHook();
 
@@ -263,9 +309,23 @@ public class BrooklynWebServer {
         if (securityFilterClazz != null) {
             rootContext.addFilter(securityFilterClazz, "/*", EnumSet.allOf(DispatcherType.class));
         }
+        int maxAge = config(assetsMaxAgeSeconds, BrooklynWebConfig.ASSETS_MAX_AGE_SECONDS);
+        if (maxAge > 0) {
+            rootContext.addFilter(new FilterHolder(new CacheControlFilter(maxAge)), "/assets/*", EnumSet.of(DispatcherType.REQUEST));
+        }
         installAsServletFilter(rootContext);
 
-        server.setHandler(handlers);
+        Handler handler = handlers;
+        if (config(gzipEnabled, BrooklynWebConfig.GZIP_ENABLED)) {
+            GzipHandler gzip = new GzipHandler();
+            gzip.setMimeTypes("application/json,application/javascript,text/javascript,text/css,text/html,text/plain");
+            gzip.setHandler(handler);
+            handler = gzip;
+        }
+        statistics = new StatisticsHandler();
+        statistics.setHandler(handler);
+
+        server.setHandler(statistics);
         server.start();
         //reinit required because grails wipes our language extension bindings
         BrooklynLanguageExtensions.reinit();
@@ -273,6 +333,59 @@ public class BrooklynWebServer {
         log.info("Started Brooklyn console at "+getRootUrl()+", running " + war + (wars != null ? " and " + wars.values() : ""));
     }
 
+    /** the value given as a flag, if any, otherwise the value in the management context's properties (or the key's default) */
+    private <T> T config(T flagValue, ConfigKey<T> key) {
+        if (flagValue != null) return flagValue;
+        return managementContext.getConfig().getConfig(key);
+    }
+
+    /**
+     * Statistics of the requests served since the server was started, including the number of requests and
+     * those active, their mean and max times in milliseconds, the number of server errors, and the bytes sent;
+     * empty if the server is not running.
+     */
+    public Map<String, Object> getMetrics() {
+        StatisticsHandler stats = statistics;
+        if (stats == null || server == null) return ImmutableMap.of();
+        long uptimeMillis = stats.getStatsOnMs();
+        return ImmutableMap.<String, Object>builder()
+                .put("requests", stats.getRequests())
+                .put("requestsActive", stats.getRequestsActive())
+                .put("requestsPerSecond", (uptimeMillis > 0) ? stats.getRequests() * 1000.0 / uptimeMillis : 0.0)
+                .put("meanRequestMillis", stats.getRequestTimeMean())
+                .put("maxRequestMillis", stats.getRequestTimeMax())
+                .put("responses5xx", stats.getResponses5xx())
+                .put("responseBytes", stats.getResponsesBytesTotal())
+                .put("threads", server.getThreadPool().getThreads())
+                .put("idleThreads", server.getThreadPool().getIdleThreads())
+                .build();
+    }
+
+    /** tells browsers they may cache the (static) responses for the given time */
+    private static class CacheControlFilter implements Filter {
+        private final String cacheControl;
+
+        CacheControlFilter(int maxAgeSeconds) {
+            this.cacheControl = "public, max-age="+maxAgeSeconds;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+            if (response instanceof HttpServletResponse) {
+                ((HttpServletResponse) response).setHeader("Cache-Control", cacheControl);
+            }
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
     private String newTimestampedDirName(String prefix, int randomSuffixLength) {
         return prefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + Identifiers.makeRandomId(randomSuffixLength);
     }
@@ -301,6 +414,7 @@ public class BrooklynWebServer {
             /* NPE may be thrown e.g. if threadpool not started */
         }
         server = null;
+        statistics = null;
         LocalhostMachineProvisioningLocation.releasePort(getAddress(), actualPort);
         actualPort = -1;
         if (log.isDebugEnabled())
@@ -0,0 +1,83 @@
+package brooklyn.launcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import brooklyn.util.Time;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The times at which each phase of a {@link BrooklynLauncher}'s startup began and ended,
+ * in milliseconds since the epoch, in the order the phases began.
+ * <p>
+ * Phases may overlap (see {@link BrooklynLauncher#fastStart(boolean)}), and some (such as {@link #CATALOG})
+ * may still be running, or not yet have begun, when the launcher has started.
+ */
+public class StartupReport {
+
+    public static final String MANAGEMENT_CONTEXT = "managementContext";
+    public static final String LOCATIONS = "locations";
+    public static final String WEB_SERVER = "webServer";
+    public static final String CATALOG = "catalog";
+    public static final String APPLICATIONS = "applications";
+    public static final String START_APPLICATIONS = "startApplications";
+
+    // guarded by this
+    private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+    synchronized void begin(String phase) {
+        phases.put(phase, new long[] { System.currentTimeMillis(), -1 });
+    }
+
+    synchronized void end(String phase) {
+        long[] times = phases.get(phase);
+        if (times == null) throw new IllegalStateException("Phase "+phase+" has not begun");
+        times[1] = System.currentTimeMillis();
+    }
+
+    /** the phases which have begun */
+    public synchronized Iterable<String> getPhases() {
+        return ImmutableMap.copyOf(phases).keySet();
+    }
+
+    /** when the phase began, or -1 if it has not */
+    public synchronized long getBeginTime(String phase) {
+        long[] times = phases.get(phase);
+        return (times != null) ? times[0] : -1;
+    }
+
+    /** when the phase ended, or -1 if it has not */
+    public synchronized long getEndTime(String phase) {
+        long[] times = phases.get(phase);
+        return (times != null) ? times[1] : -1;
+    }
+
+    public synchronized boolean isEnded(String phase) {
+        return getEndTime(phase) >= 0;
+    }
+
+    /** the time each phase has taken, or -1 for those which have not ended */
+    public synchronized Map<String, Long> getDurations() {
+        ImmutableMap.Builder<String, Long> result = ImmutableMap.builder();
+        for (Map.Entry<String, long[]> entry : phases.entrySet()) {
+            long[] times = entry.getValue();
+            result.put(entry.getKey(), (times[1] >= 0) ? times[1] - times[0] : -1);
+        }
+        return result.build();
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (phases.isEmpty()) return "no startup phases";
+        long first = phases.values().iterator().next()[0];
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : phases.entrySet()) {
+            long[] times = entry.getValue();
+            if (result.length() > 0) result.append(", ");
+            result.append(entry.getKey()).append(" +").append(times[0] - first).append("ms ");
+            result.append((times[1] >= 0) ? Time.makeTimeString(times[1] - times[0]) : "(running)");
+        }
+        return result.toString();
+    }
+}
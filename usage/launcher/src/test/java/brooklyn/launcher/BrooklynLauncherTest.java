@@ -18,6 +18,7 @@ import brooklyn.entity.proxying.EntitySpecs;
 import brooklyn.location.Location;
 import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
 import brooklyn.management.internal.LocalManagementContext;
+import brooklyn.test.Asserts;
 import brooklyn.test.HttpTestUtils;
 import brooklyn.test.entity.TestApplication;
 import brooklyn.test.entity.TestApplicationImpl;
@@ -139,6 +140,52 @@ public class BrooklynLauncherTest {
         assertEquals(launcher.getServerDetails().getManagementContext().getConfig().getFirst("mykey"), "myval");
     }
 
+    @Test
+    public void testFastStartRespectsPhaseOrdering() throws Exception {
+        launcher = BrooklynLauncher.newInstance()
+                .webconsole(false)
+                .fastStart(true)
+                .location("localhost")
+                .application(new ApplicationBuilder(EntitySpecs.spec(TestApplication.class)) {
+                        @Override protected void doBuild() {
+                        }})
+                .start();
+        
+        Application app = Iterables.find(launcher.getApplications(), Predicates.instanceOf(TestApplication.class));
+        assertOnlyLocation(app, LocalhostMachineProvisioningLocation.class);
+        
+        final StartupReport report = launcher.getStartupReport();
+        // everything needs the management context
+        long managementContextCreated = report.getEndTime(StartupReport.MANAGEMENT_CONTEXT);
+        assertTrue(managementContextCreated >= 0, "report="+report);
+        assertTrue(report.getBeginTime(StartupReport.LOCATIONS) >= managementContextCreated, "report="+report);
+        assertTrue(report.getBeginTime(StartupReport.APPLICATIONS) >= managementContextCreated, "report="+report);
+        assertTrue(report.getBeginTime(StartupReport.CATALOG) < 0 || report.getBeginTime(StartupReport.CATALOG) >= managementContextCreated, "report="+report);
+        // apps are started in the locations only once both are ready
+        long startApplications = report.getBeginTime(StartupReport.START_APPLICATIONS);
+        assertTrue(report.isEnded(StartupReport.LOCATIONS) && report.getEndTime(StartupReport.LOCATIONS) <= startApplications, "report="+report);
+        assertTrue(report.isEnded(StartupReport.APPLICATIONS) && report.getEndTime(StartupReport.APPLICATIONS) <= startApplications, "report="+report);
+        assertTrue(report.isEnded(StartupReport.START_APPLICATIONS), "report="+report);
+        // the catalog is not waited for, but is loaded in the background
+        Asserts.succeedsEventually(new Runnable() {
+            public void run() {
+                assertTrue(report.isEnded(StartupReport.CATALOG), "report="+report);
+            }});
+    }
+    
+    @Test
+    public void testRecordsPhasesInSequence() throws Exception {
+        launcher = BrooklynLauncher.newInstance()
+                .webconsole(false)
+                .location("localhost")
+                .start();
+        
+        StartupReport report = launcher.getStartupReport();
+        assertEquals(ImmutableList.copyOf(report.getPhases()), ImmutableList.of(StartupReport.MANAGEMENT_CONTEXT, 
+                StartupReport.LOCATIONS, StartupReport.APPLICATIONS, StartupReport.START_APPLICATIONS));
+        assertTrue(report.getBeginTime(StartupReport.APPLICATIONS) >= report.getEndTime(StartupReport.LOCATIONS), "report="+report);
+    }
+
     private void assertOnlyApp(BrooklynLauncher launcher, Class<? extends Application> expectedType) {
         assertEquals(launcher.getApplications().size(), 1, "apps="+launcher.getApplications());
         assertNotNull(Iterables.find(launcher.getApplications(), Predicates.instanceOf(TestApplication.class), null), "apps="+launcher.getApplications());
@@ -9,11 +9,15 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -21,6 +25,8 @@ import java.security.KeyStore;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.google.common.collect.ImmutableMap;
+
 public class BrooklynWebServerTest {
 
     public static final Logger log = LoggerFactory.getLogger(BrooklynWebServer.class);
@@ -49,6 +55,28 @@ public class BrooklynWebServerTest {
         }
     }
 
+    @Test
+    public void verifyGzipAndMetrics() throws Exception {
+        BrooklynWebServer webServer = new BrooklynWebServer(ImmutableMap.of("maxThreads", 20), new LocalManagementContext(brooklynProperties));
+        try {
+            webServer.start();
+            assertEquals(webServer.getServer().getThreadPool().getClass(), org.eclipse.jetty.util.thread.QueuedThreadPool.class);
+            assertEquals(((org.eclipse.jetty.util.thread.QueuedThreadPool) webServer.getServer().getThreadPool()).getMaxThreads(), 20);
+
+            DefaultHttpClient httpclient = new DefaultHttpClient();
+            HttpGet httpget = new HttpGet(webServer.getRootUrl());
+            httpget.addHeader("Accept-Encoding", "gzip");
+            HttpResponse response = httpclient.execute(httpget);
+            assertEquals(response.getFirstHeader("Content-Encoding").getValue(), "gzip");
+            EntityUtils.consume(response.getEntity());
+
+            Map<String, Object> metrics = webServer.getMetrics();
+            assertTrue(((Number) metrics.get("requests")).intValue() >= 1, "metrics="+metrics);
+        } finally {
+            webServer.stop();
+        }
+    }
+
     @Test
     public void verifyHttps() throws Exception {
         BrooklynWebServer webServer = buildWebServer();
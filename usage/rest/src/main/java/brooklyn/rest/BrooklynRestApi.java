@@ -12,6 +12,7 @@ import brooklyn.rest.resources.ApidocResource;
 import brooklyn.rest.resources.ApplicationResource;
 import brooklyn.rest.resources.CatalogResource;
 import brooklyn.rest.resources.EffectorResource;
+import brooklyn.rest.resources.EntityChangesResource;
 import brooklyn.rest.resources.EntityConfigResource;
 import brooklyn.rest.resources.EntityResource;
 import brooklyn.rest.resources.LocationResource;
@@ -19,6 +20,8 @@ import brooklyn.rest.resources.PolicyConfigResource;
 import brooklyn.rest.resources.PolicyResource;
 import brooklyn.rest.resources.ScriptResource;
 import brooklyn.rest.resources.SensorResource;
+import brooklyn.rest.resources.SensorValuesResource;
+import brooklyn.rest.resources.ServerResource;
 import brooklyn.rest.resources.VersionResource;
 
 import com.google.common.collect.Iterables;
@@ -33,12 +36,15 @@ public class BrooklynRestApi {
         resources.add(new EntityResource());
         resources.add(new EntityConfigResource());
         resources.add(new SensorResource());
+        resources.add(new SensorValuesResource());
         resources.add(new EffectorResource());
         resources.add(new PolicyResource());
         resources.add(new PolicyConfigResource());
         resources.add(new ActivityResource());
+        resources.add(new EntityChangesResource());
         resources.add(new ScriptResource());
         resources.add(new VersionResource());
+        resources.add(new ServerResource());
         return resources;
     }
 
@@ -32,4 +32,44 @@ public class BrooklynWebConfig {
         return new BasicConfigKey<String>(String.class, BASE_NAME+".security.explicit.user."+user);
     }
 
+    /** how long a successful authentication is remembered (so credentials sent again are not checked again), in seconds; 0 to disable */
+    public final static ConfigKey<Integer> SECURITY_CACHE_TTL_SECONDS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".security.cache.ttlSeconds", "time successful authentications are remembered", 300);
+
+    public final static ConfigKey<Integer> SECURITY_CACHE_MAX_SIZE = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".security.cache.maxSize", "number of authentication decisions remembered", 1000);
+
+    /** how long a failed authentication is remembered, doubling with each consecutive failure of the same credentials */
+    public final static ConfigKey<Integer> SECURITY_CACHE_FAILURE_BACKOFF_MILLIS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".security.cache.failureBackoffMillis", "initial time failed authentications are remembered", 1000);
+
+    public final static ConfigKey<Integer> SECURITY_CACHE_MAX_FAILURE_BACKOFF_MILLIS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".security.cache.maxFailureBackoffMillis", "longest time failed authentications are remembered", 60000);
+
+    /** the most threads serving requests to the web console and REST API (beyond which requests are queued) */
+    public final static ConfigKey<Integer> MAX_THREADS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".threads.max", "maximum number of threads serving web requests", 200);
+
+    public final static ConfigKey<Integer> MIN_THREADS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".threads.min", "minimum number of threads kept serving web requests", 8);
+
+    /** the most requests queued waiting for a thread, beyond which connections are rejected; -1 for unbounded */
+    public final static ConfigKey<Integer> MAX_QUEUED_REQUESTS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".threads.maxQueued", "maximum number of web requests queued waiting for a thread", 1000);
+
+    /** the number of threads accepting connections; -1 to choose from the number of processors */
+    public final static ConfigKey<Integer> ACCEPTORS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".acceptors", "number of threads accepting web connections", -1);
+
+    public final static ConfigKey<Integer> MAX_IDLE_TIME_MILLIS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".maxIdleTimeMillis", "time after which idle web connections are closed", 30000);
+
+    /** whether JSON, javascript, css and html responses are gzipped for clients which accept that */
+    public final static ConfigKey<Boolean> GZIP_ENABLED = new BasicConfigKey<Boolean>(Boolean.class,
+            BASE_NAME+".gzip.enabled", "whether web responses are compressed", true);
+
+    /** how long browsers may cache the console's static assets (under /assets/), in seconds; 0 to disable */
+    public final static ConfigKey<Integer> ASSETS_MAX_AGE_SECONDS = new BasicConfigKey<Integer>(Integer.class,
+            BASE_NAME+".assets.maxAgeSeconds", "time browsers may cache the web console's static assets", 3600);
+
 }
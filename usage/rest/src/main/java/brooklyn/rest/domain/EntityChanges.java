@@ -0,0 +1,65 @@
+package brooklyn.rest.domain;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The changes to an entity's sensors and activities since the previous response on a change stream;
+ * the first response on a stream holds their complete state.
+ */
+public class EntityChanges {
+
+  private final String streamId;
+  private final Map<String, Object> sensors;
+  private final List<TaskSummary> activities;
+  private final List<String> removedActivities;
+
+  public EntityChanges(
+      @JsonProperty("streamId") String streamId,
+      @JsonProperty("sensors") Map<String, Object> sensors,
+      @JsonProperty("activities") Collection<TaskSummary> activities,
+      @JsonProperty("removedActivities") Collection<String> removedActivities
+  ) {
+    this.streamId = streamId;
+    // sensor values may be null
+    this.sensors = (sensors != null) ? Maps.newLinkedHashMap(sensors) : ImmutableMap.<String, Object>of();
+    this.activities = (activities != null) ? ImmutableList.copyOf(activities) : ImmutableList.<TaskSummary>of();
+    this.removedActivities = (removedActivities != null) ? ImmutableList.copyOf(removedActivities) : ImmutableList.<String>of();
+  }
+
+  public String getStreamId() {
+    return streamId;
+  }
+
+  /** the current value of each sensor which has changed */
+  public Map<String, Object> getSensors() {
+    return sensors;
+  }
+
+  /** each activity which is new or whose status has changed */
+  public List<TaskSummary> getActivities() {
+    return activities;
+  }
+
+  /** the IDs of activities which are no longer recorded for the entity */
+  public List<String> getRemovedActivities() {
+    return removedActivities;
+  }
+
+  @Override
+  public String toString() {
+    return "EntityChanges{" +
+        "streamId='" + streamId + '\'' +
+        ", sensors=" + sensors.keySet() +
+        ", activities=" + activities.size() +
+        ", removedActivities=" + removedActivities.size() +
+        '}';
+  }
+}
@@ -4,7 +4,10 @@ import javax.servlet.ServletContext;
 import javax.ws.rs.core.Context;
 
 import brooklyn.config.BrooklynServiceAttributes;
+import brooklyn.management.EntityManager;
 import brooklyn.management.ManagementContext;
+import brooklyn.management.internal.EntityVersions;
+import brooklyn.management.internal.LocalEntityManager;
 import brooklyn.rest.util.BrooklynRestResourceUtils;
 
 public abstract class AbstractBrooklynRestResource {
@@ -39,5 +42,11 @@ public abstract class AbstractBrooklynRestResource {
         brooklynRestResourceUtils = new BrooklynRestResourceUtils(mgmt());
         return brooklynRestResourceUtils;
     }
+
+    /** the versions of the managed entities, or null if the management context does not keep them */
+    protected EntityVersions entityVersions() {
+        EntityManager entityManager = mgmt().getEntityManager();
+        return (entityManager instanceof LocalEntityManager) ? ((LocalEntityManager)entityManager).getEntityVersions() : null;
+    }
     
 }
@@ -1,20 +1,30 @@
 package brooklyn.rest.resources;
 
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 
 import brooklyn.entity.Entity;
+import brooklyn.management.ExecutionManager;
 import brooklyn.management.Task;
 import brooklyn.rest.apidoc.Apidoc;
 import brooklyn.rest.domain.TaskSummary;
 import brooklyn.rest.util.WebResourceUtils;
+import brooklyn.util.task.BasicExecutionManager;
 
-import com.google.common.collect.Collections2;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.wordnik.swagger.core.ApiError;
 import com.wordnik.swagger.core.ApiErrors;
 import com.wordnik.swagger.core.ApiOperation;
@@ -27,13 +37,107 @@ public class ActivityResource extends AbstractBrooklynRestResource {
 
   @GET
   @ApiOperation(
-      value = "Fetch list of activities for this application"
+      value = "Fetch list of activities for this application",
+      notes = "Activities are listed in order of submission, or newest first, and can be fetched a page at a time " +
+          "by giving a limit and, for each subsequent page, the ID of the last activity of the previous page.",
+      responseClass = "brooklyn.rest.domain.TaskSummary",
+      multiValueResponse = true
   )
+  @ApiErrors(value = {
+      @ApiError(code = 404, reason = "Could not find application or entity, or the 'after' activity is not one of its activities"),
+      @ApiError(code = 410, reason = "The 'after' activity is unknown or no longer retained"),
+      @ApiError(code = 412, reason = "Unknown status")
+  })
   public Iterable<TaskSummary> list(@PathParam("application") String applicationId,
-                                    @PathParam("entity") String entityId) {
+                                    @PathParam("entity") String entityId,
+          @ApiParam(value = "Only activities with this status: one of queued, active, done (successfully) or failed", required = false)
+          @QueryParam("status") final String status,
+          @ApiParam(value = "Only activities submitted at or after this time, in milliseconds since the epoch", required = false)
+          @QueryParam("from") final Long from,
+          @ApiParam(value = "Only activities submitted at or before this time, in milliseconds since the epoch", required = false)
+          @QueryParam("to") final Long to,
+          @ApiParam(value = "Only activities with this tag", required = false)
+          @QueryParam("tag") final String tag,
+          @ApiParam(value = "Whether to list the most recently submitted activities first", required = false)
+          @QueryParam("newestFirst") @DefaultValue("false") final boolean newestFirst,
+          @ApiParam(value = "Only activities after the activity with this ID, in the order listed", required = false)
+          @QueryParam("after") final String after,
+          @ApiParam(value = "The maximum number of activities to return, or 0 for all", required = false)
+          @QueryParam("limit") @DefaultValue("0") final int limit) {
       Entity entity = brooklyn().getEntity(applicationId, entityId);
-      Set<Task<?>> tasks = mgmt().getExecutionManager().getTasksWithTag(entity);
-      return Collections2.transform(tasks, TaskSummary.FROM_TASK);
+      Predicate<Task<?>> filter = Predicates.and(ImmutableList.of(
+          statusFilter(status), submittedBetween(from, to), taggedWith(tag)));
+      
+      ExecutionManager executionManager = mgmt().getExecutionManager();
+      Iterable<Task<?>> tasks;
+      if (executionManager instanceof BasicExecutionManager) {
+          tasks = ((BasicExecutionManager)executionManager).getTasksWithTag(entity, filter, newestFirst, after, limit);
+          if (tasks == null) throw unknownCursor(executionManager, entity, after);
+      } else {
+          List<Task<?>> all = Lists.newArrayList(executionManager.getTasksWithTag(entity));
+          if (newestFirst) Collections.reverse(all);
+          if (after != null) {
+              int index = Iterables.indexOf(all, withId(after));
+              if (index < 0) throw unknownCursor(executionManager, entity, after);
+              all = all.subList(index+1, all.size());
+          }
+          tasks = Iterables.filter(all, filter);
+          if (limit > 0) tasks = Iterables.limit(tasks, limit);
+      }
+      // summaries are made lazily, as each is written
+      return Iterables.transform(tasks, TaskSummary.FROM_TASK);
+  }
+
+  /** a client can tell a cursor which has expired (so should start again) from one which was never valid */
+  private static WebApplicationException unknownCursor(ExecutionManager executionManager, Entity entity, String after) {
+      if (executionManager.getTask(after) != null)
+          return WebResourceUtils.notFound("Activity '%s' is not an activity of entity '%s'", after, entity.getId());
+      return WebResourceUtils.gone("Activity '%s' is unknown or no longer retained; list from the start again", after);
+  }
+
+  private static Predicate<Task<?>> statusFilter(String status) {
+      if (status == null) return Predicates.alwaysTrue();
+      if ("queued".equals(status)) return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) { return !input.isBegun(); }
+      };
+      if ("active".equals(status)) return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) { return input.isBegun() && !input.isDone(); }
+      };
+      if ("done".equals(status)) return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) { return input.isDone() && !input.isError(); }
+      };
+      if ("failed".equals(status)) return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) { return input.isError(); }
+      };
+      throw WebResourceUtils.preconditionFailed("Unknown status '%s'; must be one of queued, active, done or failed", status);
+  }
+
+  private static Predicate<Task<?>> submittedBetween(final Long from, final Long to) {
+      if (from == null && to == null) return Predicates.alwaysTrue();
+      return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) {
+              long submitted = input.getSubmitTimeUtc();
+              return (from == null || submitted >= from) && (to == null || submitted <= to);
+          }
+      };
+  }
+
+  private static Predicate<Task<?>> taggedWith(final String tag) {
+      if (tag == null) return Predicates.alwaysTrue();
+      return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) {
+              for (Object t : input.getTags()) {
+                  if (tag.equals(String.valueOf(t))) return true;
+              }
+              return false;
+          }
+      };
+  }
+
+  private static Predicate<Task<?>> withId(final String id) {
+      return new Predicate<Task<?>>() {
+          @Override public boolean apply(Task<?> input) { return id.equals(input.getId()); }
+      };
   }
 
   @GET
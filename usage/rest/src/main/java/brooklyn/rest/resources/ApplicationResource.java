@@ -5,7 +5,10 @@ import static javax.ws.rs.core.Response.created;
 import static javax.ws.rs.core.Response.status;
 import static javax.ws.rs.core.Response.Status.ACCEPTED;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.Collection;
+import java.util.List;
 
 import javax.validation.Valid;
 import javax.ws.rs.DELETE;
@@ -14,28 +17,31 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.ArrayNode;
-import org.codehaus.jackson.node.ObjectNode;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import brooklyn.entity.Application;
 import brooklyn.entity.Entity;
 import brooklyn.management.Task;
+import brooklyn.management.internal.EntityVersions;
 import brooklyn.rest.apidoc.Apidoc;
 import brooklyn.rest.domain.ApplicationSpec;
 import brooklyn.rest.domain.ApplicationSummary;
 import brooklyn.rest.domain.EntitySpec;
 import brooklyn.rest.domain.TaskSummary;
 import brooklyn.rest.util.BrooklynRestResourceUtils;
+import brooklyn.rest.util.StreamingJson;
 import brooklyn.rest.util.WebResourceUtils;
 
-import com.google.common.collect.Collections2;
 import com.wordnik.swagger.core.ApiError;
 import com.wordnik.swagger.core.ApiErrors;
 import com.wordnik.swagger.core.ApiOperation;
@@ -47,36 +53,103 @@ import com.wordnik.swagger.core.ApiParam;
 public class ApplicationResource extends AbstractBrooklynRestResource {
 
   private static final Logger log = LoggerFactory.getLogger(ApplicationResource.class);
-  
-  private final ObjectMapper mapper = new ObjectMapper();
 
   @GET
   @Path("/tree")
   @ApiOperation(
-      value = "Fetch applications and entities tree hierarchy"
+      value = "Fetch applications and entities tree hierarchy",
+      notes = "Responses have an ETag, which changes whenever the tree does, so can be fetched conditionally with If-None-Match. " +
+          "With 'since', returns only the entities added, changed or removed since that version, as an object with " +
+          "the 'version' to use as 'since' in the next request, the 'changed' entities (each with the IDs of its parent and children " +
+          "rather than its children's subtrees), and the IDs of the 'removed' entities; if 'reset' is true, the changes are " +
+          "the complete tree and the client should discard what it has. Versions are opaque, and one from before the server " +
+          "restarted resets."
   )
-  public JsonNode applicationTree() {
-    ArrayNode apps = mapper.createArrayNode();
-    for (Application application : mgmt().getApplications())
-      apps.add(recursiveTreeFromEntity(application));
-    return apps;
-  }
-  private JsonNode recursiveTreeFromEntity(Entity entity) {
-    ObjectNode aRoot = mapper.createObjectNode();
-    aRoot.put("name", entity.getDisplayName());
-    aRoot.put("id", entity.getId());
-    aRoot.put("type", entity.getEntityType().getName());
-    if (entity.getChildren().size() != 0) {
-      aRoot.put("children", childEntitiesAsArray(entity));
+  public Response applicationTree(
+      @Context Request request,
+      @ApiParam(value = "Version the client already has, from a previous response", required = false)
+      @QueryParam("since") String since) {
+    EntityVersions versions = entityVersions();
+    EntityTag tag = WebResourceUtils.versionTag(versions, versions != null ? versions.getHierarchyVersion() : 0);
+    Response notModified = WebResourceUtils.notModified(request, tag);
+    if (notModified != null) return notModified;
+
+    if (since == null) {
+      return WebResourceUtils.ok(treeOf(mgmt().getApplications()), tag);
+    } else {
+      return WebResourceUtils.ok(treeChangesSince(versions, versions != null ? WebResourceUtils.parseVersionToken(versions, since) : null), tag);
     }
-    return aRoot;
   }
-  private ArrayNode childEntitiesAsArray(Entity entity) {
-    ArrayNode node = mapper.createArrayNode();
-    for (Entity e : entity.getChildren()) {
-      node.add(recursiveTreeFromEntity(e));
+  /** the tree of each application, written entity by entity (rather than as a tree of nodes built first) */
+  private StreamingOutput treeOf(final Collection<Application> applications) {
+    return StreamingJson.of(new StreamingJson.JsonWriter() {
+      @Override
+      public void write(JsonGenerator json) throws IOException {
+        json.writeStartArray();
+        for (Application application : applications)
+          writeTree(json, application);
+        json.writeEndArray();
+      }
+    });
+  }
+  private void writeTree(JsonGenerator json, Entity entity) throws IOException {
+    json.writeStartObject();
+    json.writeStringField("name", entity.getDisplayName());
+    json.writeStringField("id", entity.getId());
+    json.writeStringField("type", entity.getEntityType().getName());
+    Collection<Entity> children = entity.getChildren();
+    if (children.size() != 0) {
+      json.writeArrayFieldStart("children");
+      for (Entity child : children)
+        writeTree(json, child);
+      json.writeEndArray();
     }
-    return node;
+    json.writeEndObject();
+  }
+  /** the changes since the given version, or the complete tree if it is null (i.e. not known) */
+  private StreamingOutput treeChangesSince(EntityVersions versions, Long since) {
+    // read the version first, so that anything changing while the changes are gathered is sent again next time
+    final String version = (versions != null) ? WebResourceUtils.versionToken(versions, versions.getVersion()) : null;
+    final List<String> removed = (versions != null && since != null) ? versions.getRemovedSince(since) : null;
+    final Iterable<String> changedIds = (removed == null) ? null : versions.getChangedSince(since);
+
+    return StreamingJson.of(new StreamingJson.JsonWriter() {
+      @Override
+      public void write(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("version", version);
+        json.writeBooleanField("reset", removed == null);
+        json.writeArrayFieldStart("changed");
+        if (changedIds == null) {
+          for (Entity entity : mgmt().getEntityManager().getEntities())
+            writeChange(json, entity);
+        } else {
+          for (String id : changedIds) {
+            Entity entity = mgmt().getEntityManager().getEntity(id);
+            if (entity != null) writeChange(json, entity);
+          }
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("removed");
+        if (removed != null) {
+          for (String id : removed) json.writeString(id);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+    });
+  }
+  private void writeChange(JsonGenerator json, Entity entity) throws IOException {
+    json.writeStartObject();
+    json.writeStringField("name", entity.getDisplayName());
+    json.writeStringField("id", entity.getId());
+    json.writeStringField("type", entity.getEntityType().getName());
+    json.writeStringField("parentId", entity.getParent() != null ? entity.getParent().getId() : null);
+    json.writeArrayFieldStart("childIds");
+    for (Entity child : entity.getChildren())
+      json.writeString(child.getId());
+    json.writeEndArray();
+    json.writeEndObject();
   }
 
   @GET
@@ -84,8 +157,16 @@ public class ApplicationResource extends AbstractBrooklynRestResource {
       value = "Fetch list of applications",
       responseClass = "brooklyn.rest.domain.ApplicationSummary"
   )
-  public Iterable<ApplicationSummary> list() {
-    return Collections2.transform(mgmt().getApplications(), ApplicationSummary.FROM_APPLICATION);
+  public Response list(@Context Request request) {
+    Collection<Application> applications = mgmt().getApplications();
+    EntityVersions versions = entityVersions();
+    // removing an application changes the hierarchy, so the greatest of these changes whenever the list does
+    EntityTag tag = WebResourceUtils.versionTag(versions, versions != null ? 
+        Math.max(versions.getHierarchyVersion(), versions.getMaxVersion(applications)) : 0);
+    Response notModified = WebResourceUtils.notModified(request, tag);
+    if (notModified != null) return notModified;
+
+    return WebResourceUtils.ok(StreamingJson.array(applications, ApplicationSummary.FROM_APPLICATION), tag);
   }
 
   @GET
@@ -97,12 +178,19 @@ public class ApplicationResource extends AbstractBrooklynRestResource {
   @ApiErrors(value = {
       @ApiError(code = 404, reason = "Application not found")
   })
-  public ApplicationSummary get(
+  public Response get(
+          @Context Request request,
           @ApiParam(
               value = "ID or name of application whose details will be returned",
               required = true)
           @PathParam("application") String application) {
-      return ApplicationSummary.fromApplication(brooklyn().getApplication(application));
+      Application app = brooklyn().getApplication(application);
+      EntityVersions versions = entityVersions();
+      EntityTag tag = WebResourceUtils.versionTag(versions, versions != null ? versions.getVersion(app.getId()) : 0);
+      Response notModified = WebResourceUtils.notModified(request, tag);
+      if (notModified != null) return notModified;
+
+      return WebResourceUtils.ok(ApplicationSummary.fromApplication(app), tag);
   }
 
   @POST
@@ -0,0 +1,74 @@
+package brooklyn.rest.resources;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.rest.apidoc.Apidoc;
+import brooklyn.rest.domain.EntityChanges;
+import brooklyn.rest.util.EntityChangeStream;
+import brooklyn.rest.util.EntityChangeStreams;
+import brooklyn.util.exceptions.Exceptions;
+
+import com.wordnik.swagger.core.ApiError;
+import com.wordnik.swagger.core.ApiErrors;
+import com.wordnik.swagger.core.ApiOperation;
+import com.wordnik.swagger.core.ApiParam;
+
+@Path("/v1/applications/{application}/entities/{entity}/changes")
+@Apidoc("Entity changes")
+@Produces(MediaType.APPLICATION_JSON)
+public class EntityChangesResource extends AbstractBrooklynRestResource {
+
+  /** the longest a poll may wait; proxies commonly drop requests idle for longer */
+  public static final long MAX_TIMEOUT_MILLIS = 60*1000;
+
+  /** streams not polled for this long are closed */
+  public static final long MAX_IDLE_MILLIS = 2*MAX_TIMEOUT_MILLIS;
+
+  private final EntityChangeStreams streams = new EntityChangeStreams(MAX_IDLE_MILLIS);
+
+  @GET
+  @ApiOperation(value = "Wait for changes to the sensors and activities of an entity",
+      responseClass = "brooklyn.rest.domain.EntityChanges",
+      notes = "Without a stream ID (or with one which has expired), opens a new stream and returns the current value of every sensor " +
+          "and every activity, with the new stream's ID. With a stream ID, waits until something changes (or the timeout passes) " +
+          "and returns only what has changed since the previous response on that stream. " +
+          "Sensor changes are conflated, so only the latest value of each changed sensor is returned.")
+  @ApiErrors(value = {
+      @ApiError(code = 404, reason = "Could not find application or entity")
+  })
+  public EntityChanges poll(
+      @ApiParam(value = "Application ID or name", required = true)
+      @PathParam("application") final String application,
+      @ApiParam(value = "Entity ID or name", required = true)
+      @PathParam("entity") final String entityToken,
+      @ApiParam(value = "ID of the stream, from a previous response", required = false)
+      @QueryParam("stream") final String streamId,
+      @ApiParam(value = "Maximum time to wait for changes, in milliseconds", required = false)
+      @QueryParam("timeout") @DefaultValue("25000") final long timeout,
+      @ApiParam(value = "Whether a new stream should include sensor values", required = false)
+      @QueryParam("sensors") @DefaultValue("true") final boolean includeSensors,
+      @ApiParam(value = "Whether a new stream should include activities", required = false)
+      @QueryParam("activities") @DefaultValue("true") final boolean includeActivities
+  ) {
+    final EntityLocal entity = brooklyn().getEntity(application, entityToken);
+    EntityChangeStream stream = (streamId != null) ? streams.get(streamId) : null;
+    long waitMillis = Math.max(0, Math.min(timeout, MAX_TIMEOUT_MILLIS));
+    if (stream == null || stream.isClosed() || !stream.getEntity().getId().equals(entity.getId())) {
+      stream = streams.open(mgmt(), entity, includeSensors, includeActivities);
+      waitMillis = 0;
+    }
+    try {
+      return stream.poll(waitMillis);
+    } catch (InterruptedException e) {
+      throw Exceptions.propagate(e);
+    }
+  }
+
+}
@@ -1,20 +1,25 @@
 package brooklyn.rest.resources;
 
-import static com.google.common.collect.Iterables.transform;
-
-import java.util.List;
+import java.util.Collection;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import brooklyn.entity.Entity;
+import brooklyn.management.internal.EntityVersions;
 import brooklyn.rest.apidoc.Apidoc;
 import brooklyn.rest.domain.EntitySummary;
+import brooklyn.rest.util.StreamingJson;
+import brooklyn.rest.util.WebResourceUtils;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import com.wordnik.swagger.core.ApiError;
 import com.wordnik.swagger.core.ApiErrors;
 import com.wordnik.swagger.core.ApiOperation;
@@ -32,10 +37,11 @@ public class EntityResource extends AbstractBrooklynRestResource {
   @ApiErrors(value = {
       @ApiError(code = 404, reason = "Application not found")
   })
-  public List<EntitySummary> list(
+  public Response list(
+      @Context Request request,
       @ApiParam(value = "Application ID or name", required = true)
       @PathParam("application") final String application) {
-    return summaryForChildrenEntities(brooklyn().getApplication(application));
+    return summaryForChildrenEntities(request, brooklyn().getApplication(application));
   }
 
   @GET
@@ -45,33 +51,54 @@ public class EntityResource extends AbstractBrooklynRestResource {
   @ApiErrors(value = {
       @ApiError(code = 404, reason = "Application or entity missing")
   })
-  public EntitySummary get(
+  public Response get(
+      @Context Request request,
       @ApiParam(value = "Application ID or name", required = true)
       @PathParam("application") String application,
       @ApiParam(value = "Entity ID or name", required = true)
       @PathParam("entity") String entity
   ) {
-    return EntitySummary.fromEntity(brooklyn().getEntity(application, entity));
+    Entity e = brooklyn().getEntity(application, entity);
+    EntityVersions versions = entityVersions();
+    EntityTag tag = WebResourceUtils.versionTag(versions, versions != null ? versions.getVersion(e.getId()) : 0);
+    Response notModified = WebResourceUtils.notModified(request, tag);
+    if (notModified != null) return notModified;
+
+    return WebResourceUtils.ok(EntitySummary.fromEntity(e), tag);
   }
 
   // TODO rename as "/children" ?
   @GET
   @Path("/{entity}/entities")
-  public Iterable<EntitySummary> getChildren(
+  public Response getChildren(
+      @Context Request request,
       @PathParam("application") final String application,
       @PathParam("entity") final String entity
   ) {
-    return summaryForChildrenEntities(brooklyn().getEntity(application, entity));
+    return summaryForChildrenEntities(request, brooklyn().getEntity(application, entity));
+  }
+
+  private Response summaryForChildrenEntities(Request request, Entity rootEntity) {
+    Collection<Entity> children = rootEntity.getChildren();
+    EntityVersions versions = entityVersions();
+    // a change to the children changes the root entity, so the greatest of these changes whenever the list does
+    EntityTag tag = WebResourceUtils.versionTag(versions, versions != null ? 
+        Math.max(versions.getVersion(rootEntity.getId()), versions.getMaxVersion(children)) : 0);
+    Response notModified = WebResourceUtils.notModified(request, tag);
+    if (notModified != null) return notModified;
+
+    return WebResourceUtils.ok(summaries(children), tag);
   }
 
-  private List<EntitySummary> summaryForChildrenEntities(Entity rootEntity) {
-    return Lists.newArrayList(transform(
-        rootEntity.getChildren(),
-        new Function<Entity, EntitySummary>() {
-          @Override
-          public EntitySummary apply(Entity entity) {
-            return EntitySummary.fromEntity(entity);
-          }
-        }));
+  /** the summaries are written as they are made, rather than all being made first */
+  private StreamingOutput summaries(Collection<Entity> entities) {
+    return StreamingJson.array(entities, FROM_ENTITY);
   }
+
+  private static final Function<Entity, EntitySummary> FROM_ENTITY = new Function<Entity, EntitySummary>() {
+    @Override
+    public EntitySummary apply(Entity entity) {
+      return EntitySummary.fromEntity(entity);
+    }
+  };
 }
@@ -1,25 +1,33 @@
 package brooklyn.rest.resources;
 
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import brooklyn.rest.apidoc.Apidoc;
+import brooklyn.rest.domain.ApiError;
 import brooklyn.rest.domain.ScriptExecutionSummary;
-import brooklyn.util.stream.ThreadLocalPrintStream;
-import brooklyn.util.stream.ThreadLocalPrintStream.OutputCapturingContext;
+import brooklyn.rest.util.GroovyScriptRunner;
+import brooklyn.rest.util.GroovyScriptRunner.Outcome;
 
 import com.wordnik.swagger.core.ApiOperation;
 import com.wordnik.swagger.core.ApiParam;
@@ -34,6 +42,11 @@ public class ScriptResource extends AbstractBrooklynRestResource {
     public static final String USER_DATA_MAP_SESSION_ATTRIBUTE = "brooklyn.script.groovy.user.data";
     public static final String USER_LAST_VALUE_SESSION_ATTRIBUTE = "brooklyn.script.groovy.user.last";
     
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5*60*1000;
+    
+    /** compiles scripts once, and runs them on its own threads rather than the request's */
+    private final GroovyScriptRunner runner = new GroovyScriptRunner();
+    
     @SuppressWarnings("rawtypes")
     @POST
     @Path("/groovy")
@@ -41,6 +54,8 @@ public class ScriptResource extends AbstractBrooklynRestResource {
         responseClass = "brooklyn.rest.domain.SensorSummary")
     public ScriptExecutionSummary groovy(
             @Context HttpServletRequest request,
+            @ApiParam(value = "Maximum time to wait for the script to complete, in milliseconds, after which it is interrupted", required = false)
+            @QueryParam("timeout") Long timeoutMillis,
             @ApiParam(name = "script", value = "Groovy script to execute", required = true)
             String script
             ) {
@@ -65,37 +80,48 @@ public class ScriptResource extends AbstractBrooklynRestResource {
             binding.setVariable("last", last);
         }
         
-        GroovyShell shell = new GroovyShell(binding);
-
-        OutputCapturingContext stdout = ThreadLocalPrintStream.stdout().capture();
-        OutputCapturingContext stderr = ThreadLocalPrintStream.stderr().capture();
-
-        Object value = null;
-        Throwable problem = null;
+        Outcome outcome;
         try {
-            value = shell.evaluate(script);
-            if (session!=null)
-                session.setAttribute(USER_LAST_VALUE_SESSION_ATTRIBUTE, value);
-        } catch (Throwable t) {
-            problem = t;
-        } finally {
-            stdout.end();
-            stderr.end();
+            long timeout = (timeoutMillis != null && timeoutMillis > 0) ? timeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+            outcome = runner.run(script, binding, timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(new ApiError("Too many scripts are running; try again later")).build());
         }
+        Object value = outcome.result;
+        Throwable problem = outcome.problem;
+        if (session!=null && problem==null)
+            session.setAttribute(USER_LAST_VALUE_SESSION_ATTRIBUTE, value);
 
         if (log.isDebugEnabled()) {
             log.debug("Web REST user-supplied script completed:\n"+
                     (value!=null ? "RESULT: "+value.toString()+"\n" : "")+ 
                     (problem!=null ? "ERROR: "+problem.toString()+"\n" : "")+
-                    (!stdout.isEmpty() ? "STDOUT: "+stdout.toString()+"\n" : "")+
-                    (!stderr.isEmpty() ? "STDERR: "+stderr.toString()+"\n" : ""));
+                    (!outcome.stdout.isEmpty() ? "STDOUT: "+outcome.stdout+"\n" : "")+
+                    (!outcome.stderr.isEmpty() ? "STDERR: "+outcome.stderr+"\n" : ""));
         }
 
         // call toString on the result, in case it is not serializable
         return new ScriptExecutionSummary(
                 value!=null ? value.toString() : null, 
                         problem!=null ? problem.toString() : null,
-                                stdout.toString(), stderr.toString());
+                                outcome.stdout, outcome.stderr);
+    }
+
+    @GET
+    @Path("/groovy/metrics")
+    @ApiOperation(value = "Fetch metrics of groovy script execution",
+        notes = "Includes the number of cached compiled scripts, the cache hit rate, mean compile and execution times, timeouts, " +
+            "and the number of scripts abandoned after timing out which are still running (stuck)")
+    public Map<String, Object> groovyMetrics() {
+        return runner.getMetrics();
+    }
+
+    /** interrupts any scripts still running, and rejects further scripts; called when the web app is stopped */
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
     }
 
 }
@@ -3,14 +3,17 @@ package brooklyn.rest.resources;
 import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.transform;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.codehaus.jackson.JsonGenerator;
 
 import brooklyn.entity.basic.EntityLocal;
 import brooklyn.event.AttributeSensor;
@@ -19,11 +22,11 @@ import brooklyn.event.basic.BasicAttributeSensor;
 import brooklyn.rest.apidoc.Apidoc;
 import brooklyn.rest.domain.SensorSummary;
 import brooklyn.rest.util.JsonUtils;
+import brooklyn.rest.util.StreamingJson;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.wordnik.swagger.core.ApiError;
 import com.wordnik.swagger.core.ApiErrors;
 import com.wordnik.swagger.core.ApiOperation;
@@ -68,28 +71,35 @@ public class SensorResource extends AbstractBrooklynRestResource {
   @GET
   @Path("/current-state")
   @ApiOperation(value = "Fetch sensor values in batch", notes="Returns a map of sensor name to value")
-  public Map<String, Object> batchSensorRead(
+  public Response batchSensorRead(
           @ApiParam(value = "Application ID or name", required = true)
           @PathParam("application") final String application,
           @ApiParam(value = "Entity ID or name", required = true)
           @PathParam("entity") final String entityToken
       ) {
     final EntityLocal entity = brooklyn().getEntity(application, entityToken);
-    Map<String, Object> sensorMap = Maps.newHashMap();
-    List<Sensor<?>> sensors = Lists.newArrayList(filter(entity.getEntityType().getSensors(),
+    final Iterable<Sensor<?>> sensors = filter(entity.getEntityType().getSensors(),
         new Predicate<Sensor<?>>() {
           @Override
           public boolean apply(@Nullable Sensor<?> input) {
             return input instanceof AttributeSensor;
           }
-        }));
+        });
 
-    for (Sensor<?> sensor : sensors) {
-      Object value = entity.getAttribute(findSensor(entity, sensor.getName()));
-      // TODO type
-      sensorMap.put(sensor.getName(), JsonUtils.toJsonable(value));
-    }
-    return sensorMap;
+    // each value is written as it is read, rather than all being put in a map first
+    return Response.ok(StreamingJson.of(new StreamingJson.JsonWriter() {
+      @Override
+      public void write(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        for (Sensor<?> sensor : sensors) {
+          Object value = entity.getAttribute((AttributeSensor<?>) sensor);
+          // TODO type
+          json.writeFieldName(sensor.getName());
+          json.writeObject(JsonUtils.toJsonable(value));
+        }
+        json.writeEndObject();
+      }
+    })).build();
   }
 
   @GET
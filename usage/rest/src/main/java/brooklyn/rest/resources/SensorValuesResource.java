@@ -0,0 +1,169 @@
+package brooklyn.rest.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import brooklyn.entity.Entity;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.Sensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.rest.apidoc.Apidoc;
+import brooklyn.rest.util.JsonUtils;
+import brooklyn.rest.util.WebResourceUtils;
+import brooklyn.util.text.WildcardGlobs;
+import brooklyn.util.text.WildcardGlobs.InvalidPatternException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.wordnik.swagger.core.ApiError;
+import com.wordnik.swagger.core.ApiErrors;
+import com.wordnik.swagger.core.ApiOperation;
+import com.wordnik.swagger.core.ApiParam;
+
+@Path("/v1/sensors")
+@Apidoc("Sensor values")
+@Produces(MediaType.APPLICATION_JSON)
+public class SensorValuesResource extends AbstractBrooklynRestResource {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final JsonFactory jsonFactory = mapper.getJsonFactory();
+
+  @GET
+  @Path("/current-state")
+  @ApiOperation(value = "Fetch the values of sensors of many entities at once",
+      notes = "Returns an object with a list of the 'sensors' (the columns), a list of the IDs of the 'entities' (the rows), " +
+          "and the 'values', a list of rows each with the value of each sensor of that entity (null if it has no value). " +
+          "Entities which are not found are omitted.")
+  @ApiErrors(value = {
+      @ApiError(code = 412, reason = "No entities given, or invalid sensor pattern")
+  })
+  public Response currentState(
+      @ApiParam(value = "Entity IDs", required = false)
+      @QueryParam("entity") final List<String> entityIds,
+      @ApiParam(value = "ID of an entity whose descendants (and itself) are included", required = false)
+      @QueryParam("root") final String rootId,
+      @ApiParam(value = "Sensor names, or glob patterns such as 'webapp.*'; all sensors if none are given", required = false)
+      @QueryParam("sensor") final List<String> sensorPatterns
+  ) {
+    if ((entityIds == null || entityIds.isEmpty()) && rootId == null)
+      throw WebResourceUtils.preconditionFailed("Must supply entity IDs or a root entity ID");
+
+    // each entity is looked up in the entity manager's index by id, rather than searched for by application
+    final Set<Entity> entities = Sets.newLinkedHashSet();
+    if (entityIds != null) {
+      for (String id : entityIds) {
+        Entity entity = mgmt().getEntityManager().getEntity(id);
+        if (entity != null) entities.add(entity);
+      }
+    }
+    if (rootId != null) {
+      Entity root = mgmt().getEntityManager().getEntity(rootId);
+      if (root != null) addWithDescendants(root, entities);
+    }
+
+    final List<AttributeSensor<?>> columns = columns(entities, sensorPatterns);
+
+    StreamingOutput output = new StreamingOutput() {
+      @Override
+      public void write(OutputStream out) throws IOException, WebApplicationException {
+        // compression (if the client accepts it) is left to the web server's gzip handler
+        JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        json.setCodec(mapper);
+        json.writeStartObject();
+        json.writeArrayFieldStart("sensors");
+        for (AttributeSensor<?> sensor : columns) json.writeString(sensor.getName());
+        json.writeEndArray();
+        json.writeArrayFieldStart("entities");
+        for (Entity entity : entities) json.writeString(entity.getId());
+        json.writeEndArray();
+        json.writeArrayFieldStart("values");
+        for (Entity entity : entities) {
+          json.writeStartArray();
+          for (AttributeSensor<?> sensor : columns) {
+            json.writeObject(JsonUtils.toJsonable(entity.getAttribute(sensor)));
+          }
+          json.writeEndArray();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+      }
+    };
+
+    return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
+  private static void addWithDescendants(Entity entity, Collection<Entity> result) {
+    result.add(entity);
+    for (Entity child : entity.getChildren()) {
+      addWithDescendants(child, result);
+    }
+  }
+
+  /**
+   * The attribute sensors of the given entities which match the given names or patterns, in the order first found;
+   * names which are not patterns are always included, even if no entity declares them.
+   */
+  private static List<AttributeSensor<?>> columns(Iterable<Entity> entities, List<String> patterns) {
+    Map<String, AttributeSensor<?>> result = Maps.newLinkedHashMap();
+    List<String> globs = Lists.newArrayList();
+    boolean all = (patterns == null || patterns.isEmpty());
+    if (!all) {
+      for (String pattern : patterns) {
+        if (isGlob(pattern)) globs.add(pattern);
+        else result.put(pattern, new BasicAttributeSensor<Object>(Object.class, pattern));
+      }
+    }
+    if (!all && globs.isEmpty()) return Lists.newArrayList(result.values());
+
+    // entities of the same type have the same sensors, so each name need only be matched once
+    Map<String, Boolean> matches = Maps.newHashMap();
+    for (Entity entity : entities) {
+      for (Sensor<?> sensor : entity.getEntityType().getSensors()) {
+        if (!(sensor instanceof AttributeSensor)) continue;
+        String name = sensor.getName();
+        Boolean matched = matches.get(name);
+        if (matched == null) {
+          matched = all || matchesAny(globs, name);
+          matches.put(name, matched);
+        }
+        if (matched && !result.containsKey(name)) result.put(name, (AttributeSensor<?>) sensor);
+      }
+    }
+    return Lists.newArrayList(result.values());
+  }
+
+  private static boolean isGlob(String pattern) {
+    return pattern.contains("*") || pattern.contains("?") || pattern.contains("{");
+  }
+
+  private static boolean matchesAny(List<String> globs, String name) {
+    try {
+      for (String glob : globs) {
+        if (WildcardGlobs.isGlobMatched(glob, name)) return true;
+      }
+      return false;
+    } catch (InvalidPatternException e) {
+      throw WebResourceUtils.preconditionFailed("Invalid sensor pattern: %s", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package brooklyn.rest.resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import brooklyn.config.BrooklynServiceAttributes;
+import brooklyn.rest.apidoc.Apidoc;
+
+import com.wordnik.swagger.core.ApiOperation;
+
+@Path("/v1/server")
+@Apidoc("Server")
+@Produces(MediaType.APPLICATION_JSON)
+public class ServerResource extends AbstractBrooklynRestResource {
+
+  @GET
+  @Path("/status")
+  @ApiOperation(value = "Return the startup status of this Brooklyn instance",
+      notes = "One of 'starting' (the REST API is available but the launcher is still creating or starting applications), " +
+          "'running', or 'failed' (some applications could not be started)",
+      responseClass = "String", multiValueResponse = false)
+  public String getStatus() {
+    Object status = (servletContext != null) ? servletContext.getAttribute(BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS) : null;
+    // not started by a launcher, so nothing is pending
+    return (status != null) ? status.toString() : BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_RUNNING;
+  }
+
+}
@@ -0,0 +1,171 @@
+package brooklyn.rest.security.provider;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+
+/**
+ * A {@link SecurityProvider} which remembers the decisions of another, so that clients which send credentials
+ * with every request (rather than keeping a session) do not cause the other to check them every time,
+ * which for {@link LdapSecurityProvider} means a bind to the directory.
+ * <p>
+ * Successful authentications are remembered for a time, keyed by the user and a salted hash of the password
+ * (the password itself is not kept). Failures are remembered too, for a time which doubles with each consecutive
+ * failure of the same credentials (up to a maximum), so retrying bad credentials does not reach the other provider.
+ * <p>
+ * Sessions authenticated from the cache are marked as authenticated by this provider, as well as by the other
+ * when it authenticated them.
+ */
+public class CachingSecurityProvider implements SecurityProvider {
+
+    public static final Logger log = LoggerFactory.getLogger(CachingSecurityProvider.class);
+
+    public static final String AUTHENTICATED_SESSION_TOKEN_NAME = CachingSecurityProvider.class.getCanonicalName()+":"+"AUTHENTICATED";
+
+    private static class Failure {
+        final int count;
+        final long retryAfterNanos;
+
+        Failure(int count, long retryAfterNanos) {
+            this.count = count;
+            this.retryAfterNanos = retryAfterNanos;
+        }
+    }
+
+    private final SecurityProvider delegate;
+    private final Ticker ticker;
+    private final long failureBackoffNanos;
+    private final long maxFailureBackoffNanos;
+    private final byte[] salt = new byte[16];
+
+    private final Cache<String, Boolean> successes;
+    private final Cache<String, Failure> failures;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failureHits = new AtomicLong();
+
+    public CachingSecurityProvider(SecurityProvider delegate, int maxSize, long ttl, long failureBackoff, long maxFailureBackoff, TimeUnit unit) {
+        this(delegate, maxSize, ttl, failureBackoff, maxFailureBackoff, unit, Ticker.systemTicker());
+    }
+
+    public CachingSecurityProvider(SecurityProvider delegate, int maxSize, long ttl, long failureBackoff, long maxFailureBackoff, TimeUnit unit, Ticker ticker) {
+        this.delegate = delegate;
+        this.ticker = ticker;
+        this.failureBackoffNanos = unit.toNanos(failureBackoff);
+        this.maxFailureBackoffNanos = Math.max(failureBackoffNanos, unit.toNanos(maxFailureBackoff));
+        new SecureRandom().nextBytes(salt);
+        successes = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, unit)
+                .ticker(ticker)
+                .build();
+        // a failure is forgotten once it has been backed off for the longest time without being retried
+        failures = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(2*maxFailureBackoffNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    public SecurityProvider getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isAuthenticated(HttpSession session) {
+        if (session == null) return false;
+        if (Boolean.TRUE.equals(session.getAttribute(AUTHENTICATED_SESSION_TOKEN_NAME))) return true;
+        return delegate.isAuthenticated(session);
+    }
+
+    @Override
+    public boolean authenticate(HttpSession session, String user, String password) {
+        // anonymous requests are the delegate's to decide (and are cheap), so are not remembered
+        if (session == null || user == null || password == null) return delegate.authenticate(session, user, password);
+
+        String key = key(user, password);
+        if (successes.getIfPresent(key) != null) {
+            hits.incrementAndGet();
+            session.setAttribute(AUTHENTICATED_SESSION_TOKEN_NAME, true);
+            return true;
+        }
+        Failure failure = failures.getIfPresent(key);
+        if (failure != null && ticker.read() < failure.retryAfterNanos) {
+            failureHits.incrementAndGet();
+            return false;
+        }
+
+        misses.incrementAndGet();
+        if (delegate.authenticate(session, user, password)) {
+            failures.invalidate(key);
+            successes.put(key, true);
+            return true;
+        } else {
+            int count = (failure == null) ? 1 : failure.count + 1;
+            long backoff = Math.min(maxFailureBackoffNanos, failureBackoffNanos << Math.min(count-1, 30));
+            failures.put(key, new Failure(count, ticker.read() + backoff));
+            log.debug("Web console remembering failed authentication of user "+user+" (attempt "+count+") for "+
+                    TimeUnit.NANOSECONDS.toMillis(backoff)+"ms");
+            return false;
+        }
+    }
+
+    @Override
+    public boolean logout(HttpSession session) {
+        if (session != null) session.removeAttribute(AUTHENTICATED_SESSION_TOKEN_NAME);
+        return delegate.logout(session);
+    }
+
+    /** forgets all decisions about the given user, e.g. when their password or permissions change */
+    public void invalidate(String user) {
+        String prefix = user+":";
+        for (String key : successes.asMap().keySet()) {
+            if (key.startsWith(prefix)) successes.invalidate(key);
+        }
+        for (String key : failures.asMap().keySet()) {
+            if (key.startsWith(prefix)) failures.invalidate(key);
+        }
+    }
+
+    /** forgets all decisions */
+    public void invalidateAll() {
+        successes.invalidateAll();
+        failures.invalidateAll();
+    }
+
+    public Map<String, Object> getMetrics() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        return ImmutableMap.<String, Object>builder()
+                .put("cachedSuccesses", successes.size())
+                .put("cachedFailures", failures.size())
+                .put("hits", hitCount)
+                .put("failureHits", failureHits.get())
+                .put("misses", missCount)
+                .put("hitRate", (hitCount+missCount > 0) ? (double)hitCount / (hitCount+missCount) : 0.0)
+                .build();
+    }
+
+    private String key(String user, String password) {
+        return user+":"+Hashing.sha256().newHasher()
+                .putBytes(salt)
+                .putString(user, Charsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(password, Charsets.UTF_8)
+                .hash().toString();
+    }
+}
@@ -1,6 +1,7 @@
 package brooklyn.rest.security.provider;
 
 import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpSession;
 
@@ -59,10 +60,30 @@ public class DelegatingSecurityProvider implements SecurityProvider {
         } catch (Exception e) {
             log.warn("Web console unable to instantiate security provider "+className+"; all logins are being disallowed",e);
             targetProvider = new BlackholeSecurityProvider();
+            return targetProvider;
+        }
+
+        int ttlSeconds = brooklynProperties.getConfig(BrooklynWebConfig.SECURITY_CACHE_TTL_SECONDS);
+        if (ttlSeconds > 0 && !(targetProvider instanceof AnyoneSecurityProvider)) {
+            targetProvider = new CachingSecurityProvider(targetProvider,
+                    brooklynProperties.getConfig(BrooklynWebConfig.SECURITY_CACHE_MAX_SIZE),
+                    ttlSeconds*1000L,
+                    brooklynProperties.getConfig(BrooklynWebConfig.SECURITY_CACHE_FAILURE_BACKOFF_MILLIS),
+                    brooklynProperties.getConfig(BrooklynWebConfig.SECURITY_CACHE_MAX_FAILURE_BACKOFF_MILLIS),
+                    TimeUnit.MILLISECONDS);
         }
         return targetProvider;
     }
     
+    /**
+     * Forgets any remembered authentication decisions about the given user (see {@link CachingSecurityProvider}),
+     * e.g. when their password changes.
+     */
+    public void invalidateCachedAuthentication(String user) {
+        SecurityProvider target = getTargetProvider();
+        if (target instanceof CachingSecurityProvider) ((CachingSecurityProvider) target).invalidate(user);
+    }
+
     @Override
     public boolean isAuthenticated(HttpSession session) {
         return getTargetProvider().isAuthenticated(session);
@@ -0,0 +1,179 @@
+package brooklyn.rest.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Entities;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.Sensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+import brooklyn.management.ManagementContext;
+import brooklyn.management.SubscriptionHandle;
+import brooklyn.management.Task;
+import brooklyn.rest.domain.EntityChanges;
+import brooklyn.rest.domain.TaskSummary;
+import brooklyn.util.text.Identifiers;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The changes to one entity's sensors and activities which one client (e.g. a web console view)
+ * has not yet been sent.
+ * <p>
+ * Sensor changes are conflated: the stream records only which sensors have changed,
+ * and reads their current values when the client next polls, so sensors which have not changed
+ * are not serialized again, and a client polling slowly is sent each sensor at most once.
+ * Activities are compared against their status when last sent, and only those which have changed are sent.
+ */
+public class EntityChangeStream {
+
+    /** how often a waiting poll checks whether the entity's activities have changed, and whether it is still managed */
+    static final long CHECK_PERIOD_MILLIS = 1000;
+
+    private final String id = Identifiers.makeRandomId(12);
+    private final ManagementContext mgmt;
+    private final Entity entity;
+    private final boolean includeSensors;
+    private final boolean includeActivities;
+
+    // guarded by itself
+    private final Map<String, String> sentActivityStates = Maps.newHashMap();
+
+    // all guarded by this
+    private SubscriptionHandle subscription;
+    private final Set<AttributeSensor<?>> changedSensors = Sets.newLinkedHashSet();
+    private int polling;
+    private long lastPolled = System.currentTimeMillis();
+    private boolean closed;
+
+    public EntityChangeStream(ManagementContext mgmt, Entity entity, boolean includeSensors, boolean includeActivities) {
+        this.mgmt = mgmt;
+        this.entity = entity;
+        this.includeSensors = includeSensors;
+        this.includeActivities = includeActivities;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    /** subscribes to the entity's sensors; the first poll then returns the current value of all of them */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public synchronized void open() {
+        if (!includeSensors) return;
+        subscription = mgmt.getSubscriptionManager().subscribe(entity, (Sensor) null, new SensorEventListener<Object>() {
+            @Override
+            public void onEvent(SensorEvent<Object> event) {
+                if (event.getSensor() instanceof AttributeSensor) {
+                    onSensorChanged((AttributeSensor<?>) event.getSensor());
+                }
+            }});
+        for (Sensor<?> sensor : entity.getEntityType().getSensors()) {
+            if (sensor instanceof AttributeSensor) changedSensors.add((AttributeSensor<?>) sensor);
+        }
+    }
+
+    private synchronized void onSensorChanged(AttributeSensor<?> sensor) {
+        changedSensors.add(sensor);
+        notifyAll();
+    }
+
+    /**
+     * Waits up to the given time for something to change, then returns what has changed
+     * since the previous poll (which may be nothing, if the time passed).
+     * Returns at once if the stream is closed, which it is when the entity is no longer managed.
+     */
+    public EntityChanges poll(long timeoutMillis) throws InterruptedException {
+        List<AttributeSensor<?>> sensors;
+        List<TaskSummary> activities;
+        List<String> removedActivities = Lists.newArrayList();
+        synchronized (this) {
+            polling++;
+        }
+        try {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                // compared outside of the monitor: listing the entity's tasks must not hold up the delivery of sensor events
+                activities = changedActivities(removedActivities);
+                if (!Entities.isManaged(entity)) close();
+                synchronized (this) {
+                    long remaining = end - System.currentTimeMillis();
+                    if (closed || !changedSensors.isEmpty() || !activities.isEmpty() || !removedActivities.isEmpty() || remaining <= 0) {
+                        sensors = Lists.newArrayList(changedSensors);
+                        changedSensors.clear();
+                        break;
+                    }
+                    wait(Math.min(remaining, CHECK_PERIOD_MILLIS));
+                }
+            }
+        } finally {
+            synchronized (this) {
+                polling--;
+                lastPolled = System.currentTimeMillis();
+            }
+        }
+
+        // read the values outside of the lock, so as not to hold up the subscription's delivery of events
+        Map<String, Object> sensorValues = Maps.newLinkedHashMap();
+        for (AttributeSensor<?> sensor : sensors) {
+            sensorValues.put(sensor.getName(), JsonUtils.toJsonable(entity.getAttribute(sensor)));
+        }
+        return new EntityChanges(id, sensorValues, activities, removedActivities);
+    }
+
+    private List<TaskSummary> changedActivities(List<String> removed) {
+        if (!includeActivities) return Collections.emptyList();
+        synchronized (sentActivityStates) {
+            List<TaskSummary> result = Lists.newArrayList();
+            Set<String> current = Sets.newHashSet();
+            for (Task<?> task : mgmt.getExecutionManager().getTasksWithTag(entity)) {
+                current.add(task.getId());
+                String state = task.isDone()+":"+task.getStatusSummary();
+                if (!state.equals(sentActivityStates.put(task.getId(), state))) {
+                    result.add(TaskSummary.fromTask(task));
+                }
+            }
+            for (Iterator<String> it = sentActivityStates.keySet().iterator(); it.hasNext();) {
+                String taskId = it.next();
+                if (!current.contains(taskId)) {
+                    it.remove();
+                    removed.add(taskId);
+                }
+            }
+            return result;
+        }
+    }
+
+    /** whether no poll is in progress, and none has been made for the given time */
+    public synchronized boolean isIdle(long maxIdleMillis) {
+        return polling == 0 && System.currentTimeMillis() - lastPolled > maxIdleMillis;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /** unsubscribes, and returns any poll in progress */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (subscription != null) mgmt.getSubscriptionManager().unsubscribe(subscription);
+        notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityChangeStream["+id+":"+entity+"]";
+    }
+}
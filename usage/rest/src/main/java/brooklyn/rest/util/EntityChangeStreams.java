@@ -0,0 +1,112 @@
+package brooklyn.rest.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Entities;
+import brooklyn.management.ManagementContext;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The open {@link EntityChangeStream}s, by ID. Streams which clients have stopped polling,
+ * and streams whose entity is no longer managed, are closed (and so unsubscribed) by {@link #closeIdle()}.
+ * That runs periodically on a daemon thread while any streams are open, so they are closed
+ * even when no further requests are made.
+ */
+public class EntityChangeStreams {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityChangeStreams.class);
+
+    private final long maxIdleMillis;
+    private final long sweepPeriodMillis;
+    private final Map<String, EntityChangeStream> streams = new ConcurrentHashMap<String, EntityChangeStream>();
+
+    // guarded by this; only running while there are streams open
+    private ScheduledExecutorService sweeper;
+
+    public EntityChangeStreams(long maxIdleMillis) {
+        this(maxIdleMillis, Math.max(maxIdleMillis/2, 1));
+    }
+
+    public EntityChangeStreams(long maxIdleMillis, long sweepPeriodMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+        this.sweepPeriodMillis = sweepPeriodMillis;
+    }
+
+    public EntityChangeStream open(ManagementContext mgmt, Entity entity, boolean includeSensors, boolean includeActivities) {
+        EntityChangeStream result = new EntityChangeStream(mgmt, entity, includeSensors, includeActivities);
+        result.open();
+        synchronized (this) {
+            streams.put(result.getId(), result);
+            if (sweeper == null) {
+                sweeper = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("brooklyn-rest-change-streams").setDaemon(true).build());
+                sweeper.scheduleWithFixedDelay(new Runnable() {
+                        public void run() {
+                            sweep();
+                        }},
+                        sweepPeriodMillis, sweepPeriodMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (log.isDebugEnabled()) log.debug("Opened {} ({} open)", result, streams.size());
+        return result;
+    }
+
+    /** the stream with the given ID, or null if there is none (e.g. because it was closed when idle) */
+    public EntityChangeStream get(String id) {
+        return streams.get(id);
+    }
+
+    private void sweep() {
+        try {
+            closeIdle();
+            synchronized (this) {
+                if (streams.isEmpty() && sweeper != null) {
+                    sweeper.shutdown();
+                    sweeper = null;
+                }
+            }
+        } catch (Exception e) {
+            // keep sweeping; a failure here must not leave streams subscribed forever
+            log.warn("Problem closing idle change streams; continuing", e);
+        }
+    }
+
+    /** closes streams not polled recently, and those whose entity is no longer managed */
+    public void closeIdle() {
+        for (Iterator<EntityChangeStream> it = streams.values().iterator(); it.hasNext();) {
+            EntityChangeStream stream = it.next();
+            if (stream.isClosed() || stream.isIdle(maxIdleMillis) || !Entities.isManaged(stream.getEntity())) {
+                it.remove();
+                stream.close();
+                if (log.isDebugEnabled()) log.debug("Closed idle {}", stream);
+            }
+        }
+    }
+
+    public void closeAll() {
+        for (Iterator<EntityChangeStream> it = streams.values().iterator(); it.hasNext();) {
+            it.next().close();
+            it.remove();
+        }
+        synchronized (this) {
+            if (sweeper != null) {
+                sweeper.shutdownNow();
+                sweeper = null;
+            }
+        }
+    }
+
+    public int size() {
+        return streams.size();
+    }
+}
@@ -0,0 +1,282 @@
+package brooklyn.rest.util;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import brooklyn.util.stream.ThreadLocalPrintStream;
+import brooklyn.util.stream.ThreadLocalPrintStream.OutputCapturingContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs groovy scripts on a bounded number of threads, with a timeout, caching the compiled class of each
+ * recently run script (by a hash of its source) so that scripts run repeatedly are compiled only once.
+ * <p>
+ * Each script runs on a daemon thread of its own. A script which does not complete in time is interrupted
+ * and abandoned, but its thread counts against the limit until it ends, so scripts which ignore interrupts
+ * cannot pile up without bound. Abandoned threads which are still running are reported as "stuck"; while all
+ * threads are stuck, further scripts are rejected rather than left waiting.
+ * <p>
+ * Each script is compiled by its own class loader, so the classes of scripts evicted from the cache can be unloaded.
+ */
+public class GroovyScriptRunner {
+
+    public static final int DEFAULT_MAX_CACHED_SCRIPTS = 100;
+    public static final int DEFAULT_MAX_THREADS = 4;
+    public static final int DEFAULT_MAX_QUEUED = 16;
+
+    /** The outcome of running a script: either its result or the problem which stopped it, and its output */
+    public static class Outcome {
+        public final Object result;
+        public final Throwable problem;
+        public final String stdout;
+        public final String stderr;
+
+        Outcome(Object result, Throwable problem, String stdout, String stderr) {
+            this.result = result;
+            this.problem = problem;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    /** A script being run on its own thread, with its output so far */
+    private class Execution implements Callable<Outcome> {
+        final String script;
+        final Binding binding;
+        final FutureTask<Outcome> future = new FutureTask<Outcome>(this);
+        volatile OutputCapturingContext stdout;
+        volatile OutputCapturingContext stderr;
+
+        Execution(String script, Binding binding) {
+            this.script = script;
+            this.binding = binding;
+        }
+
+        @Override
+        public Outcome call() {
+            stdout = ThreadLocalPrintStream.stdout().capture();
+            stderr = ThreadLocalPrintStream.stderr().capture();
+            Object result = null;
+            Throwable problem = null;
+            try {
+                Script compiled = InvokerHelper.createScript(compile(script), binding);
+                long start = System.nanoTime();
+                try {
+                    result = compiled.run();
+                } finally {
+                    executions.incrementAndGet();
+                    executionNanos.addAndGet(System.nanoTime() - start);
+                }
+            } catch (Throwable t) {
+                problem = t;
+            } finally {
+                stdout.end();
+                stderr.end();
+            }
+            return new Outcome(result, problem, stdout.toString(), stderr.toString());
+        }
+
+        /** an outcome with the given problem, and the output the script has written so far */
+        Outcome failed(Throwable problem) {
+            OutputCapturingContext out = stdout;
+            OutputCapturingContext err = stderr;
+            return new Outcome(null, problem, (out != null) ? out.getOutputSoFar() : "", (err != null) ? err.getOutputSoFar() : "");
+        }
+    }
+
+    private final int maxThreads;
+    private final int maxQueued;
+    private final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("brooklyn-rest-script-%d").setDaemon(true).build();
+
+    /** a permit for each script that may run at once; a script's permit is released when its thread ends */
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Set<Thread> running = Collections.synchronizedSet(Sets.<Thread>newLinkedHashSet());
+    private final Set<Thread> abandoned = Collections.synchronizedSet(Sets.<Thread>newLinkedHashSet());
+    private volatile boolean shutdown = false;
+
+    // guarded by itself; in access order, for eviction of the least recently used
+    private final Map<String, Class<? extends Script>> compiledScripts;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public GroovyScriptRunner() {
+        this(DEFAULT_MAX_CACHED_SCRIPTS, DEFAULT_MAX_THREADS, DEFAULT_MAX_QUEUED);
+    }
+
+    public GroovyScriptRunner(final int maxCachedScripts, int maxThreads, int maxQueued) {
+        compiledScripts = new LinkedHashMap<String, Class<? extends Script>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Class<? extends Script>> eldest) {
+                return size() > maxCachedScripts;
+            }
+        };
+        this.permits = new Semaphore(maxThreads, true);
+        this.maxThreads = maxThreads;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Runs the script with the given binding, waiting up to the given time (including any time waiting for
+     * other scripts to finish) for it to complete. If it does not, it is interrupted and abandoned, 
+     * and the outcome has the output it had written so far.
+     *
+     * @throws RejectedExecutionException if too many scripts are already running or waiting to run, 
+     *         or all threads are stuck running abandoned scripts
+     */
+    public Outcome run(String script, Binding binding, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (shutdown) throw new RejectedExecutionException("Script runner has been shut down");
+        if (getStuckCount() >= maxThreads) {
+            rejections.incrementAndGet();
+            throw new RejectedExecutionException("All "+maxThreads+" script threads are stuck running scripts which timed out");
+        }
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejections.incrementAndGet();
+                throw new RejectedExecutionException("Too many scripts running or waiting to run");
+            }
+            try {
+                if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    timeouts.incrementAndGet();
+                    return new Outcome(null, new TimeoutException("Script did not start within "+unit.toMillis(timeout)+"ms, as other scripts were running"), "", "");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Outcome(null, e, "", "");
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+
+        final Execution execution = new Execution(script, binding);
+        Thread thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    execution.future.run();
+                } finally {
+                    running.remove(Thread.currentThread());
+                    abandoned.remove(Thread.currentThread());
+                    permits.release();
+                }
+            }});
+        running.add(thread);
+        thread.start();
+
+        try {
+            return execution.future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            abandon(execution, thread);
+            return execution.failed(new TimeoutException("Script did not complete within "+unit.toMillis(timeout)+"ms; interrupted"));
+        } catch (ExecutionException e) {
+            return execution.failed(e.getCause());
+        } catch (InterruptedException e) {
+            abandon(execution, thread);
+            Thread.currentThread().interrupt();
+            return execution.failed(e);
+        }
+    }
+
+    private void abandon(Execution execution, Thread thread) {
+        execution.future.cancel(true);
+        // if it ignores the interrupt, it keeps its permit until it ends
+        if (thread.isAlive()) abandoned.add(thread);
+    }
+
+    /** the number of abandoned scripts whose threads are still running */
+    private int getStuckCount() {
+        synchronized (abandoned) {
+            for (Iterator<Thread> it = abandoned.iterator(); it.hasNext();) {
+                if (!it.next().isAlive()) it.remove();
+            }
+            return abandoned.size();
+        }
+    }
+
+    private Class<? extends Script> compile(String script) {
+        String key = Hashing.sha256().hashString(script, Charsets.UTF_8).toString();
+        Class<? extends Script> result;
+        synchronized (compiledScripts) {
+            result = compiledScripts.get(key);
+        }
+        if (result != null) {
+            cacheHits.incrementAndGet();
+            return result;
+        }
+        // compiled outside the lock (the same script compiled concurrently is harmless, the last one being cached)
+        long start = System.nanoTime();
+        result = new GroovyShell().parse(script).getClass();
+        compilations.incrementAndGet();
+        compileNanos.addAndGet(System.nanoTime() - start);
+        synchronized (compiledScripts) {
+            compiledScripts.put(key, result);
+        }
+        return result;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long hits = cacheHits.get();
+        long compiles = compilations.get();
+        long runs = executions.get();
+        int cached;
+        synchronized (compiledScripts) {
+            cached = compiledScripts.size();
+        }
+        int stuck = getStuckCount();
+        return ImmutableMap.<String, Object>builder()
+                .put("cachedScripts", cached)
+                .put("cacheHits", hits)
+                .put("cacheHitRate", (hits+compiles > 0) ? (double)hits / (hits+compiles) : 0.0)
+                .put("compilations", compiles)
+                .put("meanCompileMillis", (compiles > 0) ? compileNanos.get() / 1e6 / compiles : 0.0)
+                .put("executions", runs)
+                .put("meanExecutionMillis", (runs > 0) ? executionNanos.get() / 1e6 / runs : 0.0)
+                .put("timeouts", timeouts.get())
+                .put("rejections", rejections.get())
+                .put("active", running.size() - stuck)
+                .put("queued", queued.get())
+                .put("stuck", stuck)
+                .build();
+    }
+
+    public void shutdownNow() {
+        shutdown = true;
+        synchronized (running) {
+            for (Thread thread : running) thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package brooklyn.rest.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Function;
+
+/**
+ * Writes JSON responses with a generator as the response is sent, rather than first building them in memory
+ * (as lists of domain objects, maps, or trees of nodes), so that the memory a request needs does not grow
+ * with the size of its response.
+ * <p>
+ * Note the response is written after the resource method returns, so it reflects the state at that time;
+ * and an error while writing cannot change the status, which has already been sent.
+ */
+public class StreamingJson {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /** writes a JSON value to the generator, as the response is sent */
+    public interface JsonWriter {
+        void write(JsonGenerator json) throws IOException;
+    }
+
+    public static StreamingOutput of(final JsonWriter writer) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                JsonGenerator json = mapper.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+                json.setCodec(mapper);
+                writer.write(json);
+                json.flush();
+            }
+        };
+    }
+
+    /**
+     * a JSON array of the items, each transformed and written in turn, so only one is held at a time
+     * (the items should be a lazy view, such as that of {@link com.google.common.collect.Iterables#transform(Iterable, Function)},
+     * rather than a list of what is written)
+     */
+    public static <T> StreamingOutput array(final Iterable<T> items, final Function<? super T, ?> transform) {
+        return of(new JsonWriter() {
+            @Override
+            public void write(JsonGenerator json) throws IOException {
+                json.writeStartArray();
+                for (T item : items) {
+                    json.writeObject(transform.apply(item));
+                }
+                json.writeEndArray();
+            }
+        });
+    }
+}
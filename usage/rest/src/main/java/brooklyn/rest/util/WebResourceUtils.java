@@ -1,12 +1,16 @@
 package brooklyn.rest.util;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import brooklyn.management.internal.EntityVersions;
 import brooklyn.rest.domain.ApiError;
 
 public class WebResourceUtils {
@@ -21,6 +25,14 @@ public class WebResourceUtils {
                 .entity(new ApiError(msg)).build());
     }
 
+    public static WebApplicationException gone(String format, Object... args) {
+        String msg = String.format(format, args);
+        if (log.isDebugEnabled()) log.debug("returning 410 gone("+msg+")");
+        throw new WebApplicationException(Response.status(Response.Status.GONE)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(new ApiError(msg)).build());
+    }
+
     public static WebApplicationException preconditionFailed(String format, Object... args) {
         String msg = String.format(format, args);
         if (log.isDebugEnabled()) log.debug("returning 412 preconditionFailed("+msg+")");
@@ -29,4 +41,45 @@ public class WebResourceUtils {
                 .entity(new ApiError(msg)).build());
     }
 
+    /**
+     * the entity tag for the given version of a resource, or null if versions are not kept (i.e. null);
+     * it includes the versions' epoch, so a tag from before a restart does not match the same version after it
+     */
+    public static EntityTag versionTag(EntityVersions versions, long version) {
+        return (versions != null) ? new EntityTag(versionToken(versions, version)) : null;
+    }
+
+    /** a token for the given version, which can be compared with others by {@link #parseVersionToken(EntityVersions, String)} */
+    public static String versionToken(EntityVersions versions, long version) {
+        return versions.getEpoch()+"-"+version;
+    }
+
+    /** the version in the given token, or null if it is malformed or from another epoch (e.g. before a restart) */
+    public static Long parseVersionToken(EntityVersions versions, String token) {
+        String prefix = versions.getEpoch()+"-";
+        if (token == null || !token.startsWith(prefix)) return null;
+        try {
+            return Long.parseLong(token.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** 
+     * a 304 (not modified) response if the request's If-None-Match header matches the given tag,
+     * otherwise (or if the tag is null) null, in which case the resource should be returned
+     */
+    public static Response notModified(Request request, EntityTag tag) {
+        if (tag == null) return null;
+        ResponseBuilder result = request.evaluatePreconditions(tag);
+        return (result != null) ? result.build() : null;
+    }
+
+    /** a 200 response with the given entity, and the given tag if not null */
+    public static Response ok(Object entity, EntityTag tag) {
+        ResponseBuilder result = Response.ok(entity);
+        if (tag != null) result.tag(tag);
+        return result.build();
+    }
+
 }
@@ -2,6 +2,8 @@ package brooklyn.rest.resources;
 
 import static com.google.common.collect.Iterables.find;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
@@ -10,8 +12,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
+import org.codehaus.jackson.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -45,6 +50,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
 import com.sun.jersey.api.client.UniformInterfaceException;
@@ -222,6 +228,43 @@ public class ApplicationResourceTest extends BrooklynRestResourceTest {
     Assert.fail("simple-app not found in list of applications: "+applications);
   }
 
+  @Test(dependsOnMethods = "testDeployApplication")
+  public void testTreeIsNotModifiedUntilHierarchyChanges() {
+    ClientResponse response = client().resource("/v1/applications/tree").get(ClientResponse.class);
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    EntityTag tag = response.getEntityTag();
+    assertNotNull(tag);
+
+    ClientResponse response2 = client().resource("/v1/applications/tree")
+        .header(HttpHeaders.IF_NONE_MATCH, tag.toString())
+        .get(ClientResponse.class);
+    assertEquals(response2.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+
+    ClientResponse entityResponse = client().resource("/v1/applications/simple-app/entities/simple-ent").get(ClientResponse.class);
+    ClientResponse entityResponse2 = client().resource("/v1/applications/simple-app/entities/simple-ent")
+        .header(HttpHeaders.IF_NONE_MATCH, entityResponse.getEntityTag().toString())
+        .get(ClientResponse.class);
+    assertEquals(entityResponse2.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+  }
+
+  @Test(dependsOnMethods = "testDeployApplication")
+  public void testTreeChangesSince() {
+    JsonNode all = client().resource("/v1/applications/tree")
+        .queryParam("since", "0")
+        .get(JsonNode.class);
+    assertTrue(all.get("reset").getBooleanValue());
+    String version = all.get("version").getTextValue();
+    Set<String> names = Sets.newLinkedHashSet();
+    for (JsonNode node : all.get("changed")) names.add(node.get("name").getTextValue());
+    assertTrue(names.containsAll(ImmutableSet.of("simple-app", "simple-ent")), "names="+names);
+
+    JsonNode none = client().resource("/v1/applications/tree")
+        .queryParam("since", version)
+        .get(JsonNode.class);
+    assertEquals(none.get("removed").size(), 0, "changes="+none);
+    assertFalse(none.get("reset").getBooleanValue());
+  }
+
   @Test(dependsOnMethods = "testDeployApplication")
   public void testListSensors() {
     Set<SensorSummary> sensors = client().resource("/v1/applications/simple-app/entities/simple-ent/sensors")
@@ -0,0 +1,111 @@
+package brooklyn.rest.resources;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.rest.domain.ApplicationSpec;
+import brooklyn.rest.domain.EntityChanges;
+import brooklyn.rest.domain.EntitySpec;
+import brooklyn.rest.testing.BrooklynRestResourceTest;
+import brooklyn.rest.testing.mocks.RestMockSimpleEntity;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.sun.jersey.api.client.ClientResponse;
+
+@Test(singleThreaded = true)
+public class EntityChangesResourceTest extends BrooklynRestResourceTest {
+
+    private static final String CHANGES_ENDPOINT = "/v1/applications/simple-app/entities/simple-ent/changes";
+
+    private final ApplicationSpec simpleSpec = ApplicationSpec.builder().name("simple-app").entities(
+            ImmutableSet.of(new EntitySpec("simple-ent", RestMockSimpleEntity.class.getName()))).locations(
+            ImmutableSet.of("localhost")).build();
+
+    private EntityLocal entity;
+
+    @Override
+    protected void setUpResources() throws Exception {
+        addResources();
+    }
+
+    @BeforeClass(alwaysRun = true)
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ClientResponse aResponse = client().resource("/v1/applications")
+                .post(ClientResponse.class, simpleSpec);
+        waitForApplicationToBeRunning(aResponse.getLocation());
+
+        Entity app = getManagementContext().getApplications().iterator().next();
+        entity = (EntityLocal) Iterables.getOnlyElement(app.getChildren());
+    }
+
+    @AfterClass
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        stopManager();
+    }
+
+    @Test
+    public void testNewStreamReturnsCompleteState() throws Exception {
+        entity.setAttribute(RestMockSimpleEntity.SAMPLE_SENSOR, "initial");
+
+        EntityChanges changes = client().resource(CHANGES_ENDPOINT).get(EntityChanges.class);
+        assertNotNull(changes.getStreamId());
+        assertEquals(changes.getSensors().get(RestMockSimpleEntity.SAMPLE_SENSOR.getName()), "initial");
+        assertNotNull(changes.getActivities());
+    }
+
+    @Test
+    public void testReturnsOnlyChangedSensors() throws Exception {
+        EntityChanges first = client().resource(CHANGES_ENDPOINT)
+                .queryParam("activities", "false")
+                .get(EntityChanges.class);
+        assertTrue(first.getSensors().size() > 1, "sensors="+first.getSensors());
+
+        entity.setAttribute(RestMockSimpleEntity.SAMPLE_SENSOR, "a");
+        entity.setAttribute(RestMockSimpleEntity.SAMPLE_SENSOR, "b");
+
+        EntityChanges next = client().resource(CHANGES_ENDPOINT)
+                .queryParam("stream", first.getStreamId())
+                .queryParam("timeout", "10000")
+                .get(EntityChanges.class);
+        assertEquals(next.getStreamId(), first.getStreamId());
+        assertEquals(next.getSensors().keySet(), ImmutableSet.of(RestMockSimpleEntity.SAMPLE_SENSOR.getName()));
+        assertEquals(next.getSensors().get(RestMockSimpleEntity.SAMPLE_SENSOR.getName()), "b");
+        assertTrue(next.getActivities().isEmpty());
+    }
+
+    @Test
+    public void testReturnsNothingWhenTimeoutPassesWithoutChanges() throws Exception {
+        EntityChanges first = client().resource(CHANGES_ENDPOINT)
+                .queryParam("activities", "false")
+                .get(EntityChanges.class);
+
+        EntityChanges next = client().resource(CHANGES_ENDPOINT)
+                .queryParam("stream", first.getStreamId())
+                .queryParam("timeout", "100")
+                .get(EntityChanges.class);
+        assertTrue(next.getSensors().isEmpty(), "sensors="+next.getSensors());
+    }
+
+    @Test
+    public void testUnknownStreamStartsNewStream() throws Exception {
+        EntityChanges changes = client().resource(CHANGES_ENDPOINT)
+                .queryParam("stream", "no-such-stream")
+                .get(EntityChanges.class);
+        assertFalse(changes.getStreamId().equals("no-such-stream"));
+        assertFalse(changes.getSensors().isEmpty());
+    }
+}
@@ -1,6 +1,10 @@
 package brooklyn.rest.resources;
 
 import java.util.Collections;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
 
 import junit.framework.Assert;
 
@@ -9,8 +13,10 @@ import org.testng.annotations.Test;
 import brooklyn.entity.basic.Entities;
 import brooklyn.location.Location;
 import brooklyn.management.ManagementContext;
+import brooklyn.management.internal.LocalManagementContext;
 import brooklyn.rest.domain.ScriptExecutionSummary;
 import brooklyn.rest.testing.mocks.RestMockApp;
+import brooklyn.rest.util.GroovyScriptRunner;
 
 public class ScriptResourceTest {
 
@@ -25,9 +31,93 @@ public class ScriptResourceTest {
         ScriptResource s = new ScriptResource();
         s.injectManagementContext(mgmt);
         
-        ScriptExecutionSummary result = s.groovy(null, "def apps = []; mgmt.applications.each { println 'app:'+it; apps << it.id }; apps");
+        ScriptExecutionSummary result = s.groovy(null, null, "def apps = []; mgmt.applications.each { println 'app:'+it; apps << it.id }; apps");
         Assert.assertEquals(Collections.singletonList(app.getId()).toString(), result.getResult());
         Assert.assertTrue(result.getStdout().contains("app:RestMockApp"));
     }
     
+    @Test
+    public void testGroovyScriptCompiledOnce() {
+        LocalManagementContext mgmt = new LocalManagementContext();
+        try {
+            ScriptResource s = new ScriptResource();
+            s.injectManagementContext(mgmt);
+            
+            for (int i = 0; i < 3; i++) {
+                ScriptExecutionSummary result = s.groovy(null, null, "println 'hello'; 6*7");
+                Assert.assertEquals("42", result.getResult());
+                Assert.assertEquals("hello", result.getStdout().trim());
+            }
+            Map<String, Object> metrics = s.groovyMetrics();
+            Assert.assertEquals(1L, metrics.get("compilations"));
+            Assert.assertEquals(2L, metrics.get("cacheHits"));
+            Assert.assertEquals(3L, metrics.get("executions"));
+        } finally {
+            mgmt.terminate();
+        }
+    }
+    
+    @Test
+    public void testGroovyScriptTimesOut() {
+        LocalManagementContext mgmt = new LocalManagementContext();
+        try {
+            ScriptResource s = new ScriptResource();
+            s.injectManagementContext(mgmt);
+            
+            ScriptExecutionSummary result = s.groovy(null, 100L, "Thread.sleep(60*1000); 'done'");
+            Assert.assertNull(result.getResult());
+            Assert.assertTrue(result.getProblem().contains("TimeoutException"));
+            Assert.assertEquals(1L, s.groovyMetrics().get("timeouts"));
+        } finally {
+            mgmt.terminate();
+        }
+    }
+    
+    @Test
+    public void testGroovyScriptTimeoutReturnsOutputSoFarAndAbandonsThread() {
+        LocalManagementContext mgmt = new LocalManagementContext();
+        try {
+            ScriptResource s = new ScriptResource();
+            s.injectManagementContext(mgmt);
+            
+            // ignores interrupts, for a while
+            ScriptExecutionSummary result = s.groovy(null, 500L, "println 'started'; long end = System.currentTimeMillis()+5000; " +
+                    "while (System.currentTimeMillis() < end) { try { Thread.sleep(100) } catch (InterruptedException e) {} }; 'done'");
+            Assert.assertNull(result.getResult());
+            Assert.assertTrue(result.getProblem().contains("TimeoutException"));
+            Assert.assertEquals("started", result.getStdout().trim());
+            Assert.assertEquals(1, s.groovyMetrics().get("stuck"));
+            
+            result = s.groovy(null, null, "6*7");
+            Assert.assertEquals("42", result.getResult());
+        } finally {
+            mgmt.terminate();
+        }
+    }
+    
+    @Test
+    public void testRejectsScriptsWhileAllThreadsAreStuck() {
+        LocalManagementContext mgmt = new LocalManagementContext();
+        ScriptResource s = new ScriptResource();
+        try {
+            s.injectManagementContext(mgmt);
+            
+            // each ignores interrupts, for a while, so keeps its thread
+            for (int i = 0; i < GroovyScriptRunner.DEFAULT_MAX_THREADS; i++) {
+                s.groovy(null, 100L, "long end = System.currentTimeMillis()+10000; " +
+                        "while (System.currentTimeMillis() < end) { try { Thread.sleep(100) } catch (InterruptedException e) {} }; 'done'");
+            }
+            Assert.assertEquals(GroovyScriptRunner.DEFAULT_MAX_THREADS, s.groovyMetrics().get("stuck"));
+            try {
+                s.groovy(null, null, "6*7");
+                Assert.fail("script should have been rejected");
+            } catch (WebApplicationException e) {
+                Assert.assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), e.getResponse().getStatus());
+            }
+        } finally {
+            s.shutdown();
+            mgmt.terminate();
+        }
+    }
+    
 }
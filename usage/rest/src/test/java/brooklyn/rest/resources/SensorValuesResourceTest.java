@@ -0,0 +1,117 @@
+package brooklyn.rest.resources;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.rest.domain.ApplicationSpec;
+import brooklyn.rest.domain.EntitySpec;
+import brooklyn.rest.testing.BrooklynRestResourceTest;
+import brooklyn.rest.testing.mocks.RestMockSimpleEntity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.sun.jersey.api.client.ClientResponse;
+
+@Test(singleThreaded = true)
+public class SensorValuesResourceTest extends BrooklynRestResourceTest {
+
+    private final ApplicationSpec simpleSpec = ApplicationSpec.builder().name("simple-app").entities(
+            ImmutableSet.of(new EntitySpec("simple-ent", RestMockSimpleEntity.class.getName()))).locations(
+            ImmutableSet.of("localhost")).build();
+
+    private Entity app;
+    private EntityLocal entity;
+
+    @Override
+    protected void setUpResources() throws Exception {
+        addResources();
+    }
+
+    @BeforeClass(alwaysRun = true)
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ClientResponse aResponse = client().resource("/v1/applications")
+                .post(ClientResponse.class, simpleSpec);
+        waitForApplicationToBeRunning(aResponse.getLocation());
+
+        app = getManagementContext().getApplications().iterator().next();
+        entity = (EntityLocal) Iterables.getOnlyElement(app.getChildren());
+        entity.setAttribute(RestMockSimpleEntity.SAMPLE_SENSOR, "val");
+    }
+
+    @AfterClass
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        stopManager();
+    }
+
+    @Test
+    public void testReadsNamedSensorsOfEntities() throws Exception {
+        JsonNode result = client().resource("/v1/sensors/current-state")
+                .queryParam("entity", entity.getId())
+                .queryParam("entity", "no-such-entity")
+                .queryParam("sensor", RestMockSimpleEntity.SAMPLE_SENSOR.getName())
+                .get(JsonNode.class);
+
+        assertEquals(strings(result.get("sensors")), ImmutableList.of(RestMockSimpleEntity.SAMPLE_SENSOR.getName()));
+        assertEquals(strings(result.get("entities")), ImmutableList.of(entity.getId()));
+        assertEquals(result.get("values").get(0).get(0).getTextValue(), "val");
+    }
+
+    @Test
+    public void testReadsMatchingSensorsOfSubtree() throws Exception {
+        JsonNode result = client().resource("/v1/sensors/current-state")
+                .queryParam("root", app.getId())
+                .queryParam("sensor", "brooklyn.rest.mock.*")
+                .get(JsonNode.class);
+
+        assertEquals(strings(result.get("entities")), ImmutableList.of(app.getId(), entity.getId()));
+        List<String> sensors = strings(result.get("sensors"));
+        int column = sensors.indexOf(RestMockSimpleEntity.SAMPLE_SENSOR.getName());
+        assertTrue(column >= 0, "sensors="+sensors);
+        assertTrue(result.get("values").get(0).get(column).isNull());
+        assertEquals(result.get("values").get(1).get(column).getTextValue(), "val");
+    }
+
+    @Test
+    public void testLeavesCompressionToWebServer() throws Exception {
+        ClientResponse response = client().resource("/v1/sensors/current-state")
+                .queryParam("entity", entity.getId())
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .get(ClientResponse.class);
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        JsonNode result = new ObjectMapper().readTree(response.getEntityInputStream());
+        assertEquals(strings(result.get("entities")), ImmutableList.of(entity.getId()));
+    }
+
+    @Test
+    public void testFailsWithoutEntities() throws Exception {
+        ClientResponse response = client().resource("/v1/sensors/current-state").get(ClientResponse.class);
+        assertEquals(response.getStatus(), 412);
+    }
+
+    private static List<String> strings(JsonNode array) {
+        List<String> result = Lists.newArrayList();
+        for (JsonNode node : array) result.add(node.getTextValue());
+        return result;
+    }
+}
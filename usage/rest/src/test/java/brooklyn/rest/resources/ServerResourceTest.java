@@ -0,0 +1,29 @@
+package brooklyn.rest.resources;
+
+import static org.testng.Assert.assertEquals;
+
+import javax.ws.rs.core.Response;
+
+import org.testng.annotations.Test;
+
+import brooklyn.config.BrooklynServiceAttributes;
+import brooklyn.rest.testing.BrooklynRestResourceTest;
+
+import com.sun.jersey.api.client.ClientResponse;
+
+public class ServerResourceTest extends BrooklynRestResourceTest {
+
+  @Test
+  public void testStatusIsRunningWhenNotStartedByLauncher() {
+    ClientResponse response = client().resource("/v1/server/status")
+        .get(ClientResponse.class);
+
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertEquals(response.getEntity(String.class), BrooklynServiceAttributes.BROOKLYN_STARTUP_STATUS_RUNNING);
+  }
+
+  @Override
+  protected void setUpResources() throws Exception {
+    addResource(new ServerResource());
+  }
+}
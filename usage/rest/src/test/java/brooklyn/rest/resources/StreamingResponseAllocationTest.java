@@ -0,0 +1,221 @@
+package brooklyn.rest.resources;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.Application;
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.proxying.EntitySpecs;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.Sensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.rest.domain.EntitySummary;
+import brooklyn.rest.util.JsonUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the heap allocated by a request to the heavier endpoints, when the response is built in memory
+ * then written (as these endpoints did) and when it is streamed (as they do), for a large application.
+ * Only serialization is measured, not the HTTP stack.
+ */
+public class StreamingResponseAllocationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingResponseAllocationTest.class);
+
+    private static final int CHILDREN = 20;
+    private static final int GRANDCHILDREN_EACH = 20;
+    private static final int SENSORS = 1000;
+    private static final int WARMUP = 20;
+    private static final int REQUESTS = 50;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override public void write(int b) {}
+        @Override public void write(byte[] b, int off, int len) {}
+    };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Request request = newRequest();
+
+    private TestApplication app;
+    private TestEntity entity;
+    private ApplicationResource applicationResource;
+    private EntityResource entityResource;
+    private SensorResource sensorResource;
+
+    @BeforeClass(alwaysRun=true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        for (int i = 0; i < CHILDREN; i++) {
+            TestEntity child = app.createAndManageChild(EntitySpecs.spec(TestEntity.class).displayName("child-"+i));
+            for (int j = 0; j < GRANDCHILDREN_EACH; j++) {
+                Entities.manage(app.getManagementContext().getEntityManager().createEntity(
+                        EntitySpecs.spec(TestEntity.class).displayName("grandchild-"+i+"-"+j).parent(child)));
+            }
+            if (entity == null) entity = child;
+        }
+        for (int i = 0; i < SENSORS; i++) {
+            entity.setAttribute(new BasicAttributeSensor<String>(String.class, "test.sensor."+i), "value of sensor "+i);
+        }
+
+        applicationResource = new ApplicationResource();
+        entityResource = new EntityResource();
+        sensorResource = new SensorResource();
+        for (AbstractBrooklynRestResource resource : new AbstractBrooklynRestResource[] { applicationResource, entityResource, sensorResource }) {
+            resource.injectManagementContext(app.getManagementContext());
+        }
+    }
+
+    @AfterClass(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroy(app);
+    }
+
+    @Test
+    public void testStreamedResponsesMatchInMemoryResponses() throws Exception {
+        assertEquals(json(applicationResource.applicationTree(request, null)), json(inMemoryTree()));
+        assertEquals(json(entityResource.list(request, app.getId())), json(inMemorySummaries()));
+        assertEquals(json(sensorResource.batchSensorRead(app.getId(), entity.getId())), json(inMemorySensors()));
+    }
+
+    @Test(groups={"Integration","Acceptance"})
+    public void testAllocationPerRequest() throws Exception {
+        long treeBefore = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(inMemoryTree()); }
+        });
+        long treeAfter = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(applicationResource.applicationTree(request, null)); }
+        });
+        long entitiesBefore = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(inMemorySummaries()); }
+        });
+        long entitiesAfter = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(entityResource.list(request, app.getId())); }
+        });
+        long sensorsBefore = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(inMemorySensors()); }
+        });
+        long sensorsAfter = allocatedPerRequest(new Runnable() {
+            @Override public void run() { write(sensorResource.batchSensorRead(app.getId(), entity.getId())); }
+        });
+
+        log.info("Bytes allocated per request, in memory then streamed: application tree ("+(1+CHILDREN*(1+GRANDCHILDREN_EACH))+" entities) "+
+                treeBefore+" / "+treeAfter+"; entities ("+CHILDREN+") "+entitiesBefore+" / "+entitiesAfter+
+                "; sensors ("+SENSORS+") "+sensorsBefore+" / "+sensorsAfter);
+        assertTrue(treeAfter < treeBefore, "tree allocated "+treeAfter+" streamed, "+treeBefore+" in memory");
+    }
+
+    /** the tree as it was built before it was streamed */
+    private JsonNode inMemoryTree() {
+        ArrayNode apps = mapper.createArrayNode();
+        for (Application application : app.getManagementContext().getApplications())
+            apps.add(treeNode(application));
+        return apps;
+    }
+
+    private JsonNode treeNode(Entity entity) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("name", entity.getDisplayName());
+        node.put("id", entity.getId());
+        node.put("type", entity.getEntityType().getName());
+        if (entity.getChildren().size() != 0) {
+            ArrayNode children = node.putArray("children");
+            for (Entity child : entity.getChildren()) children.add(treeNode(child));
+        }
+        return node;
+    }
+
+    private List<EntitySummary> inMemorySummaries() {
+        List<EntitySummary> result = Lists.newArrayList();
+        for (Entity child : app.getChildren()) result.add(EntitySummary.fromEntity(child));
+        return result;
+    }
+
+    private Map<String, Object> inMemorySensors() {
+        Map<String, Object> result = Maps.newHashMap();
+        for (Sensor<?> sensor : entity.getEntityType().getSensors()) {
+            if (sensor instanceof AttributeSensor)
+                result.put(sensor.getName(), JsonUtils.toJsonable(entity.getAttribute((AttributeSensor<?>) sensor)));
+        }
+        return result;
+    }
+
+    private void write(Object entity) {
+        try {
+            writeTo(entity, DISCARD);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeTo(Object entity, OutputStream out) throws IOException {
+        if (entity instanceof Response) {
+            ((StreamingOutput) ((Response) entity).getEntity()).write(out);
+        } else {
+            mapper.writeValue(out, entity);
+        }
+    }
+
+    private JsonNode json(Object entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(entity, out);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    private static long allocatedPerRequest(Runnable request) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            throw new SkipException("Allocation per thread is not available in this JVM");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+            throw new SkipException("Allocation per thread is not available in this JVM");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < WARMUP; i++) request.run();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < REQUESTS; i++) request.run();
+        return (threads.getThreadAllocatedBytes(threadId) - before) / REQUESTS;
+    }
+
+    /** a request without preconditions, so the resources always respond with their content */
+    private static Request newRequest() {
+        return (Request) Proxy.newProxyInstance(StreamingResponseAllocationTest.class.getClassLoader(), new Class<?>[] { Request.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("evaluatePreconditions")) return null;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,155 @@
+package brooklyn.rest.security.provider;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+public class CachingSecurityProviderTest {
+
+    /** stands in for a directory such as LDAP, counting the binds it is asked to do */
+    private static class CountingSecurityProvider implements SecurityProvider {
+        final Map<String, String> passwords = Maps.newHashMap();
+        int authentications;
+
+        @Override
+        public boolean isAuthenticated(HttpSession session) {
+            return false;
+        }
+
+        @Override
+        public boolean authenticate(HttpSession session, String user, String password) {
+            authentications++;
+            return password != null && password.equals(passwords.get(user));
+        }
+
+        @Override
+        public boolean logout(HttpSession session) {
+            return true;
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+
+    private CountingSecurityProvider directory;
+    private FakeTicker ticker;
+    private CachingSecurityProvider provider;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        directory = new CountingSecurityProvider();
+        directory.passwords.put("bob", "secret");
+        ticker = new FakeTicker();
+        provider = new CachingSecurityProvider(directory, 100, 60, 1, 8, TimeUnit.SECONDS, ticker);
+    }
+
+    @Test
+    public void testRemembersSuccessUntilExpiry() {
+        assertTrue(provider.authenticate(newSession(), "bob", "secret"));
+        assertTrue(provider.authenticate(newSession(), "bob", "secret"));
+        assertEquals(directory.authentications, 1);
+
+        ticker.advance(61, TimeUnit.SECONDS);
+        assertTrue(provider.authenticate(newSession(), "bob", "secret"));
+        assertEquals(directory.authentications, 2);
+        assertEquals(provider.getMetrics().get("hits"), 1L);
+        assertEquals(provider.getMetrics().get("misses"), 2L);
+    }
+
+    @Test
+    public void testCachedSuccessMarksSession() {
+        provider.authenticate(newSession(), "bob", "secret");
+        HttpSession session = newSession();
+        assertTrue(provider.authenticate(session, "bob", "secret"));
+        assertTrue(provider.isAuthenticated(session));
+        provider.logout(session);
+        assertFalse(provider.isAuthenticated(session));
+    }
+
+    @Test
+    public void testDifferentPasswordIsChecked() {
+        assertTrue(provider.authenticate(newSession(), "bob", "secret"));
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertEquals(directory.authentications, 2);
+    }
+
+    @Test
+    public void testBacksOffRepeatedFailures() {
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertEquals(directory.authentications, 1);
+
+        // after the first backoff (1s) it is checked again, and then backed off for twice as long
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertEquals(directory.authentications, 2);
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertEquals(directory.authentications, 2);
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(provider.authenticate(newSession(), "bob", "wrong"));
+        assertEquals(directory.authentications, 3);
+
+        // a failure does not stop the right password being accepted
+        assertTrue(provider.authenticate(newSession(), "bob", "secret"));
+    }
+
+    @Test
+    public void testInvalidateForgetsUser() {
+        directory.passwords.put("alice", "pass");
+        provider.authenticate(newSession(), "bob", "secret");
+        provider.authenticate(newSession(), "alice", "pass");
+
+        directory.passwords.put("bob", "changed");
+        provider.invalidate("bob");
+        assertFalse(provider.authenticate(newSession(), "bob", "secret"));
+        assertTrue(provider.authenticate(newSession(), "bob", "changed"));
+        assertTrue(provider.authenticate(newSession(), "alice", "pass"));
+        assertEquals(directory.authentications, 4);
+    }
+
+    @Test
+    public void testDoesNotRememberAnonymous() {
+        assertFalse(provider.authenticate(newSession(), null, null));
+        assertFalse(provider.authenticate(newSession(), null, null));
+        assertEquals(directory.authentications, 2);
+    }
+
+    private static HttpSession newSession() {
+        final Map<String, Object> attributes = Maps.newHashMap();
+        return (HttpSession) Proxy.newProxyInstance(CachingSecurityProviderTest.class.getClassLoader(), new Class<?>[] { HttpSession.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getAttribute")) return attributes.get(args[0]);
+                        if (method.getName().equals("setAttribute")) return attributes.put((String) args[0], args[1]);
+                        if (method.getName().equals("removeAttribute")) return attributes.remove(args[0]);
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
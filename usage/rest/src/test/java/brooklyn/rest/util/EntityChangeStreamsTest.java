@@ -0,0 +1,79 @@
+package brooklyn.rest.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.proxying.EntitySpecs;
+import brooklyn.rest.domain.EntityChanges;
+import brooklyn.test.Asserts;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+import brooklyn.util.MutableMap;
+
+public class EntityChangeStreamsTest {
+
+    private TestApplication app;
+    private TestEntity entity;
+    private EntityChangeStreams streams;
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        entity = app.createAndManageChild(EntitySpecs.spec(TestEntity.class));
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() throws Exception {
+        if (streams != null) streams.closeAll();
+        if (app != null) Entities.destroy(app);
+    }
+
+    @Test
+    public void testIdleStreamsAreClosedWithoutFurtherRequests() throws Exception {
+        streams = new EntityChangeStreams(100, 50);
+        final EntityChangeStream stream = streams.open(app.getManagementContext(), entity, true, false);
+        stream.poll(0);
+
+        Asserts.succeedsEventually(MutableMap.of("timeout", 10*1000), new Runnable() {
+            public void run() {
+                assertTrue(stream.isClosed());
+                assertEquals(streams.size(), 0);
+            }});
+    }
+
+    @Test
+    public void testUnmanagingEntityClosesStreamAndReturnsPoll() throws Exception {
+        streams = new EntityChangeStreams(60*1000, 50);
+        final EntityChangeStream stream = streams.open(app.getManagementContext(), entity, true, true);
+        stream.poll(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<EntityChanges> poll = executor.submit(new Callable<EntityChanges>() {
+                public EntityChanges call() throws Exception {
+                    return stream.poll(60*1000);
+                }});
+            Entities.unmanage(entity);
+            poll.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(stream.isClosed());
+        Asserts.succeedsEventually(MutableMap.of("timeout", 10*1000), new Runnable() {
+            public void run() {
+                assertEquals(streams.size(), 0);
+            }});
+    }
+}